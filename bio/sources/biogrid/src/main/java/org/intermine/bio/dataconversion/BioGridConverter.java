@@ -29,6 +29,7 @@ import org.apache.log4j.Logger;
 import org.intermine.bio.util.OrganismData;
 import org.intermine.bio.util.OrganismRepository;
 import org.intermine.dataconversion.ItemWriter;
+import org.intermine.dataconversion.RefIdMap;
 import org.intermine.metadata.Model;
 import org.intermine.metadata.StringUtil;
 import org.intermine.objectstore.ObjectStoreException;
@@ -68,11 +69,11 @@ public class BioGridConverter extends BioFileConverter
 {
     private static final Logger LOG = Logger.getLogger(BioGridConverter.class);
     private static final String PROP_FILE = "biogrid_config.properties";
-    private Map<String, String> terms = new HashMap<String, String>();
-    private Map<String, String> pubs = new HashMap<String, String>();
+    private RefIdMap terms = new RefIdMap();
+    private RefIdMap pubs = new RefIdMap();
     private Map<String, String> organisms = new HashMap<String, String>();
     private static final Map<String, String> PSI_TERMS = new HashMap<String, String>();
-    private Map<String, String> genes = new HashMap<String, String>();
+    private RefIdMap genes = new RefIdMap();
     private Map<String, Config> configs = new HashMap<String, Config>();
     private Set<String> taxonIds = null;
     private static final OrganismRepository OR = OrganismRepository.getOrganismRepository();
@@ -236,6 +237,13 @@ public class BioGridConverter extends BioFileConverter
                 }
             }
         }
+        try {
+            terms.close();
+            pubs.close();
+            genes.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -52,6 +52,12 @@ public class ChadoDBConverter extends BioDBConverter
     private Connection connection;
     private String licence;
 
+    // 0 means read each chado table in a single query, otherwise features are read in
+    // feature_id ranges of this size
+    private int chunkSize = 0;
+    private int fetchSize = 10000;
+    private int extractionThreads = 1;
+
 
     /**
      * Create a new ChadoDBConverter object.
@@ -124,6 +130,59 @@ public class ChadoDBConverter extends BioDBConverter
         return licence;
     }
 
+    /**
+     * Set the number of feature_ids to read from chado in each chunk.  If not set (or 0) the
+     * feature table is read with one query.  Only the feature table is read in chunks - the
+     * featureloc, relationship, dbxref, synonym, featureprop, cvterm and pub tables are always
+     * read with one query each.
+     * @param chunkSize the size of the feature_id range to read at a time
+     */
+    public void setChunkSize(String chunkSize) {
+        this.chunkSize = Integer.parseInt(chunkSize.trim());
+    }
+
+    /**
+     * Return the size of the feature_id ranges to read, 0 if chunked reading is disabled.
+     * @return the chunk size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Set the number of rows the JDBC driver fetches per round trip when reading chunks with
+     * a server-side cursor.
+     * @param fetchSize the fetch size
+     */
+    public void setFetchSize(String fetchSize) {
+        this.fetchSize = Integer.parseInt(fetchSize.trim());
+    }
+
+    /**
+     * Return the number of rows to fetch per round trip when reading chunks.
+     * @return the fetch size
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Set the number of threads (and chado connections) used to read chunks in parallel.  Only
+     * used if a chunk size is set.
+     * @param extractionThreads the number of reader threads
+     */
+    public void setExtractionThreads(String extractionThreads) {
+        this.extractionThreads = Integer.parseInt(extractionThreads.trim());
+    }
+
+    /**
+     * Return the number of threads used to read chunks.
+     * @return the number of reader threads
+     */
+    public int getExtractionThreads() {
+        return extractionThreads;
+    }
+
     /**
      * Return a map from chado organism_id to OrganismData object for all the organisms that we
      * are processing
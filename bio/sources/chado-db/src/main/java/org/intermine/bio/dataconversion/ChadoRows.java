@@ -0,0 +1,113 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The rows of a chado query, read either from a single ResultSet or in feature_id chunks by a
+ * FeatureChunkReader, so that the SequenceProcessor passes can process both the same way.  The
+ * getters behave like the ResultSet getters of the same name.
+ */
+interface ChadoRows
+{
+    /**
+     * Move to the next row.
+     * @return false if there are no more rows
+     * @throws SQLException if there is a problem reading the rows
+     */
+    boolean next() throws SQLException;
+
+    /**
+     * Return a column of the current row as an int.
+     * @param column the column label
+     * @return the value, or 0 if it is null
+     * @throws SQLException if there is a problem reading the column
+     */
+    int getInt(String column) throws SQLException;
+
+    /**
+     * Return a column of the current row as a String.
+     * @param column the column label
+     * @return the value, or null
+     * @throws SQLException if there is a problem reading the column
+     */
+    String getString(String column) throws SQLException;
+
+    /**
+     * Return a column of the current row as a boolean.
+     * @param column the column label
+     * @return the value, or false if it is null
+     * @throws SQLException if there is a problem reading the column
+     */
+    boolean getBoolean(String column) throws SQLException;
+
+    /**
+     * Return a column of the current row.
+     * @param column the column label
+     * @return the value, or null
+     * @throws SQLException if there is a problem reading the column
+     */
+    Object getObject(String column) throws SQLException;
+
+    /**
+     * Release the rows and anything used to read them.
+     * @throws SQLException if there is a problem closing the rows
+     */
+    void close() throws SQLException;
+
+    /**
+     * The rows of a ResultSet.
+     */
+    class ResultSetRows implements ChadoRows
+    {
+        private final ResultSet res;
+
+        /**
+         * Create a new ResultSetRows.
+         * @param res the ResultSet to read
+         */
+        ResultSetRows(ResultSet res) {
+            this.res = res;
+        }
+
+        @Override
+        public boolean next() throws SQLException {
+            return res.next();
+        }
+
+        @Override
+        public int getInt(String column) throws SQLException {
+            return res.getInt(column);
+        }
+
+        @Override
+        public String getString(String column) throws SQLException {
+            return res.getString(column);
+        }
+
+        @Override
+        public boolean getBoolean(String column) throws SQLException {
+            return res.getBoolean(column);
+        }
+
+        @Override
+        public Object getObject(String column) throws SQLException {
+            return res.getObject(column);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            res.close();
+        }
+    }
+}
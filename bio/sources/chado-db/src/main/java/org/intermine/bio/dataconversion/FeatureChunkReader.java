@@ -0,0 +1,311 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
+
+/**
+ * Reads the rows of a chado query in feature_id ranges.  Each range is read by a worker thread on
+ * its own connection using a server-side cursor, so several chunks are fetched in parallel while
+ * the caller processes the previous one.  Rows are handed to the caller through a small queue per
+ * chunk, so a worker that gets ahead of the caller waits rather than holding its whole chunk in
+ * memory.  Chunks are always returned in feature_id order so that processing (and item storing)
+ * stays single threaded.
+ */
+class FeatureChunkReader implements ChadoRows
+{
+    private static final Logger LOG = Logger.getLogger(FeatureChunkReader.class);
+
+    // put on a chunk's queue after its last row
+    private static final Object END_OF_CHUNK = new Object();
+
+    private final Database database;
+    private final String query;
+    private final int chunkSize;
+    private final int fetchSize;
+    private final int maxFeatureId;
+    private final ExecutorService threadPool;
+    private final LinkedList<Chunk> pending = new LinkedList<Chunk>();
+    private final int parallelism;
+    private long nextStart;
+    private Row current = null;
+
+    /**
+     * Create a new FeatureChunkReader.
+     * @param database the chado database - each worker takes its own connection from it
+     * @param query the query that reads one chunk, with parameters for the lowest feature_id
+     * (inclusive) and the highest (exclusive).  Rows that must be processed in feature_id order
+     * need to be sorted by the query, as only the chunks are read in order
+     * @param minFeatureId the lowest feature_id to read
+     * @param maxFeatureId the highest feature_id to read
+     * @param chunkSize the number of feature_ids in each range
+     * @param fetchSize the number of rows to fetch per round trip
+     * @param threads the number of chunks to read in parallel
+     */
+    FeatureChunkReader(Database database, String query, int minFeatureId, int maxFeatureId,
+            int chunkSize, int fetchSize, int threads) {
+        this.database = database;
+        this.query = query;
+        this.chunkSize = chunkSize;
+        this.fetchSize = Math.max(1, fetchSize);
+        this.maxFeatureId = maxFeatureId;
+        this.parallelism = Math.max(1, threads);
+        // daemon threads, so that workers left waiting by a failed run don't keep the JVM alive
+        this.threadPool = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FeatureChunkReader worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.nextStart = minFeatureId;
+        for (int i = 0; i < parallelism; i++) {
+            submitNext();
+        }
+    }
+
+    private void submitNext() {
+        if (nextStart > maxFeatureId) {
+            return;
+        }
+        final long start = nextStart;
+        final long end = Math.min(start + chunkSize, (long) maxFeatureId + 1);
+        nextStart = end;
+        final Chunk chunk = new Chunk(fetchSize);
+        chunk.future = threadPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                readChunk((int) start, (int) end, chunk.rows);
+            }
+        });
+        pending.add(chunk);
+    }
+
+    /**
+     * Move to the next row, waiting for it to be read if necessary.
+     * @return false if there are no more rows
+     * @throws SQLException if there is a problem reading the rows
+     */
+    @Override
+    public boolean next() throws SQLException {
+        current = null;
+        while (!pending.isEmpty()) {
+            Object item;
+            try {
+                item = pending.getFirst().rows.take();
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while reading feature chunks", e);
+            }
+            if (item instanceof Row) {
+                current = (Row) item;
+                return true;
+            } else if (item == END_OF_CHUNK) {
+                pending.removeFirst();
+                submitNext();
+            } else {
+                close();
+                Throwable cause = (Throwable) item;
+                if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                }
+                throw new RuntimeException("failed to read feature chunk", cause);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getInt(String column) {
+        Object value = current.get(column);
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    @Override
+    public String getString(String column) {
+        Object value = current.get(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public boolean getBoolean(String column) {
+        Object value = current.get(column);
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        }
+        return value != null && ("t".equals(value) || "true".equals(value));
+    }
+
+    @Override
+    public Object getObject(String column) {
+        return current.get(column);
+    }
+
+    /**
+     * Stop the worker threads, abandoning any chunks that haven't been read.
+     */
+    @Override
+    public void close() {
+        for (Chunk chunk : pending) {
+            chunk.future.cancel(true);
+        }
+        pending.clear();
+        threadPool.shutdownNow();
+    }
+
+    /**
+     * Read one feature_id range and put its rows on the queue, followed by END_OF_CHUNK, or by
+     * the exception if the read fails.
+     */
+    private void readChunk(int start, int end, BlockingQueue<Object> rows) {
+        long chunkStart = System.currentTimeMillis();
+        int count = 0;
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet res = null;
+        try {
+            conn = database.getConnection();
+            // the postgres driver only uses a cursor if autocommit is off and a fetch size is set
+            conn.setAutoCommit(false);
+            stmt = conn.prepareStatement(query);
+            stmt.setFetchSize(fetchSize);
+            stmt.setInt(1, start);
+            stmt.setInt(2, end);
+            res = stmt.executeQuery();
+            ResultSetMetaData metaData = res.getMetaData();
+            int columnCount = metaData.getColumnCount();
+            // shared by the rows of the chunk
+            Map<String, Integer> columns = new HashMap<String, Integer>();
+            for (int i = 1; i <= columnCount; i++) {
+                columns.put(metaData.getColumnLabel(i).toLowerCase(), new Integer(i - 1));
+            }
+            while (res.next()) {
+                Object[] values = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    values[i] = res.getObject(i + 1);
+                }
+                rows.put(new Row(columns, values));
+                count++;
+            }
+            res.close();
+            res = null;
+            stmt.close();
+            stmt = null;
+            conn.commit();
+            rows.put(END_OF_CHUNK);
+        } catch (InterruptedException e) {
+            // the reader has been closed, so nobody is waiting for the rows
+            rollback(conn);
+            return;
+        } catch (Exception e) {
+            rollback(conn);
+            try {
+                // waits for the caller to take the rows before this one
+                rows.put(e);
+            } catch (InterruptedException e2) {
+                // the reader has been closed
+            }
+            return;
+        } finally {
+            close(res, stmt, conn);
+        }
+        LOG.debug("read " + count + " rows with feature_id in [" + start + ", " + end
+                + ") in " + (System.currentTimeMillis() - chunkStart) + " ms");
+    }
+
+    private static void rollback(Connection conn) {
+        if (conn != null) {
+            try {
+                conn.rollback();
+            } catch (SQLException e) {
+                LOG.warn("failed to roll back feature chunk transaction", e);
+            }
+        }
+    }
+
+    private static void close(ResultSet res, PreparedStatement stmt, Connection conn) {
+        try {
+            if (res != null) {
+                res.close();
+            }
+            if (stmt != null) {
+                stmt.close();
+            }
+        } catch (SQLException e) {
+            LOG.warn("failed to close feature chunk query", e);
+        }
+        if (conn != null) {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                LOG.warn("failed to reset autocommit", e);
+            }
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                LOG.warn("failed to close feature chunk connection", e);
+            }
+        }
+    }
+
+    /**
+     * A feature_id range being read, and the queue of its rows.
+     */
+    private static class Chunk
+    {
+        final BlockingQueue<Object> rows;
+        Future<?> future;
+
+        Chunk(int capacity) {
+            rows = new ArrayBlockingQueue<Object>(capacity);
+        }
+    }
+
+    /**
+     * One row of a chunk.
+     */
+    private static class Row
+    {
+        private final Map<String, Integer> columns;
+        private final Object[] values;
+
+        Row(Map<String, Integer> columns, Object[] values) {
+            this.columns = columns;
+            this.values = values;
+        }
+
+        Object get(String column) {
+            Integer index = columns.get(column.toLowerCase());
+            if (index == null) {
+                throw new IllegalArgumentException("no column " + column + " in feature chunk");
+            }
+            return values[index.intValue()];
+        }
+    }
+}
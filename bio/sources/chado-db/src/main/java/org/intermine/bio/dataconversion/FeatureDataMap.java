@@ -0,0 +1,249 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A Map from chado feature_id to FeatureData that keys on primitive ints.  A HashMap holding
+ * every feature of a FlyBase-sized chado spends more memory on Integer keys and entry objects
+ * than on the FeatureData themselves, so this map keeps the keys in an open-addressed int array
+ * with the values in a parallel array.  Removal is not supported - features are only ever added
+ * during processing.
+ */
+class FeatureDataMap extends AbstractMap<Integer, FeatureData>
+{
+    private static final int FREE = 0;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    // chado feature_ids are serial primary keys so 0 is never a valid id and can mark free slots
+    private int[] keys;
+    private FeatureData[] values;
+    private int size = 0;
+    private int threshold;
+    private int modCount = 0;
+
+    private Set<Map.Entry<Integer, FeatureData>> entrySet = null;
+
+    /**
+     * Create a new, empty FeatureDataMap.
+     */
+    FeatureDataMap() {
+        this(1024);
+    }
+
+    /**
+     * Create a new, empty FeatureDataMap sized for the given number of features.
+     * @param expectedSize the number of features expected
+     */
+    FeatureDataMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new FeatureData[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the FeatureData for the given chado feature_id.
+     * @param featureId the feature_id
+     * @return the FeatureData or null if there isn't one
+     */
+    public FeatureData get(int featureId) {
+        int i = indexOf(featureId);
+        return i < 0 ? null : values[i];
+    }
+
+    /**
+     * Add a FeatureData for the given chado feature_id, replacing any existing value.
+     * @param featureId the feature_id
+     * @param fdat the FeatureData
+     * @return the previous FeatureData for the feature_id, or null
+     */
+    public FeatureData put(int featureId, FeatureData fdat) {
+        if (featureId == FREE) {
+            throw new IllegalArgumentException("feature_id 0 can't be stored in a FeatureDataMap");
+        }
+        if (fdat == null) {
+            throw new IllegalArgumentException("null FeatureData for feature_id " + featureId);
+        }
+        int mask = keys.length - 1;
+        int i = mix(featureId) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == featureId) {
+                FeatureData old = values[i];
+                values[i] = fdat;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = featureId;
+        values[i] = fdat;
+        size++;
+        modCount++;
+        if (size > threshold) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        FeatureData[] oldValues = values;
+        allocate(newCapacity);
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != FREE) {
+                int i = mix(oldKeys[j]) & mask;
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData get(Object key) {
+        if (key instanceof Integer) {
+            return get(((Integer) key).intValue());
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return (key instanceof Integer) && indexOf(((Integer) key).intValue()) >= 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData put(Integer key, FeatureData value) {
+        return put(key.intValue(), value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, null);
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Map.Entry<Integer, FeatureData>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<Integer, FeatureData>>() {
+                @Override
+                public Iterator<Map.Entry<Integer, FeatureData>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<Integer, FeatureData>>
+    {
+        private final int expectedModCount = modCount;
+        private int next = advance(0);
+
+        private int advance(int from) {
+            int i = from;
+            while (i < keys.length && keys[i] == FREE) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < keys.length;
+        }
+
+        @Override
+        public Map.Entry<Integer, FeatureData> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final int i = next;
+            next = advance(i + 1);
+            return new AbstractMap.SimpleImmutableEntry<Integer, FeatureData>(
+                    new Integer(keys[i]), values[i]);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("FeatureDataMap doesn't support removal");
+        }
+    }
+}
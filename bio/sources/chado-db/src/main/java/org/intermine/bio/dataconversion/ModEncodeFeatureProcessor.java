@@ -160,6 +160,16 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                 + " OR feature_id IN ( SELECT feature_id "
                 + " FROM " + SUBFEATUREID_TEMP_TABLE_NAME + " ) ";
     }
+
+    /**
+     * {@inheritDoc}
+     * The extra feature constraint uses a temporary table, which the connections that read chunks
+     * can't see.
+     */
+    @Override
+    protected boolean supportsChunkedRead() {
+        return false;
+    }
     /**
      * {@inheritDoc}
      */
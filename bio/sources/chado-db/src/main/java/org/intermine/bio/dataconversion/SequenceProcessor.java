@@ -23,6 +23,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.Map.Entry;
 
 import org.apache.commons.collections.keyvalue.MultiKey;
@@ -61,7 +62,7 @@ public class SequenceProcessor extends ChadoProcessor
 
     // a map from chado feature id to FeatureData objects, populated by processFeatureTable()
     // and used to get object types, Item IDs etc. (see FeatureData)
-    protected Map<Integer, FeatureData> featureMap = new HashMap<Integer, FeatureData>();
+    protected Map<Integer, FeatureData> featureMap = new FeatureDataMap();
 
     // we don't configure anything by default, so the process methods do their default actions
     private static final MultiKeyMap DEFAULT_CONFIG = new MultiKeyMap();
@@ -75,6 +76,11 @@ public class SequenceProcessor extends ChadoProcessor
 
     // the name of the temporary table we create from the feature table to speed up processing
     private String tempFeatureTableName = null;
+    // true from when createFeatureTempTable() has made the table until it is dropped
+    private boolean tempFeatureTableCreated = false;
+    // the feature_ids of the feature table, set by processFeatureTable() when reading in chunks
+    private int minChunkFeatureId = 1;
+    private int maxChunkFeatureId = 0;
 
     // a list of the possible names for the part_of relation
     private static final List<String> PARTOF_RELATIONS = Arrays.asList("partof", "part_of");
@@ -158,34 +164,44 @@ public class SequenceProcessor extends ChadoProcessor
         // overridden by subclasses if necessary
         earlyExtraProcessing(connection);
 
-        createFeatureTempTable(connection);
-
-        processFeatureTable(connection);
-        processFeatureCVTermTable(connection);
-        processPubTable(connection);
-
-        // process direct locations
-        ResultSet directLocRes = getFeatureLocResultSet(connection);
-
-        // we don't call getFeatureLocResultSet() in the processLocationTable() method because
-        // processLocationTable() is called by subclasses to create locations
-        processLocationTable(connection, directLocRes);
-
-        processRelationTable(connection, true);
-        processRelationTable(connection, false);
-        processDbxrefTable(connection);
-        processSynonymTable(connection);
-        processFeaturePropTable(connection);
-        /**
-          see #2173
-          processLibraryFeatureTable(connection);
-          processLibraryCVTermTable(connection);
-         */
+        try {
+            createFeatureTempTable(connection);
+            processFeatureTable(connection);
+            processFeatureCVTermTable(connection);
+            processPubTable(connection);
+
+            // process direct locations
+            // we don't call getFeatureLocResultSet() in the processLocationTable() method because
+            // processLocationTable() is called by subclasses to create locations
+            if (isReadInChunks()) {
+                processLocationRows(readInChunks(getFeatureLocQuery(true)));
+            } else {
+                processLocationTable(connection, getFeatureLocResultSet(connection));
+            }
 
-        // overridden by subclasses if necessary
-        extraProcessing(connection, featureMap);
-        // overridden by subclasses if necessary
-        finishedProcessing(connection, featureMap);
+            processRelationTable(connection, true);
+            processRelationTable(connection, false);
+            processDbxrefTable(connection);
+            processSynonymTable(connection);
+            processFeaturePropTable(connection);
+            /**
+              see #2173
+              processLibraryFeatureTable(connection);
+              processLibraryCVTermTable(connection);
+             */
+
+            // overridden by subclasses if necessary
+            extraProcessing(connection, featureMap);
+            // overridden by subclasses if necessary
+            finishedProcessing(connection, featureMap);
+        } finally {
+            // in chunk mode the table is a normal table, which would outlive a failed run
+            try {
+                dropFeatureTempTable(connection);
+            } catch (SQLException e) {
+                LOG.error("failed to drop " + tempFeatureTableName, e);
+            }
+        }
     }
 
     /**
@@ -197,10 +213,19 @@ public class SequenceProcessor extends ChadoProcessor
      */
     private void processFeatureTable(Connection connection)
         throws SQLException, ObjectStoreException {
+        long startTime = System.currentTimeMillis();
         Set<String> chromosomeFeatureTypesSet = new HashSet<String>(getChromosomeFeatureTypes());
-        ResultSet res = getFeatureTableResultSet(connection);
+        ChadoRows res;
+        if (isReadInChunks()) {
+            readChunkFeatureIdRange(connection);
+            res = readInChunks(getFeatureTableChunkQuery());
+        } else {
+            res = new ChadoRows.ResultSetRows(getFeatureTableResultSet(connection));
+        }
         int count = 0;
+        int rowCount = 0;
         while (res.next()) {
+            rowCount++;
             Integer featureId = new Integer(res.getInt("feature_id"));
             String name = res.getString("name");
             String uniqueName = res.getString("uniquename");
@@ -222,6 +247,102 @@ public class SequenceProcessor extends ChadoProcessor
         }
         LOG.info("created " + count + " features");
         res.close();
+        logThroughput("feature", rowCount, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Find the range of feature_ids in the feature table, which the passes that are read in chunks
+     * walk through.
+     */
+    private void readChunkFeatureIdRange(Connection connection) throws SQLException {
+        String rangeQuery = "SELECT min(feature_id) AS min_id, max(feature_id) AS max_id FROM "
+                + tempFeatureTableName;
+        LOG.info("executing: " + rangeQuery);
+        Statement stmt = connection.createStatement();
+        ResultSet rangeRes = stmt.executeQuery(rangeQuery);
+        rangeRes.next();
+        minChunkFeatureId = rangeRes.getInt("min_id");
+        if (rangeRes.wasNull()) {
+            // no features, so there are no chunks to read
+            minChunkFeatureId = 1;
+            maxChunkFeatureId = 0;
+        } else {
+            maxChunkFeatureId = rangeRes.getInt("max_id");
+        }
+        rangeRes.close();
+        stmt.close();
+    }
+
+    /**
+     * Read the rows of a query in feature_id ranges, several ranges at a time on separate
+     * connections.
+     * @param query the query, with parameters for the lowest feature_id (inclusive) and the
+     * highest (exclusive)
+     * @return the rows, in the order of the ranges
+     */
+    private ChadoRows readInChunks(String query) {
+        ChadoDBConverter converter = getChadoDBConverter();
+        LOG.info("executing in chunks of " + converter.getChunkSize() + " feature_ids: " + query);
+        return new FeatureChunkReader(getDatabase(), query, minChunkFeatureId, maxChunkFeatureId,
+                converter.getChunkSize(), converter.getFetchSize(),
+                converter.getExtractionThreads());
+    }
+
+    /**
+     * Return true if the feature, featureloc, feature_cvterm, pub, dbxref, synonym and featureprop
+     * passes should be read in chunks.  This is the case if a chunk size is set and
+     * supportsChunkedRead() returns true.
+     * @return true if chunked reading is configured and possible
+     */
+    protected boolean isReadInChunks() {
+        return getChadoDBConverter().getChunkSize() > 0 && getDatabase() != null
+            && supportsChunkedRead();
+    }
+
+    /**
+     * Return true if this processor can read in chunks.  Chunks are read with
+     * getFeatureTableChunkQuery() and the SequenceProcessor queries for the other passes, on other
+     * connections, so a subclass that overrides one of the get...ResultSet() methods for those
+     * passes, or whose getExtraFeatureConstraint() uses a temporary table, must return false.
+     * @return true if the passes may be read in chunks
+     */
+    protected boolean supportsChunkedRead() {
+        return true;
+    }
+
+    /**
+     * Return the query used to read one chunk of the feature table when a chunk size is set.  It
+     * has parameters for the lowest feature_id (inclusive) and the highest (exclusive), and must
+     * return the same columns as getFeatureTableResultSet(), in feature_id order.  It is run on
+     * other connections, so may only use tables that those connections can see.
+     * @return the SQL
+     */
+    protected String getFeatureTableChunkQuery() {
+        return "SELECT * FROM " + tempFeatureTableName
+            + " WHERE feature_id >= ? AND feature_id < ? ORDER BY feature_id";
+    }
+
+    /**
+     * Return the constraint that restricts a query to one chunk of feature_ids, or nothing if the
+     * query isn't read in chunks.
+     */
+    private static String chunkRange(boolean chunk, String featureIdColumn) {
+        if (!chunk) {
+            return "";
+        }
+        return " AND " + featureIdColumn + " >= ? AND " + featureIdColumn + " < ?";
+    }
+
+    /**
+     * Log the number of rows read from a chado table and the rate they were processed at.
+     * @param tableName the table
+     * @param rowCount the number of rows read
+     * @param elapsed the time taken in milliseconds
+     */
+    protected void logThroughput(String tableName, long rowCount, long elapsed) {
+        long rate = elapsed > 0 ? (rowCount * 1000L) / elapsed : rowCount;
+        LOG.info("processed " + rowCount + " rows from the " + tableName + " table in "
+                + elapsed + " ms (" + rate + " rows/second)");
     }
 
 
@@ -593,12 +714,26 @@ public class SequenceProcessor extends ChadoProcessor
     protected void finishedProcessing(Connection connection,
             Map<Integer, FeatureData> featureDataMap)
         throws SQLException {
+        dropFeatureTempTable(connection);
+    }
+
+    /**
+     * Drop the table made by createFeatureTempTable(), if it still exists.
+     * @param connection the Connection
+     * @throws SQLException if there is a problem
+     */
+    private void dropFeatureTempTable(Connection connection) throws SQLException {
         // connection will be null for tests
-        if (connection != null) {
+        if (connection != null && tempFeatureTableCreated) {
+            tempFeatureTableCreated = false;
             String query = "DROP TABLE " + tempFeatureTableName;
             Statement stmt = connection.createStatement();
-            LOG.info("executing: " + query);
-            stmt.execute(query);
+            try {
+                LOG.info("executing: " + query);
+                stmt.execute(query);
+            } finally {
+                stmt.close();
+            }
         }
     }
 
@@ -612,9 +747,17 @@ public class SequenceProcessor extends ChadoProcessor
      */
     protected void processLocationTable(Connection connection, ResultSet res)
         throws SQLException, ObjectStoreException {
+        processLocationRows(new ChadoRows.ResultSetRows(res));
+    }
+
+    private void processLocationRows(ChadoRows res)
+        throws SQLException, ObjectStoreException {
+        long startTime = System.currentTimeMillis();
+        int rowCount = 0;
         int count = 0;
         int featureWarnings = 0;
         while (res.next()) {
+            rowCount++;
             Integer featureLocId = new Integer(res.getInt("featureloc_id"));
             Integer featureId = new Integer(res.getInt("feature_id"));
             Integer srcFeatureId = new Integer(res.getInt("srcfeature_id"));
@@ -691,6 +834,7 @@ public class SequenceProcessor extends ChadoProcessor
         }
         LOG.info("created " + count + " locations");
         res.close();
+        logThroughput("featureloc", rowCount, System.currentTimeMillis() - startTime);
     }
 
     /**
@@ -720,6 +864,8 @@ public class SequenceProcessor extends ChadoProcessor
      */
     private void processRelationTable(Connection connection, boolean subjectFirst)
         throws SQLException, ObjectStoreException {
+        long startTime = System.currentTimeMillis();
+        int rowCount = 0;
         ResultSet res = getFeatureRelationshipResultSet(connection, subjectFirst);
         Integer lastSubjectId = null;
 
@@ -732,6 +878,7 @@ public class SequenceProcessor extends ChadoProcessor
         int count = 0;
         int collectionTotal = 0;
         while (res.next()) {
+            rowCount++;
             Integer featRelationshipId = new Integer(res.getInt("feature_relationship_id"));
             Integer firstFeature1Id = new Integer(res.getInt("feature1_id"));
             Integer secondFeatureId = new Integer(res.getInt("feature2_id"));
@@ -810,6 +957,7 @@ public class SequenceProcessor extends ChadoProcessor
         LOG.info("processed " + count + " relations");
         LOG.info("total collection elements created: " + collectionTotal);
         res.close();
+        logThroughput("feature_relationship", rowCount, System.currentTimeMillis() - startTime);
     }
 
     /**
@@ -1013,13 +1161,21 @@ public class SequenceProcessor extends ChadoProcessor
     @SuppressWarnings("boxing")
     private void processDbxrefTable(Connection connection)
         throws SQLException, ObjectStoreException {
+        long startTime = System.currentTimeMillis();
+        int rowCount = 0;
 
-        ResultSet res = getDbxrefResultSet(connection);
+        ChadoRows res;
+        if (isReadInChunks()) {
+            res = readInChunks(getDbxrefQuery(true));
+        } else {
+            res = new ChadoRows.ResultSetRows(getDbxrefResultSet(connection));
+        }
         Set<String> existingAttributes = new HashSet<String>();
         Integer currentFeatureId = null;
         int count = 0;
 
         while (res.next()) {
+            rowCount++;
             Integer featureId = new Integer(res.getInt("feature_id"));
             String accession = res.getString("accession");
             String dbName = res.getString("db_name");
@@ -1097,13 +1253,22 @@ public class SequenceProcessor extends ChadoProcessor
 
         LOG.info("created " + count + " synonyms from the dbxref table");
         res.close();
+        logThroughput("feature_dbxref", rowCount, System.currentTimeMillis() - startTime);
     }
 
     private void processFeaturePropTable(Connection connection)
         throws SQLException, ObjectStoreException {
-        ResultSet res = getFeaturePropResultSet(connection);
+        long startTime = System.currentTimeMillis();
+        int rowCount = 0;
+        ChadoRows res;
+        if (isReadInChunks()) {
+            res = readInChunks(getFeaturePropQuery(true));
+        } else {
+            res = new ChadoRows.ResultSetRows(getFeaturePropResultSet(connection));
+        }
         int count = 0;
         while (res.next()) {
+            rowCount++;
             Integer featureId = new Integer(res.getInt("feature_id"));
             String identifier = res.getString("value");
 
@@ -1164,6 +1329,7 @@ public class SequenceProcessor extends ChadoProcessor
         }
         LOG.info("created " + count + " synonyms from the featureprop table");
         res.close();
+        logThroughput("featureprop", rowCount, System.currentTimeMillis() - startTime);
     }
 
     /**
@@ -1281,7 +1447,14 @@ public class SequenceProcessor extends ChadoProcessor
      */
     private void processFeatureCVTermTable(Connection connection)
         throws SQLException, ObjectStoreException {
-        ResultSet res = getFeatureCVTermResultSet(connection);
+        long startTime = System.currentTimeMillis();
+        int rowCount = 0;
+        ChadoRows res;
+        if (isReadInChunks()) {
+            res = readInChunks(getFeatureCVTermQuery(true));
+        } else {
+            res = new ChadoRows.ResultSetRows(getFeatureCVTermResultSet(connection));
+        }
         int count = 0;
         Integer previousFeatureId = null;
 
@@ -1290,6 +1463,7 @@ public class SequenceProcessor extends ChadoProcessor
         Map<String, List<Item>> dataMap = new HashMap<String, List<Item>>();
 
         while (res.next()) {
+            rowCount++;
             Integer featureId = new Integer(res.getInt("feature_id"));
             String cvtermName = res.getString("cvterm_name");
             String cvName = res.getString("cv_name");
@@ -1393,6 +1567,7 @@ public class SequenceProcessor extends ChadoProcessor
 
         LOG.info("created " + count + " synonyms from the feature_cvterm table");
         res.close();
+        logThroughput("feature_cvterm", rowCount, System.currentTimeMillis() - startTime);
     }
 
 
@@ -1444,11 +1619,19 @@ public class SequenceProcessor extends ChadoProcessor
     @SuppressWarnings("boxing")
     private void processSynonymTable(Connection connection)
         throws SQLException, ObjectStoreException {
-        ResultSet res = getSynonymResultSet(connection);
+        long startTime = System.currentTimeMillis();
+        int rowCount = 0;
+        ChadoRows res;
+        if (isReadInChunks()) {
+            res = readInChunks(getSynonymQuery(true));
+        } else {
+            res = new ChadoRows.ResultSetRows(getSynonymResultSet(connection));
+        }
         Set<String> existingAttributes = new HashSet<String>();
         Integer currentFeatureId = null;
         int count = 0;
         while (res.next()) {
+            rowCount++;
             Integer featureId = new Integer(res.getInt("feature_id"));
             String identifier = res.getString("synonym_name");
             String synonymTypeName = res.getString("type_name");
@@ -1532,6 +1715,7 @@ public class SequenceProcessor extends ChadoProcessor
 
         LOG.info("created " + count + " synonyms from the synonym table");
         res.close();
+        logThroughput("feature_synonym", rowCount, System.currentTimeMillis() - startTime);
     }
 
     /**
@@ -1559,7 +1743,14 @@ public class SequenceProcessor extends ChadoProcessor
 
     private void processPubTable(Connection connection)
         throws SQLException, ObjectStoreException {
-        ResultSet res = getPubResultSet(connection);
+        long startTime = System.currentTimeMillis();
+        int rowCount = 0;
+        ChadoRows res;
+        if (isReadInChunks()) {
+            res = readInChunks(getPubQuery(true));
+        } else {
+            res = new ChadoRows.ResultSetRows(getPubResultSet(connection));
+        }
 
         List<String> currentPublicationIds = new ArrayList<String>();
         Integer lastPubFeatureId = null;
@@ -1567,6 +1758,7 @@ public class SequenceProcessor extends ChadoProcessor
         int count = 0;
 
         while (res.next()) {
+            rowCount++;
             Integer featureId = new Integer(res.getInt("feature_id"));
             if (!featureMap.containsKey(featureId)) {
                 if (featureWarnings <= 20) {
@@ -1596,6 +1788,7 @@ public class SequenceProcessor extends ChadoProcessor
         }
         LOG.info("Created " + count + " publications");
         res.close();
+        logThroughput("feature_pub", rowCount, System.currentTimeMillis() - startTime);
     }
 
     /**
@@ -1690,8 +1883,10 @@ public class SequenceProcessor extends ChadoProcessor
     /**
      * Create a temporary table containing only the features that interest us.  Also create indexes
      * for the type and feature_id columns.
-     * The table is used in later queries.  This is a protected method so that it can be overridden
-     * for testing.
+     * The table is used in later queries.  When reading features in chunks the table is a normal
+     * table with a name unique to this run, so that the reader threads, which use their own
+     * connections, can see it.  process() drops it even if processing fails.
+     * This is a protected method so that it can be overridden for testing.
      * @param connection the Connection
      * @throws SQLException if there is a problem
      */
@@ -1705,8 +1900,17 @@ public class SequenceProcessor extends ChadoProcessor
             orgConstraintForQuery = " AND " + organismConstraint;
         }
 
+        Statement stmt = connection.createStatement();
+        String tableType = "TEMPORARY TABLE ";
+        if (isReadInChunks()) {
+            // a normal table is shared by every run against this chado database, so the name
+            // must be unique to this run and not just to this JVM
+            tableType = "TABLE ";
+            tempFeatureTableName = TEMP_FEATURE_TABLE_NAME_PREFIX + "_"
+                + UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+        }
         String query =
-                "CREATE TEMPORARY TABLE " + tempFeatureTableName + " AS"
+                "CREATE " + tableType + tempFeatureTableName + " AS"
                         + " SELECT feature_id, feature.name, uniquename, cvterm.name as type,"
                         + " seqlen, is_analysis, residues, md5checksum, organism_id"
                         + " FROM feature, cvterm"
@@ -1717,9 +1921,9 @@ public class SequenceProcessor extends ChadoProcessor
                         + (getExtraFeatureConstraint() != null
                         ? " AND (" + getExtraFeatureConstraint() + ")"
                                 : "");
-        Statement stmt = connection.createStatement();
         LOG.info("executing createFeatureTempTable(): " + query);
         stmt.execute(query);
+        tempFeatureTableCreated = true;
         String idIndexQuery = "CREATE INDEX " + tempFeatureTableName + "_feature_index ON "
                 + tempFeatureTableName + "(feature_id)";
         LOG.info("executing: " + idIndexQuery);
@@ -1866,23 +2070,31 @@ public class SequenceProcessor extends ChadoProcessor
      * @throws SQLException if a database problem occurs
      */
     protected ResultSet getFeatureLocResultSet(Connection connection) throws SQLException {
-        String query =
-                "SELECT featureloc_id, feature_id, srcfeature_id, fmin, is_fmin_partial,"
-                        + " fmax, is_fmax_partial, strand"
-                        + " FROM featureloc"
-                        + " WHERE feature_id IN"
-                        + " (" + getFeatureIdQuery() + ")"
-                        + " AND feature_id NOT IN"
-                        + " (" + getChromosomeFeatureIdQuery() + ")"
-                        + " AND srcfeature_id IN"
-                        + " (" + getChromosomeFeatureIdQuery() + ")"
-                        + " AND locgroup = 0";
+        String query = getFeatureLocQuery(false);
         LOG.info("executing getFeatureLocResultSet(): " + query);
         Statement stmt = connection.createStatement();
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
 
+    /**
+     * Return the query for getFeatureLocResultSet(), or the query for one chunk of it.
+     */
+    private String getFeatureLocQuery(boolean chunk) {
+        return
+                "SELECT featureloc_id, feature_id, srcfeature_id, fmin, is_fmin_partial,"
+                + " fmax, is_fmax_partial, strand"
+                + " FROM featureloc"
+                + " WHERE feature_id IN"
+                + " (" + getFeatureIdQuery() + ")"
+                + " AND feature_id NOT IN"
+                + " (" + getChromosomeFeatureIdQuery() + ")"
+                + " AND srcfeature_id IN"
+                + " (" + getChromosomeFeatureIdQuery() + ")"
+                + " AND locgroup = 0"
+                + chunkRange(chunk, "feature_id");
+    }
+
 
     /**
      * Return the interesting matches from the featureloc and feature tables.
@@ -1931,20 +2143,29 @@ public class SequenceProcessor extends ChadoProcessor
      * @throws SQLException if a database problem occurs
      */
     protected ResultSet getDbxrefResultSet(Connection connection) throws SQLException {
-        String query =
-                "SELECT feature.feature_id, accession, db.name AS db_name, is_current"
-                        + "  FROM dbxref, feature_dbxref, feature, db"
-                        + "  WHERE feature_dbxref.dbxref_id = dbxref.dbxref_id "
-                        + "    AND feature_dbxref.feature_id = feature.feature_id "
-                        + "    AND feature.feature_id IN"
-                        + "        (" + getFeatureIdQuery() + ")"
-                        + "    AND dbxref.db_id = db.db_id";
+        String query = getDbxrefQuery(false);
         LOG.info("executing getDbxrefResultSet(): " + query);
         Statement stmt = connection.createStatement();
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
 
+    /**
+     * Return the query for getDbxrefResultSet(), or the query for one chunk of it.
+     */
+    private String getDbxrefQuery(boolean chunk) {
+        return
+                "SELECT feature.feature_id, accession, db.name AS db_name, is_current"
+                + "  FROM dbxref, feature_dbxref, feature, db"
+                + "  WHERE feature_dbxref.dbxref_id = dbxref.dbxref_id "
+                + "    AND feature_dbxref.feature_id = feature.feature_id "
+                + "    AND feature.feature_id IN"
+                + "        (" + getFeatureIdQuery() + ")"
+                + "    AND dbxref.db_id = db.db_id"
+                + chunkRange(chunk, "feature.feature_id")
+                + (chunk ? "  ORDER BY feature.feature_id" : "");
+    }
+
     /**
      * Return the interesting rows from the featureprop table.
      * This is a protected method so that it can be overridden for testing
@@ -1953,16 +2174,24 @@ public class SequenceProcessor extends ChadoProcessor
      * @throws SQLException if a database problem occurs
      */
     protected ResultSet getFeaturePropResultSet(Connection connection) throws SQLException {
-        String query =
-                "select feature_id, value, cvterm.name AS type_name FROM featureprop, cvterm"
-                        + "   WHERE featureprop.type_id = cvterm.cvterm_id"
-                        + "       AND feature_id IN (" + getFeatureIdQuery() + ")";
+        String query = getFeaturePropQuery(false);
         LOG.info("executing getFeaturePropResultSet(): " + query);
         Statement stmt = connection.createStatement();
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
 
+    /**
+     * Return the query for getFeaturePropResultSet(), or the query for one chunk of it.
+     */
+    private String getFeaturePropQuery(boolean chunk) {
+        return
+                "select feature_id, value, cvterm.name AS type_name FROM featureprop, cvterm"
+                + "   WHERE featureprop.type_id = cvterm.cvterm_id"
+                + "       AND feature_id IN (" + getFeatureIdQuery() + ")"
+                + chunkRange(chunk, "feature_id");
+    }
+
     //    SELECT fp.value
     //    FROM feature f, featureprop fp, cvterm cvt
     //    WHERE f.feature_id = fp.feature_id AND fp.type_id = cvt.cvterm_id AND
@@ -2025,20 +2254,28 @@ public class SequenceProcessor extends ChadoProcessor
      * @throws SQLException if a database problem occurs
      */
     protected ResultSet getFeatureCVTermResultSet(Connection connection) throws SQLException {
-        String query =
-                "SELECT DISTINCT feature_id, cvterm.cvterm_id, cvterm.name AS cvterm_name,"
-                        + " cv.name AS cv_name "
-                        + " FROM feature_cvterm, cvterm, cv "
-                        + " WHERE feature_id IN (" + getFeatureIdQuery() + ")"
-                        + " AND cvterm.cvterm_id = feature_cvterm.cvterm_id "
-                        + " AND cvterm.cv_id = cv.cv_id "
-                        + " ORDER BY feature_id";
+        String query = getFeatureCVTermQuery(false);
         LOG.info("executing getFeatureCVTermResultSet(): " + query);
         Statement stmt = connection.createStatement();
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
 
+    /**
+     * Return the query for getFeatureCVTermResultSet(), or the query for one chunk of it.
+     */
+    private String getFeatureCVTermQuery(boolean chunk) {
+        return
+                "SELECT DISTINCT feature_id, cvterm.cvterm_id, cvterm.name AS cvterm_name,"
+                + " cv.name AS cv_name "
+                + " FROM feature_cvterm, cvterm, cv "
+                + " WHERE feature_id IN (" + getFeatureIdQuery() + ")"
+                + " AND cvterm.cvterm_id = feature_cvterm.cvterm_id "
+                + " AND cvterm.cv_id = cv.cv_id "
+                + chunkRange(chunk, "feature_id")
+                + " ORDER BY feature_id";
+    }
+
     /**
      * Return the interesting rows from the synonym table.
      * This is a protected method so that it can be overridden for testing
@@ -2047,20 +2284,29 @@ public class SequenceProcessor extends ChadoProcessor
      * @throws SQLException if a database problem occurs
      */
     protected ResultSet getSynonymResultSet(Connection connection) throws SQLException {
-        String query =
-                "SELECT DISTINCT feature_id, synonym.name AS synonym_name,"
-                        + " cvterm.name AS type_name, is_current"
-                        + " FROM feature_synonym, synonym, cvterm"
-                        + " WHERE feature_synonym.synonym_id = synonym.synonym_id"
-                        + " AND synonym.type_id = cvterm.cvterm_id"
-                        + " AND feature_id IN (" + getFeatureIdQuery() + ")"
-                        + " ORDER BY is_current DESC";
+        String query = getSynonymQuery(false);
         LOG.info("executing getSynonymResultSet(): " + query);
         Statement stmt = connection.createStatement();
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
 
+    /**
+     * Return the query for getSynonymResultSet(), or the query for one chunk of it.
+     */
+    private String getSynonymQuery(boolean chunk) {
+        return
+                "SELECT DISTINCT feature_id, synonym.name AS synonym_name,"
+                + " cvterm.name AS type_name, is_current"
+                + " FROM feature_synonym, synonym, cvterm"
+                + " WHERE feature_synonym.synonym_id = synonym.synonym_id"
+                + " AND synonym.type_id = cvterm.cvterm_id"
+                + " AND feature_id IN (" + getFeatureIdQuery() + ")"
+                + chunkRange(chunk, "feature_id")
+                + (chunk ? " ORDER BY feature_id, is_current DESC"
+                        : " ORDER BY is_current DESC");
+    }
+
     /**
      * Return the interesting rows from the pub table.
      * This is a protected method so that it can be overridden for testing
@@ -2069,22 +2315,30 @@ public class SequenceProcessor extends ChadoProcessor
      * @throws SQLException if a database problem occurs
      */
     protected ResultSet getPubResultSet(Connection connection) throws SQLException {
-        String query =
-                "SELECT DISTINCT feature_pub.feature_id, dbxref.accession as pub_db_identifier"
-                        + " FROM feature_pub, dbxref, db, pub, pub_dbxref"
-                        + " WHERE feature_pub.pub_id = pub.pub_id"
-                        + " AND pub_dbxref.dbxref_id = dbxref.dbxref_id"
-                        + " AND dbxref.db_id = db.db_id"
-                        + " AND pub.pub_id = pub_dbxref.pub_id"
-                        + " AND db.name = 'pubmed'"
-                        + " AND feature_id IN (" + getFeatureIdQuery() + ")"
-                        + " ORDER BY feature_pub.feature_id";
+        String query = getPubQuery(false);
         LOG.info("executing getPubResultSet(): " + query);
         Statement stmt = connection.createStatement();
         ResultSet res = stmt.executeQuery(query);
         return res;
     }
 
+    /**
+     * Return the query for getPubResultSet(), or the query for one chunk of it.
+     */
+    private String getPubQuery(boolean chunk) {
+        return
+                "SELECT DISTINCT feature_pub.feature_id, dbxref.accession as pub_db_identifier"
+                + " FROM feature_pub, dbxref, db, pub, pub_dbxref"
+                + " WHERE feature_pub.pub_id = pub.pub_id"
+                + " AND pub_dbxref.dbxref_id = dbxref.dbxref_id"
+                + " AND dbxref.db_id = db.db_id"
+                + " AND pub.pub_id = pub_dbxref.pub_id"
+                + " AND db.name = 'pubmed'"
+                + " AND feature_id IN (" + getFeatureIdQuery() + ")"
+                + chunkRange(chunk, "feature_pub.feature_id")
+                + " ORDER BY feature_pub.feature_id";
+    }
+
     /**
      * Call DataConverter.createSynonym(), store the Item then record in FeatureData that we've
      * created it.
@@ -0,0 +1,71 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for FeatureDataMap.
+ */
+public class FeatureDataMapTest extends TestCase
+{
+    public void testPutAndGet() {
+        FeatureDataMap map = new FeatureDataMap(4);
+        Map<Integer, FeatureData> expected = new HashMap<Integer, FeatureData>();
+        for (int i = 1; i <= 5000; i++) {
+            FeatureData fdat = new FeatureData();
+            fdat.setUniqueName("FBgn" + i);
+            int featureId = i * 7919;
+            assertNull(map.put(new Integer(featureId), fdat));
+            expected.put(new Integer(featureId), fdat);
+        }
+        assertEquals(5000, map.size());
+        assertEquals(expected, map);
+        assertTrue(map.containsKey(new Integer(7919)));
+        assertFalse(map.containsKey(new Integer(7920)));
+        assertNull(map.get(new Integer(7920)));
+        assertNull(map.get("7919"));
+        assertEquals("FBgn2", map.get(2 * 7919).getUniqueName());
+    }
+
+    public void testReplace() {
+        FeatureDataMap map = new FeatureDataMap();
+        FeatureData first = new FeatureData();
+        FeatureData second = new FeatureData();
+        map.put(new Integer(42), first);
+        assertSame(first, map.put(new Integer(42), second));
+        assertSame(second, map.get(new Integer(42)));
+        assertEquals(1, map.size());
+    }
+
+    public void testZeroKey() {
+        FeatureDataMap map = new FeatureDataMap();
+        try {
+            map.put(new Integer(0), new FeatureData());
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testPutAll() {
+        Map<Integer, FeatureData> initial = new HashMap<Integer, FeatureData>();
+        initial.put(new Integer(1), new FeatureData());
+        initial.put(new Integer(2), new FeatureData());
+        FeatureDataMap map = new FeatureDataMap();
+        map.putAll(initial);
+        assertEquals(initial, map);
+        assertEquals(initial.keySet(), map.keySet());
+    }
+}
@@ -61,6 +61,14 @@ public class TestFlyBaseProcessor extends FlyBaseProcessor
     protected void createLocatedGenesTempTable(Connection connection) throws SQLException {
         // empty
     }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean supportsChunkedRead() {
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -32,6 +32,7 @@ import java.util.Set;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.intermine.dataconversion.ItemWriter;
+import org.intermine.dataconversion.RefIdMap;
 import org.intermine.metadata.Model;
 import org.intermine.metadata.StringUtil;
 import org.intermine.metadata.TypeUtil;
@@ -60,11 +61,11 @@ public class GoConverter extends BioFileConverter
     private static final Map<String, String> WITH_TYPES = new LinkedHashMap<String, String>();
 
     // maps retained across all files
-    protected Map<String, String> goTerms = new LinkedHashMap<String, String>();
+    protected Map<String, String> goTerms = new RefIdMap();
     private Map<String, String> evidenceCodes = new LinkedHashMap<String, String>();
-    private Map<String, String> publications = new LinkedHashMap<String, String>();
+    private RefIdMap publications = new RefIdMap();
     private Map<String, Item> organisms = new LinkedHashMap<String, Item>();
-    protected Map<String, String> productMap = new LinkedHashMap<String, String>();
+    protected Map<String, String> productMap = new RefIdMap();
     private Set<String> dbRefs = new HashSet<String>();
     @SuppressWarnings("unused")
     private Map<String, String> databaseAbbreviations = new HashMap<String, String>();
@@ -235,6 +236,21 @@ public class GoConverter extends BioFileConverter
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws Exception {
+        if (goTerms instanceof RefIdMap) {
+            ((RefIdMap) goTerms).close();
+        }
+        if (productMap instanceof RefIdMap) {
+            ((RefIdMap) productMap).close();
+        }
+        publications.close();
+        super.close();
+    }
+
     /**
      * {@inheritDoc}
      */
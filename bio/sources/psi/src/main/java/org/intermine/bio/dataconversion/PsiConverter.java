@@ -27,6 +27,7 @@ import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.intermine.dataconversion.ItemWriter;
+import org.intermine.dataconversion.RefIdMap;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.util.SAXParser;
@@ -51,15 +52,15 @@ public class PsiConverter extends BioFileConverter
 {
     private static final Logger LOG = Logger.getLogger(PsiConverter.class);
     private static final String PROP_FILE = "psi-intact_config.properties";
-    private Map<String, String> pubs = new HashMap<String, String>();
+    private RefIdMap pubs = new RefIdMap();
     private Map<String, Object> experimentNames = new HashMap<String, Object>();
-    private Map<String, String> terms = new HashMap<String, String>();
+    private RefIdMap terms = new RefIdMap();
     private Map<String, String> regions = new HashMap<String, String>();
     private String termId = null;
     private static final String INTERACTION_TYPE = "physical";
     private Map<String, String[]> config = new HashMap<String, String[]>();
     private Set<String> taxonIds = null;
-    private Map<String, String> genes = new HashMap<String, String>();
+    private RefIdMap genes = new RefIdMap();
     private Map<MultiKey, Item> interactions = new HashMap<MultiKey, Item>();
     private static String aliasType = "gene name";
     private static final String SPOKE_MODEL = "prey";   // don't store if all roles prey
@@ -124,6 +125,17 @@ public class PsiConverter extends BioFileConverter
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws Exception {
+        pubs.close();
+        terms.close();
+        genes.close();
+        super.close();
+    }
+
     private void readConfig() {
         Properties props = new Properties();
         try {
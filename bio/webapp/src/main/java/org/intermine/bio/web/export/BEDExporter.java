@@ -28,6 +28,7 @@ import org.intermine.util.IntPresentSet;
 import org.intermine.web.logic.export.ExportException;
 import org.intermine.web.logic.export.ExportHelper;
 import org.intermine.web.logic.export.Exporter;
+import org.intermine.web.logic.export.ReferencePrefetchIterator;
 
 /**
  * Exports LocatedSequenceFeature objects in UCSC BED format.
@@ -104,8 +105,10 @@ public class BEDExporter implements Exporter
             throw new ExportException("No columns with sequence");
         }
         try {
-            while (resultIt.hasNext()) {
-                List<ResultElement> row = resultIt.next();
+            Iterator<List<ResultElement>> rows = new ReferencePrefetchIterator(resultIt,
+                    featureIndexes);
+            while (rows.hasNext()) {
+                List<ResultElement> row = rows.next();
                 exportRow(row);
             }
             finishLastRow();
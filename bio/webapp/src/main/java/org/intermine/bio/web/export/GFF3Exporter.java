@@ -39,6 +39,7 @@ import org.intermine.util.PropertiesUtil;
 import org.intermine.web.logic.export.ExportException;
 import org.intermine.web.logic.export.ExportHelper;
 import org.intermine.web.logic.export.Exporter;
+import org.intermine.web.logic.export.ReferencePrefetchIterator;
 
 /**
  * Exports LocatedSequenceFeature objects in GFF3 format.
@@ -193,8 +194,10 @@ public class GFF3Exporter implements Exporter
         }
         try {
             // LOG.info("SOO:" + cNames.toString());
-            while (resultIt.hasNext()) {
-                List<ResultElement> row = resultIt.next();
+            Iterator<List<ResultElement>> rows = new ReferencePrefetchIterator(resultIt,
+                    featureIndexes);
+            while (rows.hasNext()) {
+                List<ResultElement> row = rows.next();
                 exportRow(row, unionPathCollection, newPathCollection);
             }
 
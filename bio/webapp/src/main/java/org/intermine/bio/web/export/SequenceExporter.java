@@ -51,6 +51,7 @@ import org.intermine.util.IntPresentSet;
 import org.intermine.web.logic.export.ExportException;
 import org.intermine.web.logic.export.ExportHelper;
 import org.intermine.web.logic.export.Exporter;
+import org.intermine.web.logic.export.ReferencePrefetchIterator;
 
 
 /**
@@ -150,8 +151,10 @@ public class SequenceExporter implements Exporter
         IntPresentSet exportedIDs = new IntPresentSet();
 
         try {
-            while (resultIt.hasNext()) {
-                List<ResultElement> row = resultIt.next();
+            Iterator<List<ResultElement>> rows = new ReferencePrefetchIterator(resultIt,
+                    Collections.singletonList(featureIndex));
+            while (rows.hasNext()) {
+                List<ResultElement> row = rows.next();
                 StringBuffer header = new StringBuffer();
 
                 ResultElement resultElement = row.get(featureIndex);
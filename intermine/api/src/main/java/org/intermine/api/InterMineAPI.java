@@ -201,6 +201,7 @@ public class InterMineAPI
             if (retval == null) {
                 retval = new PathQueryExecutor(objectStore, profile,
                         bagQueryRunner, bagManager);
+                retval.setObjectStoreSummary(oss);
                 pqeCache.put(profile, retval);
             }
             return retval;
@@ -0,0 +1,157 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.Query;
+import org.intermine.util.CacheMap;
+import org.intermine.util.CompressedIntSet;
+
+/**
+ * A cache of the ids in ObjectStoreBags, shared by all the InterMineBags in the process that use
+ * the same ObjectStore.  The ids are held as CompressedIntSets, so that the same list can be
+ * read many times while a page is rendered without querying the osbag_int table each time.
+ *
+ * A change to a bag through an InterMineBag removes its contents from the cache.  While the ids of
+ * a bag are being read, the bag also has a version, which a change increments so that the read
+ * doesn't put the old contents into the cache.  Versions are only kept while reads are in
+ * progress, so the cache doesn't hold anything for bags that are no longer read or are deleted.
+ */
+public final class BagContentsCache
+{
+    private static final Map<ObjectStore, BagContentsCache> INSTANCES =
+        new WeakHashMap<ObjectStore, BagContentsCache>();
+
+    private final ObjectStore os;
+    private final Map<Integer, CompressedIntSet> contents =
+        new CacheMap<Integer, CompressedIntSet>();
+    // the version and the number of reads in progress of the bags being read
+    private final Map<Integer, Reads> reads = new HashMap<Integer, Reads>();
+
+    private BagContentsCache(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Return the cache for an ObjectStore.
+     *
+     * @param os the ObjectStore that the ObjectStoreBags are in
+     * @return the cache
+     */
+    public static BagContentsCache getInstance(ObjectStore os) {
+        synchronized (INSTANCES) {
+            BagContentsCache cache = INSTANCES.get(os);
+            if (cache == null) {
+                cache = new BagContentsCache(os);
+                INSTANCES.put(os, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Return the ids in an ObjectStoreBag, reading them from the database if they are not cached.
+     *
+     * @param osb the ObjectStoreBag
+     * @return the ids
+     */
+    public CompressedIntSet getContents(ObjectStoreBag osb) {
+        Integer bagId = new Integer(osb.getBagId());
+        Reads bagReads;
+        long version;
+        synchronized (this) {
+            CompressedIntSet cached = contents.get(bagId);
+            if (cached != null) {
+                return cached;
+            }
+            bagReads = reads.get(bagId);
+            if (bagReads == null) {
+                bagReads = new Reads();
+                reads.put(bagId, bagReads);
+            }
+            bagReads.count++;
+            version = bagReads.version;
+        }
+        CompressedIntSet ids = null;
+        try {
+            Query q = new Query();
+            q.addToSelect(osb);
+            q.setDistinct(false);
+            @SuppressWarnings("unchecked")
+            List<Integer> res = (List<Integer>) ((List<?>) os.executeSingleton(q, 1000, false,
+                        true, true));
+            // See #1686 - of() removes any duplicates
+            ids = CompressedIntSet.of(res);
+        } finally {
+            synchronized (this) {
+                if (ids != null && bagReads.version == version) {
+                    contents.put(bagId, ids);
+                }
+                bagReads.count--;
+                if (bagReads.count == 0) {
+                    reads.remove(bagId);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Return the ids in an ObjectStoreBag if they are cached.
+     *
+     * @param osb the ObjectStoreBag
+     * @return the ids, or null if they are not cached
+     */
+    public synchronized CompressedIntSet getCachedContents(ObjectStoreBag osb) {
+        return contents.get(new Integer(osb.getBagId()));
+    }
+
+    /**
+     * Forget the contents of an ObjectStoreBag, because it has been changed or deleted.  This must
+     * be called after the change is committed, so that a read that started before the change
+     * can't put the old contents into the cache.
+     *
+     * @param osb the ObjectStoreBag
+     */
+    public synchronized void invalidate(ObjectStoreBag osb) {
+        Integer bagId = new Integer(osb.getBagId());
+        contents.remove(bagId);
+        Reads bagReads = reads.get(bagId);
+        if (bagReads != null) {
+            bagReads.version++;
+        }
+    }
+
+    /**
+     * Return the number of bags being read, for tests.
+     *
+     * @return the number of bags
+     */
+    synchronized int getReadsInProgress() {
+        return reads.size();
+    }
+
+    /**
+     * The reads in progress of the ids in an ObjectStoreBag, and the version of the bag, which is
+     * changed if the bag is changed during the reads.
+     */
+    private static final class Reads
+    {
+        private long version;
+        private int count;
+    }
+}
@@ -37,9 +37,11 @@ import org.intermine.objectstore.query.QueryCast;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCloner;
 import org.intermine.objectstore.query.QueryEvaluable;
+import org.intermine.objectstore.query.QueryExpression;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.QueryReference;
+import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.iql.IqlQuery;
@@ -146,10 +148,80 @@ public class BagQuery
      */
     public Query getQueryForWildcards(Collection<String> bag, String extraFieldValue)
         throws ClassNotFoundException {
-        Set<String> empty = Collections.emptySet();
-        Query q = QueryCloner.cloneQuery(getQuery(empty, extraFieldValue));
         Map<QueryEvaluable, ConstraintSet> nodes = new LinkedHashMap<QueryEvaluable,
                 ConstraintSet>();
+        Query q = getUnconstrainedQuery(extraFieldValue, nodes);
+        for (String string : bag) {
+            String wildcardSql = string.replace('*', '%').toLowerCase();
+            for (Map.Entry<QueryEvaluable, ConstraintSet> entry : nodes.entrySet()) {
+                if (entry.getKey().getType().equals(String.class)) {
+                    entry.getValue().addConstraint(new SimpleConstraint(entry.getKey(),
+                                ConstraintOp.MATCHES, new QueryValue(wildcardSql)));
+                } else {
+                    entry.getValue().addConstraint(new SimpleConstraint(new QueryCast(
+                                    entry.getKey(), String.class), ConstraintOp.MATCHES,
+                                new QueryValue(wildcardSql)));
+
+                }
+            }
+        }
+        return q;
+    }
+
+    /**
+     * Return a Query to fetch every identifier this query can match, for building an
+     * IdentifierIndex.  The query selects the id followed by the identifier fields, with the
+     * bag constraints replaced by a constraint that the fields are not null.  If the fields
+     * selected are not exactly the fields constrained by the bag constraints, looking the
+     * identifiers up in an index would not give the same matches as running the query, and
+     * null is returned.
+     *
+     * @param extraFieldValue the value used if any extra constraint is configured
+     * @return the Query, or null if this query can't be answered from an index
+     * @throws ClassNotFoundException if class specified by type not found
+     */
+    public Query getIndexQuery(String extraFieldValue) throws ClassNotFoundException {
+        Map<QueryEvaluable, ConstraintSet> nodes = new LinkedHashMap<QueryEvaluable,
+                ConstraintSet>();
+        Query q = getUnconstrainedQuery(extraFieldValue, nodes);
+        List<QuerySelectable> select = q.getSelect();
+        if (select.size() < 2) {
+            return null;
+        }
+        Set<QueryEvaluable> unselected = new HashSet<QueryEvaluable>(nodes.keySet());
+        for (QuerySelectable selectable : select.subList(1, select.size())) {
+            QueryEvaluable node = null;
+            for (QueryEvaluable qe : nodes.keySet()) {
+                if (qe.equals(selectable) || ((qe instanceof QueryExpression)
+                        && (((QueryExpression) qe).getOperation() == QueryExpression.LOWER)
+                        && ((QueryExpression) qe).getArg1().equals(selectable))) {
+                    node = qe;
+                }
+            }
+            if (node == null) {
+                return null;
+            }
+            unselected.remove(node);
+        }
+        if (!unselected.isEmpty()) {
+            return null;
+        }
+        for (Map.Entry<QueryEvaluable, ConstraintSet> entry : nodes.entrySet()) {
+            entry.getValue().addConstraint(new SimpleConstraint(entry.getKey(),
+                        ConstraintOp.IS_NOT_NULL));
+        }
+        return q;
+    }
+
+    /**
+     * Return a copy of the Query with its bag constraints removed, and put the QueryEvaluables
+     * that were constrained and the OR ConstraintSets to add their new constraints to into the
+     * given Map.
+     */
+    private Query getUnconstrainedQuery(String extraFieldValue,
+            Map<QueryEvaluable, ConstraintSet> nodes) throws ClassNotFoundException {
+        Set<String> empty = Collections.emptySet();
+        Query q = QueryCloner.cloneQuery(getQuery(empty, extraFieldValue));
         if (q.getConstraint() instanceof BagConstraint) {
             ConstraintSet cs = new ConstraintSet(ConstraintOp.OR);
             nodes.put((QueryEvaluable) ((BagConstraint) q.getConstraint()).getQueryNode(), cs);
@@ -168,20 +240,6 @@ public class BagQuery
             throw new IllegalArgumentException("Query " + q + " does not contain any"
                     + " BagConstraints");
         }
-        for (String string : bag) {
-            String wildcardSql = string.replace('*', '%').toLowerCase();
-            for (Map.Entry<QueryEvaluable, ConstraintSet> entry : nodes.entrySet()) {
-                if (entry.getKey().getType().equals(String.class)) {
-                    entry.getValue().addConstraint(new SimpleConstraint(entry.getKey(),
-                                ConstraintOp.MATCHES, new QueryValue(wildcardSql)));
-                } else {
-                    entry.getValue().addConstraint(new SimpleConstraint(new QueryCast(
-                                    entry.getKey(), String.class), ConstraintOp.MATCHES,
-                                new QueryValue(wildcardSql)));
-
-                }
-            }
-        }
         return q;
     }
 
@@ -18,12 +18,15 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
 import org.intermine.InterMineException;
 import org.intermine.api.template.ApiTemplate;
 import org.intermine.api.template.TemplateManager;
+import org.intermine.api.util.BuildOnceCache;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.Model;
 import org.intermine.metadata.TypeUtil;
@@ -38,17 +41,26 @@ import org.intermine.util.CollectionUtil;
 
 /**
  * For a given list of input strings search for objects using default and configured queries for a
- * particular type.
+ * particular type.  Once a search is large enough, or uses wildcards, the identifiers that each
+ * query can match are read into an IdentifierIndex in the background, and once it is built case
+ * insensitive searches are answered from the index rather than the database.  Indexes can also be
+ * built when the webapp starts, with buildIndexes().
  *
  * @author Richard Smith
  */
 public class BagQueryRunner
 {
+    private static final Logger LOG = Logger.getLogger(BagQueryRunner.class);
+    // the number of identifiers to look up in one search that makes it worth building an index
+    private static final int INDEX_THRESHOLD = 1000;
+
     private ObjectStore os;
     private Model model;
     private Map<String, List<FieldDescriptor>> classKeys;
     private BagQueryConfig bagQueryConfig;
     private TemplateManager templateManager;
+    private final BuildOnceCache<String, IdentifierIndex> indexes =
+        new BuildOnceCache<String, IdentifierIndex>("identifier index");
 
     /**
      * Construct with configured bag queries and a map of type -&gt; key fields.
@@ -183,7 +195,22 @@ public class BagQueryRunner
         for (BagQuery bq : queries) {
             // run the next query on identifiers not yet resolved
             // OR all identifiers if matchOnFirst = FALSE
-            if (!unresolved.isEmpty() || !matchOnFirst) {
+            IdentifierIndex index = null;
+            if (!caseSensitive) {
+                index = getIndex(bq, extraFieldValue,
+                        cleanInput.size() >= INDEX_THRESHOLD || !wildcardInput.isEmpty());
+            }
+            if (index != null && (!unresolved.isEmpty() || !matchOnFirst)) {
+                Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
+                Set<String> toProcess = (matchOnFirst) ? unresolved : unresolvedOriginal;
+                for (String inputString : new ArrayList<String>(toProcess)) {
+                    for (int id : index.lookup(inputString.toLowerCase())) {
+                        processMatch(resMap, unresolved, new Integer(id), inputString);
+                    }
+                }
+                addResults(resMap, unresolved, bqr, bq.getMessage(), typeCls, false,
+                            matchOnFirst, bq.matchesAreIssues());
+            } else if (!unresolved.isEmpty() || !matchOnFirst) {
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
                 try {
                     Set<String> toProcess = (matchOnFirst) ? unresolved : unresolvedOriginal;
@@ -220,19 +247,28 @@ public class BagQueryRunner
             if (!wildcardInput.isEmpty()) {
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
 
-                Query q = bq.getQueryForWildcards(wildcardInput, extraFieldValue);
-                Results res = os.execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, true,
-                        false);
-                for (Object rowObj : res) {
-                    ResultsRow<?> row = (ResultsRow<?>) rowObj;
-                    Integer id = (Integer) row.get(0);
-                    for (int i = 1; i < row.size(); i++) {
-                        String field = "" + row.get(i);
-                        String lowerField = field.toLowerCase();
-                        for (String wildcard : wildcardInput) {
-                            Pattern pattern = patterns.get(wildcard);
-                            if (pattern.matcher(lowerField).matches()) {
-                                processMatch(resMap, wildcardUnresolved, id, wildcard);
+                if (index != null) {
+                    for (String wildcard : wildcardInput) {
+                        for (int id : index.match(wildcard.toLowerCase(),
+                                    patterns.get(wildcard))) {
+                            processMatch(resMap, wildcardUnresolved, new Integer(id), wildcard);
+                        }
+                    }
+                } else {
+                    Query q = bq.getQueryForWildcards(wildcardInput, extraFieldValue);
+                    Results res = os.execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, true,
+                            false);
+                    for (Object rowObj : res) {
+                        ResultsRow<?> row = (ResultsRow<?>) rowObj;
+                        Integer id = (Integer) row.get(0);
+                        for (int i = 1; i < row.size(); i++) {
+                            String field = "" + row.get(i);
+                            String lowerField = field.toLowerCase();
+                            for (String wildcard : wildcardInput) {
+                                Pattern pattern = patterns.get(wildcard);
+                                if (pattern.matcher(lowerField).matches()) {
+                                    processMatch(resMap, wildcardUnresolved, id, wildcard);
+                                }
                             }
                         }
                     }
@@ -260,6 +296,77 @@ public class BagQueryRunner
         return bqr;
     }
 
+    /**
+     * Build the IdentifierIndexes for the queries that search for the given types, so that
+     * searches for them don't have to wait for them to be built.  The indexes are built on this
+     * thread, one at a time.
+     *
+     * @param types unqualified class names
+     */
+    public void buildIndexes(Collection<String> types) {
+        for (String type : types) {
+            String className = model.getPackageName() + "." + type;
+            if (!model.hasClassDescriptor(className)) {
+                LOG.warn("Not building identifier indexes for " + type
+                        + ", which isn't in the model");
+                continue;
+            }
+            for (BagQuery bq : getBagQueriesForType(bagQueryConfig, className)) {
+                try {
+                    Query indexQuery = bq.getIndexQuery(null);
+                    if (indexQuery != null) {
+                        indexes.get(indexQuery.toString(), indexBuilder(indexQuery));
+                    }
+                } catch (ClassNotFoundException e) {
+                    LOG.warn("Could not build identifier index for " + type, e);
+                } catch (IllegalArgumentException e) {
+                    // Query needs an extra value
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the IdentifierIndex for a BagQuery if it has been built.  If the search would be
+     * faster with an index that hasn't been built, it is built in the background, and the search
+     * runs in the database until the index is ready.
+     *
+     * @param bq the BagQuery
+     * @param extraFieldValue the value used if any extra constraint is configured
+     * @param wanted true if the search is large enough, or uses wildcards, to make it worth
+     * building the index
+     * @return the index, or null if the BagQuery must be run in the database
+     * @throws ClassNotFoundException if the type isn't in the model
+     */
+    private IdentifierIndex getIndex(BagQuery bq, String extraFieldValue, boolean wanted)
+        throws ClassNotFoundException {
+        Query q;
+        try {
+            q = bq.getIndexQuery(extraFieldValue);
+        } catch (IllegalArgumentException e) {
+            // Query couldn't handle extra value
+            return null;
+        }
+        if (q == null) {
+            return null;
+        }
+        String key = q.toString();
+        IdentifierIndex index = indexes.getIfBuilt(key);
+        if (index == null && wanted) {
+            indexes.buildInBackground(key, indexBuilder(q));
+        }
+        return index;
+    }
+
+    private Callable<IdentifierIndex> indexBuilder(final Query indexQuery) {
+        return new Callable<IdentifierIndex>() {
+            @Override
+            public IdentifierIndex call() {
+                return IdentifierIndex.build(os, indexQuery);
+            }
+        };
+    }
+
     private static void processMatch(Map<String, Set<Integer>> resMap, Set<String> unresolved,
         Integer id, String field) {
         Set<Integer> ids = resMap.get(field);
@@ -0,0 +1,248 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.Query;
+
+/**
+ * An in-memory dictionary from lower case identifiers to the ids of the objects they identify,
+ * built from the results of a BagQuery index query.  The identifiers are kept sorted in a single
+ * char array, so exact lookups are a binary search, and wildcards are matched by scanning only
+ * the identifiers that start with the wildcard's literal prefix.  The index is built with
+ * arrays rather than maps and sets of boxed ids, so that building it needs little more memory
+ * than the finished index and the identifiers read.
+ *
+ * The index reflects the objectstore when it was built, so it should only be used for a
+ * production objectstore that doesn't change between releases.
+ */
+public class IdentifierIndex
+{
+    private static final Logger LOG = Logger.getLogger(IdentifierIndex.class);
+    private static final int BATCH_SIZE = 10000;
+    private static final int INITIAL_PAIRS = 1024;
+
+    private final char[] keyData;
+    private final int[] keyStarts;
+    private final int[] idStarts;
+    private final int[] ids;
+
+    /**
+     * Build an index by running a query in the objectstore.
+     *
+     * @param os the ObjectStore to run the query in
+     * @param q a query from BagQuery.getIndexQuery()
+     * @return a new IdentifierIndex
+     */
+    @SuppressWarnings("unchecked")
+    public static IdentifierIndex build(ObjectStore os, Query q) {
+        long start = System.currentTimeMillis();
+        Iterator<?> rows = os.execute(q, BATCH_SIZE, true, false, false).iterator();
+        IdentifierIndex index = new IdentifierIndex((Iterator<List<Object>>) rows);
+        LOG.info("Built identifier index of " + index.size() + " identifiers in "
+                + (System.currentTimeMillis() - start) + " ms for query " + q);
+        return index;
+    }
+
+    /**
+     * Construct an index from rows each containing an Integer id followed by identifiers for
+     * that id.  Null identifiers are ignored.
+     *
+     * @param rows an Iterator over the rows
+     */
+    protected IdentifierIndex(Iterator<? extends List<Object>> rows) {
+        // the identifier and id of every row, in the order they are read
+        String[] pairKeys = new String[INITIAL_PAIRS];
+        int[] pairIds = new int[INITIAL_PAIRS];
+        int pairCount = 0;
+        while (rows.hasNext()) {
+            List<Object> row = rows.next();
+            int id = ((Integer) row.get(0)).intValue();
+            for (int i = 1; i < row.size(); i++) {
+                if (row.get(i) != null) {
+                    if (pairCount == pairKeys.length) {
+                        pairKeys = Arrays.copyOf(pairKeys, pairCount * 2);
+                        pairIds = Arrays.copyOf(pairIds, pairCount * 2);
+                    }
+                    pairKeys[pairCount] = String.valueOf(row.get(i)).toLowerCase();
+                    pairIds[pairCount] = id;
+                    pairCount++;
+                }
+            }
+        }
+        // the distinct identifiers, sorted
+        String[] keys = Arrays.copyOf(pairKeys, pairCount);
+        Arrays.sort(keys);
+        int keyCount = 0;
+        int charCount = 0;
+        for (int i = 0; i < pairCount; i++) {
+            if (keyCount == 0 || !keys[i].equals(keys[keyCount - 1])) {
+                keys[keyCount++] = keys[i];
+                charCount += keys[i].length();
+            }
+        }
+        // group the ids by identifier, with a counting sort on the position of the identifier
+        int[] pairKeyPositions = new int[pairCount];
+        int[] groupStarts = new int[keyCount + 1];
+        for (int i = 0; i < pairCount; i++) {
+            pairKeyPositions[i] = Arrays.binarySearch(keys, 0, keyCount, pairKeys[i]);
+            groupStarts[pairKeyPositions[i] + 1]++;
+        }
+        for (int k = 0; k < keyCount; k++) {
+            groupStarts[k + 1] += groupStarts[k];
+        }
+        int[] grouped = new int[pairCount];
+        int[] groupEnds = Arrays.copyOf(groupStarts, keyCount);
+        for (int i = 0; i < pairCount; i++) {
+            grouped[groupEnds[pairKeyPositions[i]]++] = pairIds[i];
+        }
+        keyData = new char[charCount];
+        keyStarts = new int[keyCount + 1];
+        idStarts = new int[keyCount + 1];
+        int charPos = 0;
+        int idPos = 0;
+        for (int k = 0; k < keyCount; k++) {
+            keys[k].getChars(0, keys[k].length(), keyData, charPos);
+            keyStarts[k] = charPos;
+            idStarts[k] = idPos;
+            charPos += keys[k].length();
+            // sort the ids of the identifier and remove duplicates, moving them down in place
+            Arrays.sort(grouped, groupStarts[k], groupStarts[k + 1]);
+            for (int i = groupStarts[k]; i < groupStarts[k + 1]; i++) {
+                if (idPos == idStarts[k] || grouped[i] != grouped[idPos - 1]) {
+                    grouped[idPos++] = grouped[i];
+                }
+            }
+        }
+        keyStarts[keyCount] = charPos;
+        idStarts[keyCount] = idPos;
+        ids = Arrays.copyOf(grouped, idPos);
+    }
+
+    /**
+     * @return the number of distinct identifiers in the index
+     */
+    public int size() {
+        return keyStarts.length - 1;
+    }
+
+    /**
+     * Return the ids of the objects with an identifier.
+     *
+     * @param key the identifier, in lower case
+     * @return the ids in ascending order, or an empty array if there are none
+     */
+    public int[] lookup(String key) {
+        int pos = find(key);
+        if (pos < size() && compare(pos, key) == 0) {
+            return Arrays.copyOfRange(ids, idStarts[pos], idStarts[pos + 1]);
+        }
+        return new int[0];
+    }
+
+    /**
+     * Return the ids of the objects with an identifier that matches a wildcard the way that
+     * BagQueryRunner would match it in the database: the identifier must match both the
+     * wildcard as a LIKE pattern, with '*' standing for '%', and the given regular expression.
+     *
+     * @param wildcard the wildcard, in lower case
+     * @param pattern the regular expression that matching identifiers must also match
+     * @return the ids in ascending order, or an empty array if there are none
+     */
+    public int[] match(String wildcard, Pattern pattern) {
+        String like = wildcard.replace('*', '%');
+        StringBuilder prefix = new StringBuilder();
+        StringBuilder regex = new StringBuilder();
+        boolean literal = true;
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '%' || c == '_') {
+                regex.append((c == '%') ? ".*" : ".");
+                literal = false;
+            } else {
+                if (c == '\\' && i + 1 < like.length()) {
+                    c = like.charAt(++i);
+                }
+                regex.append(Pattern.quote(String.valueOf(c)));
+                if (literal) {
+                    prefix.append(c);
+                }
+            }
+        }
+        Pattern likePattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        SortedSet<Integer> matches = new TreeSet<Integer>();
+        for (int pos = find(prefix); pos < size() && startsWith(pos, prefix); pos++) {
+            String key = new String(keyData, keyStarts[pos], keyStarts[pos + 1] - keyStarts[pos]);
+            if (likePattern.matcher(key).matches() && pattern.matcher(key).matches()) {
+                for (int i = idStarts[pos]; i < idStarts[pos + 1]; i++) {
+                    matches.add(new Integer(ids[i]));
+                }
+            }
+        }
+        int[] retval = new int[matches.size()];
+        int i = 0;
+        for (Integer id : matches) {
+            retval[i++] = id.intValue();
+        }
+        return retval;
+    }
+
+    /**
+     * Return the position of the first identifier that is not less than the given key.
+     */
+    private int find(CharSequence key) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int pos, CharSequence key) {
+        int start = keyStarts[pos];
+        int length = keyStarts[pos + 1] - start;
+        int common = Math.min(length, key.length());
+        for (int i = 0; i < common; i++) {
+            int diff = keyData[start + i] - key.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - key.length();
+    }
+
+    private boolean startsWith(int pos, CharSequence prefix) {
+        int start = keyStarts[pos];
+        if (keyStarts[pos + 1] - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (keyData[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -10,6 +10,7 @@ package org.intermine.api.bag.operations;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -29,6 +30,7 @@ import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.query.ObjectStoreBagCombination;
 import org.intermine.objectstore.query.Query;
+import org.intermine.util.CompressedIntSet;
 
 /**
  * @author Alex
@@ -157,12 +159,17 @@ public abstract class BagOperation implements BagProducer
     }
 
     private void buildBag() throws InternalBagOperationException {
-        ObjectStoreBagCombination osbc = combineBags();
-        Query q = new Query();
-        q.addToSelect(osbc);
-        LOG.debug(q.toString());
         try {
-            combined.addToBagFromQuery(q);
+            CompressedIntSet ids = combineCachedContents();
+            if (ids != null) {
+                combined.addIdsToBag(ids.toList(), combined.getType());
+            } else {
+                ObjectStoreBagCombination osbc = combineBags();
+                Query q = new Query();
+                q.addToSelect(osbc);
+                LOG.debug(q.toString());
+                combined.addToBagFromQuery(q);
+            }
         } catch (ObjectStoreException e) {
             cleanUp();
             throw new InternalBagOperationException("Error constructing bag", e);
@@ -180,6 +187,43 @@ public abstract class BagOperation implements BagProducer
         return osbc;
     }
 
+    /**
+     * Combine the contents of the lists in memory, if they are all cached.
+     * @return the ids in the combined list, or null if it has to be built in the database
+     */
+    protected CompressedIntSet combineCachedContents() {
+        List<CompressedIntSet> contents = getCachedContents(bags);
+        if (contents == null) {
+            return null;
+        }
+        switch (getOperationCode()) {
+            case ObjectStoreBagCombination.UNION:
+                return CompressedIntSet.union(contents);
+            case ObjectStoreBagCombination.INTERSECT:
+                return CompressedIntSet.intersection(contents);
+            case ObjectStoreBagCombination.ALLBUTINTERSECT:
+                return CompressedIntSet.allButIntersection(contents);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param lists the lists
+     * @return the cached contents of each of the lists, or null if any of them are not cached
+     */
+    protected static List<CompressedIntSet> getCachedContents(Collection<InterMineBag> lists) {
+        List<CompressedIntSet> contents = new ArrayList<CompressedIntSet>();
+        for (InterMineBag bag : lists) {
+            CompressedIntSet ids = bag.getCachedContentsAsIdSet();
+            if (ids == null) {
+                return null;
+            }
+            contents.add(ids);
+        }
+        return contents;
+    }
+
     private void initCombined(String type, String name) throws InternalBagOperationException {
         if (combined != null) {
             throw new InternalBagOperationException("combined bag already exists");
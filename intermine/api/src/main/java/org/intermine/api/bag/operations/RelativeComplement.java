@@ -15,6 +15,7 @@ import static org.intermine.metadata.DescriptorUtils.findIntersectionType;
 import static org.intermine.metadata.DescriptorUtils.findSumType;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
@@ -22,6 +23,7 @@ import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.query.ObjectStoreBagCombination;
+import org.intermine.util.CompressedIntSet;
 
 /**
  *
@@ -82,6 +84,16 @@ public class RelativeComplement extends BagOperation
         return osbc;
     }
 
+    @Override
+    protected CompressedIntSet combineCachedContents() {
+        List<CompressedIntSet> froms = getCachedContents(getBags());
+        List<CompressedIntSet> excludes = getCachedContents(excluded);
+        if (froms == null || excludes == null) {
+            return null;
+        }
+        return CompressedIntSet.union(froms).difference(CompressedIntSet.union(excludes));
+    }
+
     @Override
     protected int getOperationCode() {
         return ObjectStoreBagCombination.EXCEPT;
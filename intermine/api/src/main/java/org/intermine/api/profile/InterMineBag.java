@@ -16,13 +16,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.api.bag.BagContentsCache;
 import org.intermine.api.bag.ClassKeysNotFoundException;
 import org.intermine.api.bag.IncompatibleTypesException;
 import org.intermine.api.bag.UnknownBagTypeException;
@@ -50,6 +51,7 @@ import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.CompressedIntSet;
 
 /**
  * An object that represents a bag of objects in our database for the webapp. It is backed by an
@@ -244,15 +246,27 @@ public class InterMineBag extends StorableBag implements Cloneable
      *
      * @return a List of Integers
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public List<Integer> getContentsAsIds() {
-        Query q = new Query();
-        q.addToSelect(osb);
-        q.setDistinct(false);
-        SingletonResults res = os.executeSingleton(q, 1000, false, true, true);
-        Set resultSet = new HashSet(res);
-        // See #1686
-        return new ArrayList(resultSet);
+        return getContentsAsIdSet().toList();
+    }
+
+    /**
+     * Returns the contents of this bag as a compressed set of IDs, which is shared with the other
+     * users of this bag's contents and may be cached.
+     *
+     * @return the IDs of the objects in this bag
+     */
+    public CompressedIntSet getContentsAsIdSet() {
+        return BagContentsCache.getInstance(os).getContents(osb);
+    }
+
+    /**
+     * Returns the contents of this bag as a compressed set of IDs if they are cached.
+     *
+     * @return the IDs of the objects in this bag, or null if they are not cached
+     */
+    public CompressedIntSet getCachedContentsAsIdSet() {
+        return BagContentsCache.getInstance(os).getCachedContents(osb);
     }
 
     /**
@@ -261,31 +275,15 @@ public class InterMineBag extends StorableBag implements Cloneable
      * @param ids the list of ids
      * @return a List of Integers
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public List<Integer> getIdsContained(Collection<Integer> ids) {
-        Query q = new Query();
-        q.setDistinct(false);
-        try {
-            Class<? extends InterMineObject> clazz =
-                (Class<InterMineObject>) Class.forName(getQualifiedType());
-            QueryClass qc = new QueryClass(clazz);
-            QueryField idField = new QueryField(qc, "id");
-            q.addToSelect(idField);
-            q.addFrom(qc);
-
-            BagConstraint constraint1 = new BagConstraint(idField, ConstraintOp.IN, ids);
-            BagConstraint constraint2 = new BagConstraint(idField, ConstraintOp.IN, osb);
-            ConstraintSet constraintSet = new ConstraintSet(ConstraintOp.AND);
-            constraintSet.addConstraint(constraint1);
-            constraintSet.addConstraint(constraint2);
-            q.setConstraint(constraintSet);
-
-        } catch (ClassNotFoundException nfe) {
-            LOG.error("Error retriving class for bag: " + name, nfe);
+        CompressedIntSet contents = getContentsAsIdSet();
+        Set<Integer> idsContained = new LinkedHashSet<Integer>();
+        for (Integer id : ids) {
+            if (contents.contains(id.intValue())) {
+                idsContained.add(id);
+            }
         }
-
-        SingletonResults res = os.executeSingleton(q, 1000, false, true, true);
-        return ((List) res);
+        return new ArrayList<Integer>(idsContained);
     }
 
     /**
@@ -418,6 +416,7 @@ public class InterMineBag extends StorableBag implements Cloneable
         SavedBag savedBag = (SavedBag) uosw.getObjectById(savedBagId, SavedBag.class);
         try {
             oswProduction = os.getNewWriter();
+            BagContentsCache.getInstance(os).invalidate(osb);
             osb = oswProduction.createObjectStoreBag();
             oswProduction.addAllToBag(osb, values);
             savedBag.setOsbId(osb.getBagId());
@@ -437,6 +436,10 @@ public class InterMineBag extends StorableBag implements Cloneable
 
     @Override
     public int getSize() throws ObjectStoreException {
+        CompressedIntSet contents = getCachedContentsAsIdSet();
+        if (contents != null) {
+            return contents.size();
+        }
         Query q = new Query();
         q.addToSelect(osb);
         q.setDistinct(false);
@@ -747,6 +750,7 @@ public class InterMineBag extends StorableBag implements Cloneable
             if (oswProduction != null) {
                 oswProduction.close();
             }
+            BagContentsCache.getInstance(os).invalidate(osb);
         }
     }
 
@@ -791,6 +795,7 @@ public class InterMineBag extends StorableBag implements Cloneable
             if (oswProduction != null) {
                 oswProduction.close();
             }
+            BagContentsCache.getInstance(os).invalidate(osb);
         }
         if (profileId != null) {
             updateBagValues();
@@ -822,6 +827,7 @@ public class InterMineBag extends StorableBag implements Cloneable
             if (oswProduction != null) {
                 oswProduction.close();
             }
+            BagContentsCache.getInstance(os).invalidate(osb);
         }
         if (profileId != null && updateBagValues) {
             updateBagValues();
@@ -57,6 +57,7 @@ import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
@@ -956,6 +957,41 @@ public class ProfileManager
         return userNames;
     }
 
+    /**
+     * Return the profiles of the users who have at least one list in the given state.
+     *
+     * @param state the state of the lists
+     * @return the profiles
+     */
+    public synchronized Collection<Profile> getProfilesWithBagsInState(BagState state) {
+        Query q = new Query();
+        QueryClass qcSavedBag = new QueryClass(SavedBag.class);
+        QueryClass qcUserProfile = new QueryClass(UserProfile.class);
+        q.addFrom(qcSavedBag);
+        q.addFrom(qcUserProfile);
+        q.addToSelect(new QueryField(qcUserProfile, "username"));
+        q.setDistinct(true);
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(new ContainsConstraint(new QueryObjectReference(qcSavedBag,
+                "userProfile"), ConstraintOp.CONTAINS, qcUserProfile));
+        cs.addConstraint(new SimpleConstraint(new QueryField(qcSavedBag, "state"),
+                ConstraintOp.EQUALS, new QueryValue(state.toString())));
+        q.setConstraint(cs);
+
+        List<String> userNames = new ArrayList<String>();
+        for (Object userName : uosw.executeSingleton(q)) {
+            userNames.add((String) userName);
+        }
+        List<Profile> profiles = new ArrayList<Profile>();
+        for (String userName : userNames) {
+            Profile profile = getProfile(userName);
+            if (profile != null) {
+                profiles.add(profile);
+            }
+        }
+        return profiles;
+    }
+
     /**
      * Return the name of the user with the given internal DB id.
      *
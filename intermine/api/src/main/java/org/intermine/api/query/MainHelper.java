@@ -44,8 +44,10 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.Model;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.metadata.Util;
+import org.intermine.objectstore.ColumnSummary;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreSummary;
 import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.ClassConstraint;
 import org.intermine.objectstore.query.Constraint;
@@ -73,6 +75,7 @@ import org.intermine.objectstore.query.QueryPathExpressionWithSelect;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Queryable;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.WidthBucketFunction;
 import org.intermine.pathquery.LogicExpression;
@@ -93,6 +96,7 @@ import org.intermine.pathquery.PathConstraintRange;
 import org.intermine.pathquery.PathConstraintSubclass;
 import org.intermine.pathquery.PathException;
 import org.intermine.pathquery.PathQuery;
+import org.intermine.util.BoundedCacheMap;
 import org.intermine.util.PropertiesUtil;
 
 /**
@@ -110,6 +114,12 @@ public final class MainHelper
 
     private static final LookupTokeniser LOOKUP_TOKENISER = LookupTokeniser.getLookupTokeniser();
 
+    private static final int PLAN_CACHE_SIZE = 1000;
+
+    // Compiled PathQueries, keyed by their structure with the values of constraints left out
+    private static final Map<String, PathQueryPlan> PLAN_CACHE =
+        new BoundedCacheMap<String, PathQueryPlan>("PathQuery plans", PLAN_CACHE_SIZE);
+
     /**
      * Converts a PathQuery object into an ObjectStore Query object, and optionally populates a Map
      * from String path in the PathQuery to the object in the Query that represents it.
@@ -128,21 +138,47 @@ public final class MainHelper
             Map<String, QuerySelectable> pathToQueryNode, BagQueryRunner bagQueryRunner,
             Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
         synchronized (pathQuery) {
+            PathQuery toExecute = pathQuery.getQueryToExecute();
+            String key = PathQueryPlan.getKey(toExecute);
+            PathQueryPlan plan = (key == null) ? null : PLAN_CACHE.get(key);
+            if (plan != null) {
+                return plan.bind(toExecute, savedBags, pathToQueryNode, bagQueryRunner,
+                        returnBagQueryResults);
+            }
             List<String> problems = pathQuery.verifyQuery();
             if (!problems.isEmpty()) {
                 throw new ObjectStoreException("PathQuery is invalid: " + problems);
             }
             Query q = new Query();
+            Map<String, QuerySelectable> nodes = new HashMap<String, QuerySelectable>();
+            Map<String, Constraint> madeConstraints = new HashMap<String, Constraint>();
             try {
-                makeQuery(q, pathQuery.getRootClass(), pathQuery, savedBags, pathToQueryNode,
-                        bagQueryRunner, returnBagQueryResults);
+                makeQuery(q, pathQuery.getRootClass(), pathQuery, savedBags, nodes,
+                        bagQueryRunner, returnBagQueryResults, madeConstraints);
+                if (key != null) {
+                    plan = PathQueryPlan.create(toExecute, q, nodes, madeConstraints);
+                    if (plan != null) {
+                        PLAN_CACHE.put(key, plan);
+                    }
+                }
             } catch (PathException e) {
                 throw new Error("PathQuery is invalid, but was valid earlier", e);
             }
+            if (pathToQueryNode != null) {
+                pathToQueryNode.putAll(nodes);
+            }
             return q;
         }
     }
 
+    /**
+     * Removes all the compiled PathQuery plans used by makeQuery(). This should be called if the
+     * model changes - the webapp calls it when it is initialised and when it is undeployed.
+     */
+    public static void flushPlanCache() {
+        PLAN_CACHE.clear();
+    }
+
     /**
      * Converts a PathQuery object into an ObjectStore Query object, and optionally populates a Map
      * from String path in the PathQuery to the object in the Query that represents it. This is the
@@ -159,12 +195,14 @@ public final class MainHelper
      * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
      * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
      * returned
+     * @param madeConstraints optional parameter which will be populated with entries, mapping
+     * from constraint code to the Constraint made for it
      * @throws ObjectStoreException if something goes wrong
      */
     private static void makeQuery(Queryable q, String root, PathQuery query,
             Map<String, InterMineBag> savedBags, Map<String, QuerySelectable> pathToQueryNode,
-            BagQueryRunner bagQueryRunner,
-            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+            BagQueryRunner bagQueryRunner, Map<String, BagQueryResult> returnBagQueryResults,
+            Map<String, Constraint> madeConstraints) throws ObjectStoreException {
         PathQuery pathQuery = query;
         Model model = pathQuery.getModel();
 
@@ -331,8 +369,8 @@ public final class MainHelper
                                     QueryCollectionPathExpression qn
                                         = new QueryCollectionPathExpression(parentQc,
                                                 path.getLastElement(), path.getEndType());
-                                    makeQuery(qn, stringPath, pathQuery, savedBags,
-                                            pathToQueryNode, bagQueryRunner, returnBagQueryResults);
+                                    makeQuery(qn, stringPath, pathQuery, savedBags, pathToQueryNode,
+                                            bagQueryRunner, returnBagQueryResults, madeConstraints);
                                     queryBits.put(stringPath, qn);
                                     pathExpressions.put(stringPath, qn);
                                 } else {
@@ -340,7 +378,7 @@ public final class MainHelper
                                         = new QueryObjectPathExpression(parentQc,
                                                 path.getLastElement(), path.getEndType());
                                     makeQuery(qn, stringPath, pathQuery, savedBags, pathToQueryNode,
-                                            bagQueryRunner, returnBagQueryResults);
+                                            bagQueryRunner, returnBagQueryResults, madeConstraints);
                                     queryBits.put(stringPath, qn);
                                     pathExpressions.put(stringPath, qn);
                                 }
@@ -355,7 +393,7 @@ public final class MainHelper
             Map<String, Constraint> codeToConstraint = putConstraintsInMap(q,
                     savedBags, bagQueryRunner, returnBagQueryResults,
                     pathQuery, model, queryBits, subclasses, relevantCodes,
-                    participatingLoops);
+                    participatingLoops, madeConstraints);
 
             // Use the constraint logic to create a ConstraintSet structure with the constraints
             // inserted into it
@@ -541,7 +579,8 @@ public final class MainHelper
             PathQuery pathQuery, Model model,
             Map<String, QuerySelectable> queryBits,
             Map<String, String> subclasses, Set<String> relevantCodes,
-            Set<PathConstraintLoop> participatingLoops) throws PathException,
+            Set<PathConstraintLoop> participatingLoops,
+            Map<String, Constraint> madeConstraints) throws PathException,
             BagNotFound, ObjectStoreException {
         // For each of the relevant codes, produce a Constraint object, and put it in a Map.
         // Constraints that do not have a code (namely loop NOT EQUALS) can be put straight into
@@ -562,26 +601,12 @@ public final class MainHelper
                     field = new QueryField(qc, path.getLastElement());
                     queryBits.put(stringPath, field);
                 }
-                if (constraint instanceof PathConstraintAttribute) {
-                    PathConstraintAttribute pca = (PathConstraintAttribute) constraint;
-                    Class<?> fieldType = path.getEndType();
-                    if (String.class.equals(fieldType)) {
-                        codeToConstraint.put(code, makeQueryStringConstraint(
-                                    (QueryField) field, pca));
-                    } else if (Date.class.equals(fieldType)) {
-                        codeToConstraint.put(code, makeQueryDateConstraint(
-                                    (QueryField) field, pca));
-                    } else {
-                        // Use simple forms of operators when not dealing with strings.
-                        ConstraintOp simpleOp = ConstraintOp.EXACT_MATCH == pca.getOp()
-                                ? ConstraintOp.EQUALS
-                                        : ConstraintOp.STRICT_NOT_EQUALS == pca.getOp()
-                                            ? ConstraintOp.NOT_EQUALS : pca.getOp();
-                        codeToConstraint.put(code, new SimpleConstraint((QueryField) field,
-                                simpleOp, new QueryValue(TypeUtil.stringToObject(
-                                        fieldType, pca.getValue()))));
+                if (isValueConstraint(constraint)) {
+                    Constraint con = makeValueConstraint(constraint, path.getEndType(), field,
+                            savedBags, bagQueryRunner, returnBagQueryResults);
+                    if (con != null) {
+                        codeToConstraint.put(code, con);
                     }
-
                 } else if (constraint instanceof PathConstraintNull) {
                     if (path.endIsAttribute()) {
                         codeToConstraint.put(code, new SimpleConstraint((QueryField) field,
@@ -619,18 +644,6 @@ public final class MainHelper
                     }
                 } else if (constraint instanceof PathConstraintSubclass) {
                     // No action needed.
-                } else if (constraint instanceof PathConstraintBag) {
-                    PathConstraintBag pcb = (PathConstraintBag) constraint;
-                    InterMineBag bag = savedBags.get(pcb.getBag());
-                    if (bag == null) {
-                        throw new BagNotFound(pcb.getBag());
-                    }
-                    codeToConstraint.put(code, new BagConstraint((QueryNode) field, pcb.getOp(),
-                                bag.getOsb()));
-                } else if (constraint instanceof PathConstraintIds) {
-                    codeToConstraint.put(code, new BagConstraint(new QueryField(
-                                    (QueryClass) field, "id"), constraint.getOp(),
-                                ((PathConstraintIds) constraint).getIds()));
                 } else if (constraint instanceof PathConstraintRange) {
                     PathConstraintRange pcr = (PathConstraintRange) constraint;
                     codeToConstraint.put(code, makeRangeConstraint(q, (QueryNode) field, pcr));
@@ -638,57 +651,121 @@ public final class MainHelper
                     PathConstraintMultitype pcmt = (PathConstraintMultitype) constraint;
                     codeToConstraint.put(code, makeMultiTypeConstraint(pathQuery.getModel(),
                             (QueryNode) field, pcmt));
-                } else if (constraint instanceof PathConstraintMultiValue) {
-                    Class<?> fieldType = path.getEndType();
-                    if (String.class.equals(fieldType)) {
-                        codeToConstraint.put(code, new BagConstraint((QueryField) field,
-                                constraint.getOp(), ((PathConstraintMultiValue) constraint)
-                                .getValues()));
-                    } else {
-                        Collection<Object> objects = new ArrayList<Object>();
-                        for (String s : ((PathConstraintMultiValue) constraint).getValues()) {
-                            objects.add(TypeUtil.stringToObject(fieldType, s));
-                        }
-                        codeToConstraint.put(code, new BagConstraint((QueryField) field,
-                                constraint.getOp(), objects));
-                    }
-                } else if (constraint instanceof PathConstraintLookup) {
-                    QueryClass qc = (QueryClass) field;
-                    PathConstraintLookup pcl = (PathConstraintLookup) constraint;
-                    if (bagQueryRunner == null) {
-                        throw new NullPointerException("Cannot convert this PathQuery to an "
-                                + "ObjectStore Query without a BagQueryRunner");
-                    }
-                    String identifiers = pcl.getValue();
-
-                    // if this LOOKUP constraint only includes *, just ignore constraint
-                    // as user wants everything.
-                    if (!"*".equals(identifiers)) {
-                        BagQueryResult bagQueryResult;
-                        List<String> identifierList = LOOKUP_TOKENISER.tokenise(identifiers);
-                        try {
-                            bagQueryResult = bagQueryRunner.searchForBag(qc.getType()
-                                    .getSimpleName(), identifierList, pcl.getExtraValue(), true);
-                        } catch (ClassNotFoundException e) {
-                            throw new ObjectStoreException(e);
-                        } catch (InterMineException e) {
-                            throw new ObjectStoreException(e);
-                        }
-                        codeToConstraint.put(code, new BagConstraint(new QueryField(qc, "id"),
-                                ConstraintOp.IN, bagQueryResult.getMatchAndIssueIds()));
-                        if (returnBagQueryResults != null) {
-                            returnBagQueryResults.put(stringPath, bagQueryResult);
-                        }
-                    }
                 } else {
                     throw new ObjectStoreException("Unknown constraint type "
                             + constraint.getClass().getName());
                 }
             }
         }
+        if (madeConstraints != null) {
+            madeConstraints.putAll(codeToConstraint);
+        }
         return codeToConstraint;
     }
 
+    /**
+     * Returns true if the Constraint made for a PathConstraint depends only on its path, its
+     * operation and the class of the PathConstraint, and not on the values it holds, so that it
+     * can be made again for other values without remaking the rest of the Query.
+     *
+     * @param constraint a PathConstraint
+     * @return true for attribute, list, id, multi-value and LOOKUP constraints
+     */
+    protected static boolean isValueConstraint(PathConstraint constraint) {
+        return (constraint instanceof PathConstraintAttribute)
+            || (constraint instanceof PathConstraintBag)
+            || (constraint instanceof PathConstraintIds)
+            || (constraint instanceof PathConstraintMultiValue)
+            || (constraint instanceof PathConstraintLookup);
+    }
+
+    /**
+     * Makes the Constraint for a PathConstraint that isValueConstraint() accepts.
+     *
+     * @param constraint the PathConstraint
+     * @param fieldType the type at the end of the constrained path
+     * @param field the object in the Query that represents the constrained path
+     * @param savedBags the current saved bags map (a Map from bag name to InterMineBag)
+     * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
+     * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
+     * returned
+     * @return a Constraint, or null if the constraint does not restrict the results
+     * @throws ObjectStoreException if a bag does not exist or a LOOKUP fails
+     */
+    protected static Constraint makeValueConstraint(PathConstraint constraint,
+            Class<?> fieldType, QuerySelectable field, Map<String, InterMineBag> savedBags,
+            BagQueryRunner bagQueryRunner, Map<String, BagQueryResult> returnBagQueryResults)
+        throws ObjectStoreException {
+        String stringPath = constraint.getPath();
+        if (constraint instanceof PathConstraintAttribute) {
+            PathConstraintAttribute pca = (PathConstraintAttribute) constraint;
+            if (String.class.equals(fieldType)) {
+                return makeQueryStringConstraint((QueryField) field, pca);
+            } else if (Date.class.equals(fieldType)) {
+                return makeQueryDateConstraint((QueryField) field, pca);
+            } else {
+                // Use simple forms of operators when not dealing with strings.
+                ConstraintOp simpleOp = ConstraintOp.EXACT_MATCH == pca.getOp()
+                        ? ConstraintOp.EQUALS
+                                : ConstraintOp.STRICT_NOT_EQUALS == pca.getOp()
+                                    ? ConstraintOp.NOT_EQUALS : pca.getOp();
+                return new SimpleConstraint((QueryField) field, simpleOp,
+                        new QueryValue(TypeUtil.stringToObject(fieldType, pca.getValue())));
+            }
+        } else if (constraint instanceof PathConstraintBag) {
+            PathConstraintBag pcb = (PathConstraintBag) constraint;
+            InterMineBag bag = savedBags.get(pcb.getBag());
+            if (bag == null) {
+                throw new BagNotFound(pcb.getBag());
+            }
+            return new BagConstraint((QueryNode) field, pcb.getOp(), bag.getOsb());
+        } else if (constraint instanceof PathConstraintIds) {
+            return new BagConstraint(new QueryField((QueryClass) field, "id"),
+                    constraint.getOp(), ((PathConstraintIds) constraint).getIds());
+        } else if (constraint instanceof PathConstraintMultiValue) {
+            if (String.class.equals(fieldType)) {
+                return new BagConstraint((QueryField) field, constraint.getOp(),
+                        ((PathConstraintMultiValue) constraint).getValues());
+            } else {
+                Collection<Object> objects = new ArrayList<Object>();
+                for (String s : ((PathConstraintMultiValue) constraint).getValues()) {
+                    objects.add(TypeUtil.stringToObject(fieldType, s));
+                }
+                return new BagConstraint((QueryField) field, constraint.getOp(), objects);
+            }
+        } else if (constraint instanceof PathConstraintLookup) {
+            QueryClass qc = (QueryClass) field;
+            PathConstraintLookup pcl = (PathConstraintLookup) constraint;
+            if (bagQueryRunner == null) {
+                throw new NullPointerException("Cannot convert this PathQuery to an "
+                        + "ObjectStore Query without a BagQueryRunner");
+            }
+            String identifiers = pcl.getValue();
+
+            // if this LOOKUP constraint only includes *, just ignore constraint
+            // as user wants everything.
+            if ("*".equals(identifiers)) {
+                return null;
+            }
+            BagQueryResult bagQueryResult;
+            List<String> identifierList = LOOKUP_TOKENISER.tokenise(identifiers);
+            try {
+                bagQueryResult = bagQueryRunner.searchForBag(qc.getType().getSimpleName(),
+                        identifierList, pcl.getExtraValue(), true);
+            } catch (ClassNotFoundException e) {
+                throw new ObjectStoreException(e);
+            } catch (InterMineException e) {
+                throw new ObjectStoreException(e);
+            }
+            if (returnBagQueryResults != null) {
+                returnBagQueryResults.put(stringPath, bagQueryResult);
+            }
+            return new BagConstraint(new QueryField(qc, "id"), ConstraintOp.IN,
+                    bagQueryResult.getMatchAndIssueIds());
+        }
+        throw new IllegalArgumentException("Not a value constraint: " + constraint);
+    }
+
     /**
      * Construct a new multi-type constraint.
      * @param model The model to look for types within.
@@ -1213,6 +1290,111 @@ public final class MainHelper
                 pathToQueryNode, occurancesOnly);
     }
 
+    /**
+     * Return the summary of a column from the precomputed column summaries of the ObjectStore, in
+     * the same format as the results of the query made by makeSummaryQuery().  This is only
+     * possible if the summary query would count each object of the root class once, which is the
+     * case if the column is an attribute of the root class, every other class in the view is outer
+     * joined to the root class, and the only constraint is that the column is not null.
+     *
+     * @param pathQuery the PathQuery
+     * @param summaryPath a String path of the column to summarise
+     * @param oss the summary of the ObjectStore, or null if there isn't one
+     * @param occurancesOnly Force summary to take form of item summary if true.
+     * @return the rows of the summary, or null if the summary query must be run
+     */
+    public static List<ResultsRow<Object>> getStoredSummary(PathQuery pathQuery,
+            String summaryPath, ObjectStoreSummary oss, boolean occurancesOnly) {
+        ColumnSummary summary = getStoredColumnSummary(pathQuery, summaryPath, oss);
+        if (summary == null) {
+            return null;
+        }
+        String className = summaryPath.substring(0, summaryPath.indexOf('.'));
+        String fieldName = summaryPath.substring(summaryPath.lastIndexOf('.') + 1);
+        List<ResultsRow<Object>> rows;
+        int valueColumn;
+        if (!occurancesOnly && isNumeric(summary.getType())
+                && (!SummaryConfig.summariseAsOccurrences(className + "." + fieldName))) {
+            rows = summary.getHistogramRows(SummaryConfig.getNumberOfBins().intValue());
+            valueColumn = 5;
+        } else {
+            rows = summary.getOccurrenceRows();
+            valueColumn = 0;
+        }
+        if ((rows != null) && !pathQuery.getConstraints().isEmpty()) {
+            // the column is constrained to be not null
+            List<ResultsRow<Object>> notNullRows = new ArrayList<ResultsRow<Object>>();
+            for (ResultsRow<Object> row : rows) {
+                if (row.get(valueColumn) != null) {
+                    notNullRows.add(row);
+                }
+            }
+            rows = notNullRows;
+        }
+        return rows;
+    }
+
+    /**
+     * Return the number of different values in a column from the precomputed column summaries of
+     * the ObjectStore, which is the number of rows of the occurrences summary of the column.  The
+     * same columns can be counted as can be summarised by getStoredSummary().
+     *
+     * @param pathQuery the PathQuery
+     * @param summaryPath a String path of the column to count
+     * @param oss the summary of the ObjectStore, or null if there isn't one
+     * @return the number of values, or null if the summary query must be run
+     */
+    public static Integer getStoredUniqueValueCount(PathQuery pathQuery, String summaryPath,
+            ObjectStoreSummary oss) {
+        ColumnSummary summary = getStoredColumnSummary(pathQuery, summaryPath, oss);
+        if (summary == null) {
+            return null;
+        }
+        long count = summary.getDistinctCount();
+        if ((summary.getNullCount() > 0) && !pathQuery.getConstraints().isEmpty()) {
+            count--;
+        }
+        return new Integer((int) count);
+    }
+
+    /**
+     * Find the precomputed summary of a column, if the summary query for the column would count
+     * every object of the root class of the query exactly once.
+     */
+    private static ColumnSummary getStoredColumnSummary(PathQuery pathQuery, String summaryPath,
+            ObjectStoreSummary oss) {
+        if ((oss == null) || !pathQuery.getView().contains(summaryPath)) {
+            return null;
+        }
+        try {
+            Path path = pathQuery.makePath(summaryPath);
+            if (!path.endIsAttribute() || !path.getPrefix().isRootPath()) {
+                return null;
+            }
+            for (PathConstraint con : pathQuery.getConstraints().keySet()) {
+                if (!(con instanceof PathConstraintNull)
+                        || (con.getOp() != ConstraintOp.IS_NOT_NULL)
+                        || !summaryPath.equals(con.getPath())) {
+                    return null;
+                }
+            }
+            for (String view : pathQuery.getView()) {
+                Path viewPath = pathQuery.makePath(view);
+                if (!viewPath.getPrefix().isRootPath()) {
+                    // inner joins would drop or repeat objects of the root class
+                    String join = viewPath.decomposePath().get(1).getNoConstraintsString();
+                    if (pathQuery.getOuterJoinStatus(join) != OuterJoinStatus.OUTER) {
+                        return null;
+                    }
+                }
+            }
+            return oss.getColumnSummary(path.getStartClassDescriptor().getName(),
+                    path.getLastElement());
+        } catch (PathException e) {
+            return null;
+        }
+    }
+
     private static Query recursiveMakeSummaryQuery(
             Map<String, QuerySelectable>
             origPathToQueryNode,
@@ -0,0 +1,243 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.intermine.api.bag.BagQueryResult;
+import org.intermine.api.bag.BagQueryRunner;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.Util;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryCloner;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.pathquery.OrderElement;
+import org.intermine.pathquery.PathConstraint;
+import org.intermine.pathquery.PathConstraintAttribute;
+import org.intermine.pathquery.PathConstraintLookup;
+import org.intermine.pathquery.PathConstraintMultiValue;
+import org.intermine.pathquery.PathConstraintRange;
+import org.intermine.pathquery.PathException;
+import org.intermine.pathquery.PathQuery;
+
+/**
+ * The result of converting a PathQuery into an ObjectStore Query, with the values of its
+ * attribute, list, id, multi-value and LOOKUP constraints treated as parameters. A plan can be
+ * bound to the values of any PathQuery with the same key, producing the same Query as
+ * MainHelper.makeQuery() would, without verifying the PathQuery or converting it again.
+ */
+final class PathQueryPlan
+{
+    private final Query skeleton;
+    private final Map<String, QuerySelectable> pathToQueryNode;
+    private final Map<String, Parameter> parameters;
+
+    private PathQueryPlan(Query skeleton, Map<String, QuerySelectable> pathToQueryNode,
+            Map<String, Parameter> parameters) {
+        this.skeleton = skeleton;
+        this.pathToQueryNode = pathToQueryNode;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Returns the key under which a plan for the given PathQuery is cached. Two PathQueries have
+     * the same key if they differ only in the values of their parameter constraints.
+     *
+     * @param pathQuery the PathQuery to execute, as returned by getQueryToExecute()
+     * @return a String, or null if queries like this one cannot be planned
+     */
+    static String getKey(PathQuery pathQuery) {
+        StringBuilder key = new StringBuilder();
+        key.append(pathQuery.getModel().getName())
+            .append(" VIEW ").append(pathQuery.getView())
+            .append(" ORDER BY [");
+        for (OrderElement order : pathQuery.getOrderBy()) {
+            key.append(order).append(", ");
+        }
+        key.append("] CONSTRAINTS [");
+        for (Map.Entry<PathConstraint, String> entry : pathQuery.getConstraints().entrySet()) {
+            PathConstraint constraint = entry.getKey();
+            if (constraint instanceof PathConstraintRange) {
+                // The constraint made by a RangeHelper may add to the rest of the Query
+                return null;
+            }
+            key.append(entry.getValue()).append(": ");
+            if (isParameter(constraint)) {
+                key.append(constraint.getClass().getSimpleName()).append(" ")
+                    .append(constraint.getPath()).append(" ").append(constraint.getOp());
+            } else {
+                key.append(constraint);
+            }
+            key.append(", ");
+        }
+        key.append("] LOGIC ").append(pathQuery.getConstraintLogic())
+            .append(" JOINS ").append(new TreeMap<String, Object>(pathQuery
+                        .getOuterJoinStatus()));
+        return key.toString();
+    }
+
+    /**
+     * Returns whether the value of a constraint is a parameter of the plan.
+     *
+     * @param constraint a PathConstraint
+     * @return true if the constraint can be bound to other values
+     */
+    static boolean isParameter(PathConstraint constraint) {
+        if (constraint instanceof PathConstraintLookup) {
+            // A LOOKUP for everything makes no constraint at all
+            return !"*".equals(((PathConstraintLookup) constraint).getValue());
+        }
+        return MainHelper.isValueConstraint(constraint);
+    }
+
+    /**
+     * Creates a plan from a Query just made from a PathQuery. The Query itself is not altered or
+     * retained.
+     *
+     * @param pathQuery the PathQuery that the Query was made from, as returned by
+     * getQueryToExecute()
+     * @param q the Query
+     * @param pathToQueryNode the Map from path to node populated when making the Query
+     * @param madeConstraints the Map from constraint code to Constraint populated when making
+     * the Query
+     * @return a PathQueryPlan, or null if the Query cannot be used as a plan
+     * @throws PathException if the PathQuery is invalid
+     */
+    static PathQueryPlan create(PathQuery pathQuery, Query q,
+            Map<String, QuerySelectable> pathToQueryNode,
+            Map<String, Constraint> madeConstraints) throws PathException {
+        Map<Object, Object> clones = new IdentityHashMap<Object, Object>();
+        Query skeleton = QueryCloner.cloneQuery(q, null, clones);
+        Map<String, QuerySelectable> nodes = new LinkedHashMap<String, QuerySelectable>();
+        for (Map.Entry<String, QuerySelectable> entry : pathToQueryNode.entrySet()) {
+            nodes.put(entry.getKey(), (QuerySelectable) cloneOf(clones, entry.getValue()));
+        }
+        Map<String, Parameter> parameters = new LinkedHashMap<String, Parameter>();
+        for (Map.Entry<PathConstraint, String> entry : pathQuery.getConstraints().entrySet()) {
+            PathConstraint constraint = entry.getKey();
+            if (isParameter(constraint)) {
+                // A ConstraintSet keeps only one of a pair of equal constraints, so the clone of
+                // every parameter constraint must be found to be able to replace it later
+                Constraint made = madeConstraints.get(entry.getValue());
+                Constraint con = (made == null) ? null : (Constraint) clones.get(made);
+                QuerySelectable field = nodes.get(constraint.getPath());
+                if ((con == null) || (field == null)) {
+                    return null;
+                }
+                parameters.put(entry.getValue(), new Parameter(con, field,
+                            pathQuery.makePath(constraint.getPath()).getEndType()));
+            }
+        }
+        return new PathQueryPlan(skeleton, nodes, parameters);
+    }
+
+    /**
+     * Produces the Query for a PathQuery with the same key as the one this plan was made from.
+     *
+     * @param pathQuery the PathQuery to execute, as returned by getQueryToExecute()
+     * @param savedBags the current saved bags map (a Map from bag name to InterMineBag)
+     * @param pathToQueryNode optional parameter which will be populated with entries, mapping from
+     * String path in the pathQuery to objects in the result Query
+     * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
+     * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
+     * returned
+     * @return an ObjectStore Query object
+     * @throws ObjectStoreException if a value is invalid, a bag does not exist or a LOOKUP fails
+     */
+    Query bind(PathQuery pathQuery, Map<String, InterMineBag> savedBags,
+            Map<String, QuerySelectable> pathToQueryNode, BagQueryRunner bagQueryRunner,
+            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+        List<String> problems = new ArrayList<String>();
+        for (Map.Entry<PathConstraint, String> entry : pathQuery.getConstraints().entrySet()) {
+            Parameter parameter = parameters.get(entry.getValue());
+            if (parameter != null) {
+                checkValues(entry.getKey(), parameter.fieldType, problems);
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new ObjectStoreException("PathQuery is invalid: " + problems);
+        }
+        Map<Constraint, Constraint> substitutions = new IdentityHashMap<Constraint, Constraint>();
+        for (Map.Entry<PathConstraint, String> entry : pathQuery.getConstraints().entrySet()) {
+            Parameter parameter = parameters.get(entry.getValue());
+            if (parameter != null) {
+                substitutions.put(parameter.constraint, MainHelper.makeValueConstraint(
+                            entry.getKey(), parameter.fieldType, parameter.field, savedBags,
+                            bagQueryRunner, returnBagQueryResults));
+            }
+        }
+        Map<Object, Object> clones = new IdentityHashMap<Object, Object>();
+        Query q = QueryCloner.cloneQuery(skeleton, substitutions, clones);
+        if (pathToQueryNode != null) {
+            for (Map.Entry<String, QuerySelectable> entry : this.pathToQueryNode.entrySet()) {
+                pathToQueryNode.put(entry.getKey(),
+                        (QuerySelectable) cloneOf(clones, entry.getValue()));
+            }
+        }
+        return q;
+    }
+
+    /**
+     * Performs the checks of the values of a constraint that PathQuery.verifyQuery() does.
+     */
+    private static void checkValues(PathConstraint constraint, Class<?> fieldType,
+            List<String> problems) {
+        if (constraint instanceof PathConstraintAttribute) {
+            try {
+                TypeUtil.stringToObject(fieldType, ((PathConstraintAttribute) constraint)
+                        .getValue());
+            } catch (Exception e) {
+                problems.add("Value in constraint " + constraint + " is not in correct "
+                        + "format for type of " + Util.getFriendlyName(fieldType));
+            }
+        } else if (constraint instanceof PathConstraintMultiValue) {
+            for (String value : ((PathConstraintMultiValue) constraint).getValues()) {
+                try {
+                    TypeUtil.stringToObject(fieldType, value);
+                } catch (Exception e) {
+                    problems.add("Value (" + value + ") in list in constraint "
+                            + constraint + " is not in correct format for type of "
+                            + Util.getFriendlyName(fieldType));
+                }
+            }
+        }
+    }
+
+    private static Object cloneOf(Map<Object, Object> clones, Object orig) {
+        Object clone = clones.get(orig);
+        // QueryClasses are shared between a Query and its clone
+        return (clone == null) ? orig : clone;
+    }
+
+    /**
+     * A constraint in the plan that is replaced when the plan is bound.
+     */
+    private static class Parameter
+    {
+        final Constraint constraint;
+        final QuerySelectable field;
+        final Class<?> fieldType;
+
+        Parameter(Constraint constraint, QuerySelectable field, Class<?> fieldType) {
+            this.constraint = constraint;
+            this.field = field;
+            this.fieldType = fieldType;
+        }
+    }
+}
@@ -12,6 +12,7 @@ package org.intermine.api.query;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -22,9 +23,11 @@ import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreSummary;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.pathquery.Constraints;
 import org.intermine.pathquery.PathQuery;
 import org.intermine.util.CacheMap;
@@ -58,6 +61,17 @@ public abstract class QueryExecutor
     protected BagManager bagManager;
     protected BagQueryRunner bagQueryRunner;
     protected ObjectStore os;
+    protected ObjectStoreSummary objectStoreSummary;
+
+    /**
+     * Set the summary of the ObjectStore, so that the summaries of columns that have been
+     * precomputed can be returned without querying the database.
+     *
+     * @param objectStoreSummary the summary of the ObjectStore, or null
+     */
+    public void setObjectStoreSummary(ObjectStoreSummary objectStoreSummary) {
+        this.objectStoreSummary = objectStoreSummary;
+    }
 
 
     /**
@@ -149,14 +163,23 @@ public abstract class QueryExecutor
      *   </li>
      * </ul>
      *
+     * If the column has been summarised in the ObjectStoreSummary and the query doesn't restrict
+     * the objects summarised, the precomputed summary is returned instead of running the query.
+     *
      * @param pathQuery the query to summarise
      * @param summaryPath the column to summarise
      * @param asOccurrances If true, will only return the list of values and their counts.
-     * @return a Results object with varying styles of data
+     * @return a List of ResultsRows with varying styles of data
      * @throws ObjectStoreException if there is a problem summarising
      */
-    public Results summariseQuery(PathQuery pathQuery, String summaryPath, boolean asOccurrances)
-        throws ObjectStoreException {
+    public List<Object> summariseQuery(PathQuery pathQuery, String summaryPath,
+            boolean asOccurrances) throws ObjectStoreException {
+        List<ResultsRow<Object>> stored = MainHelper.getStoredSummary(pathQuery, summaryPath,
+                objectStoreSummary, asOccurrances);
+        if (stored != null) {
+            LOG.debug("Using the stored summary of " + summaryPath);
+            return Collections.<Object>unmodifiableList(stored);
+        }
         return os.execute(makeSummaryQuery(pathQuery, summaryPath, asOccurrances), summaryBatchSize,
                 true, true, true);
     }
@@ -168,7 +191,7 @@ public abstract class QueryExecutor
      * @return A set of results.
      * @throws ObjectStoreException If there is a problem making the query.
      */
-    public Results summariseQuery(PathQuery pathQuery, String summaryPath)
+    public List<Object> summariseQuery(PathQuery pathQuery, String summaryPath)
         throws ObjectStoreException {
         return summariseQuery(pathQuery, summaryPath, false);
     }
@@ -182,7 +205,7 @@ public abstract class QueryExecutor
      * @return A set of results.
      * @throws ObjectStoreException in case of Ragnarok.
      */
-    public Results summariseQuery(
+    public List<Object> summariseQuery(
             PathQuery pq,
             String summaryPath,
             String filterTerm,
@@ -222,6 +245,10 @@ public abstract class QueryExecutor
      * @throws ObjectStoreException If there is a problem making the query.
      */
     public int uniqueColumnValues(PathQuery pq, String path) throws ObjectStoreException {
+        Integer stored = MainHelper.getStoredUniqueValueCount(pq, path, objectStoreSummary);
+        if (stored != null) {
+            return stored.intValue();
+        }
         Query q = makeSummaryQuery(pq, path, true);
         String cacheKey = q.toString() + "summary-path: " + path;
         if (COUNT_CACHE.containsKey(cacheKey)) {
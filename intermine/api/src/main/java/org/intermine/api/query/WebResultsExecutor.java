@@ -62,6 +62,7 @@ public class WebResultsExecutor extends QueryExecutor
         this.profile = profile;
         this.im = im;
         bagManager = im.getBagManager();
+        objectStoreSummary = im.getObjectStoreSummary();
         this.summaryBatchSize = Constants.BATCH_SIZE;
     }
 
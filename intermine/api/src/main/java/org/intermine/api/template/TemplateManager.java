@@ -54,6 +54,7 @@ public class TemplateManager
     private TemplateTracker templateTracker;
     private static CacheMap<String, ApiTemplate> globalValidTemplateCache
         = new CacheMap<String, ApiTemplate>();
+    private static volatile long globalValidTemplateVersion = 0;
 
     /**
      * The TemplateManager references the super user profile to fetch global templates.
@@ -331,9 +332,19 @@ public class TemplateManager
     public void invalidateCache() {
         synchronized (globalValidTemplateCache) {
             globalValidTemplateCache.clear();
+            globalValidTemplateVersion++;
         }
     }
 
+    /**
+     * Return a number that changes whenever the global valid templates may have changed, so that
+     * values computed from them can be cached.
+     * @return the version of the global valid templates
+     */
+    public long getValidGlobalTemplatesVersion() {
+        return globalValidTemplateVersion;
+    }
+
     /**
      * Return a map from template name to template query containing superuser templates that are
      * tagged as public.
@@ -78,10 +78,9 @@ public abstract class AbstractTracker implements Tracker
     public void storeTrack(Track track) {
         if (trackTableName != null) {
             if (track.validate()) {
-                try {
-                    trackQueue.add(track);
-                } catch (IllegalStateException ise) {
-                    LOG.error("Problem adding the track to the queue", ise);
+                // a bounded queue drops the track if the database can't keep up, and counts it
+                if (!trackQueue.offer(track)) {
+                    LOG.debug("Track queue full, dropped track for " + trackTableName);
                 }
             } else {
                 LOG.error("Failed to write to track table: input non valid");
@@ -10,24 +10,16 @@ package org.intermine.api.tracker;
  *
  */
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Queue;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.profile.Profile;
-import org.intermine.api.tag.TagNames;
-import org.intermine.api.tag.TagTypes;
 import org.intermine.api.template.TemplateManager;
 import org.intermine.api.tracker.track.TemplateTrack;
 import org.intermine.api.tracker.track.Track;
@@ -76,20 +68,17 @@ public class TemplateTracker extends AbstractTracker
     }
 
     /**
-     * Load the tracks retrieved from the database into TemplateExecutionMap object.
+     * Load the tracks retrieved from the database into TemplateExecutionMap object. All the
+     * tracks are loaded, as a template may be made public after it has been executed, and the
+     * access counters and ranks are computed from the cache.
      */
     private static void loadTemplatesExecutionCache(Connection con) {
-        PreparedStatement stm = null;
+        Statement stm = null;
         ResultSet rs = null;
         try {
-            String sql = "SELECT tt.templatename, tt.username, tt.sessionidentifier"
-                         + " FROM templatetrack tt"
-                         + " LEFT JOIN tag t ON tt.templatename = t.objectidentifier"
-                         + " WHERE t.type = ? AND t.tagname = ?";
-            stm = con.prepareStatement(sql);
-            stm.setString(1, TagTypes.TEMPLATE);
-            stm.setString(2, TagNames.IM_PUBLIC);
-            rs = stm.executeQuery();
+            String sql = "SELECT templatename, username, sessionidentifier FROM templatetrack";
+            stm = con.createStatement();
+            rs = stm.executeQuery(sql);
             TemplateTrack tt;
             while (rs.next()) {
                 tt = new TemplateTrack(rs.getString(1), rs.getString(2), rs.getString(3));
@@ -97,6 +86,8 @@ public class TemplateTracker extends AbstractTracker
             }
         } catch (SQLException sqle) {
             LOG.error("Error during loading template tracks into the cache", sqle);
+        } finally {
+            templateTracker.releaseResources(rs, stm);
         }
     }
 
@@ -123,24 +114,26 @@ public class TemplateTracker extends AbstractTracker
     }
 
     /**
-     * Return the number of executions for each public template
+     * Return the number of executions for each public template. The executions are counted in
+     * memory, only the names of the templates tagged as public are read from the database.
      * @param con db connection
      * @return map with key the template name and executions number
      */
     protected Map<String, Integer> getAccessCounter(Connection con) {
         ResultSet rs = null;
         Statement stm = null;
+        Map<String, Integer> executionCounts = templatesExecutionCache.getExecutionCounts();
         Map<String, Integer> templateRank = new HashMap<String, Integer>();
         try {
             stm = con.createStatement();
-            String sql = "SELECT tt.templatename, COUNT(tt.templatename) as accessnumbers "
-                        + "FROM templatetrack tt, tag t "
-                        + "WHERE tt.templatename=t.objectidentifier "
-                        + "AND t.tagname LIKE '%public' AND t.type='template' "
-                        + "GROUP BY tt.templatename";
+            String sql = "SELECT DISTINCT objectidentifier FROM tag "
+                        + "WHERE tagname LIKE '%public' AND type='template'";
             rs = stm.executeQuery(sql);
             while (rs.next()) {
-                templateRank.put(rs.getString(1), rs.getInt(2));
+                Integer count = executionCounts.get(rs.getString(1));
+                if (count != null) {
+                    templateRank.put(rs.getString(1), count);
+                }
             }
             return templateRank;
         } catch (SQLException sqle) {
@@ -151,43 +144,37 @@ public class TemplateTracker extends AbstractTracker
         return null;
     }
 
+    /**
+     * Return the number of executions for each valid global template, without using the
+     * database.
+     * @param templateManager the template manager used to retrieve the global templates
+     * @return map with key the template name and executions number
+     */
+    protected Map<String, Integer> getAccessCounter(TemplateManager templateManager) {
+        Map<String, Integer> executionCounts = templatesExecutionCache.getExecutionCounts();
+        Map<String, Integer> templateRank = new HashMap<String, Integer>();
+        for (String templateName : templateManager.getValidGlobalTemplates().keySet()) {
+            Integer count = executionCounts.get(templateName);
+            if (count != null) {
+                templateRank.put(templateName, count);
+            }
+        }
+        return templateRank;
+    }
+
     /**
      * Return the rank for each public template.It represents a relationship between the templates
      * executions; a template with rank 1 has been executed more than a template with rank 2. The
      * rank is calculated by summing the logarithm of the templates executions launched by the
      * single users, if the user is logged in, or otherwise, by summing the logarithm of the
      * templates executions during the same http session. The function is called only by the
-     * super user
+     * super user. The ranks are kept up to date as templates are executed, so this doesn't
+     * need to recompute them
      * @param templateManager the template manager used to retrieve the global templates
-     * @return map with key the template name and rank
+     * @return unmodifiable map with key the template name and rank
      */
     protected Map<String, Integer> getRank(TemplateManager templateManager) {
-        Map<String, Integer> templateRank = new HashMap<String, Integer>();
-        Map<String, Double> templateMergedRank = templatesExecutionCache.getLogarithmMap(null,
-                                                                              templateManager);
-
-        //order the templateMergedRank by value descending
-        List<Entry<String, Double>> listOrdered =
-            new LinkedList<Entry<String, Double>>(templateMergedRank.entrySet());
-        Collections.sort(listOrdered, new Comparator<Entry<String, Double>>() {
-            @Override
-            public int compare (Entry<String, Double> e1, Entry<String, Double> e2) {
-                return -e1.getValue().compareTo(e2.getValue());
-            }
-        });
-
-        //assign rank 1 to the template with higher value
-        int rankDisplayed = 0;
-        Double prevValue = 0.0;
-        for (Entry<String, Double> entry : listOrdered) {
-            if (entry.getValue().doubleValue() != prevValue.doubleValue()) {
-                rankDisplayed++;
-                prevValue = entry.getValue();
-            }
-            templateRank.put(entry.getKey(), rankDisplayed);
-        }
-        templateRank.put("minRank", ++rankDisplayed);
-        return templateRank;
+        return templatesExecutionCache.getRanks(templateManager);
     }
 
     /**
@@ -198,8 +185,7 @@ public class TemplateTracker extends AbstractTracker
      * @return rank as an integer
      */
     protected Integer getRank(TemplateManager templateManager, String templateName) {
-        Map<String, Integer> ranks = getRank(templateManager);
-        return ranks.get(templateName);
+        return templatesExecutionCache.getRanks(templateManager).get(templateName);
     }
 
     /**
@@ -272,6 +258,7 @@ public class TemplateTracker extends AbstractTracker
                         + " SET templatename = '" + newTemplateName + "'"
                         + " WHERE templatename = '" + oldTemplateName + "'";
             stm.executeUpdate(sql);
+            templatesExecutionCache.renameTemplate(oldTemplateName, newTemplateName);
         } catch (SQLException sqe) {
             LOG.error("Problem during updating templatename in updateTemplateName() ,method", sqe);
         } finally {
@@ -9,8 +9,13 @@ package org.intermine.api.tracker;
  * information or http://www.gnu.org/copyleft/lesser.html.
  *
  */
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.intermine.api.tracker.track.TemplateTrack;
 import org.intermine.api.template.ApiTemplate;
@@ -20,39 +25,132 @@ import org.intermine.api.template.TemplateManager;
  * Class for saving the template executions into the memory. The template executions are saved into
  * an Map containing as a value an hashmap having as a key the user's name (or the session
  * identifier) and as a value the number of executions for that user's name (or session identifier)
+ *
+ * The total number of executions and the logarithm sum used for the rank of each template are
+ * updated as each execution is added, and so is the sorted count of public templates with each
+ * sum that the ranks are read from.  The access counts and the ranks are published as immutable
+ * snapshots, which are only copied again after executions have been added or the public templates
+ * have changed, so reading them doesn't need a lock.
  * @author dbutano
  */
 public class TemplatesExecutionMap
 {
+    // log(executions + 1) is summed in fixed point, so the sums are exact whatever order the
+    // executions arrive in and templates with the same executions get the same rank
+    private static final double FIXED_POINT_SCALE = 4294967296.0;
+
     protected Map<String, Map<String, Integer>> templateExecutions =
                                               new HashMap<String, Map<String, Integer>>();
+    private Map<String, Long> logarithmSums = new HashMap<String, Long>();
+    private Map<String, Integer> executionCounts = new HashMap<String, Integer>();
+    // the public templates, their logarithm sums, and the number of public templates with each
+    // sum, so the rank of a template is one more than the number of greater sums
+    private Set<String> rankedTemplates = Collections.emptySet();
+    private Map<String, Long> rankedSums = new HashMap<String, Long>();
+    private TreeMap<Long, Integer> sumCounts = new TreeMap<Long, Integer>();
+    private volatile long rankedTemplatesVersion = Long.MIN_VALUE;
+    private volatile long version = 0;
+    private volatile Snapshot countSnapshot = null;
+    private volatile Snapshot rankSnapshot = null;
 
     /**
      * Add a new template track into the map
      * @param templateTrack the template track to add
      */
-    public void addExecution(TemplateTrack templateTrack) {
+    public synchronized void addExecution(TemplateTrack templateTrack) {
         String executionKey = (templateTrack.getUserName() != null
                               && !"".equals(templateTrack.getUserName()))
                               ? templateTrack.getUserName()
                               : templateTrack.getSessionIdentifier();
         String templateName = templateTrack.getTemplateName();
-        Map<String, Integer> execution;
-        if (!templateExecutions.containsKey(templateName)) {
+        Map<String, Integer> execution = templateExecutions.get(templateName);
+        if (execution == null) {
             execution = new HashMap<String, Integer>();
-            execution.put(executionKey, 1);
             templateExecutions.put(templateName, execution);
         }
-        else {
-            execution = templateExecutions.get(templateName);
-            if (!execution.containsKey(executionKey)) {
-                execution.put(executionKey, 1);
+        Integer previous = execution.get(executionKey);
+        int count = (previous == null) ? 0 : previous.intValue();
+        execution.put(executionKey, count + 1);
+
+        Long sum = logarithmSums.get(templateName);
+        long newSum = ((sum == null) ? 0 : sum.longValue())
+            + fixedLog(count + 2) - fixedLog(count + 1);
+        logarithmSums.put(templateName, newSum);
+        if (rankedTemplates.contains(templateName)) {
+            unrank(templateName);
+            rank(templateName, newSum);
+        }
+        Integer total = executionCounts.get(templateName);
+        executionCounts.put(templateName, ((total == null) ? 0 : total.intValue()) + 1);
+        version++;
+    }
+
+    /**
+     * Move the executions of a template to a new name, after the template has been renamed
+     * @param oldTemplateName the old name
+     * @param newTemplateName the new name
+     */
+    public synchronized void renameTemplate(String oldTemplateName, String newTemplateName) {
+        Map<String, Integer> oldExecution = templateExecutions.remove(oldTemplateName);
+        logarithmSums.remove(oldTemplateName);
+        Integer oldTotal = executionCounts.remove(oldTemplateName);
+        if (oldExecution == null) {
+            return;
+        }
+        unrank(oldTemplateName);
+        Map<String, Integer> execution = templateExecutions.get(newTemplateName);
+        if (execution == null) {
+            execution = new HashMap<String, Integer>();
+            templateExecutions.put(newTemplateName, execution);
+        }
+        for (Entry<String, Integer> entry : oldExecution.entrySet()) {
+            Integer count = execution.get(entry.getKey());
+            execution.put(entry.getKey(), entry.getValue().intValue()
+                    + ((count == null) ? 0 : count.intValue()));
+        }
+        long sum = 0;
+        for (Integer count : execution.values()) {
+            sum += fixedLog(count.intValue() + 1);
+        }
+        logarithmSums.put(newTemplateName, sum);
+        if (rankedTemplates.contains(newTemplateName)) {
+            unrank(newTemplateName);
+            rank(newTemplateName, sum);
+        }
+        Integer total = executionCounts.get(newTemplateName);
+        executionCounts.put(newTemplateName, oldTotal.intValue()
+                + ((total == null) ? 0 : total.intValue()));
+        version++;
+    }
+
+    /**
+     * Add a public template to the ranked sums.  The caller must hold the lock.
+     */
+    private void rank(String templateName, long sum) {
+        rankedSums.put(templateName, sum);
+        Integer templates = sumCounts.get(sum);
+        sumCounts.put(sum, (templates == null) ? 1 : templates.intValue() + 1);
+    }
+
+    /**
+     * Remove a template from the ranked sums, if it is there.  The caller must hold the lock.
+     */
+    private void unrank(String templateName) {
+        Long sum = rankedSums.remove(templateName);
+        if (sum != null) {
+            int templates = sumCounts.get(sum).intValue();
+            if (templates == 1) {
+                sumCounts.remove(sum);
             } else {
-                execution.put(executionKey, execution.get(executionKey).intValue() + 1);
+                sumCounts.put(sum, templates - 1);
             }
         }
     }
 
+    private static long fixedLog(int n) {
+        return Math.round(Math.log(n) * FIXED_POINT_SCALE);
+    }
+
     /**
      * Return a map containing the logarithm's sum of the templates executions launched by
      * the same users or during the same sessions. If the user name is specified, we only
@@ -61,7 +159,7 @@ public class TemplatesExecutionMap
      * @param templateManager the template manager used to retrieve the global templates
      * @return map having as key the template's name and as value the logarithm sum
      */
-    public Map<String, Double> getLogarithmMap(String executionKey,
+    public synchronized Map<String, Double> getLogarithmMap(String executionKey,
                                                TemplateManager templateManager) {
         Map<String, Double> logarithmMap = new HashMap<String, Double>();
         if (executionKey == null) {
@@ -90,4 +188,88 @@ public class TemplatesExecutionMap
         }
         return logarithmMap;
     }
+
+    /**
+     * Return the total number of executions of each template.
+     * @return an unmodifiable map from template name to number of executions
+     */
+    public Map<String, Integer> getExecutionCounts() {
+        Snapshot counts = countSnapshot;
+        if (counts == null || counts.version != version) {
+            synchronized (this) {
+                counts = new Snapshot(version, 0, Collections.unmodifiableMap(
+                            new HashMap<String, Integer>(executionCounts)));
+            }
+            countSnapshot = counts;
+        }
+        return counts.values;
+    }
+
+    /**
+     * Return the rank of each public template, as described in TemplateTracker.getRank(), with
+     * an extra "minRank" entry giving the rank of templates that have never been executed.
+     * @param templateManager the template manager used to retrieve the global templates
+     * @return an unmodifiable map from template name to rank
+     */
+    public Map<String, Integer> getRanks(TemplateManager templateManager) {
+        long templatesVersion = (templateManager == null)
+            ? -1 : templateManager.getValidGlobalTemplatesVersion();
+        Snapshot ranks = rankSnapshot;
+        if (ranks == null || ranks.version != version
+                || ranks.templatesVersion != templatesVersion) {
+            Set<String> publicTemplates = null;
+            if (rankedTemplatesVersion != templatesVersion) {
+                publicTemplates = (templateManager == null)
+                    ? Collections.<String>emptySet()
+                    : templateManager.getValidGlobalTemplates().keySet();
+            }
+            synchronized (this) {
+                if (publicTemplates != null && rankedTemplatesVersion != templatesVersion) {
+                    // the public templates have changed, so start the ranking again
+                    rankedTemplates = new HashSet<String>(publicTemplates);
+                    rankedSums.clear();
+                    sumCounts.clear();
+                    for (String templateName : publicTemplates) {
+                        Long sum = logarithmSums.get(templateName);
+                        if (sum != null) {
+                            rank(templateName, sum.longValue());
+                        }
+                    }
+                    rankedTemplatesVersion = templatesVersion;
+                }
+                //assign rank 1 to the template with higher value
+                Map<Long, Integer> sumRanks = new HashMap<Long, Integer>();
+                int rankDisplayed = 0;
+                for (Long sum : sumCounts.descendingKeySet()) {
+                    sumRanks.put(sum, ++rankDisplayed);
+                }
+                Map<String, Integer> templateRank = new HashMap<String, Integer>();
+                for (Entry<String, Long> entry : rankedSums.entrySet()) {
+                    templateRank.put(entry.getKey(), sumRanks.get(entry.getValue()));
+                }
+                templateRank.put("minRank", ++rankDisplayed);
+                ranks = new Snapshot(version, rankedTemplatesVersion,
+                        Collections.unmodifiableMap(templateRank));
+            }
+            rankSnapshot = ranks;
+        }
+        return ranks.values;
+    }
+
+    /**
+     * An immutable map of values, with the versions of the executions and public templates it
+     * was computed from.
+     */
+    private static final class Snapshot
+    {
+        private final long version;
+        private final long templatesVersion;
+        private final Map<String, Integer> values;
+
+        private Snapshot(long version, long templatesVersion, Map<String, Integer> values) {
+            this.version = version;
+            this.templatesVersion = templatesVersion;
+            this.values = values;
+        }
+    }
 }
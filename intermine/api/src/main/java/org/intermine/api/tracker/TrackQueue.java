@@ -0,0 +1,96 @@
+package org.intermine.api.tracker;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.intermine.api.tracker.track.Track;
+
+/**
+ * Bounded queue of tracks waiting to be written by the TrackerLogger.  When the queue is full, a
+ * request thread adding a track waits a short time for the logger to catch up, and if it is
+ * still full the track is dropped rather than holding up the request.  The number of tracks
+ * that had to wait and that were dropped are counted.
+ */
+public class TrackQueue extends ArrayBlockingQueue<Track>
+{
+    /** The default maximum number of tracks waiting to be written. */
+    public static final int DEFAULT_CAPACITY = 10000;
+    private static final long OFFER_TIMEOUT = 100;
+    private static final long serialVersionUID = 1L;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Construct a queue with the default capacity.
+     */
+    public TrackQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct a queue holding up to the given number of tracks.
+     *
+     * @param capacity the maximum number of tracks waiting to be written
+     */
+    public TrackQueue(int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * Add a track to the queue, waiting briefly if it is full.
+     *
+     * @param track the track to add
+     * @return false if the track was dropped because the queue stayed full
+     */
+    @Override
+    public boolean offer(Track track) {
+        if (super.offer(track)) {
+            accepted.incrementAndGet();
+            return true;
+        }
+        delayed.incrementAndGet();
+        try {
+            if (super.offer(track, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                accepted.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return the number of tracks that have been added to the queue
+     */
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    /**
+     * @return the number of tracks that had to wait because the queue was full
+     */
+    public long getDelayedCount() {
+        return delayed.get();
+    }
+
+    /**
+     * @return the number of tracks that were dropped because the queue stayed full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
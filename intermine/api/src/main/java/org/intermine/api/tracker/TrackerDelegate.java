@@ -13,17 +13,14 @@ import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.template.TemplateManager;
 import org.intermine.api.tracker.factory.TrackerFactory;
 import org.intermine.api.tracker.track.ListTrack;
-import org.intermine.api.tracker.track.Track;
 import org.intermine.api.tracker.util.ListBuildMode;
 import org.intermine.api.tracker.util.ListTrackerEvent;
 import org.intermine.api.tracker.util.TrackerUtil;
@@ -44,6 +41,7 @@ public class TrackerDelegate implements Shutdownable
     protected ObjectStoreWriter osw;
     protected final Connection connection;
     protected Thread trackerLoggerThread;
+    protected TrackQueue trackQueue = new TrackQueue();
     private boolean isClosed = false;
 
     /**
@@ -52,7 +50,6 @@ public class TrackerDelegate implements Shutdownable
      * @param osw the object store witer used to retrieve the connections
      */
     public TrackerDelegate(String[] trackerClassNames, ObjectStoreWriter osw) {
-        Queue<Track> trackQueue = new LinkedList<Track>();
         this.osw = osw;
         ShutdownHook.registerObject(new WeakReference<Object>(this));
         try {
@@ -80,6 +77,15 @@ public class TrackerDelegate implements Shutdownable
         trackerLoggerThread.start();
     }
 
+    /**
+     * Return the queue of tracks waiting to be written, which counts the tracks that had to wait
+     * for space or were dropped because the database couldn't keep up
+     * @return the track queue
+     */
+    public TrackQueue getTrackQueue() {
+        return trackQueue;
+    }
+
     /**
      * Return the trackers saved in the TrackerManager
      * @return map containing names and trackers
@@ -145,6 +151,19 @@ public class TrackerDelegate implements Shutdownable
         return null;
     }
 
+    /**
+     * Return the number of executions of each valid global template, counted in memory
+     * @param templateManager the template manager
+     * @return map with key the template name and value the number of executions
+     */
+    public Map<String, Integer> getAccessCounter(TemplateManager templateManager) {
+        TemplateTracker tt = getTemplateTracker();
+        if (tt != null) {
+            return tt.getAccessCounter(templateManager);
+        }
+        return null;
+    }
+
     /**
      * Return the rank associated to the templates
      * @param templateManager the template manager
@@ -355,7 +374,8 @@ public class TrackerDelegate implements Shutdownable
     /**
      * Release the db connection when done. Once this connection is released, it will be sent
      * back to the connection pool and reassigned to someone else. So we need to be careful to
-     * not close a connection someone else is using!
+     * not close a connection someone else is using! Tracks still in the queue are written
+     * before the connection is released.
      */
     public synchronized void close() {
         if (isClosed) {
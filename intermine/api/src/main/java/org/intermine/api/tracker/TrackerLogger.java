@@ -10,28 +10,42 @@ package org.intermine.api.tracker;
  *
  */
 import java.sql.Connection;
-import java.util.Queue;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.log4j.Logger;
 import org.intermine.api.tracker.track.Track;
+import org.intermine.sql.writebatch.Batch;
+import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
 
 /**
  * Runnable object providing insertion into the database. TrackerLogger is created
- * for a specific connection and table.
+ * for a specific connection and queue, and writes the tracks in the queue to their tables in
+ * batches, using COPY where the database supports it.  Interrupting the thread running the
+ * TrackerLogger makes it write the tracks still in the queue and finish.
  * @author dbutano
  *
  */
 public class TrackerLogger implements Runnable
 {
+    private static final Logger LOG = Logger.getLogger(TrackerLogger.class);
+    private static final int BATCH_SIZE = 1000;
 
     private Connection connection;
-    private Queue<Track> trackQueue;
+    private BlockingQueue<Track> trackQueue;
+    private long written = 0;
+    private long failed = 0;
 
     /**
      * Construct a TrackerLogger for a specific connection and table
      * @param connection the connection to the database
      * @param trackQueue track queue
      */
-    public TrackerLogger(Connection connection, Queue<Track> trackQueue) {
+    public TrackerLogger(Connection connection, BlockingQueue<Track> trackQueue) {
         this.connection = connection;
         this.trackQueue = trackQueue;
         if (connection == null || trackQueue == null) {
@@ -44,21 +58,76 @@ public class TrackerLogger implements Runnable
      */
     @Override
     public void run() {
-        for (;;) {
-            if (Thread.interrupted()) {
-                return;
+        Batch batch = new Batch(new BatchWriterPostgresCopyImpl());
+        List<Track> tracks = new ArrayList<Track>();
+        try {
+            while (!Thread.interrupted()) {
+                Track track = trackQueue.poll(1, TimeUnit.SECONDS);
+                if (track != null) {
+                    tracks.add(track);
+                    trackQueue.drainTo(tracks, BATCH_SIZE - 1);
+                    write(batch, tracks);
+                }
             }
+        } catch (InterruptedException e) {
+            // closing down
+        }
+        while (trackQueue.drainTo(tracks, BATCH_SIZE) > 0) {
+            write(batch, tracks);
+        }
+        try {
+            batch.close(connection);
+        } catch (SQLException e) {
+            LOG.error("Problem closing the track batch", e);
+        }
+        StringBuilder summary = new StringBuilder("TrackerLogger finished: wrote " + written
+                + " tracks, failed to write " + failed);
+        if (trackQueue instanceof TrackQueue) {
+            TrackQueue queue = (TrackQueue) trackQueue;
+            summary.append(", " + queue.getDelayedCount() + " waited for space in the queue and "
+                    + queue.getDroppedCount() + " were dropped");
+        }
+        LOG.info(summary.toString());
+    }
 
-            Track track = trackQueue.poll();
-            if (track != null) {
-                track.store(connection);
-            }
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                return;
+    /**
+     * Write a list of tracks to the database, and empty the list.
+     * @param batch the Batch to write through
+     * @param tracks the tracks to write
+     */
+    private void write(Batch batch, List<Track> tracks) {
+        try {
+            for (Track track : tracks) {
+                batch.addRow(connection, track.getTableName(), null, track.getColumnNames(),
+                        getValues(track));
             }
+            batch.flush(connection);
+            written += tracks.size();
+        } catch (SQLException e) {
+            LOG.error("Problem writing " + tracks.size() + " tracks", e);
+            failed += tracks.size();
+            batch.clear();
+        }
+        tracks.clear();
+    }
 
+    /**
+     * Return the values of a track as types that the Batch can write, as TrackAbstract.store()
+     * would have bound them.
+     * @param track the track
+     * @return an array of values
+     */
+    private static Object[] getValues(Track track) {
+        Object[] values = track.getFormattedTrack();
+        Object[] retval = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null || value instanceof Integer || value instanceof Timestamp) {
+                retval[i] = value;
+            } else {
+                retval[i] = value.toString();
+            }
         }
+        return retval;
     }
 }
@@ -20,6 +20,8 @@ import org.intermine.api.tracker.util.TrackerUtil;
  */
 public class KeySearchTrack extends TrackAbstract
 {
+    private static final String[] COLUMN_NAMES = new String[] {"keyword",
+        "username", "sessionidentifier", "timestamp"};
     private String keyword;
 
     /**
@@ -47,6 +49,11 @@ public class KeySearchTrack extends TrackAbstract
         return TrackerUtil.SEARCH_TRACKER_TABLE;
     }
 
+    @Override
+    public String[] getColumnNames() {
+        return COLUMN_NAMES;
+    }
+
     @Override
     public boolean validate() {
         if (keyword != null && !"".equals(keyword)) {
@@ -22,6 +22,8 @@ import org.intermine.api.tracker.util.TrackerUtil;
  */
 public class ListTrack extends TrackAbstract
 {
+    private static final String[] COLUMN_NAMES = new String[] {"type", "count", "buildmode",
+        "event", "username", "sessionidentifier", "timestamp"};
     private String type;
     private int count;
     private ListBuildMode buildMode;
@@ -122,4 +124,12 @@ public class ListTrack extends TrackAbstract
     public String getTableName() {
         return TrackerUtil.LIST_TRACKER_TABLE;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getColumnNames() {
+        return COLUMN_NAMES;
+    }
 }
@@ -20,6 +20,7 @@ import org.intermine.api.tracker.util.TrackerUtil;
  */
 public class LoginTrack extends TrackAbstract
 {
+    private static final String[] COLUMN_NAMES = new String[] {"username", "timestamp"};
     private String user;
 
     /**
@@ -48,6 +49,14 @@ public class LoginTrack extends TrackAbstract
         return TrackerUtil.LOGIN_TRACKER_TABLE;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getColumnNames() {
+        return COLUMN_NAMES;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -20,6 +20,8 @@ import org.intermine.api.tracker.util.TrackerUtil;
  */
 public class QueryTrack extends TrackAbstract
 {
+    private static final String[] COLUMN_NAMES = new String[] {"type",
+        "username", "sessionidentifier", "timestamp"};
     private String type;
 
     /**
@@ -46,6 +48,11 @@ public class QueryTrack extends TrackAbstract
         return TrackerUtil.QUERY_TRACKER_TABLE;
     }
 
+    @Override
+    public String[] getColumnNames() {
+        return COLUMN_NAMES;
+    }
+
     @Override
     public boolean validate() {
         if (type != null && !"".equals(type)) {
@@ -20,6 +20,8 @@ import org.intermine.api.tracker.util.TrackerUtil;
  */
 public class TemplateTrack extends TrackAbstract
 {
+    private static final String[] COLUMN_NAMES = new String[] {"templatename",
+        "username", "sessionidentifier", "timestamp"};
     private String templateName;
 
     /**
@@ -86,4 +88,12 @@ public class TemplateTrack extends TrackAbstract
         return TrackerUtil.TEMPLATE_TRACKER_TABLE;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getColumnNames() {
+        return COLUMN_NAMES;
+    }
+
 }
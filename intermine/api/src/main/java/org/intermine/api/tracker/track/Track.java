@@ -39,4 +39,10 @@ public interface Track
      * @return String the table name
      */
     String getTableName();
+
+    /**
+     * Return the names of the columns of the table, in the same order as getFormattedTrack()
+     * @return String[] the column names
+     */
+    String[] getColumnNames();
 }
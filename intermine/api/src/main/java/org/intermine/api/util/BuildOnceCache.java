@@ -0,0 +1,173 @@
+package org.intermine.api.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.intermine.util.CacheMap;
+
+/**
+ * A cache of values that are expensive to build, such as in-memory indexes, that makes sure each
+ * value is only built by one thread at a time.  Values are built outside the lock, so that values
+ * for other keys are not held up, and a thread that asks for a value that is already being built
+ * waits for it rather than building it again.  A build that fails is not kept, so the next
+ * request tries again.  Built values are held in a CacheMap, so they are dropped if memory runs
+ * short.
+ *
+ * Values can also be built in the background, so that a request that would have to wait for a
+ * value can do without it instead.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class BuildOnceCache<K, V>
+{
+    private static final Logger LOG = Logger.getLogger(BuildOnceCache.class);
+
+    // Values are built in the background one at a time, so that they don't compete for memory
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BuildOnceCache builder");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final String name;
+    private final Map<K, V> built = new CacheMap<K, V>();
+    // values being built, guarded by built
+    private final Map<K, FutureTask<V>> building = new HashMap<K, FutureTask<V>>();
+
+    /**
+     * Constructor.
+     *
+     * @param name a description of the values, used in error messages
+     */
+    public BuildOnceCache(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns a value if it has been built.
+     *
+     * @param key the key of the value
+     * @return the value, or null if it has not been built
+     */
+    public V getIfBuilt(K key) {
+        synchronized (built) {
+            return built.get(key);
+        }
+    }
+
+    /**
+     * Returns a value, building it on this thread if it has not been built, or waiting for it if
+     * another thread is building it.
+     *
+     * @param key the key of the value
+     * @param builder builds the value
+     * @return the value, or null if the thread was interrupted while waiting
+     */
+    public V get(K key, Callable<V> builder) {
+        FutureTask<V> task;
+        synchronized (built) {
+            V value = built.get(key);
+            if (value != null) {
+                return value;
+            }
+            task = taskFor(key, builder);
+        }
+        // does nothing if another thread has already started the build
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Failed to build " + name + " for " + key, cause);
+        }
+    }
+
+    /**
+     * Starts building a value in the background, unless it has been built or is being built.  A
+     * thread that calls get() for the value before the background build has started builds it
+     * itself.
+     *
+     * @param key the key of the value
+     * @param builder builds the value
+     */
+    public void buildInBackground(final K key, Callable<V> builder) {
+        final FutureTask<V> task;
+        synchronized (built) {
+            if (built.get(key) != null || building.containsKey(key)) {
+                return;
+            }
+            task = taskFor(key, builder);
+        }
+        BACKGROUND.execute(new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    LOG.warn("Failed to build " + name + " for " + key, e.getCause());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the task building a value, creating it if nobody is building the value.  The
+     * caller must hold the lock on built.
+     */
+    private FutureTask<V> taskFor(final K key, final Callable<V> builder) {
+        FutureTask<V> task = building.get(key);
+        if (task == null) {
+            task = new FutureTask<V>(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    V value = null;
+                    try {
+                        value = builder.call();
+                        return value;
+                    } finally {
+                        synchronized (built) {
+                            building.remove(key);
+                            if (value != null) {
+                                built.put(key, value);
+                            }
+                        }
+                    }
+                }
+            });
+            building.put(key, task);
+        }
+        return task;
+    }
+}
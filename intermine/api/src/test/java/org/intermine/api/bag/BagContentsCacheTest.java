@@ -0,0 +1,88 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.util.CompressedIntSet;
+
+public class BagContentsCacheTest extends TestCase
+{
+    private BagObjectStore os;
+    private BagContentsCache cache;
+    private ObjectStoreBag osb = new ObjectStoreBag(1);
+
+    public BagContentsCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        os = new BagObjectStore();
+        os.setResultsSize(2);
+        os.addRow(new ResultsRow<Object>(Arrays.asList(new Integer(4))));
+        os.addRow(new ResultsRow<Object>(Arrays.asList(new Integer(5))));
+        cache = BagContentsCache.getInstance(os);
+    }
+
+    public void testContentsCached() throws Exception {
+        CompressedIntSet ids = cache.getContents(osb);
+        assertEquals(Arrays.asList(4, 5), ids.toList());
+        assertSame(ids, cache.getCachedContents(osb));
+        assertSame(ids, cache.getContents(osb));
+        assertEquals(0, cache.getReadsInProgress());
+        cache.invalidate(osb);
+        assertNull(cache.getCachedContents(osb));
+        // Nothing is kept for a bag that has been changed or deleted
+        assertEquals(0, cache.getReadsInProgress());
+    }
+
+    public void testChangedDuringRead() throws Exception {
+        os.duringRead = new Runnable() {
+            public void run() {
+                assertEquals(1, cache.getReadsInProgress());
+                cache.invalidate(osb);
+            }
+        };
+        assertEquals(Arrays.asList(4, 5), cache.getContents(osb).toList());
+        assertNull(cache.getCachedContents(osb));
+        assertEquals(0, cache.getReadsInProgress());
+        os.duringRead = null;
+        assertNotNull(cache.getContents(osb));
+        assertNotNull(cache.getCachedContents(osb));
+    }
+
+    /**
+     * An ObjectStore that can run something while the contents of a bag are read.
+     */
+    private static class BagObjectStore extends ObjectStoreDummyImpl
+    {
+        private Runnable duringRead;
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public List execute(Query q, int start, int limit, boolean optimise, boolean explain,
+                Map<Object, Integer> sequence) throws ObjectStoreException {
+            if (duringRead != null) {
+                duringRead.run();
+            }
+            return super.execute(q, start, limit, optimise, explain, sequence);
+        }
+    }
+}
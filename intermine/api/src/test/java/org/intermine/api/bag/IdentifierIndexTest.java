@@ -0,0 +1,73 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class IdentifierIndexTest extends TestCase
+{
+    private IdentifierIndex index;
+
+    public void setUp() {
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        rows.add(Arrays.asList((Object) new Integer(3), "EmployeeA1", null));
+        rows.add(Arrays.asList((Object) new Integer(1), "EmployeeA2", "Mr."));
+        rows.add(Arrays.asList((Object) new Integer(2), "EmployeeB1", "Mr."));
+        rows.add(Arrays.asList((Object) new Integer(4), "Employee_B2", "employeeb1"));
+        rows.add(Arrays.asList((Object) new Integer(5), "Employee(C)", new Integer(42)));
+        index = new IdentifierIndex(rows.iterator());
+    }
+
+    public void testLookup() {
+        assertEquals(7, index.size());
+        assertTrue(Arrays.equals(new int[] {3}, index.lookup("employeea1")));
+        assertTrue(Arrays.equals(new int[] {1, 2}, index.lookup("mr.")));
+        assertTrue(Arrays.equals(new int[] {2, 4}, index.lookup("employeeb1")));
+        assertTrue(Arrays.equals(new int[] {5}, index.lookup("42")));
+        assertEquals(0, index.lookup("EmployeeA1").length);
+        assertEquals(0, index.lookup("employee").length);
+        assertEquals(0, index.lookup("zzz").length);
+    }
+
+    public void testMatch() {
+        assertTrue(Arrays.equals(new int[] {1, 3}, index.match("employeea*",
+                        Pattern.compile("employeea.*"))));
+        assertTrue(Arrays.equals(new int[] {1, 2, 3, 4, 5}, index.match("*e*",
+                        Pattern.compile(".*e.*"))));
+        // '_' is a single character wildcard in the database, but must also match the pattern
+        assertTrue(Arrays.equals(new int[] {2, 3, 4}, index.match("employee_1",
+                        Pattern.compile("employee.1"))));
+        assertEquals(0, index.match("employee_1", Pattern.compile("employee_1")).length);
+        assertEquals(0, index.match("employeec*", Pattern.compile("employeec.*")).length);
+    }
+
+    public void testDuplicatesAndOrder() {
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        for (int i = 3000; i > 0; i--) {
+            rows.add(Arrays.asList((Object) new Integer(i), "Id" + i, "ID" + i, "all"));
+        }
+        rows.add(Arrays.asList((Object) new Integer(7), "id1"));
+        IdentifierIndex big = new IdentifierIndex(rows.iterator());
+        assertEquals(3001, big.size());
+        assertTrue(Arrays.equals(new int[] {1, 7}, big.lookup("id1")));
+        assertTrue(Arrays.equals(new int[] {3000}, big.lookup("id3000")));
+        int[] all = big.lookup("all");
+        assertEquals(3000, all.length);
+        for (int i = 0; i < all.length; i++) {
+            assertEquals(i + 1, all[i]);
+        }
+    }
+}
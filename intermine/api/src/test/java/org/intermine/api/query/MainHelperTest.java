@@ -17,6 +17,7 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -38,7 +39,9 @@ import org.intermine.model.testmodel.Employee;
 import org.intermine.model.testmodel.EmploymentPeriod;
 import org.intermine.model.testmodel.Types;
 import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.ObjectStoreSummary;
 import org.intermine.objectstore.query.Constraint;
 import org.intermine.metadata.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
@@ -53,9 +56,12 @@ import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryNode;
 import org.intermine.objectstore.query.QueryObjectPathExpression;
 import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Queryable;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.pathquery.Constraints;
 import org.intermine.pathquery.LogicExpression;
 import org.intermine.pathquery.OuterJoinStatus;
 import org.intermine.pathquery.PathConstraintAttribute;
@@ -601,6 +607,47 @@ public class MainHelperTest extends TestCase {
         assertNull(MainHelper.removeFromConstraintLogic(l, "A"));
     }
 
+    private PathQuery planQuery(String name, String age, String companyName) {
+        PathQuery pq = new PathQuery(os.getModel());
+        pq.addViews("Employee.name", "Employee.age", "Employee.department.name",
+                "Employee.department.company.name");
+        pq.setOuterJoinStatus("Employee.department.company", OuterJoinStatus.OUTER);
+        pq.addConstraint(Constraints.eq("Employee.name", name));
+        pq.addConstraint(Constraints.greaterThan("Employee.age", age));
+        pq.addConstraint(Constraints.eq("Employee.department.company.name", companyName));
+        pq.addConstraint(Constraints.isNotNull("Employee.department.name"));
+        pq.setConstraintLogic("(A and B and C) or D");
+        return pq;
+    }
+
+    // A query with the same structure as an earlier one is made from the cached plan
+    public void testPlanCache() throws Exception {
+        MainHelper.flushPlanCache();
+        Map<String, QuerySelectable> nodes1 = new HashMap<String, QuerySelectable>();
+        Query q1 = MainHelper.makeQuery(planQuery("EmployeeA1", "10", "CompanyA"),
+                new HashMap(), nodes1, bagQueryRunner, new HashMap());
+        Map<String, QuerySelectable> nodes2 = new HashMap<String, QuerySelectable>();
+        Query q2 = MainHelper.makeQuery(planQuery("Employee*", "20", "CompanyB"),
+                new HashMap(), nodes2, bagQueryRunner, new HashMap());
+        assertFalse(q1.toString().equals(q2.toString()));
+
+        MainHelper.flushPlanCache();
+        Map<String, QuerySelectable> nodes3 = new HashMap<String, QuerySelectable>();
+        Query q3 = MainHelper.makeQuery(planQuery("Employee*", "20", "CompanyB"),
+                new HashMap(), nodes3, bagQueryRunner, new HashMap());
+        assertEquals(q3.toString(), q2.toString());
+        assertEquals(nodes3.keySet(), nodes2.keySet());
+
+        // The values are still checked when the plan is used
+        try {
+            MainHelper.makeQuery(planQuery("EmployeeA1", "ten", "CompanyA"), new HashMap(), null,
+                    bagQueryRunner, new HashMap());
+            fail("Expected ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            assertTrue(e.getMessage().startsWith("PathQuery is invalid"));
+        }
+    }
+
     private Map<String, PathQuery> readQueries() throws Exception {
         InputStream is = getClass().getClassLoader().getResourceAsStream("MainHelperTest.xml");
         Map<String, PathQuery> ret = PathQueryBinding.unmarshalPathQueries(new InputStreamReader(is), PathQuery.USERPROFILE_VERSION);
@@ -852,6 +899,46 @@ public class MainHelperTest extends TestCase {
                 "SELECT DISTINCT a1_.a2_ AS a2_, COUNT(*) AS a3_ FROM (SELECT DISTINCT a1_, a1_.name AS a2_ FROM org.intermine.model.testmodel.Employee AS a1_ WHERE a1_.class IN ? 1: [class org.intermine.model.testmodel.CEO, class org.intermine.model.testmodel.Manager]) AS a1_ GROUP BY a1_.a2_ ORDER BY COUNT(*) DESC");
     }
 
+    public void testGetStoredSummary() throws Exception {
+        // ages 20, 20, 10 and null
+        Properties props = new Properties();
+        props.put("org.intermine.model.testmodel.Employee.age.columnSummary",
+                StringUtil.join(Arrays.asList("java.lang.Integer", "4", "1", "3", "3", "20", "2",
+                        "10", "1", "___NULL___", "1", "10", "20", "16.67", "5.77", "20", "10",
+                        "1:1", "10:2"), "$_^"));
+        ObjectStoreSummary oss = new ObjectStoreSummary(props);
+
+        PathQuery pq = new PathQuery(os.getModel());
+        pq.addViews("Employee.age", "Employee.name");
+        List<ResultsRow<Object>> rows = MainHelper.getStoredSummary(pq, "Employee.age", oss, true);
+        assertEquals(Arrays.asList(Arrays.asList(20, 2L), Arrays.asList(10, 1L),
+                    Arrays.asList(null, 1L)), rows);
+        assertEquals(new Integer(3), MainHelper.getStoredUniqueValueCount(pq, "Employee.age",
+                    oss));
+        rows = MainHelper.getStoredSummary(pq, "Employee.age", oss, false);
+        assertEquals(3, rows.size());
+        assertEquals(Arrays.asList(10, 20, new BigDecimal("16.67"), new BigDecimal("5.77"), 10, 1,
+                    1L), rows.get(0));
+        assertEquals(null, rows.get(2).get(5));
+        assertNull(MainHelper.getStoredSummary(pq, "Employee.name", oss, true));
+
+        pq.addConstraint(Constraints.isNotNull("Employee.age"));
+        assertEquals(2, MainHelper.getStoredSummary(pq, "Employee.age", oss, true).size());
+        assertEquals(new Integer(2), MainHelper.getStoredUniqueValueCount(pq, "Employee.age",
+                    oss));
+
+        // an outer join keeps every employee, but an inner join doesn't
+        pq = new PathQuery(os.getModel());
+        pq.addViews("Employee.age", "Employee.department.name");
+        assertNull(MainHelper.getStoredSummary(pq, "Employee.age", oss, true));
+        pq.setOuterJoinStatus("Employee.department", OuterJoinStatus.OUTER);
+        assertEquals(3, MainHelper.getStoredSummary(pq, "Employee.age", oss, true).size());
+
+        pq.addConstraint(Constraints.eq("Employee.name", "EmployeeA1"));
+        assertNull(MainHelper.getStoredSummary(pq, "Employee.age", oss, true));
+        assertNull(MainHelper.getStoredSummary(pq, "Employee.age", null, true));
+    }
+
     public void doQuery(String web, String iql, String ... summaries) throws Exception {
         Exception stacktrace = new Exception();
         stacktrace.fillInStackTrace();
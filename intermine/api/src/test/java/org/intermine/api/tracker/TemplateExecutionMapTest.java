@@ -171,4 +171,68 @@ public class TemplateExecutionMapTest extends TestCase
         assertEquals(Math.log(2),
                     templateExecutionsMap.getLogarithmMap(null, templateManager).get("template2"));
     }
+
+    public void testGetExecutionCounts() {
+        assertEquals(5, templateExecutionsMap.getExecutionCounts().get("template1").intValue());
+        assertEquals(1, templateExecutionsMap.getExecutionCounts().get("template2").intValue());
+        templateExecutionsMap.addExecution(new TemplateTrack("template2", "userName1",
+                "sessionId1"));
+        assertEquals(2, templateExecutionsMap.getExecutionCounts().get("template2").intValue());
+    }
+
+    public void testGetRanks() throws Exception {
+        MokaTemplateManager templateManager = new MokaTemplateManager();
+        Map<String, Integer> ranks = templateExecutionsMap.getRanks(templateManager);
+        assertEquals(1, ranks.get("template1").intValue());
+        assertEquals(2, ranks.get("template2").intValue());
+        assertEquals(3, ranks.get("minRank").intValue());
+
+        // template2 executed by the same users as template1 gets the same rank
+        templateExecutionsMap.addExecution(new TemplateTrack("template2", "userName1", ""));
+        templateExecutionsMap.addExecution(new TemplateTrack("template2", "userName1", ""));
+        templateExecutionsMap.addExecution(new TemplateTrack("template2", "userName1", ""));
+        templateExecutionsMap.addExecution(new TemplateTrack("template2", "", "sessionId1"));
+        ranks = templateExecutionsMap.getRanks(templateManager);
+        assertEquals(1, ranks.get("template1").intValue());
+        assertEquals(1, ranks.get("template2").intValue());
+        assertEquals(2, ranks.get("minRank").intValue());
+    }
+
+    public void testRanksFollowExecutions() throws Exception {
+        MokaTemplateManager templateManager = new MokaTemplateManager();
+        templateExecutionsMap.renameTemplate("template2", "template4");
+        Map<String, Integer> ranks = templateExecutionsMap.getRanks(templateManager);
+        assertEquals(1, ranks.get("template1").intValue());
+        assertNull(ranks.get("template2"));
+        assertNull(ranks.get("template4"));
+        assertEquals(2, ranks.get("minRank").intValue());
+
+        // a public template executed for the first time since the ranks were read
+        templateExecutionsMap.addExecution(new TemplateTrack("template2", "userName3", ""));
+        ranks = templateExecutionsMap.getRanks(templateManager);
+        assertEquals(1, ranks.get("template1").intValue());
+        assertEquals(2, ranks.get("template2").intValue());
+        assertEquals(3, ranks.get("minRank").intValue());
+
+        // executed by more users than template1, so it moves ahead
+        for (int i = 4; i < 10; i++) {
+            templateExecutionsMap.addExecution(new TemplateTrack("template2", "userName" + i,
+                    ""));
+        }
+        ranks = templateExecutionsMap.getRanks(templateManager);
+        assertEquals(2, ranks.get("template1").intValue());
+        assertEquals(1, ranks.get("template2").intValue());
+        assertSame(ranks, templateExecutionsMap.getRanks(templateManager));
+    }
+
+    public void testRenameTemplate() throws Exception {
+        templateExecutionsMap.renameTemplate("template1", "template3");
+        assertNull(templateExecutionsMap.getExecutionCounts().get("template1"));
+        assertEquals(5, templateExecutionsMap.getExecutionCounts().get("template3").intValue());
+        templateExecutionsMap.renameTemplate("template3", "template2");
+        assertEquals(6, templateExecutionsMap.getExecutionCounts().get("template2").intValue());
+        Map<String, Integer> ranks = templateExecutionsMap.getRanks(new MokaTemplateManager());
+        assertEquals(1, ranks.get("template2").intValue());
+        assertNull(ranks.get("template1"));
+    }
 }
@@ -0,0 +1,54 @@
+package org.intermine.api.tracker;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Timestamp;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.tracker.track.LoginTrack;
+
+public class TrackQueueTest extends TestCase
+{
+    public void testOffer() throws Exception {
+        TrackQueue queue = new TrackQueue(2);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        assertTrue(queue.offer(new LoginTrack("user1", now)));
+        assertTrue(queue.add(new LoginTrack("user2", now)));
+        assertFalse(queue.offer(new LoginTrack("user3", now)));
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.getAcceptedCount());
+        assertEquals(1, queue.getDelayedCount());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    public void testOfferWaitsForSpace() throws Exception {
+        final TrackQueue queue = new TrackQueue(1);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        queue.offer(new LoginTrack("user1", now));
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                    queue.take();
+                } catch (InterruptedException e) {
+                    // finish
+                }
+            }
+        };
+        consumer.start();
+        assertTrue(queue.offer(new LoginTrack("user2", now)));
+        consumer.join();
+        assertEquals(1, queue.getDelayedCount());
+        assertEquals(0, queue.getDroppedCount());
+    }
+}
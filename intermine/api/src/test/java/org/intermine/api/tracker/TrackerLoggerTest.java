@@ -58,12 +58,16 @@ public class TrackerLoggerTest extends TestCase {
                           new Timestamp(System.currentTimeMillis())));
         }
         trackerLogger = new TrackerLogger(con, trackQueue);
-        new Thread(trackerLogger).start();
+        Thread thread = new Thread(trackerLogger);
+        thread.start();
         synchronized (trackQueue) {
             while (!trackQueue.isEmpty()) {
                 Thread.sleep(100);
             }
         }
+        // the logger writes the tracks it has taken from the queue before finishing
+        thread.interrupt();
+        thread.join();
         String sql = "SELECT COUNT(*) FROM logintrack";
         Statement stm = con.createStatement();
         ResultSet rs = stm.executeQuery(sql);
@@ -0,0 +1,115 @@
+package org.intermine.api.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class BuildOnceCacheTest extends TestCase
+{
+    private BuildOnceCache<String, String> cache;
+    private AtomicInteger builds;
+
+    public BuildOnceCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        cache = new BuildOnceCache<String, String>("test value");
+        builds = new AtomicInteger();
+    }
+
+    public void testBuiltOnce() throws Exception {
+        assertNull(cache.getIfBuilt("a"));
+        assertEquals("A", cache.get("a", upperCase("a")));
+        assertEquals("A", cache.getIfBuilt("a"));
+        assertEquals("A", cache.get("a", upperCase("a")));
+        assertEquals(1, builds.get());
+    }
+
+    public void testWaitForBuildInProgress() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread builder = new Thread() {
+            public void run() {
+                cache.get("a", new Callable<String>() {
+                    public String call() throws Exception {
+                        builds.incrementAndGet();
+                        started.countDown();
+                        release.await(10, TimeUnit.SECONDS);
+                        return "A";
+                    }
+                });
+            }
+        };
+        builder.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertNull(cache.getIfBuilt("a"));
+        release.countDown();
+        // Waits for the other thread rather than building the value again
+        assertEquals("A", cache.get("a", upperCase("a")));
+        builder.join();
+        assertEquals(1, builds.get());
+    }
+
+    public void testBuildInBackground() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<String> builder = new Callable<String>() {
+            public String call() throws Exception {
+                builds.incrementAndGet();
+                release.await(10, TimeUnit.SECONDS);
+                return "A";
+            }
+        };
+        cache.buildInBackground("a", builder);
+        // Already being built
+        cache.buildInBackground("a", builder);
+        assertNull(cache.getIfBuilt("a"));
+        release.countDown();
+        long end = System.currentTimeMillis() + 10000;
+        while (cache.getIfBuilt("a") == null && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals("A", cache.getIfBuilt("a"));
+        // Already built
+        cache.buildInBackground("a", builder);
+        assertEquals("A", cache.get("a", builder));
+        assertEquals(1, builds.get());
+    }
+
+    public void testFailedBuildNotKept() throws Exception {
+        try {
+            cache.get("a", new Callable<String>() {
+                public String call() {
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertNull(cache.getIfBuilt("a"));
+        assertEquals("A", cache.get("a", upperCase("a")));
+    }
+
+    private Callable<String> upperCase(final String key) {
+        return new Callable<String>() {
+            public String call() {
+                builds.incrementAndGet();
+                return key.toUpperCase();
+            }
+        };
+    }
+}
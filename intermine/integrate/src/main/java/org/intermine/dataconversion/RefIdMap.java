@@ -0,0 +1,421 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A Map from identifier to item refId for converters that need to remember every gene,
+ * publication or term they have created an Item for.  A HashMap of Strings costs well over a
+ * hundred bytes per entry, which dominates the heap of converters reading large files.
+ *
+ * This map keeps only primitive arrays on the heap for its hash index.  Refids of the form
+ * created by DataConverter.createItem() ("2_1234") are packed into a long, and the keys (and
+ * any values not in that form) are written into byte buffers of one byte per character for
+ * ASCII strings.  Once the buffers reach a configurable size, further buffers are memory-mapped
+ * from a temporary file, so that they are held outside the Java heap and can be paged out to
+ * disk by the operating system.  Call close() to release the temporary file.
+ *
+ * Null keys and values are not permitted and entries can't be removed.  Replacing a value leaves
+ * the old value in the buffers.  This class is not thread-safe.
+ */
+public class RefIdMap extends AbstractMap<String, String>
+{
+    private static final Logger LOG = Logger.getLogger(RefIdMap.class);
+
+    /** The default number of bytes of key data held on the heap before spilling to disk. */
+    public static final long DEFAULT_MAX_HEAP_BYTES = 64L * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 1 << 22;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final long FREE = -1L;
+
+    private final long maxHeapBytes;
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private long heapBytes = 0;
+    private RandomAccessFile spillFile = null;
+    private long spillBytes = 0;
+
+    private int[] hashes;
+    private long[] keyOffsets;
+    private long[] values;
+    private int size = 0;
+    private int threshold;
+    private int modCount = 0;
+
+    private Set<Map.Entry<String, String>> entrySet = null;
+
+    /**
+     * Create a new, empty RefIdMap that holds up to DEFAULT_MAX_HEAP_BYTES of key data on the
+     * heap.
+     */
+    public RefIdMap() {
+        this(DEFAULT_MAX_HEAP_BYTES);
+    }
+
+    /**
+     * Create a new, empty RefIdMap.
+     *
+     * @param maxHeapBytes the number of bytes of key data to hold on the heap before further
+     * data is written to a temporary file
+     */
+    public RefIdMap(long maxHeapBytes) {
+        this.maxHeapBytes = maxHeapBytes;
+        allocate(1024);
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        keyOffsets = new long[capacity];
+        Arrays.fill(keyOffsets, FREE);
+        values = new long[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(String key) {
+        int hash = hash(key);
+        int mask = keyOffsets.length - 1;
+        int i = hash & mask;
+        while (keyOffsets[i] != FREE) {
+            if ((hashes[i] == hash) && stringEquals(keyOffsets[i], key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int i = indexOf((String) key);
+        return (i < 0) ? null : decodeValue(values[i]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return (key instanceof String) && (indexOf((String) key) >= 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String put(String key, String value) {
+        if ((key == null) || (value == null)) {
+            throw new NullPointerException("RefIdMap doesn't accept null keys or values");
+        }
+        int hash = hash(key);
+        int mask = keyOffsets.length - 1;
+        int i = hash & mask;
+        while (keyOffsets[i] != FREE) {
+            if ((hashes[i] == hash) && stringEquals(keyOffsets[i], key)) {
+                String old = decodeValue(values[i]);
+                if (!old.equals(value)) {
+                    values[i] = encodeValue(value);
+                }
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        hashes[i] = hash;
+        keyOffsets[i] = writeString(key);
+        values[i] = encodeValue(value);
+        size++;
+        modCount++;
+        if (size > threshold) {
+            rehash(keyOffsets.length << 1);
+        }
+        return null;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldHashes = hashes;
+        long[] oldKeyOffsets = keyOffsets;
+        long[] oldValues = values;
+        allocate(newCapacity);
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeyOffsets.length; j++) {
+            if (oldKeyOffsets[j] != FREE) {
+                int i = oldHashes[j] & mask;
+                while (keyOffsets[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                hashes[i] = oldHashes[j];
+                keyOffsets[i] = oldKeyOffsets[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Return the number of bytes of key and value data held in temporary file buffers rather than
+     * on the heap.
+     *
+     * @return a number of bytes
+     */
+    public long getSpilledBytes() {
+        return spillBytes;
+    }
+
+    /**
+     * Release the temporary file used by this map, if any.  The map must not be used afterwards.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    public void close() throws IOException {
+        chunks.clear();
+        allocate(16);
+        size = 0;
+        modCount++;
+        if (spillFile != null) {
+            spillFile.close();
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Refids created by DataConverter look like "2_1234" and are packed into a non-negative long
+     * holding both numbers.  Anything else is written to the buffers and stored as the bitwise
+     * complement of its offset, which is negative.
+     */
+    private long encodeValue(String value) {
+        int underscore = value.indexOf('_');
+        if ((underscore > 0) && (underscore < value.length() - 1)) {
+            long alias = parseNumber(value, 0, underscore);
+            long id = parseNumber(value, underscore + 1, value.length());
+            if ((alias >= 0) && (id >= 0)) {
+                return (alias << 32) | id;
+            }
+        }
+        return ~writeString(value);
+    }
+
+    private String decodeValue(long value) {
+        if (value >= 0) {
+            return (value >>> 32) + "_" + (value & 0xFFFFFFFFL);
+        }
+        return readString(~value);
+    }
+
+    /**
+     * Parse a number that fits in an int and has no leading zeros, so that it can be turned back
+     * into exactly the same String.
+     */
+    private static long parseNumber(String s, int start, int end) {
+        if ((end - start > 10) || ((s.charAt(start) == '0') && (end - start > 1))) {
+            return -1;
+        }
+        long retval = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return -1;
+            }
+            retval = retval * 10 + (c - '0');
+        }
+        return (retval > Integer.MAX_VALUE) ? -1 : retval;
+    }
+
+    /**
+     * Strings are written as an int header holding the length and whether the characters are
+     * one byte (all below 128) or two, followed by the characters.
+     */
+    private long writeString(String s) {
+        int length = s.length();
+        boolean narrow = true;
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) >= 128) {
+                narrow = false;
+                break;
+            }
+        }
+        int byteCount = 4 + (narrow ? length : length * 2);
+        if (byteCount > CHUNK_SIZE) {
+            throw new IllegalArgumentException("String of length " + length + " is too long for "
+                    + "a RefIdMap");
+        }
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if ((chunk == null) || (chunk.remaining() < byteCount)) {
+            chunk = newChunk();
+        }
+        long offset = ((long) (chunks.size() - 1)) * CHUNK_SIZE + chunk.position();
+        chunk.putInt((length << 1) | (narrow ? 1 : 0));
+        for (int i = 0; i < length; i++) {
+            if (narrow) {
+                chunk.put((byte) s.charAt(i));
+            } else {
+                chunk.putChar(s.charAt(i));
+            }
+        }
+        return offset;
+    }
+
+    private String readString(long offset) {
+        ByteBuffer chunk = chunks.get((int) (offset / CHUNK_SIZE));
+        int pos = (int) (offset % CHUNK_SIZE);
+        int header = chunk.getInt(pos);
+        int length = header >>> 1;
+        boolean narrow = (header & 1) == 1;
+        pos += 4;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            if (narrow) {
+                chars[i] = (char) chunk.get(pos + i);
+            } else {
+                chars[i] = chunk.getChar(pos + i * 2);
+            }
+        }
+        return new String(chars);
+    }
+
+    private boolean stringEquals(long offset, String s) {
+        ByteBuffer chunk = chunks.get((int) (offset / CHUNK_SIZE));
+        int pos = (int) (offset % CHUNK_SIZE);
+        int header = chunk.getInt(pos);
+        int length = header >>> 1;
+        if (length != s.length()) {
+            return false;
+        }
+        boolean narrow = (header & 1) == 1;
+        pos += 4;
+        for (int i = 0; i < length; i++) {
+            char c = narrow ? (char) chunk.get(pos + i) : chunk.getChar(pos + i * 2);
+            if (c != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer newChunk() {
+        ByteBuffer chunk;
+        if (heapBytes + CHUNK_SIZE <= maxHeapBytes) {
+            chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            heapBytes += CHUNK_SIZE;
+        } else {
+            try {
+                if (spillFile == null) {
+                    File file = File.createTempFile("refids", ".tmp");
+                    spillFile = new RandomAccessFile(file, "rw");
+                    // the open file stays usable once deleted, except on Windows
+                    if (!file.delete()) {
+                        file.deleteOnExit();
+                    }
+                    LOG.info("RefIdMap of " + size + " entries is spilling to " + file);
+                }
+                chunk = spillFile.getChannel().map(FileChannel.MapMode.READ_WRITE, spillBytes,
+                        CHUNK_SIZE);
+                spillBytes += CHUNK_SIZE;
+            } catch (IOException e) {
+                throw new RuntimeException("Could not create temporary file for RefIdMap", e);
+            }
+        }
+        chunks.add(chunk);
+        return chunk;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, String>>
+    {
+        private final int expectedModCount = modCount;
+        private int next = advance(0);
+
+        private int advance(int from) {
+            int i = from;
+            while ((i < keyOffsets.length) && (keyOffsets[i] == FREE)) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < keyOffsets.length;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int i = next;
+            next = advance(i + 1);
+            return new AbstractMap.SimpleImmutableEntry<String, String>(readString(keyOffsets[i]),
+                    decodeValue(values[i]));
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("RefIdMap doesn't support removal");
+        }
+    }
+}
@@ -10,11 +10,13 @@ package org.intermine.dataloader;
  *
  */
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.ConstraintOp;
@@ -31,9 +33,11 @@ import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryForeignKey;
 import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SubqueryExistsConstraint;
 import org.intermine.util.AlwaysSet;
+import org.intermine.util.BloomFilterSet;
 import org.intermine.util.PseudoSet;
 
 /**
@@ -45,6 +49,10 @@ public class EquivalentObjectHints
 {
     private static final Logger LOG = Logger.getLogger(EquivalentObjectHints.class);
     private static final int SUMMARY_SIZE = 100;
+    // above this many rows for a class we don't build a Bloom filter, as it would take too long
+    // to read the values and use too much memory
+    private static final int MAX_BLOOM_FILTER_SIZE = 50000000;
+    private static final double BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
 
     private boolean databaseEmptyChecked = false;
     private boolean databaseEmpty = false;
@@ -54,6 +62,12 @@ public class EquivalentObjectHints
     private Map<ClassAndFieldName, Set<Object>> classAndFieldNameQueried
         = new HashMap<ClassAndFieldName, Set<Object>>();
     private Map<String, ClassAndFieldName> summaryToCafn = new HashMap<String, ClassAndFieldName>();
+    private Map<ClassAndFieldName, BloomFilterHint> bloomFilters
+        = new ConcurrentHashMap<ClassAndFieldName, BloomFilterHint>();
+    // the Bloom filters that objects of each class are added to, worked out when an object of the
+    // class is first stored, and again when more filters have been made
+    private Map<Class<?>, ClassBloomFilters> bloomFiltersByClass
+        = new ConcurrentHashMap<Class<?>, ClassBloomFilters>();
 
     private ObjectStore os;
 
@@ -178,7 +192,11 @@ public class EquivalentObjectHints
                             ObjectStore.SEQUENCE_IGNORE);
                 }
                 if (results.size() >= SUMMARY_SIZE) {
-                    if (Integer.class.equals(qs.getType())) {
+                    BloomFilterHint bloomFilter = createBloomFilter(qc, qs, summaryName);
+                    if (bloomFilter != null) {
+                        values = bloomFilter.filter;
+                        bloomFilters.put(cafn, bloomFilter);
+                    } else if (Integer.class.equals(qs.getType())) {
                         q = new Query();
                         q.addFrom(qc);
                         q.addToSelect(new QueryFunction(qs, QueryFunction.MIN));
@@ -222,7 +240,97 @@ public class EquivalentObjectHints
         } else if (queried instanceof IntegerRangeSet) {
             queried.add(value);
         }
-        return !values.contains(value);
+        boolean fruitless = !values.contains(value);
+        BloomFilterHint bloomFilter = bloomFilters.get(cafn);
+        if (bloomFilter != null) {
+            bloomFilter.lookedUp(fruitless);
+        }
+        return fruitless;
+    }
+
+    /**
+     * Reads every value of a field of a class from the database into a Bloom filter.
+     *
+     * @param qc the QueryClass for the class
+     * @param qs the QueryEvaluable for the field
+     * @param summaryName the name of the class and field, for logging
+     * @return a BloomFilterHint, or null if there are too many rows to build a filter
+     * @throws ObjectStoreException if something goes wrong
+     */
+    private BloomFilterHint createBloomFilter(QueryClass qc, QueryEvaluable qs,
+            String summaryName) throws ObjectStoreException {
+        Query q = new Query();
+        q.addFrom(qc);
+        q.addToSelect(qs);
+        q.setDistinct(false);
+        int rowCount = os.count(q, ObjectStore.SEQUENCE_IGNORE);
+        if (rowCount > MAX_BLOOM_FILTER_SIZE) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        // leave room for the objects stored during this run
+        BloomFilterSet<Object> filter = new BloomFilterSet<Object>(rowCount + rowCount / 4
+                + SUMMARY_SIZE, BLOOM_FILTER_FALSE_POSITIVE_RATE);
+        Results results = os.execute(q, 10000, false, false, false);
+        for (Object row : results) {
+            filter.add(((ResultsRow<?>) row).get(0));
+        }
+        LOG.info("Built Bloom filter for " + summaryName + " from " + rowCount + " rows in "
+                + (System.currentTimeMillis() - start) + " ms: " + filter);
+        return new BloomFilterHint(filter);
+    }
+
+    /**
+     * Records that an object has been stored in the database, so that its primary key values are
+     * added to any Bloom filters for its classes.  Other hints describe the database as it was at
+     * the start of the run and are not changed.
+     *
+     * @param obj the object that has been stored
+     */
+    public void objectStored(InterMineObject obj) {
+        if (bloomFilters.isEmpty()) {
+            return;
+        }
+        ClassBloomFilters forClass = bloomFiltersByClass.get(obj.getClass());
+        // filters are never removed, so a change in their number means a filter has been made
+        if ((forClass == null) || (forClass.filterCount != bloomFilters.size())) {
+            forClass = new ClassBloomFilters(bloomFilters.size());
+            for (ClassAndFieldName cafn : bloomFilters.keySet()) {
+                if (cafn.clazz.isInstance(obj)) {
+                    forClass.cafns.add(cafn);
+                }
+            }
+            bloomFiltersByClass.put(obj.getClass(), forClass);
+        }
+        for (ClassAndFieldName cafn : forClass.cafns) {
+            Object value;
+            try {
+                value = obj.getFieldProxy(cafn.fieldName);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to get field proxy for field name: "
+                        + cafn.fieldName + " in " + obj, e);
+            }
+            if (value instanceof InterMineObject) {
+                value = ((InterMineObject) value).getId();
+            }
+            bloomFilters.get(cafn).filter.add(value);
+        }
+    }
+
+    /**
+     * Returns a description of how useful the Bloom filter for a particular class and fieldname
+     * has been.
+     *
+     * @param summaryName a String
+     * @return a String, or null if there is no Bloom filter for the class and fieldname
+     */
+    public String getBloomFilterSummary(String summaryName) {
+        ClassAndFieldName cafn = summaryToCafn.get(summaryName);
+        BloomFilterHint bloomFilter = (cafn == null ? null : bloomFilters.get(cafn));
+        if (bloomFilter == null) {
+            return null;
+        }
+        return bloomFilter.getSummary();
     }
 
     /**
@@ -302,4 +410,41 @@ public class EquivalentObjectHints
             return "IntegerRangeSet(" + low + " - " + high + ")";
         }
     }
+
+    /**
+     * The Bloom filters for one class, worked out when there were filterCount filters.
+     */
+    private static class ClassBloomFilters
+    {
+        private final int filterCount;
+        private final List<ClassAndFieldName> cafns = new ArrayList<ClassAndFieldName>();
+
+        public ClassBloomFilters(int filterCount) {
+            this.filterCount = filterCount;
+        }
+    }
+
+    private static class BloomFilterHint
+    {
+        private BloomFilterSet<Object> filter;
+        private long lookups = 0;
+        private long skipped = 0;
+
+        public BloomFilterHint(BloomFilterSet<Object> filter) {
+            this.filter = filter;
+        }
+
+        public synchronized void lookedUp(boolean fruitless) {
+            lookups++;
+            if (fruitless) {
+                skipped++;
+            }
+        }
+
+        public synchronized String getSummary() {
+            return "Bloom filter skipped " + skipped + "/" + lookups + " lookups"
+                + (lookups > 0 ? " (hit rate " + ((skipped * 100) / lookups) + "%)" : "")
+                + ", " + filter;
+        }
+    }
 }
@@ -104,6 +104,10 @@ public class HintingFetcher extends BaseEquivalentObjectFetcher
             if (queried != null) {
                 retval.append(". Queried values " + queried + " in database values " + values);
             }
+            String bloomFilterSummary = hints.getBloomFilterSummary(summaryName);
+            if (bloomFilterSummary != null) {
+                retval.append(". " + bloomFilterSummary);
+            }
             totalFetchTime += savedTime;
         }
         retval.append("\nTotal time to fetch hints for source " + source + ": "
@@ -111,6 +115,16 @@ public class HintingFetcher extends BaseEquivalentObjectFetcher
         return retval;
     }
 
+    /**
+     * Tells the hints that an object has been stored in the production database, so that later
+     * lookups for its primary key values are not skipped.
+     *
+     * @param obj the object that has been stored
+     */
+    public void objectStored(InterMineObject obj) {
+        hints.objectStored(obj);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -449,6 +449,9 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
      */
     public void store(Object o) throws ObjectStoreException {
         osw.store(o);
+        if (o instanceof InterMineObject) {
+            eof.objectStored((InterMineObject) o);
+        }
     }
 
     /**
@@ -0,0 +1,203 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+
+/**
+ * Loads several sources into the same production objectstore, in parallel where the sources
+ * don't conflict.  Each source must be read from its own objectstore (usually a separate items
+ * database), configured with a nested source element:
+ *
+ * <pre>
+ * &lt;source name="uniprot" type="uniprot" objectStore="os.uniprot-translated"/&gt;
+ * </pre>
+ *
+ * Each source is loaded with its own IntegrationWriter from the integrationWriter alias, exactly
+ * as ObjectStoreDataLoaderTask would.  See SourceLoadScheduler for how conflicts are decided.
+ *
+ * @see ObjectStoreDataLoaderTask
+ */
+public class ParallelObjectStoreDataLoaderTask extends Task
+{
+    protected String integrationWriter;
+    protected boolean ignoreDuplicates;
+    protected int threads = 4;
+    protected List<SourceElement> sources = new ArrayList<SourceElement>();
+
+    /**
+     * Set the IntegrationWriter alias.
+     *
+     * @param integrationWriter the name of the IntegrationWriter
+     */
+    public void setIntegrationWriter(String integrationWriter) {
+        this.integrationWriter = integrationWriter;
+    }
+
+    /**
+     * Set the value of ignoreDuplicates for the IntegrationWriters.
+     *
+     * @param ignoreDuplicates the value of ignoreDuplicates
+     */
+    public void setIgnoreDuplicates(boolean ignoreDuplicates) {
+        this.ignoreDuplicates = ignoreDuplicates;
+    }
+
+    /**
+     * Set the maximum number of sources to load at the same time.  If this is 1, the sources are
+     * loaded one after another in the order they are given.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Create a nested source element.
+     *
+     * @return a new SourceElement
+     */
+    public SourceElement createSource() {
+        SourceElement source = new SourceElement();
+        sources.add(source);
+        return source;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        if (integrationWriter == null) {
+            throw new BuildException("integrationWriter attribute is not set");
+        }
+        if (sources.isEmpty()) {
+            throw new BuildException("no source elements given");
+        }
+        for (SourceElement element : sources) {
+            if ((element.name == null) || (element.objectStore == null)) {
+                throw new BuildException("source elements need name and objectStore attributes");
+            }
+        }
+        try {
+            SourceLoadScheduler scheduler = new SourceLoadScheduler();
+            for (final SourceElement element : sources) {
+                final ObjectStore os = ObjectStoreFactory.getObjectStore(element.objectStore);
+                Set<String> storedClasses = new HashSet<String>();
+                Set<String> keyedClasses = new HashSet<String>();
+                findClasses(os, new Source(element.name, element.type), storedClasses,
+                        keyedClasses);
+                scheduler.addSource(new SourceLoadScheduler.SourceLoad(element.name,
+                            storedClasses, keyedClasses, new Callable<Object>() {
+                                @Override
+                                public Object call() throws Exception {
+                                    load(os, element);
+                                    return null;
+                                }
+                            }));
+            }
+            scheduler.run(threads);
+        } catch (Exception e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Finds the classes that have objects in a source objectstore, and which of them have
+     * primary keys for the source.
+     *
+     * @param os the source objectstore
+     * @param source the Source, for the primary key configuration
+     * @param storedClasses a Set to add the stored class names to
+     * @param keyedClasses a Set to add the names of classes with primary keys to
+     * @throws ObjectStoreException if the objectstore can't be queried
+     */
+    protected void findClasses(ObjectStore os, Source source, Set<String> storedClasses,
+            Set<String> keyedClasses) throws ObjectStoreException {
+        Model model = os.getModel();
+        for (ClassDescriptor cld : model.getClassDescriptors()) {
+            if (InterMineObject.class.equals(cld.getType())
+                    || (!InterMineObject.class.isAssignableFrom(cld.getType()))) {
+                continue;
+            }
+            Query q = new Query();
+            QueryClass qc = new QueryClass(cld.getType());
+            q.addFrom(qc);
+            q.addToSelect(qc);
+            if (!os.execute(q, 0, 1, false, false, ObjectStore.SEQUENCE_IGNORE).isEmpty()) {
+                storedClasses.add(cld.getName());
+                if (!DataLoaderHelper.getPrimaryKeys(cld, source, os).isEmpty()) {
+                    keyedClasses.add(cld.getName());
+                }
+            }
+        }
+    }
+
+    private void load(ObjectStore os, SourceElement element) throws ObjectStoreException {
+        IntegrationWriter iw = IntegrationWriterFactory.getIntegrationWriter(integrationWriter);
+        iw.setIgnoreDuplicates(ignoreDuplicates);
+        new ObjectStoreDataLoader(iw).process(os, iw.getMainSource(element.name, element.type),
+                iw.getSkeletonSource(element.name, element.type));
+    }
+
+    /**
+     * A nested source element.
+     */
+    public static class SourceElement
+    {
+        String name;
+        String type;
+        String objectStore;
+
+        /**
+         * Set the source name, as used by primary key priority config.
+         *
+         * @param name the name of the data source
+         */
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Set the source type.
+         *
+         * @param type the type of the data source
+         */
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        /**
+         * Set the alias of the ObjectStore to read the source from.
+         *
+         * @param objectStore the objectstore alias
+         */
+        public void setObjectStore(String objectStore) {
+            this.objectStore = objectStore;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Runs the loading of several sources into the same production objectstore, loading sources in
+ * parallel where they can't affect each other.
+ *
+ * A source looks up equivalent objects in the production database for every class it stores
+ * that has a primary key for that source, and merges into them.  Two sources therefore conflict
+ * if either one stores objects of a class (including superclasses) that the other has a primary
+ * key for, as the result of the merge, the DataTracker entries and the priority resolution would
+ * depend on which one got there first.  Conflicting sources are always loaded in the order they
+ * were added, and a source only starts once all earlier sources it conflicts with have finished.
+ * Sources that don't conflict touch disjoint sets of objects, so each can have its own
+ * IntegrationWriter and DataTracker.
+ *
+ * @see DataLoaderHelper#getPrimaryKeys
+ */
+public class SourceLoadScheduler
+{
+    private static final Logger LOG = Logger.getLogger(SourceLoadScheduler.class);
+
+    private final List<SourceLoad> loads = new ArrayList<SourceLoad>();
+
+    /**
+     * Add a source to be loaded.  Sources are loaded in the order they are added unless they
+     * don't conflict.
+     *
+     * @param load the SourceLoad
+     */
+    public void addSource(SourceLoad load) {
+        loads.add(load);
+    }
+
+    /**
+     * Returns true if the loading of two sources can't overlap.
+     *
+     * @param a a SourceLoad
+     * @param b another SourceLoad
+     * @return true if the sources conflict
+     */
+    public static boolean conflicts(SourceLoad a, SourceLoad b) {
+        return !(Collections.disjoint(a.getKeyedClasses(), b.getStoredClasses())
+                && Collections.disjoint(b.getKeyedClasses(), a.getStoredClasses()));
+    }
+
+    /**
+     * Returns, for each source in the order they were added, the indexes of the earlier sources
+     * that must have finished loading before it can start.
+     *
+     * @return a List of Sets of indexes
+     */
+    public List<Set<Integer>> getDependencies() {
+        List<Set<Integer>> retval = new ArrayList<Set<Integer>>();
+        for (int i = 0; i < loads.size(); i++) {
+            Set<Integer> deps = new LinkedHashSet<Integer>();
+            for (int j = 0; j < i; j++) {
+                if (conflicts(loads.get(j), loads.get(i))) {
+                    deps.add(new Integer(j));
+                }
+            }
+            retval.add(deps);
+        }
+        return retval;
+    }
+
+    /**
+     * Load all the sources, using up to the given number of threads.  If a source fails to load,
+     * no further sources are started and the first failure is thrown once the sources that are
+     * already loading have finished.
+     *
+     * @param threads the maximum number of sources to load at the same time
+     * @throws ObjectStoreException if a source fails to load
+     */
+    public void run(int threads) throws ObjectStoreException {
+        List<Set<Integer>> dependencies = getDependencies();
+        for (int i = 0; i < loads.size(); i++) {
+            if (dependencies.get(i).isEmpty()) {
+                LOG.info("Source " + loads.get(i).getName() + " can start immediately");
+            } else {
+                List<String> names = new ArrayList<String>();
+                for (Integer dep : dependencies.get(i)) {
+                    names.add(loads.get(dep.intValue()).getName());
+                }
+                LOG.info("Source " + loads.get(i).getName() + " will wait for " + names);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        ExecutorCompletionService<Integer> completion =
+            new ExecutorCompletionService<Integer>(executor);
+        Set<Integer> started = new HashSet<Integer>();
+        Set<Integer> finished = new HashSet<Integer>();
+        int running = 0;
+        Throwable failure = null;
+        try {
+            while (finished.size() < loads.size()) {
+                if (failure == null) {
+                    for (int i = 0; i < loads.size(); i++) {
+                        Integer index = new Integer(i);
+                        if ((!started.contains(index))
+                                && finished.containsAll(dependencies.get(i))) {
+                            started.add(index);
+                            running++;
+                            completion.submit(new LoadJob(loads.get(i), index));
+                        }
+                    }
+                }
+                if (running == 0) {
+                    break;
+                }
+                try {
+                    finished.add(completion.take().get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ObjectStoreException("Interrupted while loading sources", e);
+                }
+                running--;
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (failure instanceof ObjectStoreException) {
+            throw (ObjectStoreException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new ObjectStoreException("Failed to load sources", failure);
+        }
+    }
+
+    private static class LoadJob implements Callable<Integer>
+    {
+        private final SourceLoad load;
+        private final Integer index;
+
+        LoadJob(SourceLoad load, Integer index) {
+            this.load = load;
+            this.index = index;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            long start = System.currentTimeMillis();
+            LOG.info("Starting to load source " + load.getName());
+            load.getJob().call();
+            LOG.info("Finished loading source " + load.getName() + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return index;
+        }
+    }
+
+    /**
+     * A source to be loaded, with the names of the classes it stores and the classes it has
+     * primary keys for.
+     */
+    public static class SourceLoad
+    {
+        private final String name;
+        private final Set<String> storedClasses;
+        private final Set<String> keyedClasses;
+        private final Callable<?> job;
+
+        /**
+         * Constructor.
+         *
+         * @param name the name of the source, for logging
+         * @param storedClasses the names of the classes of the objects the source stores,
+         * including all their superclasses
+         * @param keyedClasses the names of the classes the source has primary keys for
+         * @param job the Callable that loads the source
+         */
+        public SourceLoad(String name, Set<String> storedClasses, Set<String> keyedClasses,
+                Callable<?> job) {
+            this.name = name;
+            this.storedClasses = storedClasses;
+            this.keyedClasses = keyedClasses;
+            this.job = job;
+        }
+
+        /**
+         * Getter for name.
+         *
+         * @return the name of the source
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Getter for storedClasses.
+         *
+         * @return a Set of class names
+         */
+        public Set<String> getStoredClasses() {
+            return storedClasses;
+        }
+
+        /**
+         * Getter for keyedClasses.
+         *
+         * @return a Set of class names
+         */
+        public Set<String> getKeyedClasses() {
+            return keyedClasses;
+        }
+
+        /**
+         * Getter for job.
+         *
+         * @return the Callable that loads the source
+         */
+        public Callable<?> getJob() {
+            return job;
+        }
+    }
+}
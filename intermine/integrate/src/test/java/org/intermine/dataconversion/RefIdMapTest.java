@@ -0,0 +1,89 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class RefIdMapTest extends TestCase
+{
+    public RefIdMapTest(String arg) {
+        super(arg);
+    }
+
+    public void testPutAndGet() throws Exception {
+        RefIdMap map = new RefIdMap();
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 10000; i++) {
+            String refId = (i % 7) + "_" + i;
+            assertNull(map.put("FBgn" + i, refId));
+            expected.put("FBgn" + i, refId);
+        }
+        assertEquals(10000, map.size());
+        assertEquals("3_10", map.get("FBgn10"));
+        assertNull(map.get("FBgn10000"));
+        assertNull(map.get(new Integer(10)));
+        assertTrue(map.containsKey("FBgn9999"));
+        assertFalse(map.containsKey("FBgn"));
+        assertEquals(expected, map);
+        assertEquals(0, map.getSpilledBytes());
+        map.close();
+    }
+
+    public void testUnpackableValues() throws Exception {
+        RefIdMap map = new RefIdMap();
+        String[] values = new String[] {"0_0", "01_1", "1_01", "_1", "1_", "abc", "1_2_3",
+            "4294967296_1", "2_2147483648", "\u00e9_1", ""};
+        for (int i = 0; i < values.length; i++) {
+            map.put("key" + i, values[i]);
+        }
+        map.put("\u00fcnicode", "1_1");
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], map.get("key" + i));
+        }
+        assertEquals("1_1", map.get("\u00fcnicode"));
+        assertEquals("abc", map.put("key5", "5_5"));
+        assertEquals("5_5", map.get("key5"));
+        assertEquals(values.length + 1, map.size());
+        map.close();
+    }
+
+    public void testSpill() throws Exception {
+        RefIdMap map = new RefIdMap(0);
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 5000; i++) {
+            map.put("PMID:" + i, "1_" + i);
+            expected.put("PMID:" + i, "1_" + i);
+        }
+        assertTrue(map.getSpilledBytes() > 0);
+        assertEquals(expected, map);
+        map.close();
+    }
+
+    public void testNulls() throws Exception {
+        RefIdMap map = new RefIdMap();
+        try {
+            map.put(null, "1_1");
+            fail("Expected NullPointerException");
+        } catch (NullPointerException e) {
+            // expected
+        }
+        try {
+            map.put("a", null);
+            fail("Expected NullPointerException");
+        } catch (NullPointerException e) {
+            // expected
+        }
+        assertNull(map.get(null));
+    }
+}
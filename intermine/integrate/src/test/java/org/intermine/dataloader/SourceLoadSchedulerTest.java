@@ -0,0 +1,112 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.ObjectStoreException;
+
+public class SourceLoadSchedulerTest extends TestCase
+{
+    private List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    public SourceLoadSchedulerTest(String arg) {
+        super(arg);
+    }
+
+    private SourceLoadScheduler.SourceLoad load(final String name, String stored, String keyed) {
+        return new SourceLoadScheduler.SourceLoad(name, classes(stored), classes(keyed),
+                new Callable<Object>() {
+                    public Object call() throws Exception {
+                        order.add("start " + name);
+                        Thread.sleep(50);
+                        order.add("end " + name);
+                        return null;
+                    }
+                });
+    }
+
+    private static Set<String> classes(String names) {
+        return new HashSet<String>(Arrays.asList(names.split(" ")));
+    }
+
+    public void testConflicts() throws Exception {
+        SourceLoadScheduler.SourceLoad genes = load("genes", "Gene BioEntity", "Gene");
+        SourceLoadScheduler.SourceLoad bioEntities = load("bioEntities", "BioEntity", "BioEntity");
+        SourceLoadScheduler.SourceLoad pubs = load("pubs", "Publication", "Publication");
+        SourceLoadScheduler.SourceLoad unkeyedGenes = load("unkeyedGenes", "Gene BioEntity", "");
+        assertTrue(SourceLoadScheduler.conflicts(genes, bioEntities));
+        assertFalse(SourceLoadScheduler.conflicts(genes, pubs));
+        assertTrue(SourceLoadScheduler.conflicts(genes, unkeyedGenes));
+        assertFalse(SourceLoadScheduler.conflicts(bioEntities, pubs));
+    }
+
+    public void testDependencies() throws Exception {
+        SourceLoadScheduler scheduler = new SourceLoadScheduler();
+        scheduler.addSource(load("a", "Gene BioEntity", "Gene"));
+        scheduler.addSource(load("b", "Publication", "Publication"));
+        scheduler.addSource(load("c", "Gene BioEntity", "Gene"));
+        scheduler.addSource(load("d", "Ontology", "Ontology"));
+        scheduler.addSource(load("e", "Publication Gene BioEntity", "Publication"));
+        List<Set<Integer>> deps = scheduler.getDependencies();
+        assertEquals(Collections.emptySet(), deps.get(0));
+        assertEquals(Collections.emptySet(), deps.get(1));
+        assertEquals(Collections.singleton(new Integer(0)), deps.get(2));
+        assertEquals(Collections.emptySet(), deps.get(3));
+        assertEquals(new HashSet<Integer>(Arrays.asList(new Integer(0), new Integer(1),
+                        new Integer(2))), deps.get(4));
+    }
+
+    public void testRun() throws Exception {
+        SourceLoadScheduler scheduler = new SourceLoadScheduler();
+        scheduler.addSource(load("a", "Gene", "Gene"));
+        scheduler.addSource(load("b", "Publication", "Publication"));
+        scheduler.addSource(load("c", "Gene", "Gene"));
+        scheduler.run(4);
+        assertEquals(6, order.size());
+        assertTrue(order.indexOf("end a") < order.indexOf("start c"));
+        assertTrue(order.indexOf("start b") < order.indexOf("end a"));
+    }
+
+    public void testRunSerial() throws Exception {
+        SourceLoadScheduler scheduler = new SourceLoadScheduler();
+        scheduler.addSource(load("a", "Gene", "Gene"));
+        scheduler.addSource(load("b", "Publication", "Publication"));
+        scheduler.run(1);
+        assertEquals(Arrays.asList("start a", "end a", "start b", "end b"), order);
+    }
+
+    public void testFailure() throws Exception {
+        SourceLoadScheduler scheduler = new SourceLoadScheduler();
+        scheduler.addSource(new SourceLoadScheduler.SourceLoad("broken", classes("Gene"),
+                    classes("Gene"), new Callable<Object>() {
+                        public Object call() throws Exception {
+                            throw new ObjectStoreException("broken source");
+                        }
+                    }));
+        scheduler.addSource(load("after", "Gene", "Gene"));
+        try {
+            scheduler.run(2);
+            fail("Expected ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            assertEquals("broken source", e.getMessage());
+        }
+        assertTrue(order.isEmpty());
+    }
+}
@@ -0,0 +1,195 @@
+package org.intermine.metadata;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.intermine.metadata.TypeUtil.FieldInfo;
+import org.intermine.model.FastPathObject;
+
+/**
+ * The fields of a class, found from its getter and setter methods.  An instance is built the first
+ * time a class is looked up and never changes afterwards, so it can be read by any number of
+ * threads without locking.  The fields are numbered in alphabetical order of name, and code that
+ * handles every field of many objects of the same class should loop over the field numbers
+ * rather than looking each field up by name.
+ */
+public final class ClassFields
+{
+    private static final ClassValue<ClassFields> REGISTRY = new ClassValue<ClassFields>() {
+        @Override
+        protected ClassFields computeValue(Class<?> type) {
+            return new ClassFields(type);
+        }
+    };
+
+    private final FieldInfo[] fields;
+    private final String[] names;
+    private final Map<String, Integer> indexes;
+    private final Map<String, FieldInfo> fieldInfos;
+    private final int[] nonCollectionIndexes;
+
+    private ClassFields(Class<?> c) {
+        Map<String, FieldInfo> sorted = new TreeMap<String, FieldInfo>();
+        Map<String, Method> methods = new HashMap<String, Method>();
+        for (Method method : c.getMethods()) {
+            methods.put(method.getName(), method);
+        }
+        for (String getterName : methods.keySet()) {
+            if (getterName.startsWith("get")) {
+                String setterName = "set" + getterName.substring(3);
+                if (methods.containsKey(setterName) && !isExcluded(getterName)) {
+                    String fieldName = getterName.substring(3);
+                    fieldName = StringUtil.reverseCapitalisation(fieldName).intern();
+                    sorted.put(fieldName, new FieldInfo(fieldName, methods.get(getterName),
+                            methods.get(setterName),
+                            methods.get("proxy" + getterName.substring(3)),
+                            methods.get("proxGet" + getterName.substring(3)),
+                            methods.get("add" + getterName.substring(3))));
+                }
+            }
+        }
+        fields = sorted.values().toArray(new FieldInfo[sorted.size()]);
+        names = sorted.keySet().toArray(new String[sorted.size()]);
+        indexes = new HashMap<String, Integer>();
+        List<Integer> nonCollections = new ArrayList<Integer>();
+        for (int i = 0; i < fields.length; i++) {
+            indexes.put(names[i], new Integer(i));
+            if (!Collection.class.isAssignableFrom(fields[i].getType())) {
+                nonCollections.add(new Integer(i));
+            }
+        }
+        nonCollectionIndexes = new int[nonCollections.size()];
+        for (int i = 0; i < nonCollectionIndexes.length; i++) {
+            nonCollectionIndexes[i] = nonCollections.get(i).intValue();
+        }
+        fieldInfos = Collections.unmodifiableMap(new LinkedHashMap<String, FieldInfo>(sorted));
+    }
+
+    /**
+     * Returns true if a getter is one of the methods of generated or proxy classes that looks
+     * like a property but is not a field.
+     */
+    private static boolean isExcluded(String getterName) {
+        // cglib Factory interface has getCallBack() and getCallBacks() methods
+        return "getClass".equals(getterName)
+            || "getCallback".equals(getterName)
+            || "getCallbacks".equals(getterName)
+            || "getoBJECT".equals(getterName)
+            || "getFieldValue".equals(getterName)
+            || "getFieldProxy".equals(getterName)
+            || "getFieldType".equals(getterName)
+            || "getElementType".equals(getterName);
+    }
+
+    /**
+     * Returns the fields of a class.
+     *
+     * @param c the Class
+     * @return a ClassFields object, which is the same object every time for the same Class
+     */
+    public static ClassFields forClass(Class<?> c) {
+        return REGISTRY.get(c);
+    }
+
+    /**
+     * Returns the number of fields.
+     *
+     * @return an int
+     */
+    public int size() {
+        return fields.length;
+    }
+
+    /**
+     * Returns the FieldInfo of a field.
+     *
+     * @param index the number of the field
+     * @return a FieldInfo object
+     */
+    public FieldInfo get(int index) {
+        return fields[index];
+    }
+
+    /**
+     * Returns the name of a field.
+     *
+     * @param index the number of the field
+     * @return the field name
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Returns the number of a field.
+     *
+     * @param fieldName the field name
+     * @return the number of the field, or -1 if the class has no such field
+     */
+    public int indexOf(String fieldName) {
+        Integer index = indexes.get(fieldName);
+        return (index == null) ? -1 : index.intValue();
+    }
+
+    /**
+     * Returns the FieldInfo of a field.
+     *
+     * @param fieldName the field name
+     * @return a FieldInfo object, or null if the class has no such field
+     */
+    public FieldInfo get(String fieldName) {
+        return fieldInfos.get(fieldName);
+    }
+
+    /**
+     * Returns the numbers of the fields that are not collections, that is the attributes and
+     * references.
+     *
+     * @return an array of field numbers in increasing order, which must not be altered
+     */
+    public int[] getNonCollectionIndexes() {
+        return nonCollectionIndexes;
+    }
+
+    /**
+     * Returns an unmodifiable Map from field name to FieldInfo, in alphabetical order of name.
+     *
+     * @return a Map
+     */
+    public Map<String, FieldInfo> asMap() {
+        return fieldInfos;
+    }
+
+    /**
+     * Returns the value of a field of an object of this class without dereferencing any
+     * ProxyReference.  Generated model classes return the value without reflection.
+     *
+     * @param o the object
+     * @param index the number of the field
+     * @return the value of the field
+     * @throws IllegalAccessException if the field cannot be read
+     */
+    public Object getFieldProxy(Object o, int index) throws IllegalAccessException {
+        if (o instanceof FastPathObject) {
+            return ((FastPathObject) o).getFieldProxy(names[index]);
+        }
+        return TypeUtil.getFieldProxy(o, names[index]);
+    }
+}
@@ -24,14 +24,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
-import java.util.TreeMap;
 import java.util.regex.Pattern;
 
 import org.intermine.model.FastPathObject;
@@ -50,9 +48,6 @@ public final class TypeUtil
         // empty
     }
 
-    private static Map<Class<?>, Map<String, FieldInfo>> classToFieldnameToFieldInfo
-        = new HashMap<Class<?>, Map<String, FieldInfo>>();
-
     /**
      * Returns the package name from a fully qualified class name
      *
@@ -288,63 +283,13 @@ public final class TypeUtil
 
     /**
      * Returns the Map from field name to TypeUtil.FieldInfo objects for all the fields in a
-     * given class.
+     * given class.  The Map is built once per class and is shared, so it cannot be altered.
      *
      * @param c the Class
-     * @return a Map from field name to FieldInfo object
+     * @return an unmodifiable Map from field name to FieldInfo object
      */
     public static Map<String, FieldInfo> getFieldInfos(Class<?> c) {
-        Map<String, FieldInfo> infos = null;
-        synchronized (classToFieldnameToFieldInfo) {
-            infos = classToFieldnameToFieldInfo.get(c);
-
-            if (infos == null) {
-                infos = new TreeMap<String, FieldInfo>();
-
-                Map<String, Method> methods = new HashMap<String, Method>();
-                Method[] methodArray = c.getMethods();
-
-                for (int i = 0; i < methodArray.length; i++) {
-                    String methodName = methodArray[i].getName();
-                    methods.put(methodName, methodArray[i]);
-                }
-
-                for (String getterName : methods.keySet()) {
-                    if (getterName.startsWith("get")) {
-                        String setterName = "set" + getterName.substring(3);
-                        String proxySetterName = "proxy" + getterName.substring(3);
-                        String proxyGetterName = "proxGet" + getterName.substring(3);
-                        String adderName = "add" + getterName.substring(3);
-                        if (methods.containsKey(setterName)) {
-                            Method getter = methods.get(getterName);
-                            Method setter = methods.get(setterName);
-                            Method proxySetter = methods.get(proxySetterName);
-                            Method proxyGetter = methods.get(proxyGetterName);
-                            Method adder = methods.get(adderName);
-                            String fieldName = getterName.substring(3);
-                            fieldName = StringUtil.reverseCapitalisation(fieldName).intern();
-
-                            // cglib Factory interface has getCallBack() and getCallBacks() methods
-                            if ((!"getClass".equals(getter.getName()))
-                                    && (!"getCallback".equals(getter.getName()))
-                                    && (!"getCallbacks".equals(getter.getName()))
-                                    && (!"getoBJECT".equals(getter.getName()))
-                                    && (!"getFieldValue".equals(getter.getName()))
-                                    && (!"getFieldProxy".equals(getter.getName()))
-                                    && (!"getFieldType".equals(getter.getName()))
-                                    && (!"getElementType".equals(getter.getName()))) {
-                                FieldInfo info = new FieldInfo(fieldName, getter, setter,
-                                        proxySetter, proxyGetter, adder);
-                                infos.put(fieldName, info);
-                            }
-                        }
-                    }
-                }
-
-                classToFieldnameToFieldInfo.put(c, infos);
-            }
-        }
-        return infos;
+        return ClassFields.forClass(c).asMap();
     }
 
     /**
@@ -355,7 +300,7 @@ public final class TypeUtil
      * @return a FieldInfo object, or null if the fieldname is not found
      */
     public static FieldInfo getFieldInfo(Class<?> c, String fieldname) {
-        return getFieldInfos(c).get(fieldname);
+        return ClassFields.forClass(c).get(fieldname);
     }
 
     /**
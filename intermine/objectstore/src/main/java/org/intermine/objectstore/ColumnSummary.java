@@ -0,0 +1,273 @@
+package org.intermine.objectstore;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.intermine.metadata.StringUtil;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * Precomputed statistics for one attribute of one class in an ObjectStore, so that the summary of
+ * a column of a query over all the objects of a class doesn't have to be calculated by the
+ * database each time it is shown.  A ColumnSummary holds the number of objects and of null
+ * values, the most frequent values with their counts and, for numeric attributes, the statistics
+ * and histogram produced by the summary queries of the webapp.
+ */
+public class ColumnSummary
+{
+    private final Class<?> type;
+    private final long count;
+    private final long nullCount;
+    private final long distinctCount;
+    private final List<Object> topValues;
+    private final List<Long> topCounts;
+    private Object min, max;
+    private BigDecimal average, standardDeviation;
+    private int configuredBins, bins;
+    private final Map<Integer, Long> bucketCounts = new TreeMap<Integer, Long>();
+
+    /**
+     * Create a summary of an attribute.
+     *
+     * @param type the type of the attribute
+     * @param count the number of objects
+     * @param nullCount the number of objects for which the attribute is null
+     * @param distinctCount the number of different values, counting null as a value
+     * @param topValues the most frequent values, most frequent first
+     * @param topCounts the number of objects with each of the topValues
+     */
+    public ColumnSummary(Class<?> type, long count, long nullCount, long distinctCount,
+            List<Object> topValues, List<Long> topCounts) {
+        if (topValues.size() != topCounts.size()) {
+            throw new IllegalArgumentException("There must be a count for each value");
+        }
+        this.type = type;
+        this.count = count;
+        this.nullCount = nullCount;
+        this.distinctCount = distinctCount;
+        this.topValues = Collections.unmodifiableList(new ArrayList<Object>(topValues));
+        this.topCounts = Collections.unmodifiableList(new ArrayList<Long>(topCounts));
+    }
+
+    /**
+     * Set the statistics and histogram of a numeric attribute, as calculated by the database.
+     *
+     * @param minValue the smallest value
+     * @param maxValue the largest value
+     * @param averageValue the mean of the values
+     * @param deviation the standard deviation of the values
+     * @param requestedBins the number of bins that the histogram was asked for
+     * @param actualBins the number of bins that the range of values was divided into
+     * @param counts the number of objects in each bin, with the objects with no value in the
+     * null bin
+     */
+    public void setHistogram(Object minValue, Object maxValue, BigDecimal averageValue,
+            BigDecimal deviation, int requestedBins, int actualBins, Map<Integer, Long> counts) {
+        this.min = minValue;
+        this.max = maxValue;
+        this.average = averageValue;
+        this.standardDeviation = deviation;
+        this.configuredBins = requestedBins;
+        this.bins = actualBins;
+        bucketCounts.clear();
+        bucketCounts.putAll(counts);
+    }
+
+    /**
+     * @return the type of the attribute
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of objects
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of objects for which the attribute is null
+     */
+    public long getNullCount() {
+        return nullCount;
+    }
+
+    /**
+     * @return the number of different values, counting null as a value
+     */
+    public long getDistinctCount() {
+        return distinctCount;
+    }
+
+    /**
+     * @return the most frequent values, most frequent first
+     */
+    public List<Object> getTopValues() {
+        return topValues;
+    }
+
+    /**
+     * @return the number of objects with each of the values returned by getTopValues()
+     */
+    public List<Long> getTopCounts() {
+        return topCounts;
+    }
+
+    /**
+     * Returns true if getTopValues() returns every value of the attribute.
+     *
+     * @return a boolean
+     */
+    public boolean isComplete() {
+        return topValues.size() == distinctCount;
+    }
+
+    /**
+     * Returns true if a histogram of the attribute with the given number of bins is held.
+     *
+     * @param requestedBins the number of bins wanted
+     * @return a boolean
+     */
+    public boolean hasHistogram(int requestedBins) {
+        return min != null && configuredBins == requestedBins;
+    }
+
+    /**
+     * Return the value counts in the format of the occurrences summary query made by the webapp:
+     * a row for each value containing the value and its count, most frequent first.
+     *
+     * @return a List of rows, or null if not every value is held
+     */
+    public List<ResultsRow<Object>> getOccurrenceRows() {
+        if (!isComplete()) {
+            return null;
+        }
+        List<ResultsRow<Object>> rows = new ArrayList<ResultsRow<Object>>();
+        for (int i = 0; i < topValues.size(); i++) {
+            rows.add(new ResultsRow<Object>(Arrays.asList(topValues.get(i), topCounts.get(i))));
+        }
+        return rows;
+    }
+
+    /**
+     * Return the histogram in the format of the histogram summary query made by the webapp: a row
+     * for each non-empty bin containing the minimum, maximum, average, standard deviation,
+     * number of bins, bin number and count, in bin order.
+     *
+     * @param requestedBins the number of bins wanted
+     * @return a List of rows, or null if there is no histogram with that number of bins
+     */
+    public List<ResultsRow<Object>> getHistogramRows(int requestedBins) {
+        if (!hasHistogram(requestedBins)) {
+            return null;
+        }
+        List<ResultsRow<Object>> rows = new ArrayList<ResultsRow<Object>>();
+        for (Map.Entry<Integer, Long> entry : bucketCounts.entrySet()) {
+            rows.add(new ResultsRow<Object>(Arrays.asList(min, max, average, standardDeviation,
+                            new Integer(bins), entry.getKey(), entry.getValue())));
+        }
+        if (nullCount > 0) {
+            // width_bucket() of null is null, which sorts after every bin
+            rows.add(new ResultsRow<Object>(Arrays.asList(min, max, average, standardDeviation,
+                            new Integer(bins), null, new Long(nullCount))));
+        }
+        return rows;
+    }
+
+    /**
+     * Convert this summary to a String for storing in the properties of an ObjectStoreSummary.
+     *
+     * @return a String that can be read by parse()
+     */
+    String format() {
+        List<String> parts = new ArrayList<String>();
+        parts.add(type.getName());
+        parts.add(Long.toString(count));
+        parts.add(Long.toString(nullCount));
+        parts.add(Long.toString(distinctCount));
+        parts.add(Integer.toString(topValues.size()));
+        for (int i = 0; i < topValues.size(); i++) {
+            parts.add(formatValue(topValues.get(i)));
+            parts.add(topCounts.get(i).toString());
+        }
+        if (min != null) {
+            parts.add(formatValue(min));
+            parts.add(formatValue(max));
+            parts.add(formatValue(average));
+            parts.add(formatValue(standardDeviation));
+            parts.add(Integer.toString(configuredBins));
+            parts.add(Integer.toString(bins));
+            for (Map.Entry<Integer, Long> entry : bucketCounts.entrySet()) {
+                parts.add(entry.getKey() + ":" + entry.getValue());
+            }
+        }
+        return StringUtil.join(parts, ObjectStoreSummary.FIELD_DELIM);
+    }
+
+    /**
+     * Read a summary written by format().
+     *
+     * @param value the String
+     * @return a new ColumnSummary
+     * @throws ClassNotFoundException if the type of the attribute is not a known class
+     */
+    static ColumnSummary parse(String value) throws ClassNotFoundException {
+        String[] parts = StringUtil.split(value, ObjectStoreSummary.FIELD_DELIM);
+        Class<?> type = Class.forName(parts[0]);
+        int topSize = Integer.parseInt(parts[4]);
+        List<Object> topValues = new ArrayList<Object>();
+        List<Long> topCounts = new ArrayList<Long>();
+        int i = 5;
+        for (int j = 0; j < topSize; j++) {
+            topValues.add(parseValue(type, parts[i++]));
+            topCounts.add(Long.valueOf(parts[i++]));
+        }
+        ColumnSummary summary = new ColumnSummary(type, Long.parseLong(parts[1]),
+                Long.parseLong(parts[2]), Long.parseLong(parts[3]), topValues, topCounts);
+        if (i < parts.length) {
+            Object min = parseValue(type, parts[i++]);
+            Object max = parseValue(type, parts[i++]);
+            BigDecimal average = new BigDecimal(parts[i++]);
+            BigDecimal deviation = (BigDecimal) parseValue(BigDecimal.class, parts[i++]);
+            int requestedBins = Integer.parseInt(parts[i++]);
+            int actualBins = Integer.parseInt(parts[i++]);
+            Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+            for (; i < parts.length; i++) {
+                int colon = parts[i].indexOf(':');
+                counts.put(Integer.valueOf(parts[i].substring(0, colon)),
+                        Long.valueOf(parts[i].substring(colon + 1)));
+            }
+            summary.setHistogram(min, max, average, deviation, requestedBins, actualBins, counts);
+        }
+        return summary;
+    }
+
+    private static String formatValue(Object value) {
+        return (value == null) ? ObjectStoreSummary.NULL_MARKER : value.toString();
+    }
+
+    private static Object parseValue(Class<?> type, String value) {
+        if (ObjectStoreSummary.NULL_MARKER.equals(value)) {
+            return null;
+        }
+        return TypeUtil.stringToObject(type, value);
+    }
+}
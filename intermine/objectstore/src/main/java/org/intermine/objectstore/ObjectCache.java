@@ -0,0 +1,219 @@
+package org.intermine.objectstore;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.intermine.model.InterMineObject;
+
+/**
+ * The getObjectById cache of an ObjectStore.  The cache holds at most a fixed number of objects,
+ * and when it is full the object that was used least recently is dropped.  The ids are spread
+ * over a number of stripes, each of which is locked separately, so that threads looking up
+ * different objects rarely wait for each other.  The cache remembers ids that have no object in
+ * the database, so that they are not looked up again.
+ *
+ * Each stripe has a generation number, which is increased whenever an id in the stripe is removed
+ * because the data in the database may have changed, and when the cache is flushed.  An object
+ * fetched from the database is only added to the cache if the generation of its stripe has not
+ * changed since the fetch began, so an object read before a write can not be cached after the
+ * write has removed the old copy, while a write only holds back the fetches of ids in one stripe.
+ */
+public final class ObjectCache
+{
+    private static final int STRIPES = 16;
+    private static final Object NULL = new Object();
+
+    private final Stripe[] stripes;
+
+    /**
+     * Construct a new ObjectCache.
+     *
+     * @param maxSize the maximum number of ids in the cache
+     */
+    public ObjectCache(int maxSize) {
+        stripes = new Stripe[STRIPES];
+        int stripeSize = Math.max(1, (maxSize + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeSize);
+        }
+    }
+
+    /**
+     * Returns the getObjectById cache of an ObjectStore, so that objects fetched other than by
+     * getObjectById can be added with putIfCurrent().
+     *
+     * @param os an ObjectStore
+     * @return the ObjectCache, or null if the ObjectStore does not have one
+     */
+    public static ObjectCache forObjectStore(ObjectStore os) {
+        if (os instanceof ObjectStoreAbstractImpl) {
+            return ((ObjectStoreAbstractImpl) os).getObjectCache();
+        } else if (os instanceof ObjectStorePassthruImpl) {
+            return ((ObjectStorePassthruImpl) os).getObjectCache();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the current generation of the stripe holding an id, which should be read before
+     * fetching an object that will be added to the cache with putIfCurrent().
+     *
+     * @param id the id of the object that will be fetched
+     * @return the generation number
+     */
+    public long getGeneration(Integer id) {
+        Stripe stripe = stripeFor(id);
+        synchronized (stripe) {
+            return stripe.generation;
+        }
+    }
+
+    /**
+     * Returns true if the cache holds an entry for the given id, which may be an entry saying
+     * that there is no such object.
+     *
+     * @param id the id
+     * @return true if get() will return the cached answer
+     */
+    public boolean containsKey(Integer id) {
+        Stripe stripe = stripeFor(id);
+        synchronized (stripe) {
+            return stripe.containsKey(id);
+        }
+    }
+
+    /**
+     * Returns the object in the cache with the given id.
+     *
+     * @param id the id
+     * @return the object, or null if the cache holds no object for the id
+     */
+    public InterMineObject get(Integer id) {
+        Stripe stripe = stripeFor(id);
+        Object value;
+        synchronized (stripe) {
+            value = stripe.get(id);
+        }
+        return (value == NULL) ? null : (InterMineObject) value;
+    }
+
+    /**
+     * Adds an object to the cache unconditionally, for objects that are known to be current.
+     *
+     * @param id the id
+     * @param obj the object, or null to record that there is no object with the id
+     */
+    public void put(Integer id, InterMineObject obj) {
+        Stripe stripe = stripeFor(id);
+        synchronized (stripe) {
+            stripe.put(id, (obj == null) ? NULL : obj);
+        }
+    }
+
+    /**
+     * Adds an object to the cache if the generation of its stripe has not changed since the object
+     * was fetched.
+     *
+     * @param id the id
+     * @param obj the object, or null to record that there is no object with the id
+     * @param fetchGeneration the generation returned by getGeneration(id) before the object was
+     * fetched
+     * @return true if the object was added
+     */
+    public boolean putIfCurrent(Integer id, InterMineObject obj, long fetchGeneration) {
+        Stripe stripe = stripeFor(id);
+        synchronized (stripe) {
+            if (stripe.generation != fetchGeneration) {
+                return false;
+            }
+            stripe.put(id, (obj == null) ? NULL : obj);
+            return true;
+        }
+    }
+
+    /**
+     * Removes an id from the cache.
+     *
+     * @param id the id
+     */
+    public void remove(Integer id) {
+        Stripe stripe = stripeFor(id);
+        synchronized (stripe) {
+            stripe.generation++;
+            stripe.remove(id);
+        }
+    }
+
+    /**
+     * Removes everything from the cache.
+     */
+    public void flush() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.generation++;
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of ids in the cache.
+     *
+     * @return an int
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripeFor(Integer id) {
+        return stripes[stripeIndex(id)];
+    }
+
+    /**
+     * Returns the number of the stripe that holds an id.
+     *
+     * @param id the id
+     * @return an index into the stripes
+     */
+    static int stripeIndex(Integer id) {
+        int h = (id == null) ? 0 : id.intValue() * 0x9E3779B9;
+        return (h >>> 16) & (STRIPES - 1);
+    }
+
+    /**
+     * One stripe of the cache, kept in order of use.
+     */
+    private static final class Stripe extends LinkedHashMap<Integer, Object>
+    {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+        // guarded by the lock on the stripe
+        private long generation;
+
+        private Stripe(int maxSize) {
+            super(16, 0.75F, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Object> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -25,14 +25,16 @@ import org.apache.log4j.Logger;
 import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.query.BatchRowCache;
 import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.PrefetchManager;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryCreator;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
-import org.intermine.util.CacheMap;
+import org.intermine.sql.precompute.BestQueryParallelExplainer;
 import org.intermine.util.PropertiesUtil;
 
 /**
@@ -46,6 +48,11 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
 {
     private static final Logger LOG = Logger.getLogger(ObjectStoreAbstractImpl.class);
 
+    /** The number of objects held in the getObjectById cache if not set in the properties */
+    public static final int DEFAULT_OBJECT_CACHE_SIZE = 50000;
+    /** The number of Results held in each Results cache if not set in the properties */
+    public static final int DEFAULT_RESULTS_CACHE_SIZE = 500;
+
     protected static Random rand = new Random();
 
     protected Model model;
@@ -54,7 +61,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
     protected long maxTime = Long.MAX_VALUE;
     // Optimiser will use a default query parse time if none is provided from properties
     protected Long maxQueryParseTime = null;
-    protected CacheMap<Integer, InterMineObject> cache;
+    protected int objectCacheSize = DEFAULT_OBJECT_CACHE_SIZE;
+    protected int resultsCacheSize = DEFAULT_RESULTS_CACHE_SIZE;
+    // Number of candidate queries the optimiser explains at once
+    protected int explainThreads = 1;
+    protected ObjectCache cache;
+    // Holds the rows of all the Results of this ObjectStore
+    protected BatchRowCache batchRowCache = new BatchRowCache("Results rows",
+            BatchRowCache.DEFAULT_MAX_ROWS);
 
     protected int getObjectOps = 0;
     protected int getObjectHits = 0;
@@ -95,10 +109,41 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
             maxQueryParseTime = Long.parseLong((String) props.get("max-query-parse-time"));
         }
 
+        if (props.get("object-cache-size") != null) {
+            objectCacheSize = Integer.parseInt((String) props.get("object-cache-size"));
+        }
+
+        if (props.get("results-cache-size") != null) {
+            resultsCacheSize = Integer.parseInt((String) props.get("results-cache-size"));
+        }
+
+        if (props.get("results-cached-rows") != null) {
+            batchRowCache.setMaxRows(Integer.parseInt((String) props.get(
+                            "results-cached-rows")));
+        }
+
+        if (props.get("explain-threads") != null) {
+            explainThreads = Integer.parseInt((String) props.get("explain-threads"));
+        }
+
+        if (props.get("explain-connections") != null) {
+            BestQueryParallelExplainer.setMaxConnections(Integer.parseInt((String) props.get(
+                            "explain-connections")));
+        }
+
+        if (props.get("prefetch-threads") != null) {
+            PrefetchManager.setMaxThreads(Integer.parseInt((String) props.get(
+                            "prefetch-threads")));
+        }
+
+        if (props.get("prefetch-depth") != null) {
+            PrefetchManager.setDefaultDepth(Integer.parseInt((String) props.get(
+                            "prefetch-depth")));
+        }
+
         LOG.info("Creating new " + getClass().getName() + " with sequence = " + sequenceNumber
                 + ", model = \"" + model.getName() + "\"");
-        cache = new CacheMap<Integer, InterMineObject>(getClass().getName() + " with sequence = "
-                + sequenceNumber + ", model = \"" + model.getName() + "\" getObjectById cache");
+        cache = new ObjectCache(objectCacheSize);
     }
 
     /**
@@ -190,30 +235,19 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
             LOG.info("getObjectById called " + getObjectOps + " times. Cache hits: "
                     + getObjectHits + ". Prefetches: " + getObjectPrefetches);
         }
-        boolean contains = true;
-        InterMineObject cached = null;
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-        }
-        if (contains) {
+        InterMineObject cached = cache.get(id);
+        if ((cached != null) || cache.containsKey(id)) {
             getObjectHits++;
             return cached;
         }
+        long generation = cache.getGeneration(id);
         InterMineObject fromDb = internalGetObjectById(id, clazz);
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-            if (contains) {
-                fromDb = cached;
-            } else {
-                cacheObjectById(id, fromDb);
-            }
+        // another thread may have fetched the same object meanwhile - return the same instance
+        cached = cache.get(id);
+        if (cached != null) {
+            return cached;
         }
+        cache.putIfCurrent(id, fromDb, generation);
         return fromDb;
     }
 
@@ -295,18 +329,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void invalidateObjectById(Integer id) {
-        synchronized (cache) {
-            cache.remove(id);
-        }
+        cache.remove(id);
     }
 
     /**
      * {@inheritDoc}
      */
     public Object cacheObjectById(Integer id, InterMineObject obj) {
-        synchronized (cache) {
-            cache.put(id, obj);
-        }
+        cache.put(id, obj);
         return obj;
     }
 
@@ -314,18 +344,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void flushObjectById() {
-        synchronized (cache) {
-            cache.clear();
-        }
+        cache.flush();
     }
 
     /**
      * {@inheritDoc}
      */
     public InterMineObject pilferObjectById(Integer id) {
-        synchronized (cache) {
-            return cache.get(id);
-        }
+        return cache.get(id);
     }
 
     /**
@@ -492,6 +518,24 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
         return maxQueryParseTime;
     }
 
+    /**
+     * Returns the getObjectById cache of this ObjectStore.
+     *
+     * @return an ObjectCache, or null if this ObjectStore was made without one
+     */
+    public ObjectCache getObjectCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the cache that holds the rows of the Results of this ObjectStore.
+     *
+     * @return a BatchRowCache
+     */
+    public BatchRowCache getBatchRowCache() {
+        return batchRowCache;
+    }
+
     /**
      * Creates a new empty ObjectStoreBag object that is valid for this ObjectStore.
      *
@@ -17,6 +17,7 @@ import java.util.Set;
 
 import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.query.BatchRowCache;
 import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.Query;
@@ -212,6 +213,24 @@ public class ObjectStorePassthruImpl implements ObjectStore
         return os.getMaxLimit();
     }
 
+    /**
+     * Returns the cache that holds the rows of the Results of the underlying ObjectStore.
+     *
+     * @return a BatchRowCache
+     */
+    public BatchRowCache getBatchRowCache() {
+        return BatchRowCache.forObjectStore(os);
+    }
+
+    /**
+     * Returns the getObjectById cache of the underlying ObjectStore.
+     *
+     * @return an ObjectCache, or null if the underlying ObjectStore has none
+     */
+    public ObjectCache getObjectCache() {
+        return ObjectCache.forObjectStore(os);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -10,6 +10,7 @@ package org.intermine.objectstore;
  *
  */
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -21,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
@@ -31,20 +33,28 @@ import org.intermine.metadata.ConstraintOp;
 import org.intermine.metadata.Model;
 import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.metadata.StringUtil;
+import org.intermine.metadata.TypeUtil;
 import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.OrderDescending;
 import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryCast;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryEvaluable;
+import org.intermine.objectstore.query.QueryExpression;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.QueryReference;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SubqueryExistsConstraint;
+import org.intermine.objectstore.query.WidthBucketFunction;
 
 /**
  * A summary of the data in an ObjectStore
@@ -63,6 +73,8 @@ public class ObjectStoreSummary
     protected final Map<String, Set<String>> emptyAttributesMap =
         new HashMap<String, Set<String>>();
     private final Map<String, Set<String>> nonEmptyFieldsMap = new HashMap<String, Set<String>>();
+    private final Map<String, ColumnSummary> columnSummariesMap =
+        new HashMap<String, ColumnSummary>();
     // This should be overwritten by MAX_FIELD_VALUES from properties
     protected int maxValues = DEFAULT_MAX_VALUES;
 
@@ -73,6 +85,20 @@ public class ObjectStoreSummary
     static final String NULL_MARKER = "___NULL___";
     static final String FIELD_DELIM = "$_^";
     static final String MAX_FIELD_VALUES = "max.field.values";
+    static final String COLUMN_SUMMARY_SUFFIX = ".columnSummary";
+    static final String COLUMN_SUMMARY_VALUES = "column.summary.values";
+    static final String COLUMN_SUMMARY_BINS = "column.summary.bins";
+
+    /**
+     * The default number of most frequent values to hold in the summary of each attribute.
+     */
+    public static final int DEFAULT_COLUMN_SUMMARY_VALUES = 1000;
+
+    /**
+     * The default number of bins in the histogram of each numeric attribute, which is the default
+     * number of bins used by the webapp.
+     */
+    public static final int DEFAULT_COLUMN_SUMMARY_BINS = 20;
 
     /**
      * The default number of values to make available for UI dropdowns - attributes with more values
@@ -97,6 +123,7 @@ public class ObjectStoreSummary
         // 3. for fields with fewer unique values than cutoff, create dropdowns
         // 4. Always empty refs/cols per class
         // 5. Always empty attributes per class
+        // 6. Column summaries of the attributes of each class
 
         Model model = os.getModel();
 
@@ -246,6 +273,35 @@ public class ObjectStoreSummary
                 }
             }
         }
+
+        // column summaries - value frequencies and histograms for the summaries of the columns
+        // of the results table, which are slow to calculate for large classes
+        String summaryValuesString = (String) configuration.get(COLUMN_SUMMARY_VALUES);
+        int summaryValues = (summaryValuesString == null ? DEFAULT_COLUMN_SUMMARY_VALUES
+                : Integer.parseInt(summaryValuesString.trim()));
+        String summaryBinsString = (String) configuration.get(COLUMN_SUMMARY_BINS);
+        int summaryBins = (summaryBinsString == null ? DEFAULT_COLUMN_SUMMARY_BINS
+                : Integer.parseInt(summaryBinsString.trim()));
+        if (summaryValues > 0) {
+            LOG.info("Summarising columns...");
+            for (ClassDescriptor cld : model.getTopDownLevelTraversal()) {
+                int classCount = classCountsMap.get(cld.getName()).intValue();
+                if (classCount == 0) {
+                    continue;
+                }
+                for (AttributeDescriptor att : cld.getAllAttributeDescriptors()) {
+                    String clsFieldName = cld.getName() + "." + att.getName();
+                    if ("id".equals(att.getName()) || ignoreFields.contains(clsFieldName)) {
+                        continue;
+                    }
+                    ColumnSummary summary = summariseColumn(os, cld, att.getName(), classCount,
+                            summaryValues, summaryBins);
+                    if (summary != null) {
+                        columnSummariesMap.put(clsFieldName, summary);
+                    }
+                }
+            }
+        }
     }
 
 
@@ -298,6 +354,13 @@ public class ObjectStoreSummary
                 String className = key.substring(0, key.lastIndexOf("."));
                 List<String> attributeNames = Arrays.asList(StringUtil.split(value, FIELD_DELIM));
                 emptyAttributesMap.put(className, new TreeSet<String>(attributeNames));
+            } else if (key.endsWith(COLUMN_SUMMARY_SUFFIX)) {
+                String classAndFieldName = key.substring(0, key.lastIndexOf("."));
+                try {
+                    columnSummariesMap.put(classAndFieldName, ColumnSummary.parse(value));
+                } catch (ClassNotFoundException e) {
+                    LOG.warn("Ignoring the column summary of " + classAndFieldName, e);
+                }
             } else if (key.equals(MAX_FIELD_VALUES)) {
                 this.maxValues = Integer.parseInt(value);
             }
@@ -338,6 +401,17 @@ public class ObjectStoreSummary
         return fieldValuesMap.get(className + "." + fieldName);
     }
 
+    /**
+     * Get the precomputed summary of the values of an attribute of all the objects of a class.
+     *
+     * @param className the class name to look up
+     * @param fieldName the attribute name to look up
+     * @return the summary, or null if the attribute wasn't summarised
+     */
+    public ColumnSummary getColumnSummary(String className, String fieldName) {
+        return columnSummariesMap.get(className + "." + fieldName);
+    }
+
     /**
      * Get a list of the reference and collection names that, for a given class, are always
      * null or empty.
@@ -412,6 +486,9 @@ public class ObjectStoreSummary
             }
             properties.put(key + FIELDS_SUFFIX, sb.toString());
         }
+        for (Map.Entry<String, ColumnSummary> entry: columnSummariesMap.entrySet()) {
+            properties.put(entry.getKey() + COLUMN_SUMMARY_SUFFIX, entry.getValue().format());
+        }
         // emptyFieldsMap contains empty references and collections
         writeEmptyMapToProperties(properties, NULL_FIELDS_SUFFIX, emptyFieldsMap);
 
@@ -456,6 +533,128 @@ public class ObjectStoreSummary
         return results;
     }
 
+    /**
+     * Summarise the values of an attribute of all the objects of a class, in the same way as the
+     * summary queries of the webapp: the number of objects with each value, and for numbers the
+     * statistics and a histogram calculated with width_bucket().
+     */
+    private ColumnSummary summariseColumn(ObjectStore os, ClassDescriptor cld, String fieldName,
+            int classCount, int summaryValues, int summaryBins) throws ObjectStoreException {
+        QueryClass qc = new QueryClass(cld.getType());
+        QueryField qf = new QueryField(qc, fieldName);
+        Class<?> type = qf.getType();
+        boolean numeric = Number.class.isAssignableFrom(type);
+        if (!numeric && (type != String.class) && (type != Boolean.class)) {
+            // dates and clobs are not summarised
+            return null;
+        }
+        long startTime = System.currentTimeMillis();
+
+        Query q = new Query();
+        q.addFrom(qc);
+        q.addToSelect(qf);
+        QueryFunction count = new QueryFunction();
+        q.addToSelect(count);
+        q.addToGroupBy(qf);
+        q.addToOrderBy(new OrderDescending(count));
+        q.addToOrderBy(qf);
+        Results results = os.execute(q, summaryValues + 1, false, false, false);
+        List<Object> topValues = new ArrayList<Object>();
+        List<Long> topCounts = new ArrayList<Long>();
+        long nullCount = -1;
+        Iterator<Object> resIter = results.iterator();
+        while (resIter.hasNext() && topValues.size() <= summaryValues) {
+            ResultsRow<?> row = (ResultsRow<?>) resIter.next();
+            Long valueCount = new Long(((Number) row.get(1)).longValue());
+            if (row.get(0) == null) {
+                nullCount = valueCount.longValue();
+            }
+            topValues.add(row.get(0));
+            topCounts.add(valueCount);
+        }
+        long distinctCount = topValues.size();
+        if (topValues.size() > summaryValues) {
+            topValues.remove(summaryValues);
+            topCounts.remove(summaryValues);
+            distinctCount = os.count(q, ObjectStore.SEQUENCE_IGNORE);
+        }
+        if (nullCount == -1) {
+            if (topValues.size() == distinctCount) {
+                nullCount = 0;
+            } else {
+                Query nullQ = new Query();
+                nullQ.addFrom(qc);
+                nullQ.addToSelect(qc);
+                nullQ.setConstraint(new SimpleConstraint(qf, ConstraintOp.IS_NULL));
+                nullCount = os.count(nullQ, ObjectStore.SEQUENCE_IGNORE);
+            }
+        }
+        ColumnSummary summary = new ColumnSummary(type, classCount, nullCount, distinctCount,
+                topValues, topCounts);
+        if (numeric && nullCount < classCount) {
+            addHistogram(os, qc, qf, summary, summaryBins);
+        }
+        LOG.info("Summarising column " + cld.getUnqualifiedName() + "." + fieldName + " took "
+                + (System.currentTimeMillis() - startTime) + "ms.");
+        return summary;
+    }
+
+    /**
+     * Calculate the histogram of a numeric attribute, with the same bins as the histogram
+     * summary query of the webapp.
+     */
+    private static void addHistogram(ObjectStore os, QueryClass qc, QueryField qf,
+            ColumnSummary summary, int summaryBins) throws ObjectStoreException {
+        Query statsq = new Query();
+        statsq.addFrom(qc);
+        statsq.addToSelect(new QueryFunction(qf, QueryFunction.MIN));
+        statsq.addToSelect(new QueryFunction(qf, QueryFunction.MAX));
+        statsq.addToSelect(new QueryFunction(qf, QueryFunction.AVERAGE));
+        statsq.addToSelect(new QueryFunction(qf, QueryFunction.STDDEV));
+        ResultsRow<?> stats = (ResultsRow<?>) os.execute(statsq, 1, false, false, false).get(0);
+        Object min = TypeUtil.stringToObject(qf.getType(), stats.get(0).toString());
+        Object max = TypeUtil.stringToObject(qf.getType(), stats.get(1).toString());
+        BigDecimal average = new BigDecimal(stats.get(2).toString());
+        BigDecimal deviation = (stats.get(3) == null) ? null
+            : new BigDecimal(stats.get(3).toString());
+        int bins = summaryBins;
+        if ((qf.getType() == Long.class) || (qf.getType() == Integer.class)) {
+            bins = (int) Math.min(bins, ((Number) max).longValue() - ((Number) min).longValue());
+        }
+        if (bins <= 0) {
+            // width_bucket() can't make a histogram, so the webapp can't either
+            return;
+        }
+
+        Query bucketq = new Query();
+        bucketq.setDistinct(false);
+        bucketq.addFrom(qc);
+        QueryEvaluable upperBound = new QueryExpression(
+                new QueryCast(new QueryValue(max), BigDecimal.class),
+                QueryExpression.MULTIPLY,
+                new QueryCast(new QueryValue(new Double(1.01)), BigDecimal.class));
+        QueryFunction bucket = new WidthBucketFunction(qf, new QueryValue(min), upperBound,
+                new QueryValue(new Integer(bins)));
+        bucketq.addToSelect(bucket);
+
+        Query q = new Query();
+        q.addFrom(bucketq);
+        QueryField bucketField = new QueryField(bucketq, bucket);
+        q.addToSelect(bucketField);
+        q.addToSelect(new QueryFunction());
+        q.addToGroupBy(bucketField);
+        q.addToOrderBy(bucketField);
+        Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+        for (Object resRow : os.execute(q, summaryBins + 2, false, false, false)) {
+            ResultsRow<?> row = (ResultsRow<?>) resRow;
+            if (row.get(0) != null) {
+                counts.put(new Integer(((Number) row.get(0)).intValue()),
+                        new Long(((Number) row.get(1)).longValue()));
+            }
+        }
+        summary.setHistogram(min, max, average, deviation, summaryBins, bins, counts);
+    }
+
     /**
      * Look for empty fields and collections on all instances of a particular class.
      *
@@ -21,6 +21,7 @@ import java.util.regex.Pattern;
 import net.sf.cglib.proxy.Factory;
 
 import org.apache.log4j.Logger;
+import org.intermine.metadata.ClassFields;
 import org.intermine.metadata.CollectionDescriptor;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.ReferenceDescriptor;
@@ -115,7 +116,7 @@ public final class NotXmlParser
             Map<String, Object> valueMap = bean.getMap();
             Map<String, FieldDescriptor> fields = os.getModel()
                 .getFieldDescriptorsForClass(retval.getClass());
-            Map<String, TypeUtil.FieldInfo> fieldInfos = TypeUtil.getFieldInfos(clazz);
+            ClassFields fieldInfos = ClassFields.forClass(clazz);
             boolean fetchFromInterMineObject = os.getSchema().isFetchFromInterMineObject();
             for (int i = 2; i < a.length; i += 2) {
                 if (a[i].startsWith("a")) {
@@ -194,7 +195,7 @@ public final class NotXmlParser
 
                 Map<String, FieldDescriptor> fields = os.getModel()
                     .getFieldDescriptorsForClass(retval.getClass());
-                Map<String, TypeUtil.FieldInfo> fieldInfos = TypeUtil.getFieldInfos(clazz);
+                ClassFields fieldInfos = ClassFields.forClass(clazz);
                 for (int i = 2; i < a.length; i += 2) {
                     if (a[i].startsWith("a")) {
                         String fieldName = a[i].substring(1);
@@ -15,10 +15,8 @@ import static org.intermine.objectstore.intermine.NotXmlParser.ENCODED_DELIM;
 
 import java.util.Collection;
 import java.util.Date;
-import java.util.Map;
 
-import org.intermine.metadata.TypeUtil;
-import org.intermine.metadata.TypeUtil.FieldInfo;
+import org.intermine.metadata.ClassFields;
 import org.intermine.metadata.Util;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.StringConstructor;
@@ -53,13 +51,14 @@ public final class NotXmlRenderer
                 sb.append(clazz.getName());
             }
 
-            Map<String, FieldInfo> infos = TypeUtil.getFieldInfos(obj.getClass());
-            for (String fieldName : infos.keySet()) {
+            ClassFields fields = ClassFields.forClass(obj.getClass());
+            for (int index : fields.getNonCollectionIndexes()) {
                 // If reference, value is id of referred-to object
                 // If field, value is field value
-                // If collection, no element output
+                // Collections are not output
                 // Element is not output if the value is null
-                Object value = TypeUtil.getFieldProxy(obj, fieldName);
+                String fieldName = fields.getName(index);
+                Object value = fields.getFieldProxy(obj, index);
 
                 if ((value != null) && (!Collection.class.isAssignableFrom(value.getClass()))) {
                     // It is not null or a collection.
@@ -60,6 +60,7 @@ import org.intermine.objectstore.query.ConstraintWithBag;
 import org.intermine.objectstore.query.FromElement;
 import org.intermine.objectstore.query.MultipleInBagConstraint;
 import org.intermine.objectstore.query.OrderDescending;
+import org.intermine.objectstore.query.PrefetchManager;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryClassBag;
@@ -87,10 +88,11 @@ import org.intermine.sql.precompute.PrecomputedTableManager;
 import org.intermine.sql.precompute.QueryOptimiser;
 import org.intermine.sql.precompute.QueryOptimiserContext;
 import org.intermine.sql.query.ExplainResult;
+import org.intermine.sql.query.ParameterisedSql;
 import org.intermine.sql.query.PostgresExplainResult;
 import org.intermine.sql.writebatch.Batch;
 import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
-import org.intermine.util.CacheMap;
+import org.intermine.util.BoundedCacheMap;
 import org.intermine.util.ShutdownHook;
 import org.intermine.util.Shutdownable;
 
@@ -133,6 +135,9 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected static final int SEQUENCE_MULTIPLE = 1000000;
     protected boolean logExplains = false;
     protected boolean disableResultsCache = false;
+    protected boolean usePreparedStatements = false;
+    // The IQL of queries that must always be planned for their own values
+    protected Set<String> inlineValueQueries = Collections.synchronizedSet(new HashSet<String>());
 
     // don't use a table to represent bags if the bag is smaller than this value
     protected int minBagTableSize = -1;
@@ -147,11 +152,17 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected Map<Query, Integer> goFasterCountMap = new IdentityHashMap<Query, Integer>();
     protected ReferenceQueue<String> bagTablesToRemove = new ReferenceQueue<String>();
     protected String description;
-    protected Map<String, Results> resultsCache = new CacheMap<String, Results>();
-    protected Map<String, SingletonResults> singletonResultsCache
-        = new CacheMap<String, SingletonResults>();
-    protected Map<String, Map<Integer, ResultsBatches>> batchesCache
-        = new CacheMap<String, Map<Integer, ResultsBatches>>();
+    // The superclass constructor has read the size of these caches from the properties. They
+    // only pin the Results objects - their rows are held in batchRowCache, which is bounded by
+    // the total number of rows.
+    protected BoundedCacheMap<String, Results> resultsCache
+        = new BoundedCacheMap<String, Results>("Results cache", resultsCacheSize);
+    protected BoundedCacheMap<String, SingletonResults> singletonResultsCache
+        = new BoundedCacheMap<String, SingletonResults>("SingletonResults cache",
+                resultsCacheSize);
+    protected BoundedCacheMap<String, Map<Integer, ResultsBatches>> batchesCache
+        = new BoundedCacheMap<String, Map<Integer, ResultsBatches>>("Batches cache",
+                resultsCacheSize);
 
     private static final String[] LOG_TABLE_COLUMNS = new String[] {"timestamp", "optimise",
         "estimated", "execute", "permitted", "convert", "iql", "sql"};
@@ -202,6 +213,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         ShutdownHook.registerObject(new WeakReference<Object>(this));
         limitedContext = new QueryOptimiserContext();
         limitedContext.setTimeLimit(getMaxTime() / 10);
+        limitedContext.setExplainThreads(explainThreads);
         maxQueryParseTime = getMaxQueryParseTime();
         if (maxQueryParseTime != null) {
             limitedContext.setMaxQueryParseTime(maxQueryParseTime);
@@ -347,6 +359,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         String logExplainsString = props.getProperty("logExplains");
         String logBeforeExecuteString = props.getProperty("logBeforeExecute");
         String disableResultsCacheString = props.getProperty("disableResultsCache");
+        String preparedStatementsString = props.getProperty("preparedStatements");
 
         synchronized (instances) {
             ObjectStoreInterMineImpl os = instances.get(osAlias);
@@ -508,6 +521,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     os.setDisableResultsCache(true);
                 }
 
+                if ("true".equals(preparedStatementsString)) {
+                    os.setUsePreparedStatements(true);
+                }
+
                 instances.put(osAlias, os);
             }
 
@@ -656,6 +673,62 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return disableResultsCache;
     }
 
+    /**
+     * Sets the usePreparedStatements configuration option. If true, the constant values in the
+     * WHERE clauses of the SQL for a query are bound as parameters of a PreparedStatement, so
+     * that queries that differ only in their values have the same SQL. The JDBC driver keeps the
+     * server-side statements of each connection (see the prepareThreshold and
+     * preparedStatementCacheQueries properties of the PostgreSQL driver), so those queries reuse
+     * the plan that the database made for the first of them.
+     *
+     * @param usePreparedStatements a boolean
+     */
+    public void setUsePreparedStatements(boolean usePreparedStatements) {
+        this.usePreparedStatements = usePreparedStatements;
+    }
+
+    /**
+     * Gets the usePreparedStatements configuration option.
+     *
+     * @return a boolean
+     */
+    public boolean getUsePreparedStatements() {
+        return usePreparedStatements;
+    }
+
+    /**
+     * Sets whether a Query should always be run with its values written into the SQL, so that
+     * the database makes a plan for those particular values, even if usePreparedStatements is
+     * set. This is useful for queries whose best plan depends on how common their values are.
+     * The setting applies to every Query with the same IQL, as the Results cache may run an
+     * earlier copy of the Query.
+     *
+     * @param q a Query
+     * @param inlineValues true to write the values into the SQL
+     */
+    public void setInlineValues(Query q, boolean inlineValues) {
+        if (inlineValues) {
+            inlineValueQueries.add(q.toString());
+        } else {
+            inlineValueQueries.remove(q.toString());
+        }
+    }
+
+    /**
+     * Returns the SQL for a query with its values taken out, if the query should be run with a
+     * PreparedStatement.
+     *
+     * @param q the Query
+     * @param sql the SQL to run for the Query
+     * @return a ParameterisedSql, or null to run the SQL as it is
+     */
+    protected ParameterisedSql parameterise(Query q, String sql) {
+        if (usePreparedStatements && (!inlineValueQueries.contains(q.toString()))) {
+            return ParameterisedSql.of(sql);
+        }
+        return null;
+    }
+
     /**
      * Allows the log table to be flushed, guaranteeing that all log entries are committed to the
      * database.
@@ -745,7 +818,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 synchronized (batchesCache) {
                     Map<Integer, ResultsBatches> batches = batchesCache.get(batchesKey);
                     if (batches == null) {
-                        batches = new CacheMap<Integer, ResultsBatches>();
+                        batches = new HashMap<Integer, ResultsBatches>();
                         batchesCache.put(batchesKey, batches);
                     }
                     ResultsBatches batch = getResultsBatches(batches, batchSize);
@@ -801,7 +874,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 synchronized (batchesCache) {
                     Map<Integer, ResultsBatches> batches = batchesCache.get(batchesKey);
                     if (batches == null) {
-                        batches = new CacheMap<Integer, ResultsBatches>();
+                        batches = new HashMap<Integer, ResultsBatches>();
                         batchesCache.put(batchesKey, batches);
                     }
 
@@ -908,6 +981,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             throw new ObjectStoreException("This Thread is already registered with a request ID");
         }
         requestId.set(id);
+        PrefetchManager.registerRequestId(id);
     }
 
     /**
@@ -921,6 +995,19 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             throw new ObjectStoreException("This Thread is not registered with ID " + id);
         }
         requestId.set(null);
+        PrefetchManager.deregisterRequestId();
+    }
+
+    /**
+     * Returns the request ID of the current Thread. A PrefetchManager thread uses the request ID
+     * of the prefetch that it is doing, so that it can be cancelled with the request that asked
+     * for it.
+     *
+     * @return the request ID, or null if there is none
+     */
+    protected Object getRequestId() {
+        Object id = requestId.get();
+        return (id == null) ? PrefetchManager.getCurrentRequest() : id;
     }
 
     private WeakHashMap<Object, Object> cancelRegistry = new WeakHashMap<Object, Object>();
@@ -935,7 +1022,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
      * @throws ObjectStoreException if the request is black-listed
      */
     protected void registerStatement(Statement s) throws ObjectStoreException {
-        Object id = requestId.get();
+        Object id = getRequestId();
         if (id != null) {
             synchronized (cancelRegistry) {
                 Object statement = cancelRegistry.get(id);
@@ -953,11 +1040,15 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
 
     /**
      * This method cancels any Statement running in a given request ID, and blacklists that ID.
+     * Any batches being prefetched for the request are cancelled too.
      *
      * @param id the request ID
      * @throws ObjectStoreException if the cancel fails
      */
     public void cancelRequest(Object id) throws ObjectStoreException {
+        for (Object prefetch : PrefetchManager.cancelRequest(id)) {
+            cancelRequest(prefetch);
+        }
         synchronized (cancelRegistry) {
             try {
                 Object statement = cancelRegistry.get(id);
@@ -979,7 +1070,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
      * @throws ObjectStoreException if this Thread does not have this Statement registered
      */
     protected void deregisterStatement(Statement s) throws ObjectStoreException {
-        Object id = requestId.get();
+        Object id = getRequestId();
         if (id != null) {
             synchronized (cancelRegistry) {
                 Object statement = cancelRegistry.get(id);
@@ -1055,6 +1146,9 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 + ", SQL Optimise: " + statsOptTime + ", Estimate: "
                 + statsEstTime + ", Execute: " + statsExeTime + ", Results Convert: "
                 + statsConTime);
+        LOG.info(resultsCache.getStatistics() + "; " + singletonResultsCache.getStatistics()
+                + "; " + batchesCache.getStatistics() + "; " + batchRowCache.getStatistics());
+        LOG.info(PrefetchManager.getStatistics());
 
         if (logTableBatch != null) {
             try {
@@ -1215,18 +1309,30 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                         + "optimised sql: " + sql);
             }
             long preExecute = System.currentTimeMillis();
-            Statement s = c.createStatement();
-            registerStatement(s);
-            ResultSet sqlResults;
+            ParameterisedSql parameterised = parameterise(q, sql);
+            Statement s = (parameterised == null) ? c.createStatement()
+                : c.prepareStatement(parameterised.getSql());
+            long postExecute;
+            ExtraQueryTime extra = new ExtraQueryTime();
+            List<ResultsRow<Object>>  objResults;
             try {
-                sqlResults = s.executeQuery(sql);
+                registerStatement(s);
+                ResultSet sqlResults;
+                try {
+                    if (parameterised == null) {
+                        sqlResults = s.executeQuery(sql);
+                    } else {
+                        sqlResults = parameterised.executeQuery((PreparedStatement) s);
+                    }
+                } finally {
+                    deregisterStatement(s);
+                }
+                postExecute = System.currentTimeMillis();
+                objResults = ResultsConverter.convert(sqlResults, q, this, c, sequence, optimise,
+                        extra, goFasterTables, goFasterCache);
             } finally {
-                deregisterStatement(s);
+                s.close();
             }
-            long postExecute = System.currentTimeMillis();
-            ExtraQueryTime extra = new ExtraQueryTime();
-            List<ResultsRow<Object>>  objResults = ResultsConverter.convert(sqlResults, q, this, c,
-                    sequence, optimise, extra, goFasterTables, goFasterCache);
             long postConvert = System.currentTimeMillis();
             long permittedTime = (objResults.size() * 2) + start + (150 * q.getFrom().size())
                     + (sql.length() / 20) - (q.getFrom().size() == 0 ? 0 : 100);
@@ -1694,20 +1800,30 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             }
             //long time = (new Date()).getTime();
             ResultSet sqlResults;
-            Statement s = c.createStatement();
-            registerStatement(s);
+            ParameterisedSql parameterised = parameterise(q, sql);
+            Statement s = (parameterised == null) ? c.createStatement()
+                : c.prepareStatement(parameterised.getSql());
             try {
-                sqlResults = s.executeQuery(sql);
+                registerStatement(s);
+                try {
+                    if (parameterised == null) {
+                        sqlResults = s.executeQuery(sql);
+                    } else {
+                        sqlResults = parameterised.executeQuery((PreparedStatement) s);
+                    }
+                } finally {
+                    deregisterStatement(s);
+                }
+                //long now = (new Date()).getTime();
+                //if (now - time > 10) {
+                //    LOG.debug(getModel().getName() + ": Executed SQL (time = "
+                //            + (now - time) + "): " + sql);
+                //}
+                sqlResults.next();
+                return sqlResults.getInt(1);
             } finally {
-                deregisterStatement(s);
+                s.close();
             }
-            //long now = (new Date()).getTime();
-            //if (now - time > 10) {
-            //    LOG.debug(getModel().getName() + ": Executed SQL (time = "
-            //            + (now - time) + "): " + sql);
-            //}
-            sqlResults.next();
-            return sqlResults.getInt(1);
         } catch (CompletelyFalseException e) {
             return 0;
         } catch (SQLException e) {
@@ -1820,14 +1936,9 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     throw new ObjectStoreException("More than one object in the database has this"
                             + " primary key");
                 }
-                InterMineObject retval = NotXmlParser.parse(currentColumn, this);
-                //if (currentColumn.length() < CACHE_LARGEST_OBJECT) {
-                cacheObjectById(retval.getId(), retval);
-                //} else {
-                //    LOG.debug("Not cacheing large object " + retval.getId() + " on getObjectById"
-                //            + " (size = " + (currentColumn.length() / 512) + " kB)");
-                //}
-                return retval;
+                // getObjectById() adds the object to the cache if nothing has been written since
+                // the fetch began
+                return NotXmlParser.parse(currentColumn, this);
             } else {
                 return null;
             }
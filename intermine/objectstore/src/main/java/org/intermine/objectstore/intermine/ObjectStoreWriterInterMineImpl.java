@@ -19,6 +19,7 @@ import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -33,11 +34,13 @@ import java.util.WeakHashMap;
 import org.apache.log4j.Logger;
 import org.intermine.metadata.AttributeDescriptor;
 import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.ClassFields;
 import org.intermine.metadata.CollectionDescriptor;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.metadata.Util;
+import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.StringConstructor;
 import org.intermine.objectstore.DataChangedException;
@@ -82,6 +85,9 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
     private static final Logger LOG = Logger.getLogger(ObjectStoreWriterInterMineImpl.class);
     private static final String[] CLOB_COLUMNS = new String[] {CLOBID_COLUMN, CLOBPAGE_COLUMN,
         CLOBVAL_COLUMN};
+    private static final int COLUMN_CONSTANT = 0;
+    private static final int COLUMN_OBJECT = 1;
+    private static final int COLUMN_FIELD = 2;
     protected Connection conn = null;
     protected boolean connInUse = false;
     protected ObjectStoreInterMineImpl os;
@@ -91,7 +97,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
     protected Map<Integer, Boolean> recentSequences;
     protected Map<String, TableInfo> tableToInfo;
     protected Map<String, String[]> tableToColNameArray;
-    protected Map<String, Set<CollectionDescriptor>> tableToCollections;
+    private Map<Class<?>, StorePlan> classToStorePlan;
     protected String connectionTakenBy = null;
     protected Set<Object> tablesAltered = new HashSet<Object>();
 
@@ -148,7 +154,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         batch = new Batch(new BatchWriterPostgresCopyImpl());
         tableToInfo = new HashMap<String, TableInfo>();
         tableToColNameArray = new HashMap<String, String[]>();
-        tableToCollections = new HashMap<String, Set<CollectionDescriptor>>();
+        classToStorePlan = new HashMap<Class<?>, StorePlan>();
     }
 
     /**
@@ -599,82 +605,33 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             beginTransactionWithConnection(c);
         }
         try {
+            TableWriter[] tableWriters = getTableWriters(getStorePlan(o.getClass()), o.getClass());
             boolean doDeletes = (o instanceof InterMineObject ? populateIds(c,
                         (InterMineObject) o) : false);
             writePendingClobs(c, o);
             StringConstructor xml = null;
-            String objectClass = null;
-            Set<ClassDescriptor> classDescriptors = model.getClassDescriptorsForClass(o.getClass());
 
             if (doDeletes) {
-                for (ClassDescriptor cld : classDescriptors) {
-                    ClassDescriptor tableMaster = schema.getTableMaster(cld);
-                    String tableName = DatabaseUtil.getTableName(tableMaster);
-                    if (!schema.getMissingTables().contains(tableName.toLowerCase())) {
+                for (TableWriter tableWriter : tableWriters) {
+                    if (!tableWriter.missing) {
+                        String tableName = tableWriter.tableInfo.tableName;
                         batch.deleteRow(c, tableName, "id", ((InterMineObject) o).getId());
                         tablesAltered.add(tableName);
                     }
                 }
             }
             int tablesWritten = 0;
-            Set<String> validFieldNames = new HashSet<String>();
-            for (Map.Entry<String, TypeUtil.FieldInfo> entry : TypeUtil.getFieldInfos(o.getClass())
-                    .entrySet()) {
-                String fieldName = entry.getKey();
-                TypeUtil.FieldInfo fieldInfo = entry.getValue();
-                if (!Collection.class.isAssignableFrom(fieldInfo.getType())) {
-                    validFieldNames.add(fieldName);
-                }
-            }
-            for (ClassDescriptor cld : classDescriptors) {
-                ClassDescriptor tableMaster = schema.getTableMaster(cld);
-                TableInfo tableInfo = getTableInfo(tableMaster);
-                Set<CollectionDescriptor> collections = tableToCollections.get(cld.getName());
-                if (collections == null) {
-                    LOG.info("Generating cached metadata for ClassDescriptor " + cld.getName());
-                    collections = new HashSet<CollectionDescriptor>();
-                    for (FieldDescriptor field : cld.getAllFieldDescriptors()) {
-                        if (field instanceof CollectionDescriptor) {
-                            collections.add((CollectionDescriptor) field);
-                        }
-                    }
-                    tableToCollections.put(cld.getName(), collections);
-                }
-
-                if (!schema.getMissingTables().contains(tableInfo.tableName.toLowerCase())) {
+            for (TableWriter tableWriter : tableWriters) {
+                if (!tableWriter.missing) {
                     tablesWritten++;
-                    if (schema.isFlatMode(cld.getType()) && (!schema.isTruncated(schema
-                                    .getTableMaster(cld)))
-                            && (!(cld.getType().equals(o.getClass())))) {
-                        Set<Class<?>> decomposed = Util.decomposeClass(o.getClass());
-                        if (!((decomposed.size() == 1) && cld.getType().equals(decomposed.iterator()
-                                        .next()))) {
-                            throw new ObjectStoreException("Non-flat model heirarchy used in flat "
-                                    + "mode. Cannot store object with classes = " + decomposed);
-                        }
+                    if (tableWriter.flatModeError != null) {
+                        throw new ObjectStoreException(tableWriter.flatModeError);
                     }
+                    TableInfo tableInfo = tableWriter.tableInfo;
                     Object[] values = new Object[tableInfo.colNames.length];
-                    Set<String> fieldNamesWritten = new HashSet<String>();
                     for (int colNo = 0; colNo < tableInfo.colNames.length; colNo++) {
-                        Object value = null;
-                        if ("tableclass".equals(tableInfo.colNames[colNo])) {
-                            value = cld.getName();
-                        } else if ("class".equals(tableInfo.colNames[colNo])) {
-                            if (objectClass == null) {
-                                StringBuffer sb = new StringBuffer();
-                                boolean needComma = false;
-                                for (Class<?> objectClazz : Util.decomposeClass(o
-                                        .getClass())) {
-                                    if (needComma) {
-                                        sb.append(" ");
-                                    }
-                                    needComma = true;
-                                    sb.append(objectClazz.getName());
-                                }
-                                objectClass = sb.toString();
-                            }
-                            value = objectClass;
-                        } else if ("OBJECT".equals(tableInfo.colNames[colNo])) {
+                        Object value = tableWriter.constants[colNo];
+                        if (tableWriter.columnKinds[colNo] == COLUMN_OBJECT) {
                             if (xml == null) {
                                 if (o instanceof InterMineObject) {
                                     xml = ((InterMineObject) o).getoBJECT();
@@ -683,13 +640,8 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                                 }
                             }
                             value = xml;
-                        } else if (validFieldNames.contains(tableInfo.fieldNames[colNo])) {
-                            if (o instanceof InterMineObject) {
-                                value = ((InterMineObject) o).getFieldProxy(tableInfo
-                                        .fieldNames[colNo]);
-                            } else {
-                                value = TypeUtil.getFieldProxy(o, tableInfo.fieldNames[colNo]);
-                            }
+                        } else if (tableWriter.columnKinds[colNo] == COLUMN_FIELD) {
+                            value = getFieldProxy(o, tableInfo.fieldNames[colNo]);
                             if (value instanceof Date) {
                                 value = new Long(((Date) value).getTime());
                             }
@@ -703,46 +655,16 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                                     || (colNo >= tableInfo.referencesFrom)) {
                                 value = null;
                             }
-                            fieldNamesWritten.add(tableInfo.fieldNames[colNo]);
-                        } else {
-                            FieldDescriptor fieldDescriptor = tableInfo.fields[colNo];
-                            if (fieldDescriptor instanceof AttributeDescriptor) {
-                                String fieldType = ((AttributeDescriptor) fieldDescriptor)
-                                    .getType();
-                                if ("boolean".equals(fieldType)) {
-                                    value = Boolean.FALSE;
-                                } else if ("short".equals(fieldType)) {
-                                    value = new Short((short) 0);
-                                } else if ("int".equals(fieldType)) {
-                                    value = new Integer(0);
-                                } else if ("long".equals(fieldType)) {
-                                    value = new Long(0L);
-                                } else if ("float".equals(fieldType)) {
-                                    value = new Float(0.0F);
-                                } else if ("double".equals(fieldType)) {
-                                    value = new Double(0.0);
-                                }
-                            }
                         }
                         values[colNo] = value;
                     }
-                    if (schema.isFlatMode(cld.getType())) {
-                        for (String validFieldName : validFieldNames) {
-                            if (!fieldNamesWritten.contains(validFieldName)) {
-                                Set<Class<?>> decomposed = Util.decomposeClass(o.getClass());
-                                throw new ObjectStoreException("Cannot store object " + decomposed
-                                        + " - no column for field " + validFieldName + " in table "
-                                        + tableInfo.tableName);
-                            }
-                        }
-                    }
                     batch.addRow(c, tableInfo.tableName, (o instanceof InterMineObject
                                 ? ((InterMineObject) o).getId() : null), tableInfo.colNames,
                             values);
                     tablesAltered.add(tableInfo.tableName);
                 }
 
-                writeCollections(c, o, collections);
+                writeCollections(c, o, tableWriter.collections);
             }
             if (tablesWritten < 1) {
                 throw new ObjectStoreException("Object " + Util.decomposeClass(o.getClass())
@@ -1001,27 +923,24 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         recentSequences.remove(o.getId());
 
         // Make sure all objects pointed to have IDs
-        for (Map.Entry<String, TypeUtil.FieldInfo> fieldEntry
-                : TypeUtil.getFieldInfos(o.getClass()).entrySet()) {
-            TypeUtil.FieldInfo fieldInfo = fieldEntry.getValue();
-            if (InterMineObject.class.isAssignableFrom(fieldInfo.getType())) {
-                InterMineObject obj = (InterMineObject) TypeUtil.getFieldProxy(o,
-                        fieldInfo.getName());
-                if ((obj != null) && (obj.getId() == null)) {
-                    obj.setId(getSerialWithConnection(c));
-                }
-            } else if (Collection.class.isAssignableFrom(fieldInfo.getType())) {
-                @SuppressWarnings("unchecked") Collection<Object> coll
-                    = (Collection<Object>) o.getFieldValue(fieldInfo.getName());
-
-                if (!(coll instanceof Lazy)) {
-                    for (Object obj : coll) {
-                        // the collection may contain simple objects which don't have ids
-                        if (obj instanceof InterMineObject) {
-                            InterMineObject imo = (InterMineObject) obj;
-                            if (imo.getId() == null) {
-                                imo.setId(getSerialWithConnection(c));
-                            }
+        StorePlan plan = getStorePlan(o.getClass());
+        for (String fieldName : plan.referenceFieldNames) {
+            InterMineObject obj = (InterMineObject) o.getFieldProxy(fieldName);
+            if ((obj != null) && (obj.getId() == null)) {
+                obj.setId(getSerialWithConnection(c));
+            }
+        }
+        for (String fieldName : plan.collectionFieldNames) {
+            @SuppressWarnings("unchecked") Collection<Object> coll
+                = (Collection<Object>) o.getFieldValue(fieldName);
+
+            if (!(coll instanceof Lazy)) {
+                for (Object obj : coll) {
+                    // the collection may contain simple objects which don't have ids
+                    if (obj instanceof InterMineObject) {
+                        InterMineObject imo = (InterMineObject) obj;
+                        if (imo.getId() == null) {
+                            imo.setId(getSerialWithConnection(c));
                         }
                     }
                 }
@@ -1042,21 +961,194 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
      */
     protected void writePendingClobs(Connection c, Object o) throws ObjectStoreException,
         SQLException, IllegalAccessException {
-        for (Map.Entry<String, TypeUtil.FieldInfo> fieldEntry
-                : TypeUtil.getFieldInfos(o.getClass()).entrySet()) {
-            TypeUtil.FieldInfo fieldInfo = fieldEntry.getValue();
-            if (ClobAccess.class.isAssignableFrom(fieldInfo.getType())) {
-                ClobAccess ca = (ClobAccess) TypeUtil.getFieldValue(o, fieldInfo.getName());
-                if (ca instanceof PendingClob) {
-                    // We can't call createClob here - we already have a connection, and
-                    // we must use that one.
-                    Clob clob = new Clob(getSerialWithConnection(c));
-                    replaceClobWithConnection(c, clob, ((PendingClob) ca)
-                            .toString());
-                    DynamicUtil.setFieldValue(o, fieldInfo.getName(), new ClobAccess(this, clob));
+        for (String fieldName : getStorePlan(o.getClass()).clobFieldNames) {
+            ClobAccess ca;
+            if (o instanceof FastPathObject) {
+                ca = (ClobAccess) ((FastPathObject) o).getFieldValue(fieldName);
+            } else {
+                ca = (ClobAccess) TypeUtil.getFieldValue(o, fieldName);
+            }
+            if (ca instanceof PendingClob) {
+                // We can't call createClob here - we already have a connection, and
+                // we must use that one.
+                Clob clob = new Clob(getSerialWithConnection(c));
+                replaceClobWithConnection(c, clob, ((PendingClob) ca)
+                        .toString());
+                ClobAccess replacement = new ClobAccess(this, clob);
+                if (o instanceof FastPathObject) {
+                    ((FastPathObject) o).setFieldValue(fieldName, replacement);
+                } else {
+                    DynamicUtil.setFieldValue(o, fieldName, replacement);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the value of a field of an object about to be stored, without dereferencing any
+     * ProxyReference.  Generated model classes implement this without reflection.
+     *
+     * @param o the object
+     * @param fieldName the name of the field
+     * @return the value of the field
+     * @throws IllegalAccessException if the field cannot be read
+     */
+    private static Object getFieldProxy(Object o, String fieldName)
+        throws IllegalAccessException {
+        if (o instanceof FastPathObject) {
+            return ((FastPathObject) o).getFieldProxy(fieldName);
+        }
+        return TypeUtil.getFieldProxy(o, fieldName);
+    }
+
+    /**
+     * Returns the cached StorePlan for a class, creating it the first time an object of that
+     * class is stored.  The plan holds everything about storing the class that does not depend
+     * on the values in a particular object, so that store() does not have to inspect the field
+     * metadata of every object it writes.  The TableWriters of the plan are only created by
+     * storeWithConnection().
+     *
+     * @param clazz the class of the object being stored
+     * @return a StorePlan
+     */
+    private StorePlan getStorePlan(Class<?> clazz) {
+        StorePlan plan = classToStorePlan.get(clazz);
+        if (plan == null) {
+            plan = new StorePlan();
+            List<String> referenceFieldNames = new ArrayList<String>();
+            List<String> collectionFieldNames = new ArrayList<String>();
+            List<String> clobFieldNames = new ArrayList<String>();
+            plan.validFieldNames = new HashSet<String>();
+            ClassFields fields = ClassFields.forClass(clazz);
+            for (int i = 0; i < fields.size(); i++) {
+                TypeUtil.FieldInfo fieldInfo = fields.get(i);
+                Class<?> fieldType = fieldInfo.getType();
+                if (InterMineObject.class.isAssignableFrom(fieldType)) {
+                    referenceFieldNames.add(fieldInfo.getName());
+                } else if (Collection.class.isAssignableFrom(fieldType)) {
+                    collectionFieldNames.add(fieldInfo.getName());
+                } else if (ClobAccess.class.isAssignableFrom(fieldType)) {
+                    clobFieldNames.add(fieldInfo.getName());
+                }
+                if (!Collection.class.isAssignableFrom(fieldType)) {
+                    plan.validFieldNames.add(fieldInfo.getName());
+                }
+            }
+            plan.referenceFieldNames = referenceFieldNames.toArray(new String[0]);
+            plan.collectionFieldNames = collectionFieldNames.toArray(new String[0]);
+            plan.clobFieldNames = clobFieldNames.toArray(new String[0]);
+            classToStorePlan.put(clazz, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the TableWriters of a StorePlan, creating them if this is the first time an object
+     * of the class has been written to the tables.
+     *
+     * @param plan the StorePlan for the class
+     * @param clazz the class of the object being stored
+     * @return an array of TableWriters, one for each ClassDescriptor of the class
+     * @throws ObjectStoreException if the table metadata cannot be generated
+     */
+    private TableWriter[] getTableWriters(StorePlan plan, Class<?> clazz)
+        throws ObjectStoreException {
+        if (plan.tableWriters != null) {
+            return plan.tableWriters;
+        }
+        Set<String> validFieldNames = plan.validFieldNames;
+        LOG.info("Generating cached store metadata for " + clazz);
+        StringBuffer sb = new StringBuffer();
+        boolean needComma = false;
+        for (Class<?> objectClazz : Util.decomposeClass(clazz)) {
+            if (needComma) {
+                sb.append(" ");
+            }
+            needComma = true;
+            sb.append(objectClazz.getName());
+        }
+        String objectClass = sb.toString();
+        Set<ClassDescriptor> classDescriptors = model.getClassDescriptorsForClass(clazz);
+        List<TableWriter> retval = new ArrayList<TableWriter>();
+        for (ClassDescriptor cld : classDescriptors) {
+            TableWriter tableWriter = new TableWriter();
+            ClassDescriptor tableMaster = schema.getTableMaster(cld);
+            TableInfo tableInfo = getTableInfo(tableMaster);
+            tableWriter.tableInfo = tableInfo;
+            tableWriter.missing = schema.getMissingTables().contains(tableInfo.tableName
+                    .toLowerCase());
+            tableWriter.collections = new HashSet<CollectionDescriptor>();
+            for (FieldDescriptor field : cld.getAllFieldDescriptors()) {
+                if (field instanceof CollectionDescriptor) {
+                    tableWriter.collections.add((CollectionDescriptor) field);
+                }
+            }
+            if (schema.isFlatMode(cld.getType()) && (!schema.isTruncated(tableMaster))
+                    && (!(cld.getType().equals(clazz)))) {
+                Set<Class<?>> decomposed = Util.decomposeClass(clazz);
+                if (!((decomposed.size() == 1) && cld.getType().equals(decomposed.iterator()
+                                .next()))) {
+                    tableWriter.flatModeError = "Non-flat model heirarchy used in flat mode. "
+                        + "Cannot store object with classes = " + decomposed;
+                }
+            }
+            int colCount = tableInfo.colNames.length;
+            tableWriter.columnKinds = new int[colCount];
+            tableWriter.constants = new Object[colCount];
+            Set<String> fieldNamesWritten = new HashSet<String>();
+            for (int colNo = 0; colNo < colCount; colNo++) {
+                int kind = COLUMN_CONSTANT;
+                Object value = null;
+                if ("tableclass".equals(tableInfo.colNames[colNo])) {
+                    value = cld.getName();
+                } else if ("class".equals(tableInfo.colNames[colNo])) {
+                    value = objectClass;
+                } else if ("OBJECT".equals(tableInfo.colNames[colNo])) {
+                    kind = COLUMN_OBJECT;
+                } else if (validFieldNames.contains(tableInfo.fieldNames[colNo])) {
+                    kind = COLUMN_FIELD;
+                    fieldNamesWritten.add(tableInfo.fieldNames[colNo]);
+                } else {
+                    FieldDescriptor fieldDescriptor = tableInfo.fields[colNo];
+                    if (fieldDescriptor instanceof AttributeDescriptor) {
+                        value = getDefaultValue(((AttributeDescriptor) fieldDescriptor)
+                                .getType());
+                    }
                 }
+                tableWriter.columnKinds[colNo] = kind;
+                tableWriter.constants[colNo] = value;
             }
+            if ((tableWriter.flatModeError == null) && schema.isFlatMode(cld.getType())) {
+                for (String validFieldName : validFieldNames) {
+                    if (!fieldNamesWritten.contains(validFieldName)) {
+                        tableWriter.flatModeError = "Cannot store object "
+                            + Util.decomposeClass(clazz) + " - no column for field "
+                            + validFieldName + " in table " + tableInfo.tableName;
+                        break;
+                    }
+                }
+            }
+            retval.add(tableWriter);
+        }
+        plan.tableWriters = retval.toArray(new TableWriter[retval.size()]);
+        return plan.tableWriters;
+    }
+
+    private static Object getDefaultValue(String fieldType) {
+        if ("boolean".equals(fieldType)) {
+            return Boolean.FALSE;
+        } else if ("short".equals(fieldType)) {
+            return new Short((short) 0);
+        } else if ("int".equals(fieldType)) {
+            return new Integer(0);
+        } else if ("long".equals(fieldType)) {
+            return new Long(0L);
+        } else if ("float".equals(fieldType)) {
+            return new Float(0.0F);
+        } else if ("double".equals(fieldType)) {
+            return new Double(0.0);
         }
+        return null;
     }
 
     /**
@@ -1800,6 +1892,33 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         int referencesFrom;
     }
 
+    /**
+     * The value-independent parts of storing objects of a particular class.
+     */
+    private static class StorePlan
+    {
+        String[] referenceFieldNames;
+        String[] collectionFieldNames;
+        String[] clobFieldNames;
+        Set<String> validFieldNames;
+        TableWriter[] tableWriters;
+    }
+
+    /**
+     * How to write an object into one of the tables for its classes.  Each column is either a
+     * constant for the class (the class names, or the default for an absent primitive field),
+     * the NotXml of the object, or the value of one of its fields.
+     */
+    private static class TableWriter
+    {
+        TableInfo tableInfo;
+        boolean missing;
+        String flatModeError;
+        int[] columnKinds;
+        Object[] constants;
+        Set<CollectionDescriptor> collections;
+    }
+
     /**
      * {@inheritDoc}
      */
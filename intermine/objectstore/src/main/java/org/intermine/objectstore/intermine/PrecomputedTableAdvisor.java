@@ -0,0 +1,710 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.ClassConstraint;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryNode;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryReference;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.PrecomputedTableManager;
+import org.intermine.sql.precompute.QueryOptimiser;
+import org.intermine.sql.query.ExplainResult;
+
+/**
+ * Suggests and maintains precomputed tables based on the queries that have actually been run
+ * against an ObjectStoreInterMineImpl, as recorded in its log table (see
+ * ObjectStoreInterMineImpl.setLogTableName()).
+ *
+ * Each logged query is broken into its join graph, where the nodes are the QueryClasses in the
+ * FROM list and the edges are the CONTAINS and EQUALS constraints that join them. Every connected
+ * subgraph of up to maxClasses classes is a candidate precomputed table, and queries that share
+ * a subgraph are grouped together. The benefit of a candidate is the time spent executing the
+ * queries it covers, weighted by the proportion of each query's joins that it would save, and its
+ * cost is the size of the table as estimated by the database planner. Candidates are chosen
+ * greedily by benefit per byte until the disk budget is used up, and the benefit of a candidate is
+ * reduced by the joins already covered by the candidates chosen before it.
+ *
+ * advise() then creates the chosen tables that do not exist yet, drops the tables it created
+ * before that are no longer chosen, and reports which of the logged queries the optimiser now
+ * rewrites to use each table. Tables are only dropped if the workload has at least minWorkload
+ * different queries, so that an empty or short log does not drop every table.
+ */
+public class PrecomputedTableAdvisor
+{
+    private static final Logger LOG = Logger.getLogger(PrecomputedTableAdvisor.class);
+
+    /** The category of the precomputed tables created by the advisor */
+    public static final String CATEGORY = "PrecomputedTableAdvisor";
+    /** The default maximum number of classes in a precomputed table */
+    public static final int DEFAULT_MAX_CLASSES = 4;
+    /** The default number of different queries needed before tables are dropped */
+    public static final int DEFAULT_MIN_WORKLOAD = 50;
+    /** The maximum number of subgraphs taken from a single query */
+    protected static final int MAX_SUBGRAPHS = 200;
+    /** The maximum number of candidates that are sized using the database planner */
+    protected static final int MAX_CANDIDATES = 50;
+    /** Estimated bytes used by each index entry, per class in a table */
+    protected static final int INDEX_ENTRY_BYTES = 24;
+
+    protected ObjectStoreInterMineImpl os;
+    protected int maxClasses = DEFAULT_MAX_CLASSES;
+    protected int minQueries = 2;
+    protected int minWorkload = DEFAULT_MIN_WORKLOAD;
+    protected long diskBudget = 1024L * 1024L * 1024L;
+    protected Map<String, LoggedQuery> workload = new LinkedHashMap<String, LoggedQuery>();
+    protected Map<String, Candidate> candidates = new LinkedHashMap<String, Candidate>();
+
+    /**
+     * Constructs a PrecomputedTableAdvisor.
+     *
+     * @param os the ObjectStoreInterMineImpl whose queries are to be analysed, and in which
+     * precomputed tables are to be created
+     */
+    public PrecomputedTableAdvisor(ObjectStoreInterMineImpl os) {
+        this.os = os;
+    }
+
+    /**
+     * Sets the maximum number of classes joined in a precomputed table.
+     *
+     * @param maxClasses an int of at least 2
+     */
+    public void setMaxClasses(int maxClasses) {
+        if (maxClasses < 2) {
+            throw new IllegalArgumentException("maxClasses must be at least 2: " + maxClasses);
+        }
+        this.maxClasses = maxClasses;
+    }
+
+    /**
+     * Sets the minimum number of different queries that must share a join before a table is
+     * created for it.
+     *
+     * @param minQueries an int
+     */
+    public void setMinQueries(int minQueries) {
+        this.minQueries = minQueries;
+    }
+
+    /**
+     * Sets the number of different queries that the workload must have before advise() drops
+     * the tables that are no longer chosen. With fewer queries, the tables are kept, as the
+     * workload is not a fair sample of the queries that use them.
+     *
+     * @param minWorkload an int, or 0 to always drop the tables
+     */
+    public void setMinWorkload(int minWorkload) {
+        this.minWorkload = minWorkload;
+    }
+
+    /**
+     * Sets the total number of bytes that the tables created by the advisor may use.
+     *
+     * @param diskBudget a number of bytes
+     */
+    public void setDiskBudget(long diskBudget) {
+        this.diskBudget = diskBudget;
+    }
+
+    /**
+     * Reads the queries logged in the given log table since a given time. The IQL of each query is
+     * used rather than the SQL, as the logged SQL has already been rewritten to use the precomputed
+     * tables that existed at the time. Queries that can not be parsed, for example because they
+     * were constrained to a bag, are ignored.
+     *
+     * @param logTableName the name of the log table
+     * @param since a timestamp in milliseconds, or 0 for the whole log
+     * @return the number of different queries read
+     * @throws SQLException if the log table can not be read
+     */
+    public int readLog(String logTableName, long since) throws SQLException {
+        String packageName = os.getModel().getPackageName();
+        int read = 0;
+        int failed = 0;
+        Connection c = null;
+        try {
+            c = os.getConnection();
+            PreparedStatement ps = c.prepareStatement("SELECT iql, COUNT(*), SUM(execute) FROM "
+                    + logTableName + " WHERE timestamp >= ? GROUP BY iql");
+            try {
+                ps.setLong(1, since);
+                ResultSet r = ps.executeQuery();
+                while (r.next()) {
+                    String iql = r.getString(1);
+                    Query q;
+                    try {
+                        q = new IqlQuery(iql, packageName).toQuery();
+                    } catch (RuntimeException e) {
+                        failed++;
+                        continue;
+                    }
+                    addQuery(iql, q, r.getInt(2), r.getLong(3));
+                    read++;
+                }
+            } finally {
+                ps.close();
+            }
+        } finally {
+            os.releaseConnection(c);
+        }
+        LOG.info("Read " + read + " queries from log table " + logTableName + ", skipped "
+                + failed + " that could not be parsed");
+        return read;
+    }
+
+    /**
+     * Adds a query to the workload.
+     *
+     * @param iql the text of the query, used to identify it
+     * @param q the Query
+     * @param count the number of times the query was run
+     * @param time the total number of milliseconds spent executing the query
+     */
+    public void addQuery(String iql, Query q, int count, long time) {
+        LoggedQuery logged = workload.get(iql);
+        if (logged != null) {
+            logged.count += count;
+            logged.time += time;
+            return;
+        }
+        JoinGraph graph = new JoinGraph(q);
+        logged = new LoggedQuery(iql, q, count, time, graph.edges.size());
+        workload.put(iql, logged);
+        for (BitSet nodes : graph.subgraphs(maxClasses)) {
+            String signature = graph.signature(nodes);
+            Candidate candidate = candidates.get(signature);
+            if (candidate == null) {
+                candidate = new Candidate(signature, graph.toQuery(nodes),
+                        graph.edgeCount(nodes));
+                candidates.put(signature, candidate);
+            }
+            candidate.queries.add(logged);
+        }
+    }
+
+    /**
+     * Returns the candidate precomputed tables, with the most beneficial first.
+     *
+     * @return a List of Candidates
+     */
+    public List<Candidate> getCandidates() {
+        List<Candidate> retval = new ArrayList<Candidate>();
+        for (Candidate candidate : candidates.values()) {
+            if (candidate.queries.size() >= minQueries) {
+                retval.add(candidate);
+            }
+        }
+        Collections.sort(retval, new Comparator<Candidate>() {
+            public int compare(Candidate c1, Candidate c2) {
+                return Double.compare(c2.getBenefit(), c1.getBenefit());
+            }
+        });
+        return retval;
+    }
+
+    /**
+     * Chooses which of the given candidates to create, so that their total size fits in the disk
+     * budget. Each candidate must have had its size estimated.
+     *
+     * @param sized a List of Candidates
+     * @return the chosen Candidates, in the order that they were chosen
+     */
+    public List<Candidate> choose(List<Candidate> sized) {
+        List<Candidate> remaining = new ArrayList<Candidate>(sized);
+        List<Candidate> chosen = new ArrayList<Candidate>();
+        Map<LoggedQuery, Integer> covered = new HashMap<LoggedQuery, Integer>();
+        long left = diskBudget;
+        while (true) {
+            Candidate best = null;
+            double bestScore = 0.0;
+            for (Candidate candidate : remaining) {
+                if (candidate.size <= left) {
+                    double score = candidate.getBenefit(covered) / Math.max(1L, candidate.size);
+                    if (score > bestScore) {
+                        best = candidate;
+                        bestScore = score;
+                    }
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            remaining.remove(best);
+            chosen.add(best);
+            left -= best.size;
+            for (LoggedQuery logged : best.queries) {
+                Integer already = covered.get(logged);
+                if ((already == null) || (already.intValue() < best.edges)) {
+                    covered.put(logged, new Integer(best.edges));
+                }
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Estimates the size of the precomputed tables for the most beneficial candidates, chooses
+     * which of them to create, and brings the set of precomputed tables created by the advisor up
+     * to date.
+     *
+     * @param refresh if true, tables that are still chosen are dropped and created again, so that
+     * their contents and statistics are fresh
+     * @return the chosen Candidates, with their table names and the queries that they accelerate
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public List<Candidate> advise(boolean refresh) throws ObjectStoreException {
+        try {
+            List<Candidate> sized = new ArrayList<Candidate>();
+            Connection c = null;
+            try {
+                c = os.getConnection();
+                for (Candidate candidate : getCandidates()) {
+                    if (sized.size() >= MAX_CANDIDATES) {
+                        break;
+                    }
+                    candidate.sql = generate(candidate.query, SqlGenerator.QUERY_FOR_PRECOMP);
+                    ExplainResult explain = ExplainResult.getInstance(candidate.sql, c);
+                    candidate.size = explain.getRows() * (explain.getWidth()
+                            + candidate.classes * INDEX_ENTRY_BYTES);
+                    sized.add(candidate);
+                }
+            } finally {
+                os.releaseConnection(c);
+            }
+            List<Candidate> chosen = choose(sized);
+
+            PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(os.getDatabase());
+            Map<String, PrecomputedTable> existing
+                = new HashMap<String, PrecomputedTable>(ptm.lookupCategory(CATEGORY));
+            for (Candidate candidate : chosen) {
+                PrecomputedTable pt = existing.remove(candidate.sql);
+                if ((pt != null) && refresh) {
+                    ptm.delete(pt);
+                    pt = null;
+                }
+                if (pt == null) {
+                    List<QueryNode> indexes = new ArrayList<QueryNode>();
+                    for (FromElement fe : candidate.query.getFrom()) {
+                        indexes.add((QueryClass) fe);
+                    }
+                    List<String> names = os.precompute(candidate.query, indexes, true,
+                            CATEGORY);
+                    candidate.tableName = names.isEmpty() ? null : names.get(0);
+                    LOG.info("Created precomputed table " + candidate.tableName + " for "
+                            + candidate.signature);
+                } else {
+                    candidate.tableName = pt.getName();
+                }
+            }
+            if (workload.size() < minWorkload) {
+                if (!existing.isEmpty()) {
+                    LOG.info("Keeping " + existing.size() + " precomputed tables that are no"
+                            + " longer chosen, as the workload only has " + workload.size()
+                            + " queries (fewer than " + minWorkload + ")");
+                }
+            } else {
+                for (PrecomputedTable pt : existing.values()) {
+                    LOG.info("Dropping precomputed table " + pt.getName() + " as it is no longer"
+                            + " worth its space");
+                    ptm.delete(pt);
+                }
+            }
+            for (Candidate candidate : chosen) {
+                findAccelerated(candidate);
+            }
+            return chosen;
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Error while maintaining precomputed tables", e);
+        }
+    }
+
+    /**
+     * Records which of the queries of a chosen candidate are now optimised to use its table.
+     */
+    private void findAccelerated(Candidate candidate) throws ObjectStoreException,
+        SQLException {
+        if (candidate.tableName == null) {
+            return;
+        }
+        for (LoggedQuery logged : candidate.queries) {
+            String sql = generate(logged.query, SqlGenerator.QUERY_NORMAL);
+            if (QueryOptimiser.optimise(sql, os.getDatabase()).contains(candidate.tableName)) {
+                candidate.accelerated.add(logged.iql);
+            }
+        }
+        LOG.info("Precomputed table " + candidate.tableName + " accelerates "
+                + candidate.accelerated.size() + " of " + candidate.queries.size()
+                + " logged queries: " + candidate.accelerated);
+    }
+
+    private String generate(Query q, int kind) throws ObjectStoreException {
+        Map<Object, String> empty = Collections.emptyMap();
+        return SqlGenerator.generate(q, os.getSchema(), os.getDatabase(), null, kind, empty);
+    }
+
+    /**
+     * A distinct query read from the log, with the number of times it was run.
+     */
+    protected static class LoggedQuery
+    {
+        protected final String iql;
+        protected final Query query;
+        protected final int edges;
+        protected int count;
+        protected long time;
+
+        LoggedQuery(String iql, Query query, int count, long time, int edges) {
+            this.iql = iql;
+            this.query = query;
+            this.count = count;
+            this.time = time;
+            this.edges = edges;
+        }
+    }
+
+    /**
+     * A join subgraph shared by one or more logged queries, which could be precomputed.
+     */
+    public static class Candidate
+    {
+        protected final String signature;
+        protected final Query query;
+        protected final int edges;
+        protected final int classes;
+        protected final Set<LoggedQuery> queries = new LinkedHashSet<LoggedQuery>();
+        protected final Set<String> accelerated = new LinkedHashSet<String>();
+        protected String sql;
+        protected long size;
+        protected String tableName;
+
+        Candidate(String signature, Query query, int edges) {
+            this.signature = signature;
+            this.query = query;
+            this.edges = edges;
+            this.classes = query.getFrom().size();
+        }
+
+        /**
+         * Returns a description of the classes and joins of this candidate.
+         *
+         * @return a String
+         */
+        public String getSignature() {
+            return signature;
+        }
+
+        /**
+         * Returns the query that would be precomputed.
+         *
+         * @return a Query
+         */
+        public Query getQuery() {
+            return query;
+        }
+
+        /**
+         * Returns the number of different logged queries that contain this join.
+         *
+         * @return an int
+         */
+        public int getQueryCount() {
+            return queries.size();
+        }
+
+        /**
+         * Returns the estimated number of milliseconds of execution time that this candidate could
+         * save, across all the logged queries.
+         *
+         * @return a double
+         */
+        public double getBenefit() {
+            return getBenefit(Collections.<LoggedQuery, Integer>emptyMap());
+        }
+
+        /**
+         * Returns the estimated benefit of this candidate, given the number of joins of each query
+         * already covered by other precomputed tables.
+         */
+        double getBenefit(Map<LoggedQuery, Integer> covered) {
+            double retval = 0.0;
+            for (LoggedQuery logged : queries) {
+                Integer already = covered.get(logged);
+                int saved = edges - (already == null ? 0 : already.intValue());
+                if (saved > 0) {
+                    retval += ((double) logged.time) * saved / logged.edges;
+                }
+            }
+            return retval;
+        }
+
+        /**
+         * Returns the estimated size in bytes of the precomputed table.
+         *
+         * @return a number of bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Sets the estimated size in bytes of the precomputed table.
+         *
+         * @param size a number of bytes
+         */
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        /**
+         * Returns the name of the precomputed table, once it has been created.
+         *
+         * @return a table name, or null
+         */
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * Returns the logged queries that the optimiser rewrites to use the precomputed table.
+         *
+         * @return a Set of IQL strings
+         */
+        public Set<String> getAccelerated() {
+            return accelerated;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return signature + " (" + queries.size() + " queries, benefit " + getBenefit()
+                + "ms, " + size + " bytes)";
+        }
+    }
+
+    /**
+     * The classes in the FROM list of a query, and the constraints that join them.
+     */
+    protected static class JoinGraph
+    {
+        private final List<QueryClass> nodes = new ArrayList<QueryClass>();
+        private final List<Edge> edges = new ArrayList<Edge>();
+
+        JoinGraph(Query q) {
+            for (FromElement fe : q.getFrom()) {
+                if (fe instanceof QueryClass) {
+                    nodes.add((QueryClass) fe);
+                }
+            }
+            addEdges(q.getConstraint());
+        }
+
+        private void addEdges(Constraint con) {
+            if ((con instanceof ConstraintSet) && ConstraintOp.AND.equals(con.getOp())) {
+                for (Constraint sub : ((ConstraintSet) con).getConstraints()) {
+                    addEdges(sub);
+                }
+            } else if ((con instanceof ContainsConstraint)
+                    && ConstraintOp.CONTAINS.equals(con.getOp())) {
+                ContainsConstraint cc = (ContainsConstraint) con;
+                QueryReference ref = cc.getReference();
+                addEdge(ref.getQueryClass(), ref.getFieldName(), cc.getQueryClass(),
+                        ref instanceof QueryCollectionReference);
+            } else if ((con instanceof ClassConstraint)
+                    && ConstraintOp.EQUALS.equals(con.getOp())) {
+                ClassConstraint cc = (ClassConstraint) con;
+                addEdge(cc.getArg1(), null, cc.getArg2QueryClass(), false);
+            }
+        }
+
+        private void addEdge(QueryClass from, String field, QueryClass to, boolean collection) {
+            int fromIndex = indexOf(from);
+            int toIndex = indexOf(to);
+            if ((fromIndex >= 0) && (toIndex >= 0) && (fromIndex != toIndex)) {
+                edges.add(new Edge(fromIndex, field, toIndex, collection));
+            }
+        }
+
+        private int indexOf(QueryClass qc) {
+            for (int i = 0; i < nodes.size(); i++) {
+                if (nodes.get(i) == qc) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the sets of nodes that are connected by edges, with between 2 and maxClasses
+         * nodes, up to MAX_SUBGRAPHS of them.
+         */
+        Set<BitSet> subgraphs(int maxClasses) {
+            Set<BitSet> retval = new LinkedHashSet<BitSet>();
+            List<BitSet> frontier = new ArrayList<BitSet>();
+            for (Edge edge : edges) {
+                BitSet pair = new BitSet();
+                pair.set(edge.from);
+                pair.set(edge.to);
+                if (retval.add(pair)) {
+                    frontier.add(pair);
+                }
+            }
+            for (int size = 3; (size <= maxClasses) && !frontier.isEmpty(); size++) {
+                List<BitSet> next = new ArrayList<BitSet>();
+                for (BitSet subgraph : frontier) {
+                    for (Edge edge : edges) {
+                        if (subgraph.get(edge.from) != subgraph.get(edge.to)) {
+                            BitSet bigger = (BitSet) subgraph.clone();
+                            bigger.set(edge.from);
+                            bigger.set(edge.to);
+                            if (retval.size() >= MAX_SUBGRAPHS) {
+                                return retval;
+                            }
+                            if (retval.add(bigger)) {
+                                next.add(bigger);
+                            }
+                        }
+                    }
+                }
+                frontier = next;
+            }
+            return retval;
+        }
+
+        /**
+         * Returns the number of edges between the given nodes.
+         */
+        int edgeCount(BitSet subgraph) {
+            int retval = 0;
+            for (Edge edge : edges) {
+                if (subgraph.get(edge.from) && subgraph.get(edge.to)) {
+                    retval++;
+                }
+            }
+            return retval;
+        }
+
+        /**
+         * Returns a String that is the same for equivalent subgraphs of different queries. Where
+         * a query uses the same class more than once, this may also match a differently shaped
+         * subgraph with the same classes and joins.
+         */
+        String signature(BitSet subgraph) {
+            List<String> types = new ArrayList<String>();
+            Set<String> joins = new TreeSet<String>();
+            for (int i = subgraph.nextSetBit(0); i >= 0; i = subgraph.nextSetBit(i + 1)) {
+                types.add(typeName(i));
+            }
+            for (Edge edge : edges) {
+                if (subgraph.get(edge.from) && subgraph.get(edge.to)) {
+                    if (edge.field == null) {
+                        String[] pair = new String[] {typeName(edge.from), typeName(edge.to)};
+                        Arrays.sort(pair);
+                        joins.add(pair[0] + "=" + pair[1]);
+                    } else {
+                        joins.add(typeName(edge.from) + "." + edge.field + ">"
+                                + typeName(edge.to));
+                    }
+                }
+            }
+            Collections.sort(types);
+            return types + " " + joins;
+        }
+
+        private String typeName(int node) {
+            return nodes.get(node).getType().getName();
+        }
+
+        /**
+         * Builds a Query that selects the given nodes, joined by the edges between them.
+         */
+        Query toQuery(BitSet subgraph) {
+            Query q = new Query();
+            q.setDistinct(false);
+            Map<Integer, QueryClass> copies = new HashMap<Integer, QueryClass>();
+            for (int i = subgraph.nextSetBit(0); i >= 0; i = subgraph.nextSetBit(i + 1)) {
+                QueryClass qc = new QueryClass(nodes.get(i).getType());
+                copies.put(new Integer(i), qc);
+                q.addFrom(qc);
+                q.addToSelect(qc);
+            }
+            ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+            for (Edge edge : edges) {
+                if (subgraph.get(edge.from) && subgraph.get(edge.to)) {
+                    QueryClass from = copies.get(new Integer(edge.from));
+                    QueryClass to = copies.get(new Integer(edge.to));
+                    if (edge.field == null) {
+                        cs.addConstraint(new ClassConstraint(from, ConstraintOp.EQUALS, to));
+                    } else if (edge.collection) {
+                        cs.addConstraint(new ContainsConstraint(
+                                new QueryCollectionReference(from, edge.field),
+                                ConstraintOp.CONTAINS, to));
+                    } else {
+                        cs.addConstraint(new ContainsConstraint(
+                                new QueryObjectReference(from, edge.field),
+                                ConstraintOp.CONTAINS, to));
+                    }
+                }
+            }
+            q.setConstraint(cs);
+            return q;
+        }
+    }
+
+    /**
+     * A join between two classes of a query, either through a reference or collection, or where
+     * field is null, by the classes being the same object.
+     */
+    private static class Edge
+    {
+        private final int from;
+        private final String field;
+        private final int to;
+        private final boolean collection;
+
+        Edge(int from, String field, int to, boolean collection) {
+            this.from = from;
+            this.field = field;
+            this.to = to;
+            this.collection = collection;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.intermine.objectstore.proxy;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.metadata.ClassFields;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectCache;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Collects the ProxyReferences that a piece of work is about to follow, and fetches the objects
+ * they point to with one getObjectsByIds query instead of one query per reference.  The objects
+ * are put into the getObjectById cache of the ObjectStore, so that ProxyReference.getObject()
+ * finds them there.  A ProxyBatch is meant to be used for one request and then thrown away.
+ */
+public class ProxyBatch
+{
+    /** The largest number of ids fetched in one query */
+    public static final int BATCH_SIZE = 1000;
+
+    private final ObjectStore os;
+    private final Map<ObjectStore, Set<Integer>> ids = new LinkedHashMap<ObjectStore,
+        Set<Integer>>();
+
+    /**
+     * Construct a new ProxyBatch that fetches objects from whichever ObjectStore each
+     * ProxyReference points into.
+     */
+    public ProxyBatch() {
+        this.os = null;
+    }
+
+    /**
+     * Construct a new ProxyBatch.
+     *
+     * @param os the ObjectStore to fetch objects from - ProxyReferences into other ObjectStores
+     * are ignored
+     */
+    public ProxyBatch(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Adds a ProxyReference to the batch.
+     *
+     * @param proxy the ProxyReference
+     */
+    public void add(ProxyReference proxy) {
+        ObjectStore proxyOs = proxy.getObjectStore();
+        if ((os == null) || (proxyOs == os)) {
+            Set<Integer> osIds = ids.get(proxyOs);
+            if (osIds == null) {
+                osIds = new LinkedHashSet<Integer>();
+                ids.put(proxyOs, osIds);
+            }
+            osIds.add(proxy.getId());
+        }
+    }
+
+    /**
+     * Adds all the references of an object that have not been fetched yet to the batch.
+     *
+     * @param obj the object
+     */
+    public void addReferences(FastPathObject obj) {
+        ClassFields fields = ClassFields.forClass(obj.getClass());
+        for (int index : fields.getNonCollectionIndexes()) {
+            if (InterMineObject.class.isAssignableFrom(fields.get(index).getType())) {
+                Object value;
+                try {
+                    value = obj.getFieldProxy(fields.getName(index));
+                } catch (IllegalAccessException e) {
+                    continue;
+                }
+                if (value instanceof ProxyReference) {
+                    add((ProxyReference) value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of ids waiting to be fetched.
+     *
+     * @return an int
+     */
+    public int size() {
+        int size = 0;
+        for (Set<Integer> osIds : ids.values()) {
+            size += osIds.size();
+        }
+        return size;
+    }
+
+    /**
+     * Fetches the objects that are not already in the cache of the ObjectStore, and empties the
+     * batch.
+     *
+     * @return the number of objects fetched from the database
+     * @throws ObjectStoreException if the objects can not be fetched
+     */
+    public int resolve() throws ObjectStoreException {
+        Map<ObjectStore, Set<Integer>> toResolve = new LinkedHashMap<ObjectStore, Set<Integer>>(
+                ids);
+        ids.clear();
+        int fetched = 0;
+        for (Map.Entry<ObjectStore, Set<Integer>> entry : toResolve.entrySet()) {
+            fetched += resolve(entry.getKey(), entry.getValue());
+        }
+        return fetched;
+    }
+
+    private static int resolve(ObjectStore os, Set<Integer> ids) throws ObjectStoreException {
+        List<Integer> toFetch = new ArrayList<Integer>();
+        for (Integer id : ids) {
+            if (os.pilferObjectById(id) == null) {
+                toFetch.add(id);
+            }
+        }
+        ObjectCache cache = ObjectCache.forObjectStore(os);
+        int fetched = 0;
+        for (int start = 0; start < toFetch.size(); start += BATCH_SIZE) {
+            List<Integer> batch = new ArrayList<Integer>(toFetch.subList(start,
+                        Math.min(start + BATCH_SIZE, toFetch.size())));
+            // as in getObjectById, an object is only cached if no write has invalidated its id
+            // since the fetch began
+            Map<Integer, Long> generations = new HashMap<Integer, Long>();
+            if (cache != null) {
+                for (Integer id : batch) {
+                    generations.put(id, new Long(cache.getGeneration(id)));
+                }
+            }
+            for (InterMineObject obj : os.getObjectsByIds(batch)) {
+                Long generation = generations.get(obj.getId());
+                if (cache == null) {
+                    os.cacheObjectById(obj.getId(), obj);
+                } else if (generation != null) {
+                    cache.putIfCurrent(obj.getId(), obj, generation.longValue());
+                }
+                fetched++;
+            }
+        }
+        return fetched;
+    }
+}
@@ -0,0 +1,237 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreAbstractImpl;
+import org.intermine.objectstore.ObjectStorePassthruImpl;
+import org.intermine.util.BoundedCacheMap;
+import org.intermine.util.Weigher;
+
+/**
+ * Holds the batches of rows of all the ResultsBatches objects of an ObjectStore, up to a maximum
+ * total number of rows. The least recently used batches are evicted first, whichever Results they
+ * belong to, so the memory used by results does not depend on how many Results objects are kept
+ * in the ObjectStore's caches.
+ */
+public class BatchRowCache
+{
+    /** The default maximum number of rows held for an ObjectStore */
+    public static final int DEFAULT_MAX_ROWS = 100000;
+
+    // Batches are weighed by their number of rows, so an empty batch still counts for one
+    private static final Weigher<Key, List<Object>> ROWS = new Weigher<Key, List<Object>>()
+    {
+        public int weigh(Key key, List<Object> rows) {
+            return (rows == null) ? 1 : Math.max(1, rows.size());
+        }
+    };
+
+    // Used by ObjectStores that do not have a cache of their own
+    private static final BatchRowCache SHARED = new BatchRowCache("Results rows",
+            DEFAULT_MAX_ROWS);
+
+    // A single segment, so that it can always hold the largest batch
+    private final BoundedCacheMap<Key, List<Object>> rows;
+
+    /**
+     * Constructs a new BatchRowCache.
+     *
+     * @param name a name for the cache, used in log messages
+     * @param maxRows the maximum number of rows to hold
+     */
+    public BatchRowCache(String name, int maxRows) {
+        rows = new BoundedCacheMap<Key, List<Object>>(name, maxRows, ROWS, 1);
+    }
+
+    /**
+     * Returns the cache that holds the batches of Results from the given ObjectStore.
+     *
+     * @param os an ObjectStore, or null
+     * @return a BatchRowCache
+     */
+    public static BatchRowCache forObjectStore(ObjectStore os) {
+        if (os instanceof ObjectStoreAbstractImpl) {
+            return ((ObjectStoreAbstractImpl) os).getBatchRowCache();
+        } else if (os instanceof ObjectStorePassthruImpl) {
+            return ((ObjectStorePassthruImpl) os).getBatchRowCache();
+        }
+        return SHARED;
+    }
+
+    /**
+     * Sets the maximum number of rows to hold. The limit is raised if necessary to hold the
+     * largest batch that has been asked for.
+     *
+     * @param maxRows a number of rows
+     */
+    public synchronized void setMaxRows(int maxRows) {
+        rows.setMaxWeight(maxRows);
+    }
+
+    /**
+     * Returns the maximum number of rows held.
+     *
+     * @return a number of rows
+     */
+    public long getMaxRows() {
+        return rows.getMaxWeight();
+    }
+
+    /**
+     * Returns the number of rows held.
+     *
+     * @return a number of rows
+     */
+    public long getRows() {
+        return rows.getWeight();
+    }
+
+    /**
+     * Makes sure that a batch of the given size can be held.
+     *
+     * @param batchSize a number of rows
+     */
+    public synchronized void ensureCapacity(int batchSize) {
+        if (rows.getMaxWeight() < batchSize) {
+            rows.setMaxWeight(batchSize);
+        }
+    }
+
+    /**
+     * Returns a description of the use of this cache.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        return rows.getStatistics();
+    }
+
+    /**
+     * Returns a Map from batch number to batch for a ResultsBatches object, backed by this cache.
+     * Batches put in the Map may be evicted at any time to make room for other batches.
+     *
+     * @param owner the ResultsBatches object
+     * @return a Map
+     */
+    Map<Integer, List<Object>> viewFor(ResultsBatches owner) {
+        return new View(owner);
+    }
+
+    /**
+     * The key of a batch, which compares ResultsBatches objects by identity.
+     */
+    private static final class Key
+    {
+        private final ResultsBatches owner;
+        private final int batchNo;
+
+        Key(ResultsBatches owner, int batchNo) {
+            this.owner = owner;
+            this.batchNo = batchNo;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(owner) + batchNo;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Key) && (((Key) obj).owner == owner)
+                && (((Key) obj).batchNo == batchNo);
+        }
+    }
+
+    /**
+     * The batches of one ResultsBatches object. The numbers of the batches that have been put are
+     * remembered, so that the batches can be listed and cleared.
+     */
+    private class View extends AbstractMap<Integer, List<Object>>
+    {
+        private final ResultsBatches owner;
+        private final Set<Integer> batchNos = Collections.synchronizedSet(new HashSet<Integer>());
+
+        View(ResultsBatches owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public List<Object> get(Object batchNo) {
+            if (!(batchNo instanceof Integer)) {
+                return null;
+            }
+            List<Object> retval = rows.get(new Key(owner, ((Integer) batchNo).intValue()));
+            if (retval == null) {
+                batchNos.remove(batchNo);
+            }
+            return retval;
+        }
+
+        @Override
+        public boolean containsKey(Object batchNo) {
+            return (batchNo instanceof Integer)
+                && rows.containsKey(new Key(owner, ((Integer) batchNo).intValue()));
+        }
+
+        @Override
+        public List<Object> put(Integer batchNo, List<Object> batch) {
+            batchNos.add(batchNo);
+            return rows.put(new Key(owner, batchNo.intValue()), batch);
+        }
+
+        @Override
+        public List<Object> remove(Object batchNo) {
+            if (!(batchNo instanceof Integer)) {
+                return null;
+            }
+            batchNos.remove(batchNo);
+            return rows.remove(new Key(owner, ((Integer) batchNo).intValue()));
+        }
+
+        @Override
+        public void clear() {
+            for (Integer batchNo : copyBatchNos()) {
+                remove(batchNo);
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, List<Object>>> entrySet() {
+            // A copy, like the entrySet() of BoundedCacheMap
+            Map<Integer, List<Object>> retval = new LinkedHashMap<Integer, List<Object>>();
+            for (Integer batchNo : copyBatchNos()) {
+                List<Object> batch = rows.get(new Key(owner, batchNo.intValue()));
+                if (batch == null) {
+                    batchNos.remove(batchNo);
+                } else {
+                    retval.put(batchNo, batch);
+                }
+            }
+            return retval.entrySet();
+        }
+
+        private List<Integer> copyBatchNos() {
+            synchronized (batchNos) {
+                return new ArrayList<Integer>(batchNos);
+            }
+        }
+    }
+}
@@ -10,16 +10,26 @@ package org.intermine.objectstore.query;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.intermine.objectstore.ObjectStoreException;
 
 /**
- * A manager for the prefetch mechanism for the Results object.
+ * A manager for the prefetch mechanism for the Results object. Batches are fetched in the
+ * background by a bounded pool of threads, which takes requests from each owner in turn, so that
+ * one user reading through a large set of results cannot hold up the prefetches of everyone else.
  *
  * @author Matthew Wakeling
  */
@@ -29,15 +39,15 @@ public final class PrefetchManager
     }
 
     private static final Logger LOG = Logger.getLogger(PrefetchManager.class);
-    /** Pending set of requests - always accessed inside a synchronise on sync. */
-    protected static Set<Request> pending = new HashSet<Request>();
-    /** Set of requests currently being serviced. This Set is not accessed inside a block
-     * synchronised on any global object, so it must be able to handle concurrent access. */
-    protected static Set<Request> serviced = Collections.synchronizedSet(new HashSet<Request>());
-    protected static int serviceThreads = 0;
-    private static Object sync = new Object();
 
-    protected static final int LOADING = 3;
+    /** The default number of threads that fetch batches in the background */
+    public static final int DEFAULT_THREADS = 4;
+    /** The default number of batches that a Results object reads ahead */
+    public static final int DEFAULT_DEPTH = 1;
+    /** The maximum number of requests waiting for a thread - any more are dropped */
+    public static final int MAX_PENDING = 100;
+    /** The maximum number of requests waiting for a thread for a single owner */
+    public static final int MAX_PENDING_PER_OWNER = 10;
 
     /*
      * This class provides methods for cancelling requests, so here is an explanation of how this
@@ -50,39 +60,184 @@ public final class PrefetchManager
      * all subsequent actions will throw exceptions until the request ID is deregistered from the
      * ObjectStore.
      *
-     * This PrefetchManager messes all of this up, because it uses extra threads to perform
-     * queries, so a thread can be waiting in the PrefetchManager for another thread to finish
-     * a query. The PrefetchManager maps user threads onto action threads - sometimes they will
-     * be the same, but other times they will not.
+     * The PrefetchManager uses extra threads to perform queries, so it keeps its own record of the
+     * request ID of each thread, which the ObjectStore sets with registerRequestId(). A prefetch
+     * is owned by the request ID of the thread that asked for it, or by its ResultsBatches if
+     * there is none, and owners take turns to have their prefetches serviced. While a prefetch
+     * thread is fetching a batch, a token of the Request that it is servicing is its request ID in
+     * the ObjectStore, which finds it with getCurrentRequest(). When a request ID is cancelled,
+     * cancelRequest() forgets the prefetches of that owner that have not been started, and returns
+     * the request IDs of those that are running, so that the ObjectStore can cancel them in turn.
+     *
+     * A thread that needs a batch that is waiting to be prefetched fetches it itself. A thread
+     * that needs a batch that is being prefetched waits for the prefetch to finish, and if the
+     * prefetch failed or was cancelled, tries again. So a cancelled prefetch that another user
+     * is waiting for is fetched again by that user, with that user's request ID.
+     */
+
+    /** Requests waiting for a thread, by owner, in the order that owners take turns - always
+     * accessed inside a synchronise on sync. */
+    private static LinkedHashMap<Object, LinkedList<Request>> pending
+        = new LinkedHashMap<Object, LinkedList<Request>>();
+    /** All the requests in pending - always accessed inside a synchronise on sync. */
+    private static Map<Request, Request> pendingRequests = new HashMap<Request, Request>();
+    /** Requests currently being serviced. This Map is not always accessed inside a block
+     * synchronised on sync, so it must be able to handle concurrent access. */
+    private static Map<Request, Request> serviced
+        = Collections.synchronizedMap(new HashMap<Request, Request>());
+    private static Object sync = new Object();
+
+    private static ThreadLocal<Object> requestId = new ThreadLocal<Object>();
+    private static ThreadLocal<Request> currentRequest = new ThreadLocal<Request>();
+
+    private static volatile int defaultDepth = DEFAULT_DEPTH;
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(DEFAULT_THREADS,
+            DEFAULT_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                private int count = 0;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PrefetchManager ServiceThread " + (++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Runnable SERVICE = new Runnable() {
+        public void run() {
+            Request request = getRequest();
+            if (request != null) {
+                service(request);
+            }
+        }
+    };
+
+    // Statistics - always accessed inside a synchronise on sync.
+    private static long requested = 0;
+    private static long dropped = 0;
+    private static long fetched = 0;
+    private static long failed = 0;
+    private static long cancelled = 0;
+    private static long late = 0;
+    private static long hits = 0;
+    private static long wasted = 0;
+
+    /**
+     * Sets the maximum number of threads that fetch batches in the background.
+     *
+     * @param threads a number of threads, at least one
+     */
+    public static void setMaxThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        synchronized (EXECUTOR) {
+            if (threads > EXECUTOR.getMaximumPoolSize()) {
+                EXECUTOR.setMaximumPoolSize(threads);
+                EXECUTOR.setCorePoolSize(threads);
+            } else {
+                EXECUTOR.setCorePoolSize(threads);
+                EXECUTOR.setMaximumPoolSize(threads);
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of threads that fetch batches in the background.
+     *
+     * @return a number of threads
+     */
+    public static int getMaxThreads() {
+        return EXECUTOR.getMaximumPoolSize();
+    }
+
+    /**
+     * Sets the number of batches that Results objects read ahead, unless they are told otherwise.
+     *
+     * @param depth a number of batches - zero switches prefetching off
+     */
+    public static void setDefaultDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative: " + depth);
+        }
+        defaultDepth = depth;
+    }
+
+    /**
+     * Returns the number of batches that Results objects read ahead, unless they are told
+     * otherwise.
+     *
+     * @return a number of batches
+     */
+    public static int getDefaultDepth() {
+        return defaultDepth;
+    }
+
+    /**
+     * Records the request ID of the current Thread, so that prefetches asked for by the Thread
+     * can be cancelled with it. This is called by ObjectStores that support cancellation.
      *
-     * The PrefetchManager works with PrefetchManager.Request objects, which represent a unit of
-     * work to perform. These can be used as request ID objects to hand to the ObjectStore. So,
-     * Threads should register request ID objects with this PrefetchManager, in the same way as
-     * with the ObjectStore. When a cancel request comes in, the PrefetchManager will then be able
-     * to match that against a Request object. A request ID matches a PrefetchManager.Request
-     * object if a Thread with that request ID is currently inside the PrefetchManager.doRequest()
-     * method. There are several scenarios:
-     * 1. The thread is doing the work itself, and it is the only one that needs that data.
-     *       -> dead simple, just cancel the request.
-     * 2. The thread is doing the work itself, but there are other threads waiting for the same
-     *    data.
-     *       -> Policy decision to be made. Probably cancel the request, and let the other threads
-     *          start again.
-     * 3. The thread is waiting for another thread to finish the work, and there are no other
-     *    threads waiting for the data.
-     *       -> In this case, the thread that is doing the work is guaranteed to be a prefetch
-     *          thread, so it can just be cancelled.
-     * 4. The thread is waiting for another thread to finish the work, but there are other threads
-     *    waiting for the same data. Another thread waiting for the data will be any thread that
-     *    is inside the doRequest() method with that PrefetchManager.Request object, regardless of
-     *    whether that thread has registered a request ID or not.
-     *      -> The thread that is doing the work may or may not be a prefetch thread. In either
-     *         case, the waiting thread should be kicked out of the doRequest() method without
-     *         jeopardising the thread that is performing the work.
+     * @param id the request ID
+     */
+    public static void registerRequestId(Object id) {
+        requestId.set(id);
+    }
+
+    /**
+     * Forgets the request ID of the current Thread.
      */
+    public static void deregisterRequestId() {
+        requestId.remove();
+    }
 
     /**
-     * Adds a request to the Set of pending requests, and wakes up a Thread to handle it.
+     * Returns the request ID of the prefetch that the current Thread is servicing, if it is a
+     * prefetch thread. An ObjectStore should use this as the request ID of a Thread that does not
+     * have one, so that the work can be cancelled.
+     *
+     * @return a request ID, or null if the current Thread is not prefetching a batch
+     */
+    public static Object getCurrentRequest() {
+        Request request = currentRequest.get();
+        return (request == null) ? null : request.token;
+    }
+
+    /**
+     * Cancels the prefetches asked for under a request ID. Prefetches that have not started are
+     * forgotten. The requests of the prefetches that are running are returned, so that the
+     * ObjectStore can cancel the work that it is doing under them.
+     *
+     * @param id the request ID
+     * @return a List of request IDs that the ObjectStore should cancel
+     */
+    public static List<Object> cancelRequest(Object id) {
+        List<Object> running = new ArrayList<Object>();
+        synchronized (sync) {
+            LinkedList<Request> requests = pending.remove(id);
+            if (requests != null) {
+                for (Request request : requests) {
+                    pendingRequests.remove(request);
+                    cancelled++;
+                }
+            }
+            synchronized (serviced) {
+                for (Request request : serviced.values()) {
+                    if (id.equals(request.owner)) {
+                        request.cancelled = true;
+                        running.add(request.token);
+                    }
+                }
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Adds a request to the requests waiting for a thread, unless the batch has already been
+     * fetched or asked for, or there are too many requests waiting.
      *
      * @param result a ResultsBatches object that is making the request
      * @param batchNo the batch number to be fetched
@@ -91,42 +246,34 @@ public final class PrefetchManager
      */
     public static void addRequest(ResultsBatches result, int batchNo, boolean optimise,
             boolean explain) {
-        Request request = new Request(result, batchNo, optimise, explain);
+        Object owner = requestId.get();
+        Request request = new Request(result, batchNo, optimise, explain,
+                (owner == null) ? result : owner);
         synchronized (sync) {
             synchronized (result) {
                 // Synchronise on BOTH locks, so we can muck about with anything.
-                if (!result.batches.containsKey(new Integer(batchNo))) {
-                    // The request has not been done.
-                    if (!serviced.contains(request)) {
-                        // And it isn't currently being serviced.
-                        //if (!pending.contains(request)) {
-                        //    LOG.debug("addRequest - adding request:                          "
-                        //            + request);
-                        //}
-                        pending.add(request);
-                        if ((pending.size() + serviced.size()) > (serviceThreads * LOADING)) {
-                            // There are too many requests for the servicing threads.
-                            Thread newThread = new ServiceThread();
-                            newThread.setDaemon(true);
-                            newThread.setName("PrefetchManager ServiceThread");
-                            newThread.start();
-                            serviceThreads++;
-                            LOG.info("addRequest - creating new ServiceThread. We now have "
-                                    + serviceThreads);
-                        } else {
-                            // There may or may not be a service thread waiting. If not, a service
-                            // thread will soon finish a request.
-                            sync.notify();
-                        }
-                    //} else {
-                        //LOG.debug("addRequest - the request is currently being serviced: "
-                        //        + request);
-                    }
-                //} else {
-                    //LOG.debug("addRequest - the request has already been done:       " + request);
+                if (result.batches.containsKey(new Integer(batchNo))
+                        || serviced.containsKey(request) || pendingRequests.containsKey(request)) {
+                    // The request has been done, or is being done, or will be done.
+                    return;
+                }
+                LinkedList<Request> requests = pending.get(request.owner);
+                if ((pendingRequests.size() >= MAX_PENDING) || ((requests != null)
+                            && (requests.size() >= MAX_PENDING_PER_OWNER))) {
+                    dropped++;
+                    return;
                 }
+                if (requests == null) {
+                    requests = new LinkedList<Request>();
+                    pending.put(request.owner, requests);
+                }
+                requests.add(request);
+                pendingRequests.put(request, request);
+                requested++;
             }
         }
+        // Every pending request has a task, which services whichever request is next in turn
+        EXECUTOR.execute(SERVICE);
     }
 
     /**
@@ -143,7 +290,7 @@ public final class PrefetchManager
      */
     public static List<Object> doRequest(ResultsBatches result, int batchNo, boolean optimise,
             boolean explain) throws ObjectStoreException {
-        return doRequest(new Request(result, batchNo, optimise, explain));
+        return doRequest(new Request(result, batchNo, optimise, explain, null));
     }
 
     /**
@@ -164,55 +311,42 @@ public final class PrefetchManager
                 // Synchronise on BOTH locks, so we can muck about with anything.
                 // Note, that to avoid deadlocks, we should never lock these two in the opposite
                 // order, or call wait on either of these locks where a notify needs to obtain
-                // the other one. We shouldn't call wait in here anyway really.
+                // the other one.
                 // We need both locks, because we need to exclude the possibility that someone
                 // finishes a request between us checking to see if it is already fetched, and
                 // checking if we need to wait for someone to finish fetching it.
                 retval = request.result.batches.get(new Integer(request.batchNo));
                 if (retval != null) {
                     // The batch has already been fetched.
-                    //LOG.debug("doRequest - the request has already been done:        " + request);
                     return retval;
                 }
-                if (pending.contains(request)) {
-                    // The request is pending.
-                    // If it is pending, then we wish it to be serviced by US. Therefore, we
-                    // need to move it to serviced state and do it.
-                    // The request is not being serviced. We take over.
-                    serviced.add(request);
-                    pending.remove(request);
-                    //LOG.debug("doRequest - the request was pending:                  " + request);
-                } else if (serviced.contains(request)) {
+                Request waiting = pendingRequests.remove(request);
+                if (waiting != null) {
+                    // The request is pending, but no thread has got to it yet, so we take it
+                    // over. Its task will service the next request instead.
+                    pending.get(waiting.owner).remove(waiting);
+                    if (pending.get(waiting.owner).isEmpty()) {
+                        pending.remove(waiting.owner);
+                    }
+                    late++;
+                    serviced.put(request, request);
+                } else if (serviced.containsKey(request)) {
                     // The request is being serviced. We just need to wait.
                     needToWait = true;
-                    //LOG.debug("doRequest - the request is currently being serviced:  " + request);
                 } else {
                     // The request has never been seen before. Therefore, we should add it to the
                     // serviced set, and handle it.
-                    serviced.add(request);
-                    //LOG.debug("doRequest - new request:                              " + request);
+                    serviced.put(request, request);
                 }
             }
         }
 
-        // At this stage, there is a limited set of states that we can be in. Either
-        // 1. We need to wait for another thread to finish servicing the request. In this case, we
-        //     know for sure that our request was in serviced when we left the synchronised block.
-        //     However, since this is a GAP between synchronising, another thread could finish the
-        //     request before we synchronise again. Therefore, we should check after we have
-        //     synchronised again.
-        // 2. We need to do the request ourselves. In this case, we set the PrefetchManager state
-        //     so that anything else to do with this request waits for us rather than changing the
-        //     state while we were in the synchronised block.
-
         if (needToWait) {
             synchronized (request.result) {
                 // We are synchronised. Now, no thread can report that the request is finished until
-                // we release the lock.
-                // First, check that someone didn't finish during the GAP.
-                if (serviced.contains(request)) {
-                    // Noone finished, so we can wait for that to happen.
-                    //LOG.debug("doRequest - waiting for another thread to finish:     " + request);
+                // we release the lock. First, check that someone didn't finish while we were not
+                // synchronised.
+                if (serviced.containsKey(request)) {
                     try {
                         request.result.wait();
                     } catch (InterruptedException e) {
@@ -221,22 +355,14 @@ public final class PrefetchManager
                 }
                 // At this point, either our wait was interrupted by notifyAll(), or someone has
                 // removed the request from serviced. Either way, we can't be absolutely sure that
-                // result.batches contains the batch we want, for several reasons. So we recurse.
-                // Reasons:
-                // 1. request.result.batches may be a WeakHashMap, in which case the batch may have
-                //     been removed from it by the garbage collector since it was added.
-                // 2. The object we are waiting for is a result. A notify that we might have
-                //     received could have been for a different request.
-                // 3. The request is a dud, so the thread that was servicing the request received
-                //     an exception. Under this circumstance, that thread should still remove the
-                //     request from the serviced set, and notify other threads waiting for the
-                //     request. This allows threads waiting to do the operation themselves, and
-                //     therefore return back the correct exception.
+                // result.batches contains the batch we want, because the batch may have been
+                // evicted already, the notify may have been for a different request, or the
+                // request may have failed or been cancelled. So we recurse, which lets us do the
+                // request ourselves and get the correct exception.
             }
             retval = doRequest(request);
         } else {
             try {
-                //LOG.debug("doRequest - servicing request:                        " + request);
                 // Now, we can service this request in a normal manner, outside all locks.
                 retval = request.result.fetchBatchFromObjectStore(request.batchNo, request.optimise,
                         request.explain);
@@ -257,58 +383,161 @@ public final class PrefetchManager
      */
     protected static void reportDone(Request request) {
         synchronized (request.result) {
-            //LOG.debug("reportDone - finished request:                        " + request);
             serviced.remove(request);
             request.result.notifyAll();
         }
     }
 
     /**
-     * Returns a request for a thread to service.
+     * Returns the next request for a thread to service, taking one from each owner in turn.
      *
-     * @return a request to service
+     * @return a request to service, or null if there are none waiting
      */
     protected static Request getRequest() {
-        Request retval;
         synchronized (sync) {
-            while (pending.isEmpty()) {
-                // There are no requests to get - wait for a notify.
-                //LOG.debug("getRequest - waiting for a request");
-                try {
-                    sync.wait();
-                } catch (InterruptedException e) {
-                    // Ignore interruption.
+            Iterator<Map.Entry<Object, LinkedList<Request>>> iter = pending.entrySet().iterator();
+            if (!iter.hasNext()) {
+                // Another thread took over the request that this task was started for
+                return null;
+            }
+            Map.Entry<Object, LinkedList<Request>> entry = iter.next();
+            iter.remove();
+            LinkedList<Request> requests = entry.getValue();
+            Request retval = requests.removeFirst();
+            if (!requests.isEmpty()) {
+                // Send the owner to the back of the queue
+                pending.put(entry.getKey(), requests);
+            }
+            pendingRequests.remove(retval);
+            serviced.put(retval, retval);
+            return retval;
+        }
+    }
+
+    /**
+     * Fetches the batch of a request in a prefetch thread.
+     *
+     * @param request the request
+     */
+    private static void service(Request request) {
+        currentRequest.set(request);
+        try {
+            request.result.fetchBatchFromObjectStore(request.batchNo, request.optimise,
+                    request.explain);
+            request.result.prefetched.add(new Integer(request.batchNo));
+            synchronized (sync) {
+                fetched++;
+            }
+        } catch (Exception e) {
+            // We don't care about any exception - a thread that needs the batch will fetch it
+            // again and get the exception itself.
+            synchronized (sync) {
+                if (request.cancelled) {
+                    cancelled++;
+                } else {
+                    failed++;
                 }
             }
-            // Get a request from the pending set. We know there is something in there, because we
-            // just got false from pending.isEmpty, and we have the lock on sync, and nothing
-            // touches pending unless they have that lock.
-            retval = pending.iterator().next();
-            //LOG.debug("getRequest - got request:                             " + retval);
-            // Now we have a request, we could synchronise by its result - other things look
-            // for the request in serviced - namely:
-            // 1. addRequest doesn't add a request to pending if it already in serviced. However,
-            //     that doesn't matter, because it is already synchronised on sync. Otherwise, you
-            //     might have had the situation where a request appears in both pending and serviced
-            //     sets.
-            // 2. doRequest also moves items from pending to serviced, but that doesn't matter
-            //     because it is also synchronised on sync. Otherwise you could have two threads
-            //     servicing the same request, which could possibly leave other requests not being
-            //     serviced while a service thread sleeps.
-            // 3. doRequest decides whether to wait on whether there is a request in serviced, but
-            //     this also does not matter, as it can only be broken by a thread removing a
-            //     request from serviced outside a synchronised block.
-            // 4. reportDone removes an entry from serviced, which does not matter, because it will
-            //     only break something that is broken by things being removed from serviced outside
-            //     a sync lock.
-            // Basically, we never check to see if the batch has already been fetched before
-            // checking to see if anyone is fetching it - we only put the request in serviced.
-            // Therefore, we do not need to synchronise by request.result here.
-
-            serviced.add(retval);
-            pending.remove(retval);
+            if (!request.cancelled) {
+                LOG.warn("Prefetch of " + request + " failed: " + e);
+            }
+        } finally {
+            currentRequest.remove();
+            reportDone(request);
+        }
+    }
+
+    /**
+     * Records that a prefetched batch has been read.
+     */
+    protected static void recordHit() {
+        synchronized (sync) {
+            hits++;
+        }
+    }
+
+    /**
+     * Records that a prefetched batch was evicted from memory before it was read.
+     */
+    protected static void recordWasted() {
+        synchronized (sync) {
+            wasted++;
+        }
+    }
+
+    /**
+     * Returns the number of batches that have been fetched in the background.
+     *
+     * @return a number of batches
+     */
+    public static long getFetched() {
+        synchronized (sync) {
+            return fetched;
+        }
+    }
+
+    /**
+     * Returns the number of batches fetched in the background that were later read.
+     *
+     * @return a number of batches
+     */
+    public static long getHits() {
+        synchronized (sync) {
+            return hits;
+        }
+    }
+
+    /**
+     * Returns the number of batches fetched in the background that were evicted from memory
+     * before they were read. Batches that are never read at all are not counted, as they are
+     * never looked for.
+     *
+     * @return a number of batches
+     */
+    public static long getWasted() {
+        synchronized (sync) {
+            return wasted;
+        }
+    }
+
+    /**
+     * Returns the number of prefetches that were waiting for a thread when the batch was needed,
+     * so that the thread that needed it fetched it itself.
+     *
+     * @return a number of requests
+     */
+    public static long getLate() {
+        synchronized (sync) {
+            return late;
+        }
+    }
+
+    /**
+     * Returns the number of prefetches that were not made because too many were waiting.
+     *
+     * @return a number of requests
+     */
+    public static long getDropped() {
+        synchronized (sync) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Returns a description of how useful the prefetching has been, for tuning the read-ahead
+     * depth and number of threads.
+     *
+     * @return a String
+     */
+    public static String getStatistics() {
+        synchronized (sync) {
+            return "Prefetch: requested " + requested + ", dropped " + dropped + ", fetched "
+                + fetched + ", read " + hits + " (" + (fetched == 0 ? 0 : (100 * hits) / fetched)
+                + "%), evicted unread " + wasted + ", too late " + late + ", cancelled "
+                + cancelled + ", failed " + failed + ", waiting " + pendingRequests.size()
+                + ", running " + serviced.size() + ", threads " + EXECUTOR.getPoolSize() + " of "
+                + EXECUTOR.getMaximumPoolSize();
         }
-        return retval;
     }
 
     private static class Request
@@ -317,22 +546,34 @@ public final class PrefetchManager
         private int batchNo;
         private boolean optimise;
         private boolean explain;
+        private Object owner;
+        private volatile boolean cancelled = false;
+        // The request ID in the ObjectStore, which is not equal to any other
+        private final Object token = new Object() {
+            @Override
+            public String toString() {
+                return "prefetch of " + Request.this;
+            }
+        };
 
-        public Request(ResultsBatches result, int batchNo, boolean optimise, boolean explain) {
+        public Request(ResultsBatches result, int batchNo, boolean optimise, boolean explain,
+                Object owner) {
             this.result = result;
             this.batchNo = batchNo;
             this.optimise = optimise;
             this.explain = explain;
+            this.owner = owner;
         }
 
         @Override
         public int hashCode() {
-            return 2 * result.query.hashCode() + 3 * batchNo;
+            return 2 * System.identityHashCode(result) + 3 * batchNo;
         }
 
         @Override
         public boolean equals(Object obj) {
-            return (result == ((Request) obj).result) && (((Request) obj).batchNo == batchNo);
+            return (obj instanceof Request) && (result == ((Request) obj).result)
+                && (((Request) obj).batchNo == batchNo);
         }
 
         @Override
@@ -340,42 +581,4 @@ public final class PrefetchManager
             return "Result " + result.query.hashCode() + ", batch " + batchNo;
         }
     }
-
-    private static class ServiceThread extends Thread
-    {
-        @Override
-        public void run() {
-            try {
-                while (true) {
-                    Request request = PrefetchManager.getRequest();
-                    //LOG.debug("ServiceThread.run - servicing request                 " + request);
-                    try {
-                        // Now, we can service this request in a normal manner, outside all locks.
-                        @SuppressWarnings("unused")
-                        List<Object> batch = request.result.fetchBatchFromObjectStore(request
-                                .batchNo, request.optimise, request.explain);
-                    } catch (Exception e) {
-                        LOG.warn("ServiceThread.run - Received exception                " + request
-                                + " " + e);
-                        // We don't care about any exception - we NEED this thread to keep running.
-                        // Otherwise, things go pear-shaped.
-                    } finally {
-                        // And then report that it is finished, inside a lock, even if we did get an
-                        // exception.
-                        reportDone(request);
-                    }
-                }
-            } catch (Error e) {
-                LOG.error("Failure of PrefetchManager service thread with error", e);
-                throw e;
-            } finally {
-                // Like I said, we REALLY NEED to know if something has gone wrong here, as it is a
-                // BIG BAD BUG.
-                LOG.error("ServiceThread died unexpectedly. PrefetchManager may stop working");
-                // And decrement the count of available ServiceThreads.
-                PrefetchManager.serviceThreads--;
-            }
-        }
-    }
 }
-
@@ -38,18 +38,44 @@ public final class QueryCloner
      * @return a Query object not connected to the original, but identical
      */
     public static Query cloneQuery(Query query) {
+        return cloneQuery(query, new Context(null, null));
+    }
+
+    /**
+     * Clones a query object, replacing some of its constraints. Each replacement constraint must
+     * be made from the same QueryClasses and other nodes as the constraint that it replaces, and
+     * is cloned in its place. This allows a Query to be used as a template for others that differ
+     * only in the values that they are constrained to.
+     *
+     * @param query a Query to clone
+     * @param substitutions a Map from Constraint in the query to the Constraint to clone in its
+     * place, or null. This should be an IdentityHashMap, as equal Constraints may appear in
+     * different places in the query
+     * @param clones optional parameter which will be populated with entries, mapping from each
+     * QuerySelectable and Constraint in the query (including the default classes of path
+     * expressions) to the object that represents it in the new query. A substituted Constraint
+     * maps to the clone of its replacement. This should be an IdentityHashMap, as some
+     * QuerySelectables do not define equals()
+     * @return a Query object not connected to the original
+     */
+    public static Query cloneQuery(Query query, Map<Constraint, Constraint> substitutions,
+            Map<Object, Object> clones) {
+        return cloneQuery(query, new Context(substitutions, clones));
+    }
+
+    private static Query cloneQuery(Query query, Context parent) {
         Query newQuery = new Query();
         try {
             Map<Object, String> aliases = query.getAliases();
             Map<FromElement, FromElement> fromElementMap = new HashMap<FromElement, FromElement>();
-            Map<QueryObjectPathExpression, QueryObjectPathExpression> qopeMap =
-                new HashMap<QueryObjectPathExpression, QueryObjectPathExpression>();
+            // Path expressions are only shared within a Query, so each subquery starts again
+            Context context = new Context(parent.substitutions, parent.clones);
             for (FromElement origFrom : query.getFrom()) {
                 FromElement newFrom = null;
                 if (origFrom instanceof QueryClass) {
                     newFrom = origFrom;
                 } else if (origFrom instanceof Query) {
-                    newFrom = cloneQuery((Query) origFrom);
+                    newFrom = cloneQuery((Query) origFrom, context);
                 } else if (origFrom instanceof QueryClassBag) {
                     Collection<?> bag = ((QueryClassBag) origFrom).getBag();
                     Class<? extends InterMineObject> type = ((QueryClassBag) origFrom).getType();
@@ -67,20 +93,20 @@ public final class QueryCloner
             }
             for (QuerySelectable origSelect : query.getSelect()) {
                 QuerySelectable newSelect = (QuerySelectable) cloneThing(origSelect,
-                        fromElementMap, qopeMap);
+                        fromElementMap, context);
                 newQuery.addToSelect(newSelect, aliases.get(origSelect));
             }
             for (QueryOrderable origOrder : query.getOrderBy()) {
                 QueryOrderable newOrder = (QueryOrderable) cloneThing(origOrder, fromElementMap,
-                        qopeMap);
+                        context);
                 newQuery.addToOrderBy(newOrder);
             }
             for (QueryNode origGroup : query.getGroupBy()) {
-                QueryNode newGroup = (QueryNode) cloneThing(origGroup, fromElementMap, qopeMap);
+                QueryNode newGroup = (QueryNode) cloneThing(origGroup, fromElementMap, context);
                 newQuery.addToGroupBy(newGroup);
             }
             newQuery.setConstraint((Constraint) cloneThing(query.getConstraint(), fromElementMap,
-                    qopeMap));
+                    context));
             newQuery.setDistinct(query.isDistinct());
             newQuery.setLimit(query.getLimit());
         } catch (NoSuchFieldException e) {
@@ -90,7 +116,17 @@ public final class QueryCloner
     }
 
     private static Object cloneThing(Object orig, Map<FromElement, FromElement> fromElementMap,
-            Map<QueryObjectPathExpression, QueryObjectPathExpression> qopeMap)
+            Context context)
+        throws NoSuchFieldException {
+        Object retval = makeClone(orig, fromElementMap, context);
+        if ((orig instanceof QuerySelectable) || (orig instanceof Constraint)) {
+            context.record(orig, retval);
+        }
+        return retval;
+    }
+
+    private static Object makeClone(Object orig, Map<FromElement, FromElement> fromElementMap,
+            Context context)
         throws NoSuchFieldException {
         if (orig == null) {
             return null;
@@ -127,53 +163,61 @@ public final class QueryCloner
                 return orig;
             } else if (origF.getParam() instanceof QueryField) {
                 return new QueryFunction((QueryField) cloneThing(origF.getParam(), fromElementMap,
-                        qopeMap), origF.getOperation());
+                        context), origF.getOperation());
             } else {
                 return new QueryFunction((QueryExpression) cloneThing(origF.getParam(),
-                            fromElementMap, qopeMap), origF.getOperation());
+                            fromElementMap, context), origF.getOperation());
             }
         } else if (orig instanceof QueryExpression) {
             QueryExpression origE = (QueryExpression) orig;
             if ((origE.getOperation() == QueryExpression.SUBSTRING) && (origE.getArg3() != null)) {
                 return new QueryExpression((QueryEvaluable)
-                        cloneThing(origE.getArg1(), fromElementMap, qopeMap),
-                        (QueryEvaluable) cloneThing(origE.getArg2(), fromElementMap, qopeMap),
-                        (QueryEvaluable) cloneThing(origE.getArg3(), fromElementMap, qopeMap));
+                        cloneThing(origE.getArg1(), fromElementMap, context),
+                        (QueryEvaluable) cloneThing(origE.getArg2(), fromElementMap, context),
+                        (QueryEvaluable) cloneThing(origE.getArg3(), fromElementMap, context));
             } else if ((origE.getOperation() == QueryExpression.LOWER) || (origE.getOperation()
                     == QueryExpression.UPPER)) {
                 return new QueryExpression(origE.getOperation(),
-                        (QueryEvaluable) cloneThing(origE.getArg1(), fromElementMap, qopeMap));
+                        (QueryEvaluable) cloneThing(origE.getArg1(), fromElementMap, context));
             } else {
                 return new QueryExpression((QueryEvaluable)
-                        cloneThing(origE.getArg1(), fromElementMap, qopeMap),
+                        cloneThing(origE.getArg1(), fromElementMap, context),
                         origE.getOperation(),
-                        (QueryEvaluable) cloneThing(origE.getArg2(), fromElementMap, qopeMap));
+                        (QueryEvaluable) cloneThing(origE.getArg2(), fromElementMap, context));
             }
         } else if (orig instanceof QueryCast) {
             return new QueryCast((QueryEvaluable) cloneThing(((QueryCast) orig).getValue(),
-                        fromElementMap, qopeMap), ((QueryCast) orig).getType());
+                        fromElementMap, context), ((QueryCast) orig).getType());
         } else if (orig instanceof PathExpressionField) {
             PathExpressionField origP = (PathExpressionField) orig;
             QueryObjectPathExpression origQope = origP.getQope();
-            QueryObjectPathExpression newQope = qopeMap.get(origQope);
+            QueryObjectPathExpression newQope = context.qopeMap.get(origQope);
             if (newQope == null) {
-                newQope = (QueryObjectPathExpression) cloneThing(origQope, fromElementMap, qopeMap);
-                qopeMap.put(origQope, newQope);
+                newQope = (QueryObjectPathExpression) cloneThing(origQope, fromElementMap, context);
+                context.qopeMap.put(origQope, newQope);
             }
             return new PathExpressionField(newQope, origP.getFieldNumber());
         } else if (orig instanceof QueryObjectPathExpression) {
             QueryObjectPathExpression origC = (QueryObjectPathExpression) orig;
-            QueryObjectPathExpression retval = new QueryObjectPathExpression((QueryClass)
-                    fromElementMap.get(origC.getQueryClass()), origC.getFieldName());
+            QueryObjectPathExpression retval;
+            if (origC.getSubclass() == null) {
+                retval = new QueryObjectPathExpression((QueryClass)
+                        fromElementMap.get(origC.getQueryClass()), origC.getFieldName());
+            } else {
+                retval = new QueryObjectPathExpression((QueryClass)
+                        fromElementMap.get(origC.getQueryClass()), origC.getFieldName(),
+                        origC.getSubclass());
+            }
+            context.record(origC.getDefaultClass(), retval.getDefaultClass());
             Map<FromElement, FromElement> subFromElementMap =
                 new HashMap<FromElement, FromElement>();
             subFromElementMap.put(origC.getDefaultClass(), retval.getDefaultClass());
             for (QuerySelectable selectable : origC.getSelect()) {
                 retval.addToSelect((QuerySelectable) cloneThing(selectable, subFromElementMap,
-                        qopeMap));
+                        context));
             }
             retval.setConstraint((Constraint) cloneThing(origC.getConstraint(), subFromElementMap,
-                    qopeMap));
+                    context));
             return retval;
         } else if (orig instanceof QueryCollectionPathExpression) {
             QueryCollectionPathExpression origC = (QueryCollectionPathExpression) orig;
@@ -191,6 +235,7 @@ public final class QueryCloner
                         + ", fromElementMap: " + fromElementMap);
             }
             retval.setSingleton(origC.isSingleton());
+            context.record(origC.getDefaultClass(), retval.getDefaultClass());
             Map<FromElement, FromElement> subFromElementMap =
                 new HashMap<FromElement, FromElement>();
             for (FromElement origFrom : origC.getFrom()) {
@@ -198,7 +243,7 @@ public final class QueryCloner
                 if (origFrom instanceof QueryClass) {
                     newFrom = origFrom;
                 } else if (origFrom instanceof Query) {
-                    newFrom = cloneQuery((Query) origFrom);
+                    newFrom = cloneQuery((Query) origFrom, context);
                 } else if (origFrom instanceof QueryClassBag) {
                     Collection<?> bag = ((QueryClassBag) origFrom).getBag();
                     Class<? extends InterMineObject> type = ((QueryClassBag) origFrom).getType();
@@ -207,7 +252,7 @@ public final class QueryCloner
                     } else {
                         newFrom = new QueryClassBag(type,
                                 (Collection<?>) cloneThing(((QueryClassBag) origFrom).getBag(),
-                                        null, qopeMap));
+                                        null, context));
                     }
                 } else {
                     throw new IllegalArgumentException("Unknown type of FromElement " + origFrom);
@@ -218,18 +263,18 @@ public final class QueryCloner
             subFromElementMap.put(origC.getDefaultClass(), retval.getDefaultClass());
             for (QuerySelectable selectable : origC.getSelect()) {
                 retval.addToSelect((QuerySelectable) cloneThing(selectable, subFromElementMap,
-                        qopeMap));
+                        context));
             }
             retval.setConstraint((Constraint) cloneThing(origC.getConstraint(), subFromElementMap,
-                    qopeMap));
+                    context));
             return retval;
         } else if (orig instanceof Constraint) {
-            return cloneConstraint((Constraint) orig, fromElementMap, qopeMap);
+            return cloneConstraint((Constraint) orig, fromElementMap, context);
         } else if (orig instanceof OverlapRange) {
             OverlapRange or = (OverlapRange) orig;
             return new OverlapRange((QueryEvaluable) cloneThing(or.getStart(), fromElementMap,
-                    qopeMap), (QueryEvaluable) cloneThing(or.getEnd(), fromElementMap, qopeMap),
-                    (QueryObjectReference) cloneThing(or.getParent(), fromElementMap, qopeMap));
+                    context), (QueryEvaluable) cloneThing(or.getEnd(), fromElementMap, context),
+                    (QueryObjectReference) cloneThing(or.getParent(), fromElementMap, context));
         } else if (orig instanceof Set<?>) {
             return new HashSet<Object>((Set<?>) orig);
         } else if (orig instanceof List<?>) {
@@ -252,32 +297,36 @@ public final class QueryCloner
             }
         } else if (orig instanceof OrderDescending) {
             return new OrderDescending((QueryOrderable) cloneThing(((OrderDescending) orig)
-                        .getQueryOrderable(), fromElementMap, qopeMap));
+                        .getQueryOrderable(), fromElementMap, context));
         }
         throw new IllegalArgumentException("Unknown object type: " + orig);
     }
 
-    private static Constraint cloneConstraint(Constraint orig,
+    private static Constraint cloneConstraint(Constraint constraint,
             Map<FromElement, FromElement> fromElementMap,
-            Map<QueryObjectPathExpression, QueryObjectPathExpression> qopeMap)
+            Context context)
         throws NoSuchFieldException {
+        Constraint orig = constraint;
+        if ((context.substitutions != null) && context.substitutions.containsKey(orig)) {
+            orig = context.substitutions.get(orig);
+        }
 
         if (orig instanceof SimpleConstraint) {
             SimpleConstraint origC = (SimpleConstraint) orig;
             if ((origC.getOp() == ConstraintOp.IS_NULL)
                     || (origC.getOp() == ConstraintOp.IS_NOT_NULL)) {
                 return new SimpleConstraint((QueryEvaluable) cloneThing(origC.getArg1(),
-                        fromElementMap, qopeMap), origC.getOp());
+                        fromElementMap, context), origC.getOp());
             } else {
                 return new SimpleConstraint((QueryEvaluable) cloneThing(origC.getArg1(),
-                        fromElementMap, qopeMap), origC.getOp(),
-                        (QueryEvaluable) cloneThing(origC.getArg2(), fromElementMap, qopeMap));
+                        fromElementMap, context), origC.getOp(),
+                        (QueryEvaluable) cloneThing(origC.getArg2(), fromElementMap, context));
             }
         } else if (orig instanceof ConstraintSet) {
             ConstraintSet origC = (ConstraintSet) orig;
             ConstraintSet newC = new ConstraintSet(origC.getOp());
             for (Constraint con : origC.getConstraints()) {
-                newC.addConstraint((Constraint) cloneThing(con, fromElementMap, qopeMap));
+                newC.addConstraint((Constraint) cloneThing(con, fromElementMap, context));
             }
             return newC;
         } else if (orig instanceof ContainsConstraint) {
@@ -285,14 +334,14 @@ public final class QueryCloner
             if (origC.getOp().equals(ConstraintOp.IS_NULL) || origC.getOp().equals(
                     ConstraintOp.IS_NOT_NULL)) {
                 return new ContainsConstraint((QueryReference) cloneThing(
-                        origC.getReference(), fromElementMap, qopeMap), origC.getOp());
+                        origC.getReference(), fromElementMap, context), origC.getOp());
             } else if (origC.getQueryClass() == null) {
                 return new ContainsConstraint((QueryReference) cloneThing(origC.getReference(),
-                        fromElementMap, qopeMap), origC.getOp(), origC.getObject());
+                        fromElementMap, context), origC.getOp(), origC.getObject());
             } else {
                 return new ContainsConstraint((QueryReference) cloneThing(origC.getReference(),
-                        fromElementMap, qopeMap), origC.getOp(),
-                        (QueryClass) cloneThing(origC.getQueryClass(), fromElementMap, qopeMap));
+                        fromElementMap, context), origC.getOp(),
+                        (QueryClass) cloneThing(origC.getQueryClass(), fromElementMap, context));
             }
         } else if (orig instanceof ClassConstraint) {
             ClassConstraint origC = (ClassConstraint) orig;
@@ -309,11 +358,11 @@ public final class QueryCloner
             if (origC.getQueryEvaluable() == null) {
                 return new SubqueryConstraint((QueryClass)
                         fromElementMap.get(origC.getQueryClass()), origC.getOp(),
-                        cloneQuery(origC.getQuery()));
+                        cloneQuery(origC.getQuery(), context));
             } else {
                 return new SubqueryConstraint(
                         (QueryEvaluable) cloneThing(origC.getQueryEvaluable(), fromElementMap,
-                                qopeMap), origC.getOp(), cloneQuery(origC.getQuery()));
+                                context), origC.getOp(), cloneQuery(origC.getQuery(), context));
             }
         } else if (orig instanceof BagConstraint) {
             BagConstraint origC = (BagConstraint) orig;
@@ -325,10 +374,10 @@ public final class QueryCloner
             }
             if (bag == null) {
                 return new BagConstraint((QueryNode) cloneThing(origC.getQueryNode(),
-                        fromElementMap, qopeMap), origC.getOp(), origC.getOsb());
+                        fromElementMap, context), origC.getOp(), origC.getOsb());
             } else {
                 return new BagConstraint((QueryNode) cloneThing(origC.getQueryNode(),
-                        fromElementMap, qopeMap), origC.getOp(), bag);
+                        fromElementMap, context), origC.getOp(), bag);
             }
         } else if (orig instanceof MultipleInBagConstraint) {
             MultipleInBagConstraint origC = (MultipleInBagConstraint) orig;
@@ -339,19 +388,42 @@ public final class QueryCloner
                 bag = new ArrayList<Object>(bag);
             }
             @SuppressWarnings("unchecked") List<QueryEvaluable> evaluables = (List) cloneThing(origC
-                    .getEvaluables(), fromElementMap, qopeMap);
+                    .getEvaluables(), fromElementMap, context);
             return new MultipleInBagConstraint(bag, evaluables);
         } else if (orig instanceof SubqueryExistsConstraint) {
             SubqueryExistsConstraint origC = (SubqueryExistsConstraint) orig;
-            return new SubqueryExistsConstraint(origC.getOp(), cloneQuery(origC.getQuery()));
+            return new SubqueryExistsConstraint(origC.getOp(),
+                    cloneQuery(origC.getQuery(), context));
         } else if (orig instanceof OverlapConstraint) {
             OverlapConstraint oc = (OverlapConstraint) orig;
             return new OverlapConstraint((OverlapRange) cloneThing(oc.getLeft(), fromElementMap,
-                    qopeMap), oc.getOp(), (OverlapRange) cloneThing(oc.getRight(), fromElementMap,
-                            qopeMap));
+                    context), oc.getOp(), (OverlapRange) cloneThing(oc.getRight(), fromElementMap,
+                            context));
         } else {
             throw new IllegalArgumentException("Unknown constraint type "
                     + orig.getClass().getName());
         }
     }
+
+    /**
+     * The state of a cloning operation.
+     */
+    private static class Context
+    {
+        Map<QueryObjectPathExpression, QueryObjectPathExpression> qopeMap =
+            new HashMap<QueryObjectPathExpression, QueryObjectPathExpression>();
+        Map<Constraint, Constraint> substitutions;
+        Map<Object, Object> clones;
+
+        Context(Map<Constraint, Constraint> substitutions, Map<Object, Object> clones) {
+            this.substitutions = substitutions;
+            this.clones = clones;
+        }
+
+        void record(Object orig, Object clone) {
+            if (clones != null) {
+                clones.put(orig, clone);
+            }
+        }
+    }
 }
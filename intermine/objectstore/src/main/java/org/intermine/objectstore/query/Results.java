@@ -44,6 +44,7 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
     protected boolean optimise = true;
     protected boolean explain = true;
     protected boolean prefetch = true;
+    protected int prefetchDepth = PrefetchManager.getDefaultDepth();
 
     protected boolean immutable = false;
 
@@ -52,8 +53,8 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
     protected int sequential = 0;
     private static final int PREFETCH_SEQUENTIAL_THRESHOLD = 6;
     // Basically, this keeps a tally of how many times in a row accesses have been sequential.
-    // If sequential gets above a PREFETCH_SEQUENTIAL_THRESHOLD, then we prefetch the batch after
-    // the one we are currently using.
+    // If sequential gets above a PREFETCH_SEQUENTIAL_THRESHOLD, then we prefetch the prefetchDepth
+    // batches after the one we are currently using.
 
     /**
      * No argument constructor for testing purposes
@@ -129,6 +130,23 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
         prefetch = false;
     }
 
+    /**
+     * Sets the number of batches that this Results object fetches in the background ahead of
+     * the batch being read, when it is being read in order. The default is set by
+     * PrefetchManager.setDefaultDepth().
+     *
+     * @param depth a number of batches - zero switches prefetching off
+     */
+    public synchronized void setPrefetchDepth(int depth) {
+        if (immutable) {
+            throw new IllegalArgumentException("Cannot change settings of Results object in cache");
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative: " + depth);
+        }
+        prefetchDepth = depth;
+    }
+
     /**
      * Tells this Results object that it is being put into a cache, so it needs to be made immutable
      * to prevent threads stomping on each other and changing settings.
@@ -205,9 +223,12 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
         if ((resultsBatches.getObjectStore() != null)
                 && prefetch
                 && resultsBatches.getObjectStore().isMultiConnection()
-                && (sequential > PREFETCH_SEQUENTIAL_THRESHOLD)
-                && (getBatchNoForRow(resultsBatches.getMaxSize()) > endBatch)) {
-            resultsBatches.prefetch(endBatch + 1, optimise, explain);
+                && (sequential > PREFETCH_SEQUENTIAL_THRESHOLD)) {
+            int lastBatch = Math.min(getBatchNoForRow(resultsBatches.getMaxSize()),
+                    endBatch + prefetchDepth);
+            for (int i = endBatch + 1; i <= lastBatch; i++) {
+                resultsBatches.prefetch(i, optimise, explain);
+            }
         }
         lastGet = end;
 
@@ -13,13 +13,14 @@ package org.intermine.objectstore.query;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.intermine.objectstore.DataChangedException;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.CacheMap;
 
 /**
  * Class holding the data batches for the Results object. Possibly multiple Results objects with
@@ -44,9 +45,13 @@ public class ResultsBatches
 
     protected ResultsInfo info;
 
-    // A map of batch number against a List of ResultsRows
-    protected Map<Integer, List<Object>> batches = Collections.synchronizedMap(
-            new CacheMap<Integer, List<Object>>("Results batches"));
+    protected BatchRowCache rowCache;
+    // A map of batch number against a List of ResultsRows, holding the most recently used batches.
+    // The rows are held in the ObjectStore's BatchRowCache, which limits the rows held for all
+    // the Results of the ObjectStore together.
+    protected Map<Integer, List<Object>> batches;
+    // The numbers of the batches fetched by the PrefetchManager that have not been read yet
+    protected Set<Integer> prefetched = Collections.synchronizedSet(new HashSet<Integer>());
 
     /**
      * Construct a new ResultsBatches object. This is generally only called by the Results object.
@@ -59,6 +64,8 @@ public class ResultsBatches
         this.query = query;
         this.os = os;
         this.sequence = sequence;
+        rowCache = BatchRowCache.forObjectStore(os);
+        batches = rowCache.viewFor(this);
     }
 
     /**
@@ -159,10 +166,17 @@ public class ResultsBatches
      */
     protected List<Object> getBatch(int batchNo, boolean optimise, boolean explain)
         throws ObjectStoreException {
-        List<Object> retval = batches.get(new Integer(batchNo));
+        Integer key = new Integer(batchNo);
+        List<Object> retval = batches.get(key);
         if (retval == null) {
+            if (prefetched.remove(key)) {
+                PrefetchManager.recordWasted();
+            }
             retval = PrefetchManager.doRequest(this, batchNo, optimise, explain);
         }
+        if (prefetched.remove(key)) {
+            PrefetchManager.recordHit();
+        }
         return retval;
     }
 
@@ -307,6 +321,7 @@ public class ResultsBatches
                     + " to " + size);
         }
         batchSize = size;
+        rowCache.ensureCapacity(size);
     }
 
     /**
@@ -0,0 +1,417 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
+import org.intermine.sql.query.PostgresExplainResult;
+
+/**
+ * A BestQueryExplainer that explains several candidate queries at once, each on its own
+ * Connection from the pool of a Database.  The candidates are chosen in the same way as by
+ * BestQueryExplainer, but add() only starts the EXPLAIN, and the results are collected as they
+ * arrive.  As soon as the best query found so far is expected to run faster than the time spent
+ * optimising, or the time limit is reached, the outstanding EXPLAINs are cancelled.
+ *
+ * Results are kept in the ExplainCache of the Database, so a candidate that has been explained
+ * recently is not sent to the database again.  A candidate that can not be explained on a
+ * pooled Connection, for instance because it uses a temporary table that only exists in the
+ * transaction of the caller, is explained on the caller's Connection instead.
+ *
+ * The number of pooled Connections used for EXPLAINs at once is limited across all optimisations
+ * (see setMaxConnections()).  A candidate that can not have a Connection straight away is
+ * explained on the caller's Connection, rather than waiting for the pool.
+ */
+public class BestQueryParallelExplainer extends BestQueryExplainer
+{
+    private static final Logger LOG = Logger.getLogger(BestQueryParallelExplainer.class);
+    private static final long POLL_INTERVAL = 100;
+
+    /** The default maximum number of pooled Connections used for EXPLAINs at once */
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Explain-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    // The number of pooled Connections in use for EXPLAINs, by every optimisation
+    private static final AtomicInteger CONNECTIONS_IN_USE = new AtomicInteger();
+    private static volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    protected Database database;
+    protected int threads;
+    protected ExplainCache explainCache;
+    private CompletionService<ExplainTask> completion
+        = new ExecutorCompletionService<ExplainTask>(EXECUTOR);
+    private LinkedList<ExplainTask> waiting = new LinkedList<ExplainTask>();
+    private List<ExplainTask> running = new ArrayList<ExplainTask>();
+    private List<Candidate> failed = new ArrayList<Candidate>();
+
+    /**
+     * Constructs a BestQueryParallelExplainer.
+     *
+     * @param con the Connection of the caller, used for candidates that can not be explained on
+     * another Connection
+     * @param database the Database to take Connections from
+     * @param threads the maximum number of EXPLAINs to run at once
+     * @param timeLimit a time limit in milliseconds
+     */
+    public BestQueryParallelExplainer(Connection con, Database database, int threads,
+            long timeLimit) {
+        super(con, timeLimit);
+        if (database == null) {
+            throw new NullPointerException();
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.database = database;
+        this.threads = threads;
+        this.explainCache = ExplainCache.getInstance(database);
+    }
+
+    /**
+     * Sets the maximum number of pooled Connections that may be used for EXPLAINs at once, by all
+     * the optimisations running in this JVM.  This should be well below the size of the pool, so
+     * that the EXPLAINs do not starve the queries.
+     *
+     * @param connections the number of Connections, or 0 to explain every candidate on the
+     * caller's Connection
+     */
+    public static synchronized void setMaxConnections(int connections) {
+        if (connections < 0) {
+            throw new IllegalArgumentException("connections must not be negative: "
+                    + connections);
+        }
+        int poolSize = Math.max(1, connections);
+        if (poolSize > EXECUTOR.getMaximumPoolSize()) {
+            EXECUTOR.setMaximumPoolSize(poolSize);
+            EXECUTOR.setCorePoolSize(poolSize);
+        } else {
+            EXECUTOR.setCorePoolSize(poolSize);
+            EXECUTOR.setMaximumPoolSize(poolSize);
+        }
+        maxConnections = connections;
+    }
+
+    /**
+     * Returns the maximum number of pooled Connections that may be used for EXPLAINs at once.
+     *
+     * @return an int
+     */
+    public static int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Returns the number of pooled Connections reserved for EXPLAINs at the moment.
+     *
+     * @return an int
+     */
+    static int getConnectionsInUse() {
+        return CONNECTIONS_IN_USE.get();
+    }
+
+    /**
+     * Reserves a pooled Connection for an EXPLAIN, if fewer than the maximum are in use.
+     */
+    private static boolean reserveConnection() {
+        while (true) {
+            int inUse = CONNECTIONS_IN_USE.get();
+            if (inUse >= maxConnections) {
+                return false;
+            }
+            if (CONNECTIONS_IN_USE.compareAndSet(inUse, inUse + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Allows a Candidate to be added to this tracker.  The Candidate is explained in the
+     * background if it would have been explained by BestQueryExplainer.
+     *
+     * @param c the Candidate
+     * @throws BestQueryException if the current best Candidate is the best we think we are going to
+     * get
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    @Override
+    protected void add(Candidate c) throws BestQueryException, SQLException {
+        collect(0);
+        int tableCount = c.getTableCount();
+        boolean doExplain = (tableCount <= ALWAYS_EXPLAIN_TABLES);
+        if (tableCount < candidateTables) {
+            candidateTables = tableCount;
+            candidates.clear();
+            if (tableCount < NEVER_EXPLAIN_TABLES) {
+                doExplain = true;
+            }
+        }
+        if (doExplain) {
+            explain(c);
+        } else {
+            didNotExplain(c);
+            if (tableCount == candidateTables) {
+                candidates.add(c);
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start.getTime();
+        if ((timeLimit >= 0) && (elapsed > timeLimit)) {
+            // getBest() will wait for the EXPLAINs already started, until there is a result
+            throwBestQueryException("Optimiser reached time limit (limit = " + timeLimit
+                    + "ms, elapsed = " + elapsed + "ms)");
+        }
+        if (isGoodEnough(elapsed)) {
+            cancel();
+            throwBestQueryException("Explain time: " + bestCandidate.getExplain().getTime()
+                    + ", elapsed time: " + elapsed);
+        }
+    }
+
+    /**
+     * Waits for the outstanding EXPLAINs, and explains the candidates that were put aside, until
+     * the best Candidate is good enough or the time limit is reached.
+     *
+     * @return the best Candidate
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    @Override
+    protected Candidate getBest() throws SQLException {
+        for (Candidate c : candidates) {
+            explain(c);
+        }
+        candidates.clear();
+        try {
+            while (!(running.isEmpty() && waiting.isEmpty() && failed.isEmpty())) {
+                long elapsed = System.currentTimeMillis() - start.getTime();
+                if ((bestCandidate != null) && (((timeLimit >= 0) && (elapsed > timeLimit))
+                            || isGoodEnough(elapsed))) {
+                    break;
+                }
+                if (!failed.isEmpty()) {
+                    consider(failed.remove(0));
+                } else if ((timeLimit >= 0) && (bestCandidate != null)) {
+                    collect(Math.max(1, Math.min(POLL_INTERVAL, timeLimit - elapsed)));
+                } else {
+                    collect(POLL_INTERVAL);
+                }
+            }
+        } finally {
+            cancel();
+        }
+        return bestCandidate;
+    }
+
+    /**
+     * Returns true if the best Candidate so far is expected to take less time than has been
+     * spent optimising.
+     */
+    private boolean isGoodEnough(long elapsed) throws SQLException {
+        return (bestCandidate != null)
+            && (bestCandidate.getExplain().getTime() < (elapsed + OVERHEAD));
+    }
+
+    private void explain(Candidate c) throws SQLException {
+        String sql = c.getQueryString();
+        c.explainResult = explainCache.lookup(sql);
+        if (c.explainResult != null) {
+            consider(c);
+        } else {
+            waiting.add(new ExplainTask(c, sql));
+            startWaiting();
+        }
+    }
+
+    private void consider(Candidate c) throws SQLException {
+        if (c.betterThan(bestCandidate)) {
+            bestCandidate = c;
+        }
+    }
+
+    private void startWaiting() {
+        while ((running.size() < threads) && !waiting.isEmpty()) {
+            ExplainTask task = waiting.removeFirst();
+            if (reserveConnection()) {
+                task.future = completion.submit(task);
+                running.add(task);
+            } else {
+                // Other optimisations are using the Connections set aside for EXPLAINs
+                failed.add(task.candidate);
+            }
+        }
+    }
+
+    /**
+     * Takes the results of finished EXPLAINs, waiting for the first one for up to the given time.
+     */
+    private void collect(long wait) throws SQLException {
+        try {
+            Future<ExplainTask> future = (wait > 0) ? completion.poll(wait, TimeUnit.MILLISECONDS)
+                : completion.poll();
+            while (future != null) {
+                ExplainTask task;
+                try {
+                    task = future.get();
+                } catch (CancellationException e) {
+                    task = null;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("ExplainTask threw an exception", e.getCause());
+                }
+                // Tasks that were cancelled are left over from an earlier cancel()
+                if ((task != null) && !task.isCancelled()) {
+                    running.remove(task);
+                    if (task.error != null) {
+                        LOG.debug("Explaining candidate on the caller's connection, because: "
+                                + task.error);
+                        failed.add(task.candidate);
+                    } else {
+                        explainCache.put(task.sql, task.candidate.explainResult);
+                        consider(task.candidate);
+                    }
+                }
+                future = completion.poll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+        }
+        startWaiting();
+    }
+
+    /**
+     * Cancels all the EXPLAINs that have not finished.
+     */
+    private void cancel() {
+        waiting.clear();
+        for (ExplainTask task : running) {
+            task.cancel();
+        }
+        running.clear();
+    }
+
+    /**
+     * Explains one Candidate on a Connection from the pool.
+     */
+    private class ExplainTask implements Callable<ExplainTask>
+    {
+        private final Candidate candidate;
+        private final String sql;
+        private Future<ExplainTask> future;
+        private SQLException error = null;
+        private boolean started = false;
+        private boolean cancelled = false;
+        private boolean released = false;
+        private Statement statement = null;
+
+        ExplainTask(Candidate candidate, String sql) {
+            this.candidate = candidate;
+            this.sql = sql;
+        }
+
+        public ExplainTask call() {
+            Connection c = null;
+            try {
+                synchronized (this) {
+                    if (cancelled) {
+                        return this;
+                    }
+                    started = true;
+                }
+                c = database.getConnection();
+                synchronized (this) {
+                    if (cancelled) {
+                        return this;
+                    }
+                    statement = c.createStatement();
+                }
+                candidate.explainResult = new PostgresExplainResult(sql, statement);
+            } catch (SQLException e) {
+                error = e;
+            } finally {
+                try {
+                    synchronized (this) {
+                        if (statement != null) {
+                            statement.close();
+                        }
+                    }
+                    if (c != null) {
+                        c.close();
+                    }
+                } catch (SQLException e) {
+                    LOG.warn("Could not close explain connection", e);
+                }
+                releaseConnection();
+            }
+            return this;
+        }
+
+        /**
+         * Gives back the reserved Connection, once.
+         */
+        private synchronized void releaseConnection() {
+            if (!released) {
+                released = true;
+                CONNECTIONS_IN_USE.decrementAndGet();
+            }
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            future.cancel(false);
+            if (!started) {
+                // call() will not use a Connection
+                releaseConnection();
+            }
+            if (statement != null) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    LOG.debug("Could not cancel EXPLAIN", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.intermine.sql.Database;
+import org.intermine.sql.query.ExplainResult;
+import org.intermine.util.BoundedCacheMap;
+
+/**
+ * A cache of the results of EXPLAIN for SQL query strings, so that the optimiser does not ask the
+ * database to plan the same candidate query again.  Query strings are normalised before lookup,
+ * so that an EXPLAIN prefix and differences in whitespace do not matter.  Entries expire after a
+ * while, as the planner's estimates change when the database is analysed, and the cache of a
+ * database is flushed when precomputed tables are dropped.
+ */
+public class ExplainCache
+{
+    /** The number of milliseconds an ExplainResult is remembered for */
+    public static final long MAX_AGE = 10 * 60 * 1000L;
+    /** The maximum number of ExplainResults remembered for each database */
+    public static final int MAX_ENTRIES = 10000;
+
+    // Caches need to be per-database, as for the OptimiserCache
+    private static Map<Database, ExplainCache> caches = new HashMap<Database, ExplainCache>();
+
+    /**
+     * Returns an ExplainCache object relevant to the database given.
+     *
+     * @param db a Database object to find a cache for
+     * @return an ExplainCache object
+     */
+    public static synchronized ExplainCache getInstance(Database db) {
+        if (!caches.containsKey(db)) {
+            caches.put(db, new ExplainCache());
+        }
+        return caches.get(db);
+    }
+
+    private Map<String, Entry> entries = new BoundedCacheMap<String, Entry>("Explain cache",
+            MAX_ENTRIES);
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void flush() {
+        entries.clear();
+    }
+
+    /**
+     * Adds the result of explaining a query to the cache.
+     *
+     * @param sql the SQL string that was explained
+     * @param result the ExplainResult
+     */
+    public synchronized void put(String sql, ExplainResult result) {
+        entries.put(normalise(sql), new Entry(result));
+    }
+
+    /**
+     * Looks up the result of explaining a query.
+     *
+     * @param sql a SQL string
+     * @return the ExplainResult, or null if the query has not been explained recently
+     */
+    public synchronized ExplainResult lookup(String sql) {
+        String key = normalise(sql);
+        Entry entry = entries.get(key);
+        if ((entry != null) && (System.currentTimeMillis() - entry.created > MAX_AGE)) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /**
+     * Returns the number of lookups that found a result.
+     *
+     * @return an int
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a result.
+     *
+     * @return an int
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Normalises a SQL string for use as a key, by removing any EXPLAIN prefix and reducing
+     * each run of whitespace outside quoted strings to a single space.
+     *
+     * @param sql a SQL string
+     * @return the normalised string
+     */
+    protected static String normalise(String sql) {
+        String in = sql.trim();
+        if (in.toUpperCase().startsWith("EXPLAIN ")) {
+            in = in.substring(8).trim();
+        }
+        StringBuilder retval = new StringBuilder(in.length());
+        boolean inString = false;
+        boolean lastWasSpace = false;
+        for (int i = 0; i < in.length(); i++) {
+            char c = in.charAt(i);
+            if (c == '\'') {
+                inString = !inString;
+            }
+            if (!inString && Character.isWhitespace(c)) {
+                if (!lastWasSpace) {
+                    retval.append(' ');
+                }
+                lastWasSpace = true;
+            } else {
+                retval.append(c);
+                lastWasSpace = false;
+            }
+        }
+        return retval.toString();
+    }
+
+    private static class Entry
+    {
+        private final ExplainResult result;
+        private final long created = System.currentTimeMillis();
+
+        Entry(ExplainResult result) {
+            this.result = result;
+        }
+    }
+}
@@ -10,39 +10,93 @@ package org.intermine.sql.precompute;
  *
  */
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
 
+import org.apache.log4j.Logger;
 import org.intermine.sql.Database;
-import org.intermine.util.CacheMap;
+import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.query.AbstractTable;
+import org.intermine.sql.query.Table;
+import org.intermine.util.BoundedCacheMap;
 
 /**
  * A class that provides an implementation of a cache for String-based SQL query optimisation.
  *
+ * The cache for a Database is also stored in a table in that database, so that it survives a
+ * restart and is shared by every process using the database. Lines are loaded from the table when
+ * the cache is first used, and looked up in the table when they are not in memory. New lines are
+ * written to the table in the background. Every line is tagged with the version of the set of
+ * precomputed tables that it was optimised against (see PrecomputedTableManager.getVersion()), so
+ * a process only uses lines that match its own set of precomputed tables. When a precomputed table
+ * is dropped, only the lines that use it are removed, and when a table is added, only the lines
+ * for queries that contain all the tables it is made from are removed, as they may now be
+ * optimised better. If the precomputed tables are changed in a way that this cache is not told
+ * about, the lines in memory are dropped when the change of version is noticed.
+ *
+ * A query that has been looked up in the table is not looked up again for a while, whether or not
+ * lines were found, so that a query that is never cached does not cost a database round trip
+ * every time it is optimised.
+ *
  * @author Matthew Wakeling
  */
 public class OptimiserCache
 {
+    private static final Logger LOG = Logger.getLogger(OptimiserCache.class);
+
     /** Maximum number of cache linesets in the cache. */
     public static final int MAX_LINESETS = 1000;
     /** Number of events to happen before an expiration run. */
     public static final int EXPIRE_INTERVAL = 100;
+    /** The name of the table in which cache lines are stored. */
+    public static final String TABLE_NAME = "optimiser_cache";
+    /** The maximum number of lines loaded from the table when the cache is first used. */
+    public static final int LOAD_LIMIT = 4 * MAX_LINESETS;
+    /** Lines older than this many milliseconds are deleted when the cache is loaded. */
+    public static final long MAX_AGE = 7L * 24L * 60L * 60L * 1000L;
+    /** A query is not looked up in the table again for this many milliseconds. */
+    public static final long LOOKUP_INTERVAL = 5L * 60L * 1000L;
+
+    // All writes to the tables go through one thread, so that they happen in order
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "OptimiserCache writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
     // Caches need to be per-database, so we will provide a static method to retrieve a cache object
     // given a database. We need to be careful about synchronisation in this whole class.
     private static Map<Database, OptimiserCache> caches = new HashMap<Database, OptimiserCache>();
 
     /**
-     * Returns an OptimiserCache object relevant to the database given.
+     * Returns an OptimiserCache object relevant to the database given. If database is not null,
+     * the cache is stored in the database.
      *
      * @param db a Database object to find a cache for
      * @return an OptimiserCache object
      */
     public static synchronized OptimiserCache getInstance(Database db) {
         if (!caches.containsKey(db)) {
-            caches.put(db, new OptimiserCache());
+            caches.put(db, (db == null) ? new OptimiserCache() : new OptimiserCache(db));
         }
         return caches.get(db);
     }
@@ -59,19 +113,39 @@ public class OptimiserCache
      * to a Set of OptimiserCacheLine objects.
      */
     protected Map<String, Set<OptimiserCacheLine>> cacheLines;
+    /** The Database that this cache is stored in, or null if it is only held in memory */
+    protected Database database = null;
+    /** The version of the precomputed tables that new lines are optimised against */
+    protected String version = null;
+    private boolean initialised = false;
+    // The time each query was last looked up in the table, guarded by this
+    private Map<String, Long> lookedUp = new BoundedCacheMap<String, Long>(
+            "Optimiser cache lookups", LOAD_LIMIT);
 
     /**
      * Constructor for this object.
      */
     public OptimiserCache() {
-        cacheLines = new CacheMap<String, Set<OptimiserCacheLine>>();
+        cacheLines = new BoundedCacheMap<String, Set<OptimiserCacheLine>>("Optimiser cache",
+                MAX_LINESETS);
     }
 
     /**
-     * Removes all entries from the cache.
+     * Constructor for a cache that is stored in the given database.
+     *
+     * @param database a Database
+     */
+    protected OptimiserCache(Database database) {
+        this();
+        this.database = database;
+    }
+
+    /**
+     * Removes all entries from the cache in memory.
      */
     public synchronized void flush() {
         cacheLines.clear();
+        lookedUp.clear();
     }
 
     /**
@@ -81,13 +155,60 @@ public class OptimiserCache
      * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
      * @param limit the limit that was used during the optimisation
      */
-    public synchronized void addCacheLine(String original, String optimised, int limit) {
-        if (original.toUpperCase().startsWith("EXPLAIN ")) {
-            original = original.substring(8);
-        }
+    public void addCacheLine(String original, String optimised, int limit) {
+        init();
         if (optimised.toUpperCase().startsWith("EXPLAIN ")) {
             optimised = optimised.substring(8);
         }
+        final String key = ExplainCache.normalise(original);
+        final String value = optimised;
+        final int qlimit = limit;
+        final String lineVersion;
+        synchronized (this) {
+            addLine(key, value, qlimit);
+            lineVersion = version;
+        }
+        if (lineVersion != null) {
+            write(new SqlTask() {
+                public void run(Connection c) throws SQLException {
+                    // There is one line for each query, version and limit
+                    PreparedStatement ps = c.prepareStatement("UPDATE " + TABLE_NAME
+                            + " SET original = ?, optimised = ?, created = ?"
+                            + " WHERE key = ? AND version = ? AND qlimit = ?");
+                    int updated;
+                    try {
+                        ps.setString(1, key);
+                        ps.setString(2, value);
+                        ps.setLong(3, System.currentTimeMillis());
+                        ps.setString(4, hash(key));
+                        ps.setString(5, lineVersion);
+                        ps.setInt(6, qlimit);
+                        updated = ps.executeUpdate();
+                    } finally {
+                        ps.close();
+                    }
+                    if (updated == 0) {
+                        ps = c.prepareStatement("INSERT INTO " + TABLE_NAME
+                                + " (key, version, original, optimised, qlimit, created)"
+                                + " VALUES (?, ?, ?, ?, ?, ?)");
+                        try {
+                            ps.setString(1, hash(key));
+                            ps.setString(2, lineVersion);
+                            ps.setString(3, key);
+                            ps.setString(4, value);
+                            ps.setInt(5, qlimit);
+                            ps.setLong(6, System.currentTimeMillis());
+                            ps.execute();
+                        } finally {
+                            ps.close();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void addLine(String original, String optimised, int limit) {
         Set<OptimiserCacheLine> lines = cacheLines.get(original);
         if (lines == null) {
             lines = new HashSet<OptimiserCacheLine>();
@@ -106,18 +227,28 @@ public class OptimiserCache
      * @param limit the limit required
      * @return a possible optimised SQL string (minus LIMIT and OFFSET)
      */
-    public synchronized String lookup(String original, int limit) {
-        //LOG.debug("Looking up query \"" + original + "\" with limit " + limit
-        //        + " and offset " + offset + " - ");
+    public String lookup(String original, int limit) {
+        init();
         boolean originalWasExplain = false;
         if (original.toUpperCase().startsWith("EXPLAIN ")) {
-            original = original.substring(8);
             originalWasExplain = true;
         }
+        String key = ExplainCache.normalise(original);
+        checkVersion();
+        String retval = lookupLine(key, limit);
+        if ((retval == null) && (getVersion() != null) && shouldLookUp(key)) {
+            retval = lookupStored(key, limit);
+        }
+        if (retval == null) {
+            return null;
+        }
+        return (originalWasExplain ? "EXPLAIN " : "") + retval;
+    }
+
+    private synchronized String lookupLine(String original, int limit) {
         Set<OptimiserCacheLine> lines = cacheLines.get(original);
         if (lines == null) {
             // Couldn't find anything.
-            //LOG.debug("Complete cache miss");
             return null;
         }
         double bestScore = Double.POSITIVE_INFINITY;
@@ -130,10 +261,337 @@ public class OptimiserCache
             }
         }
         if (bestScore > 1.0) {
-            //LOG.debug("Cache didn't have anything near enough");
+            // Cache didn't have anything near enough
             return null;
         }
-        //LOG.debug("Cache hit");
-        return (originalWasExplain ? "EXPLAIN " : "") + bestLine.getOptimised();
+        return bestLine.getOptimised();
+    }
+
+    /**
+     * Returns true if a query has not been looked up in the table recently, and records that it
+     * is being looked up now.
+     */
+    private synchronized boolean shouldLookUp(String original) {
+        long now = System.currentTimeMillis();
+        Long last = lookedUp.get(original);
+        if ((last != null) && (now - last.longValue() < LOOKUP_INTERVAL)) {
+            return false;
+        }
+        lookedUp.put(original, new Long(now));
+        return true;
+    }
+
+    /**
+     * Drops the lines in memory if the set of precomputed tables has changed without this cache
+     * being told, so that lines optimised against the old set are not used.
+     */
+    private void checkVersion() {
+        String lineVersion = getVersion();
+        if (lineVersion == null) {
+            return;
+        }
+        String currentVersion;
+        try {
+            currentVersion = PrecomputedTableManager.getInstance(database).getVersion();
+        } catch (SQLException e) {
+            LOG.warn("Could not read the version of the precomputed tables", e);
+            return;
+        }
+        synchronized (this) {
+            if ((version != null) && !version.equals(currentVersion)) {
+                LOG.info("Precomputed tables have changed from version " + version + " to "
+                        + currentVersion + ", dropping optimised queries in memory");
+                flush();
+                version = currentVersion;
+            }
+        }
+    }
+
+    /**
+     * Looks for lines in the table that another process, or this one before a restart, has
+     * stored, and adds them to the cache in memory.
+     */
+    private String lookupStored(String original, int limit) {
+        String lineVersion = getVersion();
+        Connection c = null;
+        PreparedStatement ps = null;
+        try {
+            c = database.getConnection();
+            ps = c.prepareStatement("SELECT original, optimised, qlimit FROM "
+                    + TABLE_NAME + " WHERE key = ? AND version = ?");
+            ps.setString(1, hash(original));
+            ps.setString(2, lineVersion);
+            ResultSet r = ps.executeQuery();
+            boolean found = false;
+            synchronized (this) {
+                // Lines of a version that has since been replaced are not kept
+                if (lineVersion.equals(version)) {
+                    while (r.next()) {
+                        if (original.equals(r.getString(1))) {
+                            addLine(original, r.getString(2), r.getInt(3));
+                            found = true;
+                        }
+                    }
+                }
+            }
+            return found ? lookupLine(original, limit) : null;
+        } catch (SQLException e) {
+            LOG.warn("Could not read from " + TABLE_NAME + ", caching optimised queries in"
+                    + " memory only", e);
+            disable();
+            return null;
+        } finally {
+            if (ps != null) {
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                    // Ignore
+                }
+            }
+            close(c);
+        }
+    }
+
+    /**
+     * Removes the lines that use a precomputed table that is being dropped.
+     *
+     * @param name the name of the precomputed table
+     */
+    public void tableDropped(final String name) {
+        init();
+        final Pattern pattern = wordPattern(name);
+        synchronized (this) {
+            for (String original : new ArrayList<String>(cacheLines.keySet())) {
+                Set<OptimiserCacheLine> lines = cacheLines.get(original);
+                if (lines != null) {
+                    Iterator<OptimiserCacheLine> lineIter = lines.iterator();
+                    while (lineIter.hasNext()) {
+                        if (pattern.matcher(lineIter.next().getOptimised()).find()) {
+                            lineIter.remove();
+                        }
+                    }
+                    if (lines.isEmpty()) {
+                        cacheLines.remove(original);
+                    }
+                }
+            }
+        }
+        if (getVersion() != null) {
+            write(new SqlTask() {
+                public void run(Connection c) throws SQLException {
+                    // Lines of every version are removed, as the table is gone for everyone
+                    PreparedStatement ps = c.prepareStatement("DELETE FROM " + TABLE_NAME
+                            + " WHERE optimised ~* ?");
+                    ps.setString(1, "\\m" + name + "\\M");
+                    ps.execute();
+                    ps.close();
+                }
+            });
+        }
+    }
+
+    /**
+     * Removes the lines for queries that may be optimised better using a new precomputed table,
+     * which are those that use all of the tables that the precomputed table is made from.
+     *
+     * @param pt the new PrecomputedTable
+     */
+    public void tableAdded(PrecomputedTable pt) {
+        init();
+        final List<String> tables = new ArrayList<String>();
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (AbstractTable table : pt.getQuery().getFrom()) {
+            if (table instanceof Table) {
+                tables.add(((Table) table).getName());
+                patterns.add(wordPattern(((Table) table).getName()));
+            }
+        }
+        synchronized (this) {
+            for (String original : new ArrayList<String>(cacheLines.keySet())) {
+                boolean all = true;
+                for (Pattern pattern : patterns) {
+                    all = all && pattern.matcher(original).find();
+                }
+                if (all) {
+                    cacheLines.remove(original);
+                }
+            }
+        }
+        final String lineVersion = getVersion();
+        if (lineVersion != null) {
+            write(new SqlTask() {
+                public void run(Connection c) throws SQLException {
+                    StringBuilder sql = new StringBuilder("DELETE FROM " + TABLE_NAME
+                            + " WHERE version = ?");
+                    for (int i = 0; i < tables.size(); i++) {
+                        sql.append(" AND original ~* ?");
+                    }
+                    PreparedStatement ps = c.prepareStatement(sql.toString());
+                    ps.setString(1, lineVersion);
+                    for (int i = 0; i < tables.size(); i++) {
+                        ps.setString(i + 2, "\\m" + tables.get(i) + "\\M");
+                    }
+                    ps.execute();
+                    ps.close();
+                }
+            });
+        }
+    }
+
+    /**
+     * Moves the cache to a new version of the set of precomputed tables. This should be called
+     * after tableAdded() or tableDropped() have removed the lines that are no longer valid, so that
+     * the rest of the lines are kept.
+     *
+     * @param oldVersion the version before the change
+     * @param newVersion the version after the change
+     */
+    public void tablesChanged(final String oldVersion, final String newVersion) {
+        init();
+        synchronized (this) {
+            if (version == null) {
+                return;
+            }
+            version = newVersion;
+        }
+        write(new SqlTask() {
+            public void run(Connection c) throws SQLException {
+                PreparedStatement ps = c.prepareStatement("UPDATE " + TABLE_NAME
+                        + " SET version = ? WHERE version = ?");
+                ps.setString(1, newVersion);
+                ps.setString(2, oldVersion);
+                ps.execute();
+                ps.close();
+            }
+        });
+    }
+
+    private synchronized String getVersion() {
+        return version;
+    }
+
+    private synchronized void disable() {
+        version = null;
+    }
+
+    /**
+     * Creates the table if necessary, and loads the most recent lines for the current version of
+     * the precomputed tables.
+     */
+    private void init() {
+        synchronized (this) {
+            if (initialised) {
+                return;
+            }
+            initialised = true;
+        }
+        if (database == null) {
+            return;
+        }
+        Connection c = null;
+        try {
+            String currentVersion = PrecomputedTableManager.getInstance(database).getVersion();
+            long start = System.currentTimeMillis();
+            c = database.getConnection();
+            c.setAutoCommit(true);
+            if (!DatabaseUtil.tableExists(c, TABLE_NAME)) {
+                Statement s = c.createStatement();
+                s.execute("CREATE TABLE " + TABLE_NAME + " (key text, version text, original text,"
+                        + " optimised text, qlimit integer, created bigint)");
+                s.execute("CREATE INDEX " + TABLE_NAME + "_key ON " + TABLE_NAME + " (key)");
+                s.close();
+            }
+            PreparedStatement ps = c.prepareStatement("DELETE FROM " + TABLE_NAME
+                    + " WHERE created < ?");
+            ps.setLong(1, System.currentTimeMillis() - MAX_AGE);
+            ps.execute();
+            ps.close();
+            ps = c.prepareStatement("SELECT original, optimised, qlimit FROM " + TABLE_NAME
+                    + " WHERE version = ? ORDER BY created DESC LIMIT " + LOAD_LIMIT);
+            ps.setString(1, currentVersion);
+            ResultSet r = ps.executeQuery();
+            int count = 0;
+            synchronized (this) {
+                while (r.next()) {
+                    addLine(r.getString(1), r.getString(2), r.getInt(3));
+                    count++;
+                }
+                version = currentVersion;
+            }
+            ps.close();
+            LOG.info("Loaded " + count + " optimised queries from " + TABLE_NAME + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (SQLException e) {
+            LOG.warn("Could not load " + TABLE_NAME + ", caching optimised queries in memory"
+                    + " only", e);
+        } finally {
+            close(c);
+        }
+    }
+
+    private void write(final SqlTask task) {
+        WRITER.execute(new Runnable() {
+            public void run() {
+                if (getVersion() == null) {
+                    return;
+                }
+                Connection c = null;
+                try {
+                    c = database.getConnection();
+                    c.setAutoCommit(true);
+                    task.run(c);
+                } catch (SQLException e) {
+                    LOG.warn("Could not write to " + TABLE_NAME + ", caching optimised queries in"
+                            + " memory only", e);
+                    disable();
+                } finally {
+                    close(c);
+                }
+            }
+        });
+    }
+
+    private static void close(Connection c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (SQLException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static Pattern wordPattern(String word) {
+        return Pattern.compile("\\b" + Pattern.quote(word) + "\\b", Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Returns a hex MD5 digest of a String, used to index query strings that may be too long to
+     * index directly.
+     *
+     * @param s a String
+     * @return a String of 32 hex digits
+     */
+    protected static String hash(String s) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        StringBuilder retval = new StringBuilder();
+        for (byte b : md.digest(s.getBytes())) {
+            retval.append(Character.forDigit((b >> 4) & 15, 16));
+            retval.append(Character.forDigit(b & 15, 16));
+        }
+        return retval.toString();
+    }
+
+    /**
+     * An operation on the table, run by the writer thread.
+     */
+    private interface SqlTask
+    {
+        void run(Connection c) throws SQLException;
     }
 }
@@ -52,6 +52,7 @@ public class PrecomputedTableManager
         = new HashMap<String, Map<String, PrecomputedTable>>();
     protected Database database;
     protected Connection conn;
+    protected String version;
     protected static final String TABLE_INDEX = "precompute_index";
     protected static Map<Object, PrecomputedTableManager> instances
         = new HashMap<Object, PrecomputedTableManager>();
@@ -176,6 +177,8 @@ public class PrecomputedTableManager
             addTableToDatabase(pt, indexes, true);
             precomputedTables.add(pt);
             queryStrings.put(queryString, pt);
+            OptimiserCache.getInstance(database).tableAdded(pt);
+            tablesChanged();
         }
     }
 
@@ -193,6 +196,7 @@ public class PrecomputedTableManager
         }
 
         types.clear();
+        tablesChanged();
     }
 
     /**
@@ -224,6 +228,7 @@ public class PrecomputedTableManager
                 queryStrings.remove(queryString);
             }
         }
+        tablesChanged();
     }
 
     /**
@@ -247,6 +252,7 @@ public class PrecomputedTableManager
         String queryString = pt.getOriginalSql();
         Map<String, PrecomputedTable> queryStrings = types.get(pt.getCategory());
         queryStrings.remove(queryString);
+        tablesChanged();
     }
 
     /**
@@ -258,6 +264,40 @@ public class PrecomputedTableManager
         return precomputedTables;
     }
 
+    /**
+     * Returns a String that identifies the current set of precomputed tables, including their
+     * definitions. It changes whenever a precomputed table is added or deleted, and is the same in
+     * every process that sees the same set of tables.
+     *
+     * @return a String
+     */
+    public synchronized String getVersion() {
+        if (version == null) {
+            StringBuilder tables = new StringBuilder();
+            for (PrecomputedTable pt : new TreeSet<PrecomputedTable>(precomputedTables)) {
+                tables.append(pt.getName()).append("\n").append(pt.getOriginalSql()).append("\n");
+            }
+            version = OptimiserCache.hash(tables.toString());
+        }
+        return version;
+    }
+
+    /**
+     * Moves the OptimiserCache on to the new version of the set of precomputed tables, once the
+     * lines that are no longer valid have been removed from it.
+     */
+    private void tablesChanged() {
+        String oldVersion;
+        synchronized (this) {
+            oldVersion = getVersion();
+            version = null;
+        }
+        String newVersion = getVersion();
+        if (!newVersion.equals(oldVersion)) {
+            OptimiserCache.getInstance(database).tablesChanged(oldVersion, newVersion);
+        }
+    }
+
     /**
      * Add a PrecomputedTable to the database.
      *
@@ -381,8 +421,14 @@ public class PrecomputedTableManager
      * @throws SQLException if an error occurs in the underlying database
      */
     public void deleteTableFromDatabase(String name) throws SQLException {
-        OptimiserCache oc = OptimiserCache.getInstance(database);
-        oc.flush();
+        for (PrecomputedTable pt : precomputedTables) {
+            // Other tables, like the temporary ones for goFaster, are never in the OptimiserCache
+            if (pt.getName().equals(name)) {
+                OptimiserCache.getInstance(database).tableDropped(name);
+                break;
+            }
+        }
+        ExplainCache.getInstance(database).flush();
         Connection con = null;
         try {
             con = (conn == null ? database.getConnection() : conn);
@@ -43,6 +43,7 @@ import org.intermine.sql.query.NotConstraint;
 import org.intermine.sql.query.OrderDescending;
 import org.intermine.sql.query.Query;
 import org.intermine.sql.query.QueryParseTimeoutException;
+import org.intermine.sql.query.QueryShapeCache;
 import org.intermine.sql.query.SelectValue;
 import org.intermine.sql.query.SubQuery;
 import org.intermine.sql.query.SubQueryConstraint;
@@ -68,6 +69,8 @@ public final class QueryOptimiser
 
     private static final String ALIAS_PREFIX = "P";
     private static int callCount = 0;
+    private static final QueryShapeCache PARSE_CACHE
+        = new QueryShapeCache(QueryShapeCache.DEFAULT_MAX_SIZE);
 
     /**
      * Runs the optimiser through the query represented in the String, given the database. If
@@ -187,7 +190,8 @@ public final class QueryOptimiser
         Query optimiseQuery = originalQuery;
         callCount++;
         if (callCount % REPORT_INTERVAL == 0) {
-            LOG.info("Optimiser called " + callCount + " times");
+            LOG.info("Optimiser called " + callCount + " times, parse cache hits: "
+                    + PARSE_CACHE.getHits() + ", misses: " + PARSE_CACHE.getMisses());
         }
         long start = new Date().getTime();
         long parseTime = 0;
@@ -200,7 +204,6 @@ public final class QueryOptimiser
             cachedQuery = cache.lookup(limitOffsetQuery.getQuery(), limitOffsetQuery.getLimit());
         }
 
-        // TODO: fix so that the OptimiserCache is updated when precomputed tables are deleted
         if (cachedQuery != null) {
             LOG.debug("Optimising query took " + ((new Date()).getTime() - start)
                     + " ms - cache hit: " + query);
@@ -222,6 +225,9 @@ public final class QueryOptimiser
                 bestQuery = new BestQueryLogger(true);
             } else if (context.getMode() == QueryOptimiserContext.MODE_VERBOSE_SUMMARY) {
                 bestQuery = new BestQueryLogger(false);
+            } else if (context.getExplainThreads() > 1) {
+                bestQuery = new BestQueryParallelExplainer(explainConnection, database,
+                        context.getExplainThreads(), context.getTimeLimit());
             } else {
                 bestQuery = new BestQueryExplainer(explainConnection, context.getTimeLimit());
             }
@@ -233,7 +239,7 @@ public final class QueryOptimiser
                 // to say optimisation is not worth it, before parsing.
                 bestQuery.add(query);
                 if (originalQuery == null) {
-                    originalQuery = new Query(query, context.getMaxQueryParseTime());
+                    originalQuery = PARSE_CACHE.parse(query, context.getMaxQueryParseTime());
                 }
                 parseTime = new Date().getTime();
                 recursiveOptimiseCheckSubquery(precomputedTables, originalQuery, bestQuery);
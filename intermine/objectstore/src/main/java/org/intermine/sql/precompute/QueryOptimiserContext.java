@@ -33,6 +33,9 @@ public class QueryOptimiserContext
     // to a Query object in milliseconds. It can be overwritten by the property:
     // os.query.max-query-parse-time=200
     private long maxQueryParseTime = 100;
+    // The number of candidate queries to EXPLAIN at once, each on its own connection. It can be
+    // overwritten by the property: os.query.explain-threads=4
+    private int explainThreads = 1;
 
 
     /**
@@ -113,6 +116,30 @@ public class QueryOptimiserContext
         this.maxQueryParseTime = maxQueryParseTime;
     }
 
+    /**
+     * Returns the number of candidate queries the optimiser should EXPLAIN at once.
+     *
+     * @return the number of explain threads, 1 meaning that candidates are explained one at a
+     * time on the connection of the caller
+     */
+    public int getExplainThreads() {
+        return explainThreads;
+    }
+
+    /**
+     * Sets the number of candidate queries the optimiser should EXPLAIN at once, each on its own
+     * connection from the database pool.
+     *
+     * @param explainThreads the number of explain threads
+     */
+    public void setExplainThreads(int explainThreads) {
+        if (explainThreads < 1) {
+            throw new IllegalArgumentException("Invalid number of explain threads "
+                    + explainThreads);
+        }
+        this.explainThreads = explainThreads;
+    }
+
     /**
      * The default context - normal operation with no time limit.
      */
@@ -138,5 +165,11 @@ public class QueryOptimiserContext
         public long getTimeLimit() {
             return -1;
         }
+
+        @Override
+        public void setExplainThreads(@SuppressWarnings("unused") int explainThreads) {
+            throw new IllegalStateException("This is the default QueryOptimiserContext - it cannot"
+                    + " be altered");
+        }
     };
 }
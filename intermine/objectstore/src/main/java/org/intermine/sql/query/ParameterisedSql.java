@@ -0,0 +1,289 @@
+package org.intermine.sql.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A SQL string with the literal values in its WHERE and HAVING clauses taken out and replaced
+ * by JDBC parameters.  These are the values of the constraints of the original query, so queries
+ * made from the same template have the same parameterised SQL, and can share a PreparedStatement
+ * and the plan that the database server makes for it.
+ *
+ * Each value is bound with the type that the database would have given the literal, so that
+ * the parameterised query means the same as the original.  Numbers are bound as integers or
+ * numerics, and strings are bound with no type, as quoted literals are.
+ */
+public final class ParameterisedSql
+{
+    /** Queries with more values than this are not parameterised, as they are likely to be large
+     * bag constraints, which would make a different SQL string for every bag size anyway */
+    public static final int MAX_PARAMETERS = 500;
+
+    private final String sql;
+    private final List<Object> values;
+
+    private ParameterisedSql(String sql, List<Object> values) {
+        this.sql = sql;
+        this.values = Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Returns the SQL string, with a ? in place of each value.
+     *
+     * @return a String
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns the values taken out of the SQL, in order.  Each is a String, Integer, Long,
+     * Float or BigDecimal.
+     *
+     * @return a List of values
+     */
+    public List<Object> getValues() {
+        return values;
+    }
+
+    /**
+     * Sets the parameters of a PreparedStatement made from getSql() to the values, and executes
+     * it.
+     *
+     * @param ps a PreparedStatement for the SQL of this object
+     * @return the ResultSet
+     * @throws SQLException if the database reports an error
+     */
+    public ResultSet executeQuery(PreparedStatement ps) throws SQLException {
+        int index = 1;
+        for (Object value : values) {
+            if (value instanceof String) {
+                // Leave the type to the database, as for a quoted literal
+                ps.setObject(index, value, Types.OTHER);
+            } else {
+                ps.setObject(index, value);
+            }
+            index++;
+        }
+        return ps.executeQuery();
+    }
+
+    /**
+     * Takes the values out of a SQL string, following the rules of the lexer in intermine_sql.g.
+     * Only literals in WHERE and HAVING clauses are taken out.  Negative numbers, which the
+     * lexer joins to a preceding minus sign, are left in the SQL.
+     *
+     * @param in a SQL string
+     * @return a ParameterisedSql, or null if the SQL has no values to take out, has too many, or
+     * could not be split
+     */
+    public static ParameterisedSql of(String in) {
+        List<Object> values = new ArrayList<Object>();
+        StringBuilder out = new StringBuilder();
+        // The clause being read at each level of brackets
+        List<String> clauses = new ArrayList<String>();
+        String clause = null;
+        int pos = 0;
+        while (pos < in.length()) {
+            char c = Character.toLowerCase(in.charAt(pos));
+            boolean parameter = "where".equals(clause) || "having".equals(clause);
+            int end;
+            if ((c >= 'a') && (c <= 'z')) {
+                end = pos + 1;
+                while ((end < in.length()) && isIdentifierPart(in.charAt(end))) {
+                    end++;
+                }
+                if ((end == pos + 1) && (c == 'e') && (end < in.length())
+                        && (in.charAt(end) == '\'')) {
+                    end = endOfString(in, end, true);
+                    if (end == -1) {
+                        return null;
+                    }
+                    String value = parameter ? unescape(in.substring(pos + 2, end - 1)) : null;
+                    if (value == null) {
+                        out.append(in, pos, end);
+                    } else {
+                        addValue(value, out, values);
+                    }
+                } else {
+                    String word = in.substring(pos, end).toLowerCase();
+                    if ("select".equals(word) || "from".equals(word) || "where".equals(word)
+                            || "group".equals(word) || "having".equals(word)
+                            || "order".equals(word) || "limit".equals(word)
+                            || "offset".equals(word) || "union".equals(word)) {
+                        clause = word;
+                    }
+                    out.append(in, pos, end);
+                }
+            } else if (c == '\'') {
+                end = endOfString(in, pos, false);
+                if (end == -1) {
+                    return null;
+                }
+                if (parameter) {
+                    addValue(in.substring(pos + 1, end - 1).replace("''", "'"), out, values);
+                } else {
+                    out.append(in, pos, end);
+                }
+            } else if (c == '"') {
+                end = in.indexOf('"', pos + 1) + 1;
+                if (end == 0) {
+                    return null;
+                }
+                out.append(in, pos, end);
+            } else if ((c >= '0') && (c <= '9')) {
+                end = endOfNumber(in, pos);
+                Object value = null;
+                if (parameter && ((pos == 0) || (in.charAt(pos - 1) != '-'))) {
+                    value = parseNumber(in.substring(pos, end));
+                }
+                if (value == null) {
+                    out.append(in, pos, end);
+                } else {
+                    addValue(value, out, values);
+                }
+            } else {
+                if (c == '(') {
+                    clauses.add(clause);
+                } else if ((c == ')') && (!clauses.isEmpty())) {
+                    clause = clauses.remove(clauses.size() - 1);
+                }
+                end = pos + 1;
+                out.append(in.charAt(pos));
+            }
+            pos = end;
+        }
+        if (values.isEmpty() || (values.size() > MAX_PARAMETERS)) {
+            return null;
+        }
+        return new ParameterisedSql(out.toString(), values);
+    }
+
+    private static void addValue(Object value, StringBuilder out, List<Object> values) {
+        out.append('?');
+        values.add(value);
+    }
+
+    /**
+     * Reads the body of an E'' string, as written by DatabaseUtil.objectToString().
+     *
+     * @return the value, or null if it uses escapes other than \\ and \'
+     */
+    private static String unescape(String body) {
+        StringBuilder retval = new StringBuilder();
+        int pos = 0;
+        while (pos < body.length()) {
+            char c = body.charAt(pos);
+            if (c == '\\') {
+                char next = body.charAt(pos + 1);
+                if ((next != '\\') && (next != '\'')) {
+                    return null;
+                }
+                retval.append(next);
+                pos += 2;
+            } else {
+                retval.append(c);
+                pos++;
+            }
+        }
+        return retval.toString();
+    }
+
+    /**
+     * Converts a number literal to the type that the database gives it.
+     *
+     * @return an Integer, Long, Float or BigDecimal, or null if it could not be read
+     */
+    private static Object parseNumber(String number) {
+        try {
+            if (number.regionMatches(true, number.length() - 6, "::real", 0, 6)) {
+                return Float.valueOf(number.substring(0, number.length() - 6));
+            } else if (number.indexOf('.') != -1) {
+                return new BigDecimal(number);
+            }
+            long value = Long.parseLong(number);
+            if ((value >= Integer.MIN_VALUE) && (value <= Integer.MAX_VALUE)) {
+                return Integer.valueOf((int) value);
+            }
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            // Too big for a long
+            try {
+                return new BigDecimal(number);
+            } catch (NumberFormatException e2) {
+                return null;
+            }
+        }
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        char lc = Character.toLowerCase(c);
+        return ((lc >= 'a') && (lc <= 'z')) || ((lc >= '0') && (lc <= '9')) || (lc == '_')
+            || (lc == '$') || (lc == '#');
+    }
+
+    private static int endOfString(String in, int quote, boolean escaped) {
+        int pos = quote + 1;
+        while (pos < in.length()) {
+            char c = in.charAt(pos);
+            if (escaped && (c == '\\')) {
+                pos += 2;
+            } else if (c == '\'') {
+                if (!escaped && (pos + 1 < in.length()) && (in.charAt(pos + 1) == '\'')) {
+                    pos += 2;
+                } else {
+                    return pos + 1;
+                }
+            } else {
+                pos++;
+            }
+        }
+        return -1;
+    }
+
+    private static int endOfNumber(String in, int start) {
+        int pos = skipDigits(in, start);
+        if ((pos + 1 < in.length()) && (in.charAt(pos) == '.')
+                && Character.isDigit(in.charAt(pos + 1))) {
+            pos = skipDigits(in, pos + 1);
+            if ((pos < in.length()) && (Character.toLowerCase(in.charAt(pos)) == 'e')) {
+                int exponent = pos + 1;
+                if ((exponent < in.length())
+                        && ((in.charAt(exponent) == '-') || (in.charAt(exponent) == '+'))) {
+                    exponent++;
+                }
+                if ((exponent < in.length()) && Character.isDigit(in.charAt(exponent))) {
+                    pos = skipDigits(in, exponent);
+                }
+            }
+            if (in.regionMatches(true, pos, "::real", 0, 6)) {
+                pos += 6;
+            }
+        }
+        return pos;
+    }
+
+    private static int skipDigits(String in, int start) {
+        int pos = start;
+        while ((pos < in.length()) && Character.isDigit(in.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+}
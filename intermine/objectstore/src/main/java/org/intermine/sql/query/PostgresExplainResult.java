@@ -67,15 +67,37 @@ public class PostgresExplainResult extends ExplainResult
         }
 
         Statement s = database.createStatement();
-        if (!query.toUpperCase().startsWith("EXPLAIN ")) {
-            query = "explain " + query;
+        explain(query, s);
+        s.close();
+    }
+
+    /**
+     * Constructs an instance of PostgresExplainResult for a given Query String, running the
+     * EXPLAIN on a Statement supplied by the caller, which may cancel it from another thread.
+     * The Statement is not closed.
+     *
+     * @param query the String query to be explained
+     * @param s the Statement to run the EXPLAIN with
+     * @throws SQLException if a database error occurs, or the EXPLAIN is cancelled
+     * @throws NullPointerException if either query or s are null
+     */
+    public PostgresExplainResult(String query, Statement s) throws SQLException {
+        if ((query == null) || (s == null)) {
+            throw new NullPointerException("Arguments cannot be null");
+        }
+        explain(query, s);
+    }
+
+    private void explain(String query, Statement s) throws SQLException {
+        String explain = query;
+        if (!explain.toUpperCase().startsWith("EXPLAIN ")) {
+            explain = "explain " + explain;
         }
         try {
-            s.execute(query);
+            s.execute(explain);
             retrieveExplainString(s);
-            s.close();
         } catch (SQLException e) {
-            SQLException e2 = new SQLException("Error running query \"" + query + "\"");
+            SQLException e2 = new SQLException("Error running query \"" + explain + "\"");
             e2.initCause(e);
             throw e2;
         }
@@ -0,0 +1,472 @@
+package org.intermine.sql.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses SQL strings into Query objects, remembering the parse of each query shape.  The shape
+ * of a query is its SQL with every literal value replaced by a placeholder, and with the LIMIT
+ * and OFFSET of the outermost query left out.  The SQL that SqlGenerator produces for one
+ * path query or template varies between runs only in these values, so the parse of the shape,
+ * which is the expensive part, can be done once, and each later query with the same shape is
+ * built by copying the parsed shape and putting its own values back in.
+ *
+ * The parsed shapes are never altered, so a Query returned by parse() belongs to the caller and
+ * may be altered freely, as the QueryOptimiser does.
+ */
+public class QueryShapeCache
+{
+    /** The default number of shapes to remember */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    /** Queries longer than this are parsed directly, so that huge shapes are not remembered */
+    public static final int MAX_SQL_LENGTH = 20000;
+
+    private final Map<String, Query> shapes;
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * Construct a new QueryShapeCache.
+     *
+     * @param maxSize the maximum number of shapes to remember
+     */
+    public QueryShapeCache(final int maxSize) {
+        shapes = new LinkedHashMap<String, Query>(16, 0.75F, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Parses a SQL string, in the same way as new Query(sql, timeOut).
+     *
+     * @param sql a SQL SELECT String to parse
+     * @param timeOut maximum time in milliseconds to spend parsing, can be null for no timeout
+     * @return a new Query
+     * @throws IllegalArgumentException if the SQL String is invalid
+     * @throws QueryParseTimeoutException if parsing took longer than timeOut
+     */
+    public Query parse(String sql, Long timeOut) {
+        Shape shape = (sql.length() > MAX_SQL_LENGTH) ? null : Shape.of(sql);
+        if (shape == null) {
+            return new Query(sql, timeOut);
+        }
+        Query parsed;
+        synchronized (shapes) {
+            parsed = shapes.get(shape.sql);
+            if (parsed == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        if (parsed == null) {
+            try {
+                parsed = new Query(shape.sql, timeOut);
+            } catch (IllegalArgumentException e) {
+                // The placeholders made the query unparseable - parse it the normal way, which
+                // will throw the proper exception if the original is invalid too
+                return new Query(sql, timeOut);
+            }
+            synchronized (shapes) {
+                shapes.put(shape.sql, parsed);
+            }
+        }
+        Query retval = new Copier(shape).copy(parsed);
+        return (retval == null) ? new Query(sql, timeOut) : retval;
+    }
+
+    /**
+     * Returns the number of shapes remembered.
+     *
+     * @return an int
+     */
+    public int size() {
+        synchronized (shapes) {
+            return shapes.size();
+        }
+    }
+
+    /**
+     * Forgets all the shapes.
+     */
+    public void clear() {
+        synchronized (shapes) {
+            shapes.clear();
+        }
+    }
+
+    /**
+     * Returns the number of parse() calls that found their shape already parsed.
+     *
+     * @return an int
+     */
+    public int getHits() {
+        synchronized (shapes) {
+            return hits;
+        }
+    }
+
+    /**
+     * Returns the number of parse() calls that had to parse their shape.
+     *
+     * @return an int
+     */
+    public int getMisses() {
+        synchronized (shapes) {
+            return misses;
+        }
+    }
+
+    /**
+     * The shape of a SQL string, with the literal values and outer LIMIT and OFFSET numbers that
+     * were taken out of it.
+     */
+    private static final class Shape
+    {
+        private String sql;
+        private List<String> literals = new ArrayList<String>();
+        private List<int[]> limits = new ArrayList<int[]>();
+
+        /**
+         * Splits a SQL string into its shape and values, following the rules of the lexer in
+         * intermine_sql.g.  Negative numbers, which the lexer joins to a preceding minus sign,
+         * and the LIMIT and OFFSET numbers of subqueries are left in the shape.
+         *
+         * @param in a SQL string
+         * @return a Shape, or null if the string could not be split
+         */
+        static Shape of(String in) {
+            Shape shape = new Shape();
+            StringBuilder out = new StringBuilder();
+            String lastWord = null;
+            int depth = 0;
+            int pos = 0;
+            while (pos < in.length()) {
+                char c = Character.toLowerCase(in.charAt(pos));
+                int end;
+                if ((c >= 'a') && (c <= 'z')) {
+                    end = pos + 1;
+                    while ((end < in.length()) && isIdentifierPart(in.charAt(end))) {
+                        end++;
+                    }
+                    if ((end == pos + 1) && (c == 'e') && (end < in.length())
+                            && (in.charAt(end) == '\'')) {
+                        end = endOfString(in, end, true);
+                        if (end == -1) {
+                            return null;
+                        }
+                        shape.addLiteral(in.substring(pos, end), out);
+                        lastWord = null;
+                    } else {
+                        lastWord = in.substring(pos, end);
+                        out.append(lastWord);
+                    }
+                } else if (c == '\'') {
+                    end = endOfString(in, pos, false);
+                    if (end == -1) {
+                        return null;
+                    }
+                    shape.addLiteral(in.substring(pos, end), out);
+                    lastWord = null;
+                } else if (c == '"') {
+                    end = in.indexOf('"', pos + 1) + 1;
+                    if (end == 0) {
+                        return null;
+                    }
+                    out.append(in, pos, end);
+                    lastWord = null;
+                } else if ((c >= '0') && (c <= '9')) {
+                    end = endOfNumber(in, pos);
+                    String number = in.substring(pos, end);
+                    if ((pos > 0) && (in.charAt(pos - 1) == '-')) {
+                        out.append(number);
+                    } else if ("limit".equalsIgnoreCase(lastWord)
+                            || "offset".equalsIgnoreCase(lastWord)) {
+                        if ((depth == 0) && shape.addLimit(lastWord, number)) {
+                            out.append('1');
+                        } else {
+                            out.append(number);
+                        }
+                    } else {
+                        shape.addLiteral(number, out);
+                    }
+                    lastWord = null;
+                } else {
+                    if (c == '(') {
+                        depth++;
+                    } else if (c == ')') {
+                        depth--;
+                    }
+                    end = pos + 1;
+                    out.append(in.charAt(pos));
+                    if (!Character.isWhitespace(c)) {
+                        lastWord = null;
+                    }
+                }
+                pos = end;
+            }
+            shape.sql = out.toString();
+            return shape;
+        }
+
+        private void addLiteral(String literal, StringBuilder out) {
+            out.append("'~").append(literals.size()).append('\'');
+            literals.add(literal);
+        }
+
+        private boolean addLimit(String keyword, String number) {
+            int value;
+            try {
+                value = Integer.parseInt(number);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if ("limit".equalsIgnoreCase(keyword)) {
+                limits.add(new int[] {value, 0});
+            } else if (limits.isEmpty()) {
+                return false;
+            } else {
+                limits.get(limits.size() - 1)[1] = value;
+            }
+            return true;
+        }
+
+        /**
+         * Returns the literal that a placeholder in the shape stands for.
+         *
+         * @param placeholder the text of a Constant in the parsed shape
+         * @return the original text, or the argument if it is not a placeholder
+         */
+        String getLiteral(String placeholder) {
+            if ((placeholder.length() > 3) && placeholder.startsWith("'~")
+                    && placeholder.endsWith("'")) {
+                try {
+                    return literals.get(Integer.parseInt(placeholder.substring(2,
+                                    placeholder.length() - 1)));
+                } catch (NumberFormatException e) {
+                    // Not a placeholder
+                } catch (IndexOutOfBoundsException e) {
+                    // Not a placeholder
+                }
+            }
+            return placeholder;
+        }
+
+        private static boolean isIdentifierPart(char c) {
+            char lc = Character.toLowerCase(c);
+            return ((lc >= 'a') && (lc <= 'z')) || ((lc >= '0') && (lc <= '9')) || (lc == '_')
+                || (lc == '$') || (lc == '#');
+        }
+
+        private static int endOfString(String in, int quote, boolean escaped) {
+            int pos = quote + 1;
+            while (pos < in.length()) {
+                char c = in.charAt(pos);
+                if (escaped && (c == '\\')) {
+                    pos += 2;
+                } else if (c == '\'') {
+                    if (!escaped && (pos + 1 < in.length()) && (in.charAt(pos + 1) == '\'')) {
+                        pos += 2;
+                    } else {
+                        return pos + 1;
+                    }
+                } else {
+                    pos++;
+                }
+            }
+            return -1;
+        }
+
+        private static int endOfNumber(String in, int start) {
+            int pos = skipDigits(in, start);
+            if ((pos + 1 < in.length()) && (in.charAt(pos) == '.')
+                    && Character.isDigit(in.charAt(pos + 1))) {
+                pos = skipDigits(in, pos + 1);
+                if ((pos < in.length()) && (Character.toLowerCase(in.charAt(pos)) == 'e')) {
+                    int exponent = pos + 1;
+                    if ((exponent < in.length())
+                            && ((in.charAt(exponent) == '-') || (in.charAt(exponent) == '+'))) {
+                        exponent++;
+                    }
+                    if ((exponent < in.length()) && Character.isDigit(in.charAt(exponent))) {
+                        pos = skipDigits(in, exponent);
+                    }
+                }
+                if (in.regionMatches(true, pos, "::real", 0, 6)) {
+                    pos += 6;
+                }
+            }
+            return pos;
+        }
+
+        private static int skipDigits(String in, int start) {
+            int pos = start;
+            while ((pos < in.length()) && Character.isDigit(in.charAt(pos))) {
+                pos++;
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * Copies a parsed shape, putting the values of one query back into it.
+     */
+    private static final class Copier
+    {
+        private final Shape shape;
+        private final Map<AbstractTable, AbstractTable> tables
+            = new IdentityHashMap<AbstractTable, AbstractTable>();
+        private int nextLimit = 0;
+
+        Copier(Shape shape) {
+            this.shape = shape;
+        }
+
+        /**
+         * Copies the parsed shape of the whole query.
+         *
+         * @param parsed the parsed shape
+         * @return a new Query, or null if the outer LIMIT and OFFSET could not be put back
+         */
+        Query copy(Query parsed) {
+            Query retval;
+            try {
+                retval = copyQuery(parsed, true);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            return (nextLimit == shape.limits.size()) ? retval : null;
+        }
+
+        private Query copyQuery(Query query, boolean outer) {
+            List<Query> union = new ArrayList<Query>();
+            Query retval = null;
+            for (Query member : query.queriesInUnion) {
+                Query copy = copyNoUnion(member);
+                if (outer && (member.limit != 0)) {
+                    if (nextLimit >= shape.limits.size()) {
+                        throw new IllegalArgumentException("More LIMIT clauses than expected");
+                    }
+                    int[] limitOffset = shape.limits.get(nextLimit++);
+                    copy.limit = limitOffset[0];
+                    copy.offset = limitOffset[1];
+                }
+                copy.queriesInUnion = union;
+                union.add(copy);
+                if (member == query) {
+                    retval = copy;
+                }
+            }
+            return retval;
+        }
+
+        private Query copyNoUnion(Query query) {
+            Query copy = new Query();
+            for (AbstractTable table : query.from) {
+                copy.from.add(copyTable(table));
+            }
+            for (SelectValue selectValue : query.select) {
+                copy.select.add(new SelectValue(copyValue(selectValue.getValue()),
+                            selectValue.getAlias()));
+            }
+            for (AbstractConstraint constraint : query.where) {
+                copy.where.add(copyConstraint(constraint));
+            }
+            for (AbstractValue value : query.groupBy) {
+                copy.groupBy.add(copyValue(value));
+            }
+            for (AbstractConstraint constraint : query.having) {
+                copy.having.add(copyConstraint(constraint));
+            }
+            for (AbstractValue value : query.orderBy) {
+                copy.orderBy.add(copyValue(value));
+            }
+            copy.limit = query.limit;
+            copy.offset = query.offset;
+            copy.explain = query.explain;
+            copy.distinct = query.distinct;
+            return copy;
+        }
+
+        private AbstractTable copyTable(AbstractTable table) {
+            AbstractTable copy = tables.get(table);
+            if (copy == null) {
+                if (table instanceof Table) {
+                    copy = new Table(((Table) table).getName(), table.getAlias());
+                } else if (table instanceof SubQuery) {
+                    copy = new SubQuery(copyQuery(((SubQuery) table).getQuery(), false),
+                            table.getAlias());
+                } else {
+                    throw new IllegalArgumentException("Unknown table type " + table);
+                }
+                tables.put(table, copy);
+            }
+            return copy;
+        }
+
+        private AbstractValue copyValue(AbstractValue value) {
+            if (value instanceof Constant) {
+                return new Constant(shape.getLiteral(((Constant) value).value));
+            } else if (value instanceof Field) {
+                Field field = (Field) value;
+                return new Field(field.getName(), copyTable(field.getTable()));
+            } else if (value instanceof Function) {
+                Function function = (Function) value;
+                Function copy = new Function(function.getOperation());
+                for (AbstractValue operand : function.getOperands()) {
+                    copy.add(copyValue(operand));
+                }
+                return copy;
+            } else if (value instanceof OrderDescending) {
+                return new OrderDescending(copyValue(((OrderDescending) value).getValue()));
+            }
+            throw new IllegalArgumentException("Unknown value type " + value);
+        }
+
+        private AbstractConstraint copyConstraint(AbstractConstraint constraint) {
+            if (constraint instanceof Constraint) {
+                Constraint c = (Constraint) constraint;
+                return new Constraint(copyValue(c.getLeft()), c.getOperation(),
+                        copyValue(c.getRight()));
+            } else if (constraint instanceof ConstraintSet) {
+                ConstraintSet copy = new ConstraintSet();
+                for (AbstractConstraint member : ((ConstraintSet) constraint).getConstraints()) {
+                    copy.add(copyConstraint(member));
+                }
+                return copy;
+            } else if (constraint instanceof NotConstraint) {
+                return new NotConstraint(copyConstraint(((NotConstraint) constraint)
+                            .getConstraint()));
+            } else if (constraint instanceof SubQueryConstraint) {
+                SubQueryConstraint c = (SubQueryConstraint) constraint;
+                return new SubQueryConstraint(copyValue(c.left), copyQuery(c.right, false));
+            } else if (constraint instanceof InListConstraint) {
+                InListConstraint c = (InListConstraint) constraint;
+                InListConstraint copy = new InListConstraint(copyValue(c.getLeft()));
+                for (Constant constant : c.getRight()) {
+                    copy.add((Constant) copyValue(constant));
+                }
+                return copy;
+            }
+            throw new IllegalArgumentException("Unknown constraint type " + constraint);
+        }
+    }
+}
@@ -18,9 +18,11 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.LogManager;
@@ -40,6 +42,8 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
     protected static final BigInteger HUNDRED = new BigInteger("100");
     protected static final BigInteger THOUSAND = new BigInteger("1000");
     protected static final BigInteger TEN_THOUSAND = new BigInteger("10000");
+    // 2000-01-01 00:00:00 UTC, the epoch of PostgreSQL binary timestamps
+    private static final long POSTGRES_EPOCH_MILLIS = 946684800000L;
 
     /**
      * {@inheritDoc}
@@ -188,6 +192,14 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
             //    log.append(" " + digit);
             }
             //LOG.error(log.toString());
+        } else if (o instanceof Timestamp) {
+            // timestamp without time zone: microseconds of local time since the epoch, as
+            // setTimestamp() would store it
+            Timestamp ts = (Timestamp) o;
+            long localMillis = ts.getTime() + TimeZone.getDefault().getOffset(ts.getTime());
+            dos.writeInt(8);
+            dos.writeLong((localMillis - POSTGRES_EPOCH_MILLIS) * 1000
+                    + (ts.getNanos() / 1000) % 1000);
         } else {
             throw new IllegalArgumentException("Cannot store values of type " + o.getClass());
         }
@@ -0,0 +1,144 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.PrecomputedTableAdvisor;
+
+/**
+ * A Task that reads the query log table of an ObjectStoreInterMineImpl and uses a
+ * PrecomputedTableAdvisor to create, refresh and drop precomputed tables for the joins that the
+ * logged queries have in common.
+ */
+public class PrecomputeAdvisorTask extends Task
+{
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    protected String objectStoreAlias;
+    protected String logTable;
+    protected long diskBudget = -1;
+    protected int days = 0;
+    protected int maxClasses = PrecomputedTableAdvisor.DEFAULT_MAX_CLASSES;
+    protected int minQueries = 2;
+    protected int minWorkload = PrecomputedTableAdvisor.DEFAULT_MIN_WORKLOAD;
+    protected boolean refresh = false;
+
+    /**
+     * @param objectStoreAlias name of objectstore to use
+     */
+    public void setObjectStoreAlias(String objectStoreAlias) {
+        this.objectStoreAlias = objectStoreAlias;
+    }
+
+    /**
+     * @param logTable the name of the table that queries have been logged to
+     */
+    public void setLogTable(String logTable) {
+        this.logTable = logTable;
+    }
+
+    /**
+     * @param diskBudget the number of megabytes that the precomputed tables may use
+     */
+    public void setDiskBudget(Integer diskBudget) {
+        this.diskBudget = diskBudget.longValue() * 1024L * 1024L;
+    }
+
+    /**
+     * @param days only consider queries logged in this many days, or 0 for the whole log
+     */
+    public void setDays(Integer days) {
+        this.days = days.intValue();
+    }
+
+    /**
+     * @param maxClasses the maximum number of classes joined in a precomputed table
+     */
+    public void setMaxClasses(Integer maxClasses) {
+        this.maxClasses = maxClasses.intValue();
+    }
+
+    /**
+     * @param minQueries the minimum number of different queries that must share a join
+     */
+    public void setMinQueries(Integer minQueries) {
+        this.minQueries = minQueries.intValue();
+    }
+
+    /**
+     * @param minWorkload the number of different queries that must be logged before tables that
+     * are no longer chosen are dropped
+     */
+    public void setMinWorkload(Integer minWorkload) {
+        this.minWorkload = minWorkload.intValue();
+    }
+
+    /**
+     * @param refresh if true, recreate the precomputed tables that are kept
+     */
+    public void setRefresh(boolean refresh) {
+        this.refresh = refresh;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        if (objectStoreAlias == null) {
+            throw new BuildException("objectStoreAlias attribute is not set");
+        }
+        if (logTable == null) {
+            throw new BuildException("logTable attribute is not set");
+        }
+        if (diskBudget == -1) {
+            throw new BuildException("diskBudget attribute is not set");
+        }
+
+        ObjectStore os;
+        try {
+            os = ObjectStoreFactory.getObjectStore(objectStoreAlias);
+        } catch (Exception e) {
+            throw new BuildException("Exception while creating ObjectStore", e);
+        }
+        if (!(os instanceof ObjectStoreInterMineImpl)) {
+            throw new BuildException(objectStoreAlias + " isn't an ObjectStoreInterMineImpl");
+        }
+
+        PrecomputedTableAdvisor advisor
+            = new PrecomputedTableAdvisor((ObjectStoreInterMineImpl) os);
+        advisor.setDiskBudget(diskBudget);
+        advisor.setMaxClasses(maxClasses);
+        advisor.setMinQueries(minQueries);
+        advisor.setMinWorkload(minWorkload);
+        try {
+            advisor.readLog(logTable, (days > 0) ? System.currentTimeMillis() - days * DAY : 0);
+            List<PrecomputedTableAdvisor.Candidate> chosen = advisor.advise(refresh);
+            for (PrecomputedTableAdvisor.Candidate candidate : chosen) {
+                log("Precomputed table " + candidate.getTableName() + " for "
+                        + candidate.getSignature() + " accelerates "
+                        + candidate.getAccelerated().size() + " of "
+                        + candidate.getQueryCount() + " queries");
+                for (String iql : candidate.getAccelerated()) {
+                    log("    " + iql);
+                }
+            }
+        } catch (Exception e) {
+            throw new BuildException(e);
+        }
+    }
+}
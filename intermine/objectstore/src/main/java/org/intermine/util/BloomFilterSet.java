@@ -0,0 +1,177 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter presented as a PseudoSet.  The contains method never returns false for an object
+ * that has been added, but may return true for an object that has not been added, with a
+ * probability close to the false positive rate the filter was sized for.  The memory used depends
+ * only on the expected number of elements and the false positive rate, not on the size of the
+ * elements.
+ *
+ * The set is safe for use by several threads at once without locking.  An element added by one
+ * thread is seen as present by every thread once add() has returned.
+ *
+ * @param <E> The element type
+ */
+public class BloomFilterSet<E> extends PseudoSet<E>
+{
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicInteger added = new AtomicInteger();
+    private volatile boolean containsNull = false;
+
+    /**
+     * Creates a new empty BloomFilterSet.
+     *
+     * @param expectedSize the number of elements that will be added
+     * @param falsePositiveRate the desired false positive rate once expectedSize elements have
+     * been added, for example 0.01
+     */
+    public BloomFilterSet(int expectedSize, double falsePositiveRate) {
+        if ((falsePositiveRate <= 0.0) || (falsePositiveRate >= 1.0)) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1: "
+                    + falsePositiveRate);
+        }
+        long n = Math.max(1, expectedSize);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, m);
+        bits = new AtomicLongArray((int) ((m + 63) / 64));
+        bitCount = bits.length() * 64L;
+        hashCount = Math.max(1, (int) Math.round(((double) bitCount / n) * Math.log(2)));
+    }
+
+    /**
+     * Adds an element to the filter.
+     *
+     * @param o the element, which may be null
+     * @return true if the filter changed, which is always the case if the element was not
+     * previously present
+     */
+    @Override
+    public boolean add(E o) {
+        if (o == null) {
+            boolean changed = !containsNull;
+            containsNull = true;
+            return changed;
+        }
+        long hash = hash64(o);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        boolean changed = false;
+        for (int i = 1; i <= hashCount; i++) {
+            long index = bitIndex(h1 + i * h2);
+            long mask = 1L << index;
+            int word = (int) (index >>> 6);
+            long old = bits.get(word);
+            while ((old & mask) == 0) {
+                if (bits.compareAndSet(word, old, old | mask)) {
+                    changed = true;
+                    break;
+                }
+                old = bits.get(word);
+            }
+        }
+        if (changed) {
+            added.incrementAndGet();
+        }
+        return changed;
+    }
+
+    /**
+     * Returns false if the given object has definitely not been added to this set.
+     *
+     * @param o an Object
+     * @return false if the object is definitely absent, true if it may be present
+     */
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) {
+            return containsNull;
+        }
+        long hash = hash64(o);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = bitIndex(h1 + i * h2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of elements that changed the filter when added.  This is a lower bound
+     * on the number of distinct elements added.
+     *
+     * @return an int
+     */
+    public int getAddedCount() {
+        return added.get();
+    }
+
+    /**
+     * Returns the size of the filter in bytes.
+     *
+     * @return a long
+     */
+    public long getSizeInBytes() {
+        return bits.length() * 8L;
+    }
+
+    private long bitIndex(int combinedHash) {
+        long positive = combinedHash & 0xFFFFFFFFL;
+        return positive % bitCount;
+    }
+
+    private static long hash64(Object o) {
+        long h;
+        if (o instanceof CharSequence) {
+            // FNV-1a over the characters, String.hashCode() is too weak for 64 bits
+            CharSequence s = (CharSequence) o;
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        } else {
+            h = o.hashCode();
+        }
+        // finalise with the MurmurHash3 64-bit mixer
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return (added.get() == 0) && !containsNull;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "BloomFilterSet(" + added.get() + " values, " + getSizeInBytes() + " bytes)";
+    }
+}
@@ -0,0 +1,482 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This is a Map implementation designed for people intending to create a cache, that holds its
+ * values strongly and evicts the least recently used entries once the total weight of the entries
+ * exceeds a maximum. Unlike CacheMap, the amount of memory used does not depend on when the garbage
+ * collector decides to clear soft references, so a full heap does not empty every cache at once.
+ * <p>
+ * By default every entry has a weight of one, so the maximum weight is a maximum number of entries.
+ * A Weigher may be given to count something else, for example the number of rows in a batch. The
+ * map is split into a number of independently locked segments, each of which holds a share of the
+ * maximum weight, so it may be used by several threads at once without external synchronisation.
+ * An entry heavier than its segment's share of the maximum weight is not kept at all.
+ * <p>
+ * The keySet(), values() and entrySet() methods return copies of the contents of the map, so
+ * changes to them are not reflected in the map.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class BoundedCacheMap<K, V> implements Map<K, V>
+{
+    private static final Logger LOG = Logger.getLogger(BoundedCacheMap.class);
+
+    /** The default maximum number of segments. */
+    public static final int DEFAULT_CONCURRENCY = 16;
+    /** Segments are not split to hold less weight than this. */
+    public static final long MIN_SEGMENT_WEIGHT = 64;
+
+    private final String name;
+    private final Weigher<? super K, ? super V> weigher;
+    private final Segment[] segments;
+    private long maxWeight;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a new, empty BoundedCacheMap that holds up to the given number of entries.
+     *
+     * @param name a name for the cache, used in log messages
+     * @param maxSize the maximum number of entries
+     */
+    public BoundedCacheMap(String name, long maxSize) {
+        this(name, maxSize, null, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Constructs a new, empty BoundedCacheMap that holds entries up to the given total weight.
+     *
+     * @param name a name for the cache, used in log messages
+     * @param maxWeight the maximum total weight of the entries
+     * @param weigher a Weigher to calculate the weight of each entry, or null to count entries
+     */
+    public BoundedCacheMap(String name, long maxWeight, Weigher<? super K, ? super V> weigher) {
+        this(name, maxWeight, weigher, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Constructs a new, empty BoundedCacheMap that holds entries up to the given total weight.
+     *
+     * @param name a name for the cache, used in log messages
+     * @param maxWeight the maximum total weight of the entries
+     * @param weigher a Weigher to calculate the weight of each entry, or null to count entries
+     * @param concurrency the maximum number of segments to split the map into
+     * @throws IllegalArgumentException if maxWeight is negative or concurrency is less than one
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCacheMap(String name, long maxWeight, Weigher<? super K, ? super V> weigher,
+            int concurrency) {
+        if (maxWeight < 0) {
+            throw new IllegalArgumentException("maxWeight cannot be negative: " + maxWeight);
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least one: "
+                    + concurrency);
+        }
+        this.name = name;
+        this.weigher = weigher;
+        int segmentCount = 1;
+        while ((segmentCount * 2 <= concurrency)
+                && (maxWeight / (segmentCount * 2) >= MIN_SEGMENT_WEIGHT)) {
+            segmentCount *= 2;
+        }
+        segments = new BoundedCacheMap.Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment();
+        }
+        setMaxWeight(maxWeight);
+    }
+
+    /**
+     * Returns the name of this cache.
+     *
+     * @return a String
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the maximum total weight of the entries in this cache.
+     *
+     * @return a long
+     */
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Changes the maximum total weight of the entries in this cache, evicting entries if the cache
+     * is now too heavy.
+     *
+     * @param maxWeight the new maximum weight
+     */
+    public synchronized void setMaxWeight(long maxWeight) {
+        if (maxWeight < 0) {
+            throw new IllegalArgumentException("maxWeight cannot be negative: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        long share = maxWeight / segments.length;
+        long remainder = maxWeight % segments.length;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].setMaxWeight(share + (i < remainder ? 1 : 0));
+        }
+    }
+
+    /**
+     * Returns the total weight of the entries in this cache.
+     *
+     * @return a long
+     */
+    public long getWeight() {
+        long retval = 0;
+        for (Segment segment : segments) {
+            retval += segment.getWeight();
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of times get() found a mapping for a key.
+     *
+     * @return a long
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times get() did not find a mapping for a key.
+     *
+     * @return a long
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries that have been evicted to keep the cache within its maximum
+     * weight, including entries that were too heavy to be kept at all.
+     *
+     * @return a long
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns a summary of the size and use of this cache, suitable for logging.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        long h = hits.get();
+        long m = misses.get();
+        return name + ": size " + size() + ", weight " + getWeight() + " of " + getMaxWeight()
+            + ", hits " + h + ", misses " + m + ", hit rate "
+            + (h + m == 0 ? 0 : (100 * h) / (h + m)) + "%, evictions " + evictions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getStatistics();
+    }
+
+    private Segment segmentFor(Object key) {
+        int h = (key == null) ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        int retval = 0;
+        for (Segment segment : segments) {
+            retval += segment.size();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.size() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return segmentFor(key).containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        for (Segment segment : segments) {
+            if (segment.containsValue(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get(Object key) {
+        Node<V> node = segmentFor(key).get(key);
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return node.value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V put(K key, V value) {
+        int weight = (weigher == null) ? 1 : weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weight of entry for " + key + " in " + name
+                    + " is negative: " + weight);
+        }
+        return segmentFor(key).put(key, value, weight);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> t) {
+        for (Map.Entry<? extends K, ? extends V> entry : t.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V remove(Object key) {
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns a copy of the set of keys in this map.
+     *
+     * @return an unmodifiable Set
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> retval = new HashSet<K>();
+        for (Segment segment : segments) {
+            segment.copyInto(retval, null);
+        }
+        return Collections.unmodifiableSet(retval);
+    }
+
+    /**
+     * Returns a copy of the values in this map.
+     *
+     * @return an unmodifiable Collection
+     */
+    @Override
+    public Collection<V> values() {
+        List<V> retval = new ArrayList<V>();
+        for (Segment segment : segments) {
+            segment.copyInto(null, retval);
+        }
+        return Collections.unmodifiableList(retval);
+    }
+
+    /**
+     * Returns a copy of the entries in this map.
+     *
+     * @return an unmodifiable Set
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Map<K, V> retval = new HashMap<K, V>();
+        for (Segment segment : segments) {
+            segment.copyInto(retval);
+        }
+        return Collections.unmodifiableMap(retval).entrySet();
+    }
+
+    /**
+     * A value in the map, with the weight it was given when it was put in.
+     *
+     * @param <V> the type of the value
+     */
+    private static class Node<V>
+    {
+        final V value;
+        final int weight;
+
+        Node(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A part of the map, holding entries in order of last access.
+     */
+    private class Segment
+    {
+        private final LinkedHashMap<K, Node<V>> entries
+            = new LinkedHashMap<K, Node<V>>(16, 0.75F, true);
+        private long weight = 0;
+        private long segmentMaxWeight = 0;
+
+        synchronized void setMaxWeight(long newMaxWeight) {
+            segmentMaxWeight = newMaxWeight;
+            evict();
+        }
+
+        synchronized long getWeight() {
+            return weight;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized boolean containsKey(Object key) {
+            return entries.containsKey(key);
+        }
+
+        synchronized boolean containsValue(Object value) {
+            for (Node<V> node : entries.values()) {
+                if ((value == null) ? node.value == null : value.equals(node.value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized Node<V> get(Object key) {
+            return entries.get(key);
+        }
+
+        synchronized V put(K key, V value, int entryWeight) {
+            Node<V> old;
+            if (entryWeight > segmentMaxWeight) {
+                old = entries.remove(key);
+                evictions.incrementAndGet();
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(name + ": Not caching entry of weight " + entryWeight
+                            + ", maximum is " + segmentMaxWeight);
+                }
+            } else {
+                old = entries.put(key, new Node<V>(value, entryWeight));
+                weight += entryWeight;
+            }
+            if (old == null) {
+                evict();
+                return null;
+            }
+            weight -= old.weight;
+            evict();
+            return old.value;
+        }
+
+        synchronized V remove(Object key) {
+            Node<V> old = entries.remove(key);
+            if (old == null) {
+                return null;
+            }
+            weight -= old.weight;
+            return old.value;
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            weight = 0;
+        }
+
+        synchronized void copyInto(Set<K> keys, List<V> values) {
+            for (Map.Entry<K, Node<V>> entry : entries.entrySet()) {
+                if (keys != null) {
+                    keys.add(entry.getKey());
+                }
+                if (values != null) {
+                    values.add(entry.getValue().value);
+                }
+            }
+        }
+
+        synchronized void copyInto(Map<K, V> map) {
+            for (Map.Entry<K, Node<V>> entry : entries.entrySet()) {
+                map.put(entry.getKey(), entry.getValue().value);
+            }
+        }
+
+        private void evict() {
+            Iterator<Node<V>> iter = entries.values().iterator();
+            while ((weight > segmentMaxWeight) && iter.hasNext()) {
+                Node<V> eldest = iter.next();
+                iter.remove();
+                weight -= eldest.weight;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of ints, held in ascending order as the differences between consecutive ints,
+ * each written in as few bytes as it needs.  Object ids in a list are usually close together, so
+ * this uses one or two bytes per int.  Every SKIP_INTERVAL-th int is also held in an array, so
+ * that contains() only needs to decode a few ints after a binary search.
+ *
+ * The union, intersection and difference of sets are calculated by merging the sets in order.
+ */
+public final class CompressedIntSet implements Iterable<Integer>
+{
+    private static final int SKIP_INTERVAL = 64;
+
+    /** The empty set. */
+    public static final CompressedIntSet EMPTY = new Builder().build();
+
+    private final byte[] data;
+    private final int size;
+    private final int[] skipValues;
+    private final int[] skipOffsets;
+
+    private CompressedIntSet(byte[] data, int size, int[] skipValues, int[] skipOffsets) {
+        this.data = data;
+        this.size = size;
+        this.skipValues = skipValues;
+        this.skipOffsets = skipOffsets;
+    }
+
+    /**
+     * Create a set containing the given Integers.
+     *
+     * @param ints a Collection of Integers, in any order and possibly containing duplicates
+     * @return a new set
+     */
+    public static CompressedIntSet of(Collection<Integer> ints) {
+        int[] values = new int[ints.size()];
+        int i = 0;
+        for (Integer value : ints) {
+            values[i++] = value.intValue();
+        }
+        Arrays.sort(values);
+        Builder builder = new Builder();
+        for (i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1]) {
+                builder.add(values[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of ints in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the given int is present in this set.
+     *
+     * @param value any int
+     * @return true or false
+     */
+    public boolean contains(int value) {
+        int skip = Arrays.binarySearch(skipValues, value);
+        if (skip >= 0) {
+            return true;
+        }
+        skip = -skip - 2;
+        if (skip < 0) {
+            return false;
+        }
+        IntIterator iter = new IntIterator(skip);
+        iter.nextInt();
+        int end = Math.min(size, (skip + 1) * SKIP_INTERVAL);
+        for (int i = skip * SKIP_INTERVAL + 1; i < end; i++) {
+            int next = iter.nextInt();
+            if (next >= value) {
+                return next == value;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return an iterator over the ints in ascending order
+     */
+    public IntIterator intIterator() {
+        return new IntIterator(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Integer> iterator() {
+        return intIterator();
+    }
+
+    /**
+     * @return a new modifiable List of the ints in ascending order
+     */
+    public List<Integer> toList() {
+        List<Integer> retval = new ArrayList<Integer>(size);
+        for (IntIterator iter = intIterator(); iter.hasNext();) {
+            retval.add(new Integer(iter.nextInt()));
+        }
+        return retval;
+    }
+
+    /**
+     * Return the number of ints in both this set and another set.
+     *
+     * @param other another set
+     * @return the size of the intersection
+     */
+    public int intersectionSize(CompressedIntSet other) {
+        int count = 0;
+        IntIterator iter1 = intIterator();
+        IntIterator iter2 = other.intIterator();
+        if (iter1.hasNext() && iter2.hasNext()) {
+            int value1 = iter1.nextInt();
+            int value2 = iter2.nextInt();
+            while (true) {
+                if (value1 == value2) {
+                    count++;
+                }
+                if (value1 <= value2) {
+                    if (!iter1.hasNext()) {
+                        break;
+                    }
+                    value1 = iter1.nextInt();
+                } else {
+                    if (!iter2.hasNext()) {
+                        break;
+                    }
+                    value2 = iter2.nextInt();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the set of ints that are in any of the given sets.
+     *
+     * @param sets the sets
+     * @return a new set
+     */
+    public static CompressedIntSet union(Collection<CompressedIntSet> sets) {
+        return merge(sets, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return the set of ints that are in all of the given sets.
+     *
+     * @param sets the sets
+     * @return a new set
+     */
+    public static CompressedIntSet intersection(Collection<CompressedIntSet> sets) {
+        return merge(sets, sets.size(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return the set of ints that are in some but not all of the given sets.
+     *
+     * @param sets the sets
+     * @return a new set
+     */
+    public static CompressedIntSet allButIntersection(Collection<CompressedIntSet> sets) {
+        return merge(sets, 1, sets.size() - 1);
+    }
+
+    /**
+     * Return the set of ints in this set that are not in another set.
+     *
+     * @param other the set of ints to remove
+     * @return a new set
+     */
+    public CompressedIntSet difference(CompressedIntSet other) {
+        Builder builder = new Builder();
+        IntIterator iter = intIterator();
+        IntIterator otherIter = other.intIterator();
+        boolean otherHasNext = otherIter.hasNext();
+        int otherValue = otherHasNext ? otherIter.nextInt() : 0;
+        while (iter.hasNext()) {
+            int value = iter.nextInt();
+            while (otherHasNext && otherValue < value) {
+                otherHasNext = otherIter.hasNext();
+                if (otherHasNext) {
+                    otherValue = otherIter.nextInt();
+                }
+            }
+            if (!otherHasNext || otherValue != value) {
+                builder.add(value);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Return the ints that are in at least min and at most max of the given sets.
+     */
+    private static CompressedIntSet merge(Collection<CompressedIntSet> sets, int min, int max) {
+        List<IntIterator> iters = new ArrayList<IntIterator>();
+        List<Integer> heads = new ArrayList<Integer>();
+        for (CompressedIntSet set : sets) {
+            IntIterator iter = set.intIterator();
+            if (iter.hasNext()) {
+                iters.add(iter);
+                heads.add(new Integer(iter.nextInt()));
+            }
+        }
+        Builder builder = new Builder();
+        while (!iters.isEmpty()) {
+            int lowest = Integer.MAX_VALUE;
+            for (Integer head : heads) {
+                lowest = Math.min(lowest, head.intValue());
+            }
+            int count = 0;
+            for (int i = iters.size() - 1; i >= 0; i--) {
+                if (heads.get(i).intValue() == lowest) {
+                    count++;
+                    if (iters.get(i).hasNext()) {
+                        heads.set(i, new Integer(iters.get(i).nextInt()));
+                    } else {
+                        iters.remove(i);
+                        heads.remove(i);
+                    }
+                }
+            }
+            if (count >= min && count <= max) {
+                builder.add(lowest);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof CompressedIntSet) {
+            CompressedIntSet other = (CompressedIntSet) o;
+            return size == other.size && Arrays.equals(skipValues, other.skipValues)
+                && Arrays.equals(data, other.data);
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return size + 3 * Arrays.hashCode(skipValues) + 5 * Arrays.hashCode(data);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+
+    /**
+     * An iterator over the ints in a set, in ascending order.
+     */
+    public final class IntIterator implements Iterator<Integer>
+    {
+        private int index;
+        private int offset;
+        private int value;
+
+        private IntIterator(int skip) {
+            index = skip * SKIP_INTERVAL;
+            offset = (skip < skipOffsets.length) ? skipOffsets[skip] : data.length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        /**
+         * Return the next int, without creating an Integer.
+         *
+         * @return the next int
+         */
+        public int nextInt() {
+            if (index >= size) {
+                throw new NoSuchElementException();
+            }
+            if (index % SKIP_INTERVAL == 0) {
+                value = skipValues[index / SKIP_INTERVAL];
+            } else {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[offset++];
+                    delta |= ((long) (b & 0x7f)) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value = (int) (value + delta);
+            }
+            index++;
+            return value;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Integer next() {
+            return new Integer(nextInt());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Builds a set from ints added in ascending order.
+     */
+    public static final class Builder
+    {
+        private byte[] data = new byte[64];
+        private int length = 0;
+        private int size = 0;
+        private int[] skipValues = new int[4];
+        private int[] skipOffsets = new int[4];
+        private int last;
+
+        /**
+         * Add an int to the set, which must be greater than any int already added.
+         *
+         * @param value the int
+         */
+        public void add(int value) {
+            if (size > 0 && value <= last) {
+                throw new IllegalArgumentException("Ints must be added in ascending order, but "
+                        + value + " was added after " + last);
+            }
+            if (size % SKIP_INTERVAL == 0) {
+                int skip = size / SKIP_INTERVAL;
+                if (skip == skipValues.length) {
+                    skipValues = Arrays.copyOf(skipValues, skip * 2);
+                    skipOffsets = Arrays.copyOf(skipOffsets, skip * 2);
+                }
+                skipValues[skip] = value;
+                skipOffsets[skip] = length;
+            } else {
+                if (length + 5 > data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                long delta = ((long) value) - last;
+                while (delta >= 0x80) {
+                    data[length++] = (byte) ((delta & 0x7f) | 0x80);
+                    delta >>>= 7;
+                }
+                data[length++] = (byte) delta;
+            }
+            last = value;
+            size++;
+        }
+
+        /**
+         * @return a set of the ints added
+         */
+        public CompressedIntSet build() {
+            int skips = (size + SKIP_INTERVAL - 1) / SKIP_INTERVAL;
+            return new CompressedIntSet(Arrays.copyOf(data, length), size,
+                    Arrays.copyOf(skipValues, skips), Arrays.copyOf(skipOffsets, skips));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Calculates the weight of an entry in a BoundedCacheMap, which is counted against the maximum
+ * weight of the cache. The weight of an entry is calculated once, when it is put into the cache.
+ *
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of mapped values
+ */
+public interface Weigher<K, V>
+{
+    /**
+     * Returns the weight of an entry.
+     *
+     * @param key the key of the entry
+     * @param value the value of the entry, which may be null
+     * @return a weight, not less than zero
+     */
+    int weigh(K key, V value);
+}
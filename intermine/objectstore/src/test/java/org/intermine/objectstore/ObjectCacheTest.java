@@ -0,0 +1,99 @@
+package org.intermine.objectstore;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Employee;
+
+public class ObjectCacheTest extends TestCase
+{
+    public ObjectCacheTest(String arg) {
+        super(arg);
+    }
+
+    private static InterMineObject employee(int id) {
+        Employee e = new Employee();
+        e.setId(new Integer(id));
+        return e;
+    }
+
+    public void testPutAndGet() throws Exception {
+        ObjectCache cache = new ObjectCache(100);
+        InterMineObject e = employee(1);
+        cache.put(new Integer(1), e);
+        assertSame(e, cache.get(new Integer(1)));
+        assertTrue(cache.containsKey(new Integer(1)));
+        assertNull(cache.get(new Integer(2)));
+        assertFalse(cache.containsKey(new Integer(2)));
+    }
+
+    public void testMissingObject() throws Exception {
+        ObjectCache cache = new ObjectCache(100);
+        cache.put(new Integer(3), null);
+        assertNull(cache.get(new Integer(3)));
+        assertTrue(cache.containsKey(new Integer(3)));
+    }
+
+    public void testBounded() throws Exception {
+        ObjectCache cache = new ObjectCache(160);
+        for (int i = 0; i < 10000; i++) {
+            cache.put(new Integer(i), employee(i));
+        }
+        assertTrue("size " + cache.size(), cache.size() <= 160);
+        assertTrue("size " + cache.size(), cache.size() > 0);
+        // the most recently added object is kept
+        assertNotNull(cache.get(new Integer(9999)));
+    }
+
+    public void testPutIfCurrent() throws Exception {
+        ObjectCache cache = new ObjectCache(100);
+        Integer one = new Integer(1);
+        long generation = cache.getGeneration(one);
+        assertTrue(cache.putIfCurrent(one, employee(1), generation));
+        assertNotNull(cache.get(one));
+
+        Integer two = new Integer(2);
+        generation = cache.getGeneration(two);
+        cache.remove(two);
+        assertFalse(cache.putIfCurrent(two, employee(2), generation));
+        assertFalse(cache.containsKey(two));
+
+        generation = cache.getGeneration(one);
+        cache.flush();
+        assertFalse(cache.containsKey(one));
+        assertFalse(cache.putIfCurrent(one, employee(1), generation));
+        assertTrue(cache.putIfCurrent(one, employee(1), cache.getGeneration(one)));
+        assertEquals(1, cache.size());
+    }
+
+    public void testRemoveOnlyAffectsItsStripe() throws Exception {
+        ObjectCache cache = new ObjectCache(100);
+        Integer id = new Integer(1);
+        Integer sameStripe = null;
+        Integer otherStripe = null;
+        for (int i = 2; (sameStripe == null) || (otherStripe == null); i++) {
+            if (ObjectCache.stripeIndex(new Integer(i)) == ObjectCache.stripeIndex(id)) {
+                sameStripe = new Integer(i);
+            } else {
+                otherStripe = new Integer(i);
+            }
+        }
+        long generation = cache.getGeneration(id);
+        cache.remove(otherStripe);
+        assertTrue(cache.putIfCurrent(id, employee(1), generation));
+
+        generation = cache.getGeneration(id);
+        cache.remove(sameStripe);
+        assertFalse(cache.putIfCurrent(id, employee(1), generation));
+    }
+}
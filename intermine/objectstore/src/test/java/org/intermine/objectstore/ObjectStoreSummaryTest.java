@@ -10,9 +10,11 @@ package org.intermine.objectstore;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -23,6 +25,7 @@ import org.intermine.model.testmodel.Manager;
 import org.intermine.model.testmodel.Types;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -77,6 +80,45 @@ public class ObjectStoreSummaryTest
         Assert.assertNull(oss.getFieldValues("org.intermine.model.InterMineObject", "id"));
     }
 
+    @Test
+    public void testColumnSummary() throws Exception {
+        ObjectStore os = ObjectStoreFactory.getObjectStore("os.unittest");
+        ObjectStoreSummary oss = new ObjectStoreSummary(os, new Properties());
+        ColumnSummary summary = oss.getColumnSummary("org.intermine.model.testmodel.Employee",
+                "age");
+        Assert.assertEquals(6, summary.getCount());
+        Assert.assertEquals(0, summary.getNullCount());
+        Assert.assertEquals(6, summary.getDistinctCount());
+        Assert.assertTrue(summary.isComplete());
+        Assert.assertEquals(Arrays.asList(new Object[] {10, 20, 30, 40, 50, 60}),
+                summary.getTopValues());
+        Assert.assertEquals(Arrays.asList(1L, 1L, 1L, 1L, 1L, 1L), summary.getTopCounts());
+
+        // width_bucket(age, 10, 60.6, 20)
+        List<ResultsRow<Object>> rows = summary.getHistogramRows(20);
+        List<Object> buckets = new ArrayList<Object>();
+        for (ResultsRow<Object> row : rows) {
+            Assert.assertEquals(10, row.get(0));
+            Assert.assertEquals(60, row.get(1));
+            Assert.assertEquals(20, row.get(4));
+            buckets.add(row.get(5));
+        }
+        Assert.assertEquals(Arrays.asList(new Object[] {1, 4, 8, 12, 16, 20}), buckets);
+        Assert.assertNull(summary.getHistogramRows(10));
+
+        Assert.assertNull(oss.getColumnSummary("org.intermine.model.testmodel.Employee", "id"));
+        Properties config = new Properties();
+        config.put("column.summary.values", "0");
+        Assert.assertNull(new ObjectStoreSummary(os, config).getColumnSummary(
+                    "org.intermine.model.testmodel.Employee", "age"));
+
+        ObjectStoreSummary ossFromProps = new ObjectStoreSummary(oss.toProperties());
+        ColumnSummary summaryFromProps = ossFromProps.getColumnSummary(
+                "org.intermine.model.testmodel.Employee", "age");
+        Assert.assertEquals(summary.getTopValues(), summaryFromProps.getTopValues());
+        Assert.assertEquals(rows, summaryFromProps.getHistogramRows(20));
+    }
+
     @Test
     public void testEmptyAttributes() throws Exception {
         // delete names of existing employees so we have some empty attributes
@@ -0,0 +1,172 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+public class PrecomputedTableAdvisorTest extends TestCase
+{
+    private PrecomputedTableAdvisor advisor;
+
+    public PrecomputedTableAdvisorTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() {
+        advisor = new PrecomputedTableAdvisor(null);
+    }
+
+    /**
+     * SELECT c, d, e FROM Company c, Department d, Employee e WHERE c.departments CONTAINS d
+     * AND e.department CONTAINS d AND e.name = name
+     */
+    private Query companyDepartmentEmployee(String name) {
+        Query q = new Query();
+        QueryClass c = new QueryClass(Company.class);
+        QueryClass d = new QueryClass(Department.class);
+        QueryClass e = new QueryClass(Employee.class);
+        q.addFrom(c);
+        q.addFrom(d);
+        q.addFrom(e);
+        q.addToSelect(c);
+        q.addToSelect(d);
+        q.addToSelect(e);
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(new ContainsConstraint(new QueryCollectionReference(c, "departments"),
+                    ConstraintOp.CONTAINS, d));
+        cs.addConstraint(new ContainsConstraint(new QueryObjectReference(e, "department"),
+                    ConstraintOp.CONTAINS, d));
+        cs.addConstraint(new SimpleConstraint(new QueryField(e, "name"), ConstraintOp.EQUALS,
+                    new QueryValue(name)));
+        q.setConstraint(cs);
+        return q;
+    }
+
+    /**
+     * SELECT e, d FROM Employee e, Department d WHERE e.department CONTAINS d
+     */
+    private Query employeeDepartment() {
+        Query q = new Query();
+        QueryClass e = new QueryClass(Employee.class);
+        QueryClass d = new QueryClass(Department.class);
+        q.addFrom(e);
+        q.addFrom(d);
+        q.addToSelect(e);
+        q.setConstraint(new ContainsConstraint(new QueryObjectReference(e, "department"),
+                    ConstraintOp.CONTAINS, d));
+        return q;
+    }
+
+    private PrecomputedTableAdvisor.Candidate find(List<PrecomputedTableAdvisor.Candidate> list,
+            Class<?>... types) {
+        for (PrecomputedTableAdvisor.Candidate candidate : list) {
+            if (candidate.getQuery().getFrom().size() == types.length) {
+                List<String> names = new ArrayList<String>();
+                for (Class<?> type : types) {
+                    names.add(type.getName());
+                }
+                boolean all = true;
+                for (String name : names) {
+                    all = all && candidate.getSignature().contains(name);
+                }
+                if (all) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    public void testCandidates() throws Exception {
+        advisor.addQuery("q1", companyDepartmentEmployee("EmployeeA1"), 10, 1000);
+        advisor.addQuery("q2", companyDepartmentEmployee("EmployeeB1"), 5, 500);
+        advisor.addQuery("q3", employeeDepartment(), 1, 100);
+        List<PrecomputedTableAdvisor.Candidate> candidates = advisor.getCandidates();
+        assertEquals(3, candidates.size());
+
+        PrecomputedTableAdvisor.Candidate all = find(candidates, Company.class, Department.class,
+                Employee.class);
+        assertEquals(2, all.getQueryCount());
+        assertEquals(1500.0, all.getBenefit(), 0.001);
+        assertEquals(3, all.getQuery().getSelect().size());
+
+        PrecomputedTableAdvisor.Candidate ed = find(candidates, Employee.class, Department.class);
+        assertEquals(3, ed.getQueryCount());
+        assertEquals(850.0, ed.getBenefit(), 0.001);
+
+        PrecomputedTableAdvisor.Candidate cd = find(candidates, Company.class, Department.class);
+        assertEquals(2, cd.getQueryCount());
+        assertEquals(750.0, cd.getBenefit(), 0.001);
+
+        // The most beneficial candidate comes first
+        assertSame(all, candidates.get(0));
+    }
+
+    public void testMinQueries() throws Exception {
+        advisor.addQuery("q1", companyDepartmentEmployee("EmployeeA1"), 10, 1000);
+        advisor.addQuery("q1", companyDepartmentEmployee("EmployeeA1"), 10, 1000);
+        assertEquals(0, advisor.getCandidates().size());
+        advisor.setMinQueries(1);
+        List<PrecomputedTableAdvisor.Candidate> candidates = advisor.getCandidates();
+        assertEquals(3, candidates.size());
+        assertEquals(2000.0, candidates.get(0).getBenefit(), 0.001);
+    }
+
+    public void testChoose() throws Exception {
+        advisor.addQuery("q1", companyDepartmentEmployee("EmployeeA1"), 10, 1000);
+        advisor.addQuery("q2", companyDepartmentEmployee("EmployeeB1"), 5, 500);
+        advisor.addQuery("q3", employeeDepartment(), 1, 100);
+        List<PrecomputedTableAdvisor.Candidate> candidates = advisor.getCandidates();
+        PrecomputedTableAdvisor.Candidate all = find(candidates, Company.class, Department.class,
+                Employee.class);
+        PrecomputedTableAdvisor.Candidate ed = find(candidates, Employee.class, Department.class);
+        PrecomputedTableAdvisor.Candidate cd = find(candidates, Company.class, Department.class);
+        all.setSize(3000);
+        ed.setSize(1000);
+        cd.setSize(1000);
+
+        // The employee-department join is the best value. Only one of two tables that share a
+        // class can be used by a query, so the company-department join adds nothing after it, but
+        // the three-way join still saves one more join for q1 and q2
+        advisor.setDiskBudget(10000);
+        assertEquals(Arrays.asList(ed, all), advisor.choose(candidates));
+        advisor.setDiskBudget(2500);
+        assertEquals(Arrays.asList(ed), advisor.choose(candidates));
+
+        // Once the three-way join is chosen, only q3 benefits from the employee-department join
+        all.setSize(1500);
+        advisor.setDiskBudget(10000);
+        assertEquals(Arrays.asList(all, ed), advisor.choose(candidates));
+        advisor.setDiskBudget(2000);
+        assertEquals(Arrays.asList(all), advisor.choose(candidates));
+
+        advisor.setDiskBudget(500);
+        assertEquals(0, advisor.choose(candidates).size());
+    }
+}
@@ -0,0 +1,114 @@
+package org.intermine.objectstore.proxy;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectCache;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+
+public class ProxyBatchTest extends TestCase
+{
+    private FetchingObjectStore os;
+
+    public ProxyBatchTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        os = new FetchingObjectStore();
+    }
+
+    public void testResolve() throws Exception {
+        ProxyBatch batch = new ProxyBatch(os);
+        batch.add(new ProxyReference(os, new Integer(1), Employee.class));
+        batch.add(new ProxyReference(os, new Integer(2), Employee.class));
+        batch.add(new ProxyReference(os, new Integer(2), Employee.class));
+        batch.add(new ProxyReference(new FetchingObjectStore(), new Integer(3), Employee.class));
+        assertEquals(2, batch.size());
+        assertEquals(2, batch.resolve());
+        assertEquals(0, batch.size());
+        assertNotNull(os.pilferObjectById(new Integer(1)));
+        assertNotNull(os.pilferObjectById(new Integer(2)));
+        assertEquals(1, os.fetches);
+
+        // Already cached, so not fetched again
+        batch.add(new ProxyReference(os, new Integer(1), Employee.class));
+        assertEquals(0, batch.resolve());
+        assertEquals(1, os.fetches);
+    }
+
+    public void testWriteDuringFetch() throws Exception {
+        os.duringFetch = new Runnable() {
+            public void run() {
+                // A write to object 2 commits while the batch is being fetched
+                os.invalidateObjectById(new Integer(2));
+            }
+        };
+        ProxyBatch batch = new ProxyBatch(os);
+        batch.add(new ProxyReference(os, new Integer(2), Employee.class));
+        assertEquals(1, batch.resolve());
+        assertNull(os.pilferObjectById(new Integer(2)));
+
+        os.duringFetch = null;
+        batch.add(new ProxyReference(os, new Integer(2), Employee.class));
+        assertEquals(1, batch.resolve());
+        assertNotNull(os.pilferObjectById(new Integer(2)));
+    }
+
+    public void testAnyObjectStore() throws Exception {
+        FetchingObjectStore other = new FetchingObjectStore();
+        ProxyBatch batch = new ProxyBatch();
+        batch.add(new ProxyReference(os, new Integer(1), Employee.class));
+        batch.add(new ProxyReference(other, new Integer(1), Employee.class));
+        assertEquals(2, batch.size());
+        assertEquals(2, batch.resolve());
+        assertNotNull(os.pilferObjectById(new Integer(1)));
+        assertNotNull(other.pilferObjectById(new Integer(1)));
+    }
+
+    /**
+     * An ObjectStore that makes an Employee for every id it is asked for, and can run something
+     * while it does so.
+     */
+    private static class FetchingObjectStore extends ObjectStoreDummyImpl
+    {
+        private Runnable duringFetch;
+        private int fetches = 0;
+
+        FetchingObjectStore() {
+            cache = new ObjectCache(100);
+        }
+
+        @Override
+        public List<InterMineObject> getObjectsByIds(Collection<Integer> ids)
+            throws ObjectStoreException {
+            fetches++;
+            List<InterMineObject> retval = new ArrayList<InterMineObject>();
+            for (Integer id : ids) {
+                Employee e = new Employee();
+                e.setId(id);
+                retval.add(e);
+            }
+            if (duringFetch != null) {
+                duringFetch.run();
+            }
+            return retval;
+        }
+    }
+}
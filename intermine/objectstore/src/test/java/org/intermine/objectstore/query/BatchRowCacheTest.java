@@ -0,0 +1,73 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.ObjectStore;
+
+public class BatchRowCacheTest extends TestCase
+{
+    public BatchRowCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void testSharedBudget() throws Exception {
+        BatchRowCache cache = new BatchRowCache("test", 4);
+        Map<Integer, List<Object>> a = cache.viewFor(newBatches());
+        Map<Integer, List<Object>> b = cache.viewFor(newBatches());
+        a.put(0, rows(2));
+        b.put(0, rows(2));
+        assertEquals(4, cache.getRows());
+        assertEquals(rows(2), a.get(0));
+        // Evicts the least recently used batch, which belongs to the other Results
+        a.put(1, rows(2));
+        assertEquals(4, cache.getRows());
+        assertNull(b.get(0));
+        assertFalse(b.containsKey(0));
+        assertTrue(b.isEmpty());
+        assertEquals(2, a.size());
+        a.clear();
+        assertEquals(0, cache.getRows());
+        assertTrue(a.isEmpty());
+    }
+
+    public void testEnsureCapacity() throws Exception {
+        BatchRowCache cache = new BatchRowCache("test", 2);
+        Map<Integer, List<Object>> a = cache.viewFor(newBatches());
+        cache.ensureCapacity(3);
+        assertEquals(3, cache.getMaxRows());
+        a.put(0, rows(3));
+        assertEquals(rows(3), a.get(0));
+        cache.ensureCapacity(1);
+        assertEquals(3, cache.getMaxRows());
+        assertEquals(Collections.singleton(0), a.keySet());
+    }
+
+    public void testForObjectStore() throws Exception {
+        assertSame(BatchRowCache.forObjectStore(null), BatchRowCache.forObjectStore(null));
+    }
+
+    private static ResultsBatches newBatches() {
+        return new ResultsBatches(new Query(), null, ObjectStore.SEQUENCE_IGNORE);
+    }
+
+    private static List<Object> rows(int count) {
+        Object[] rows = new Object[count];
+        Arrays.fill(rows, "row");
+        return Arrays.asList(rows);
+    }
+}
@@ -0,0 +1,144 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+
+public class PrefetchManagerTest extends TestCase
+{
+    public PrefetchManagerTest(String arg) {
+        super(arg);
+    }
+
+    public void testPrefetchIsRead() throws Exception {
+        StubBatches batches = new StubBatches(null);
+        long hits = PrefetchManager.getHits();
+        PrefetchManager.addRequest(batches, 1, true, true);
+        batches.waitFor(1);
+        assertEquals(Collections.singletonList((Object) "1"), batches.getBatch(1, true, true));
+        assertEquals(hits + 1, PrefetchManager.getHits());
+        // Reading the batch again is not another hit
+        batches.getBatch(1, true, true);
+        assertEquals(hits + 1, PrefetchManager.getHits());
+        assertEquals(1, batches.fetches.size());
+    }
+
+    public void testNotFetchedTwice() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StubBatches batches = new StubBatches(release);
+        PrefetchManager.addRequest(batches, 0, true, true);
+        PrefetchManager.addRequest(batches, 0, true, true);
+        release.countDown();
+        // Waits for the prefetch if it has started, or takes it over if it has not
+        assertEquals(Collections.singletonList((Object) "0"), PrefetchManager.doRequest(batches,
+                    0, true, true));
+        PrefetchManager.addRequest(batches, 0, true, true);
+        assertEquals(Collections.singletonList(new Integer(0)), batches.fetches);
+    }
+
+    public void testCancel() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StubBatches batches = new StubBatches(release);
+        Object id = new Object();
+        PrefetchManager.registerRequestId(id);
+        try {
+            PrefetchManager.addRequest(batches, 0, true, true);
+        } finally {
+            PrefetchManager.deregisterRequestId();
+        }
+        batches.started.await(10, TimeUnit.SECONDS);
+        List<Object> running = PrefetchManager.cancelRequest(id);
+        assertEquals(1, running.size());
+        assertEquals(running.get(0), batches.requestIds.get(0));
+        assertTrue(PrefetchManager.cancelRequest(new Object()).isEmpty());
+        release.countDown();
+    }
+
+    public void testSettings() throws Exception {
+        int threads = PrefetchManager.getMaxThreads();
+        try {
+            PrefetchManager.setMaxThreads(threads + 2);
+            assertEquals(threads + 2, PrefetchManager.getMaxThreads());
+            PrefetchManager.setMaxThreads(1);
+            assertEquals(1, PrefetchManager.getMaxThreads());
+            try {
+                PrefetchManager.setMaxThreads(0);
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+            }
+        } finally {
+            PrefetchManager.setMaxThreads(threads);
+        }
+        Results res = new Results(new StubBatches(null), true, true, true);
+        res.setPrefetchDepth(3);
+        assertEquals(3, res.prefetchDepth);
+        res.setImmutable();
+        try {
+            res.setPrefetchDepth(2);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * A ResultsBatches that makes a batch containing its batch number as a String.
+     */
+    private static class StubBatches extends ResultsBatches
+    {
+        List<Integer> fetches = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Object> requestIds = Collections.synchronizedList(new ArrayList<Object>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release;
+
+        StubBatches(CountDownLatch release) {
+            super(new Query(), null, ObjectStore.SEQUENCE_IGNORE);
+            this.release = release;
+        }
+
+        @Override
+        protected List<Object> fetchBatchFromObjectStore(int batchNo, boolean optimise,
+                boolean explain) throws ObjectStoreException {
+            fetches.add(new Integer(batchNo));
+            requestIds.add(PrefetchManager.getCurrentRequest());
+            started.countDown();
+            try {
+                if (release != null) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                throw new ObjectStoreException(e);
+            }
+            List<Object> rows = Collections.singletonList((Object) ("" + batchNo));
+            synchronized (this) {
+                batches.put(new Integer(batchNo), rows);
+                notifyAll();
+            }
+            return rows;
+        }
+
+        synchronized void waitFor(int batchNo) throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            while ((!prefetched.contains(new Integer(batchNo)))
+                    && (System.currentTimeMillis() < end)) {
+                wait(100);
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.Database;
+
+public class BestQueryParallelExplainerTest extends TestCase
+{
+    private static final String TEMP_QUERY = "SELECT a FROM temp_1 WHERE x = 1";
+
+    private List<String> candidates;
+    private Map<String, Integer> costs;
+
+    public BestQueryParallelExplainerTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        BestQueryParallelExplainer.setMaxConnections(
+                BestQueryParallelExplainer.DEFAULT_MAX_CONNECTIONS);
+        // 20 candidates with different costs, and one on a temporary table that only the
+        // caller's connection can see, which is the best
+        candidates = new ArrayList<String>();
+        costs = new HashMap<String, Integer>();
+        for (int i = 0; i < 20; i++) {
+            candidates.add("SELECT a FROM t" + i + " WHERE x = " + i);
+            costs.put("t" + i, new Integer(100000 + ((i * 7) % 20) * 1000));
+        }
+        candidates.add(TEMP_QUERY);
+        costs.put("temp_1", new Integer(90000));
+    }
+
+    public void tearDown() throws Exception {
+        BestQueryParallelExplainer.setMaxConnections(
+                BestQueryParallelExplainer.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    public void testSameBestAsSerial() throws Exception {
+        StubDatabase db = new StubDatabase(costs, 50);
+        Connection con = db.getCallerConnection();
+        BestQueryExplainer serial = new BestQueryExplainer(con, -1);
+        for (String sql : candidates) {
+            serial.add(sql);
+        }
+        assertEquals(TEMP_QUERY, serial.getBestQueryString());
+        assertEquals(21, db.callerExplains.get());
+        db.callerExplains.set(0);
+
+        BestQueryParallelExplainer parallel = new BestQueryParallelExplainer(con, db, 4, -1);
+        for (String sql : candidates) {
+            parallel.add(sql);
+        }
+        assertEquals(serial.getBestQueryString(), parallel.getBestQueryString());
+        assertEquals(21, db.pooledExplains.get());
+        // The temporary table could only be explained on the caller's connection
+        assertEquals(1, db.callerExplains.get());
+        assertTrue(db.maxPooledOpen.get() <= 4);
+        waitForRelease(db);
+
+        // Explained again from the ExplainCache, except for the temporary table
+        db.pooledExplains.set(0);
+        db.callerExplains.set(0);
+        parallel = new BestQueryParallelExplainer(con, db, 4, -1);
+        for (String sql : candidates) {
+            parallel.add(sql.replace(" FROM ", "  FROM "));
+        }
+        assertEquals(TEMP_QUERY.replace(" FROM ", "  FROM "), parallel.getBestQueryString());
+        assertEquals(1, db.pooledExplains.get());
+        assertEquals(1, db.callerExplains.get());
+        waitForRelease(db);
+    }
+
+    public void testCancelWhenGoodEnough() throws Exception {
+        // t0 is expected to run faster than the time spent optimising, so is good enough
+        costs.put("t0", new Integer(1));
+        StubDatabase db = new StubDatabase(costs, 5000);
+        long start = System.currentTimeMillis();
+        BestQueryParallelExplainer parallel =
+            new BestQueryParallelExplainer(db.getCallerConnection(), db, 4, -1);
+        try {
+            for (String sql : candidates) {
+                parallel.add(sql);
+            }
+        } catch (BestQueryException e) {
+            // t0 was explained before all the candidates were added
+        }
+        assertEquals("SELECT a FROM t0 WHERE x = 0", parallel.getBestQueryString());
+        assertTrue(db.pooledExplains.get() < 20);
+        assertEquals(0, db.callerExplains.get());
+        // The other EXPLAINs were cancelled rather than waited for, and gave back their
+        // connections long before they would have finished
+        waitForRelease(db, 2000);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    public void testConnectionLimit() throws Exception {
+        BestQueryParallelExplainer.setMaxConnections(2);
+        StubDatabase db = new StubDatabase(costs, 50);
+        BestQueryParallelExplainer parallel =
+            new BestQueryParallelExplainer(db.getCallerConnection(), db, 4, -1);
+        for (String sql : candidates) {
+            parallel.add(sql);
+        }
+        assertEquals(TEMP_QUERY, parallel.getBestQueryString());
+        assertTrue(db.maxPooledOpen.get() <= 2);
+        // Candidates that could not have a pooled connection were explained on the caller's
+        assertTrue(db.callerExplains.get() > 1);
+        waitForRelease(db);
+
+        BestQueryParallelExplainer.setMaxConnections(0);
+        db = new StubDatabase(costs, 10);
+        parallel = new BestQueryParallelExplainer(db.getCallerConnection(), db, 4, -1);
+        for (String sql : candidates) {
+            parallel.add(sql);
+        }
+        assertEquals(TEMP_QUERY, parallel.getBestQueryString());
+        assertEquals(0, db.pooledExplains.get());
+        assertEquals(21, db.callerExplains.get());
+    }
+
+    public void testReservationsReleasedOnCancel() throws Exception {
+        BestQueryParallelExplainer.setMaxConnections(2);
+        costs.put("t0", new Integer(1));
+        StubDatabase db = new StubDatabase(costs, 500);
+        BestQueryParallelExplainer parallel =
+            new BestQueryParallelExplainer(db.getCallerConnection(), db, 4, -1);
+        try {
+            for (String sql : candidates) {
+                parallel.add(sql);
+            }
+        } catch (BestQueryException e) {
+            // t0 was explained before all the candidates were added
+        }
+        assertEquals("SELECT a FROM t0 WHERE x = 0", parallel.getBestQueryString());
+        waitForRelease(db);
+
+        // The next optimisation can still use both connections
+        costs.put("t0", new Integer(100000));
+        db = new StubDatabase(costs, 50);
+        parallel = new BestQueryParallelExplainer(db.getCallerConnection(), db, 2, -1);
+        for (String sql : candidates) {
+            parallel.add(sql);
+        }
+        assertEquals(TEMP_QUERY, parallel.getBestQueryString());
+        assertEquals(21, db.pooledExplains.get());
+        assertEquals(1, db.callerExplains.get());
+        assertEquals(2, db.maxPooledOpen.get());
+        waitForRelease(db);
+    }
+
+    /**
+     * Waits for the EXPLAINs left running after an optimisation to give back their connections.
+     */
+    private static void waitForRelease(StubDatabase db) throws InterruptedException {
+        waitForRelease(db, 10000);
+    }
+
+    private static void waitForRelease(StubDatabase db, long timeout)
+        throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (((db.pooledOpen.get() > 0)
+                    || (BestQueryParallelExplainer.getConnectionsInUse() > 0))
+                && (System.currentTimeMillis() < end)) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, db.pooledOpen.get());
+        assertEquals(0, BestQueryParallelExplainer.getConnectionsInUse());
+    }
+
+    private static Object defaultValue(Method method) {
+        if (method.getReturnType() == Boolean.TYPE) {
+            return Boolean.FALSE;
+        } else if (method.getReturnType() == Integer.TYPE) {
+            return new Integer(0);
+        }
+        return null;
+    }
+
+    /**
+     * A Database whose connections explain queries on one table with a cost set by the test,
+     * after a delay.  Cheap queries are explained straight away.  Temporary tables can only be
+     * seen by the caller's connection.
+     */
+    private static class StubDatabase extends Database
+    {
+        private final Map<String, Integer> costs;
+        private final long delay;
+        private final AtomicInteger pooledOpen = new AtomicInteger();
+        private final AtomicInteger maxPooledOpen = new AtomicInteger();
+        private final AtomicInteger pooledExplains = new AtomicInteger();
+        private final AtomicInteger callerExplains = new AtomicInteger();
+
+        StubDatabase(Map<String, Integer> costs, long delay) {
+            this.costs = new HashMap<String, Integer>(costs);
+            this.delay = delay;
+        }
+
+        @Override
+        public Connection getConnection() {
+            int open = pooledOpen.incrementAndGet();
+            synchronized (maxPooledOpen) {
+                maxPooledOpen.set(Math.max(open, maxPooledOpen.get()));
+            }
+            return connection(false);
+        }
+
+        Connection getCallerConnection() {
+            return connection(true);
+        }
+
+        private Connection connection(final boolean caller) {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] {Connection.class}, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if ("createStatement".equals(method.getName())) {
+                                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                        new Class<?>[] {Statement.class},
+                                        new StubStatement(caller));
+                            } else if ("close".equals(method.getName()) && !caller) {
+                                pooledOpen.decrementAndGet();
+                            }
+                            return defaultValue(method);
+                        }
+                    });
+        }
+
+        /**
+         * A Statement that runs one EXPLAIN, which can be cancelled from another thread.
+         */
+        private class StubStatement implements InvocationHandler
+        {
+            private final boolean caller;
+            private String table = null;
+            private boolean cancelled = false;
+
+            StubStatement(boolean caller) {
+                this.caller = caller;
+            }
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                if ("execute".equals(method.getName())) {
+                    execute((String) args[0]);
+                    return Boolean.TRUE;
+                } else if ("cancel".equals(method.getName())) {
+                    synchronized (this) {
+                        cancelled = true;
+                        notifyAll();
+                    }
+                } else if ("getResultSet".equals(method.getName())) {
+                    return resultSet("Seq Scan on " + table + "  (cost=0.00.."
+                            + costs.get(table) + ".00 rows=100 width=4)");
+                }
+                return defaultValue(method);
+            }
+
+            private synchronized void execute(String sql) throws SQLException {
+                String afterFrom = sql.substring(sql.indexOf(" FROM ") + 6).trim();
+                table = afterFrom.substring(0, afterFrom.indexOf(' '));
+                if (caller) {
+                    callerExplains.incrementAndGet();
+                } else {
+                    pooledExplains.incrementAndGet();
+                    if (table.startsWith("temp_")) {
+                        throw new SQLException("relation \"" + table + "\" does not exist");
+                    }
+                }
+                long end = System.currentTimeMillis()
+                    + ((costs.get(table).intValue() < 100) ? 0 : delay);
+                try {
+                    while (!cancelled && (System.currentTimeMillis() < end)) {
+                        wait(Math.max(1, end - System.currentTimeMillis()));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                }
+                if (cancelled) {
+                    throw new SQLException("canceling statement due to user request");
+                }
+            }
+
+            private ResultSet resultSet(final String line) {
+                return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+                            private boolean read = false;
+
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                if ("next".equals(method.getName())) {
+                                    boolean hasNext = !read;
+                                    read = true;
+                                    return Boolean.valueOf(hasNext);
+                                } else if ("getString".equals(method.getName())) {
+                                    return line;
+                                }
+                                return defaultValue(method);
+                            }
+                        });
+            }
+        }
+    }
+}
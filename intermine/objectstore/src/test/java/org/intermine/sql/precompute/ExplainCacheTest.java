@@ -0,0 +1,46 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.query.DummyExplainResult;
+import org.intermine.sql.query.ExplainResult;
+import org.intermine.sql.query.Query;
+
+public class ExplainCacheTest extends TestCase
+{
+    public ExplainCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void testNormalise() {
+        assertEquals("SELECT a FROM b WHERE c = 'x  y'",
+                ExplainCache.normalise("  EXPLAIN SELECT a\n FROM  b\tWHERE c = 'x  y' "));
+        assertEquals(ExplainCache.normalise("SELECT a FROM b"),
+                ExplainCache.normalise("explain SELECT  a FROM b"));
+    }
+
+    public void testLookup() throws Exception {
+        ExplainCache cache = new ExplainCache();
+        String sql = "SELECT mytable.a AS a FROM mytable WHERE mytable.a = 1";
+        ExplainResult result = new DummyExplainResult(new Query(sql));
+        assertNull(cache.lookup(sql));
+        cache.put(sql, result);
+        assertSame(result, cache.lookup("EXPLAIN " + sql));
+        assertSame(result, cache.lookup(sql.replace(" ", "  ")));
+        assertNull(cache.lookup(sql.replace("1", "2")));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        cache.flush();
+        assertNull(cache.lookup(sql));
+    }
+}
@@ -12,6 +12,8 @@ package org.intermine.sql.precompute;
 
 import junit.framework.TestCase;
 
+import org.intermine.sql.query.Query;
+
 public class OptimiserCacheTest extends TestCase
 {
     public OptimiserCacheTest(String arg1) {
@@ -28,4 +30,40 @@ public class OptimiserCacheTest extends TestCase
         assertNull(cache.lookup("original1", 10));
         assertNull(cache.lookup("somethingelse", 1000));
     }
+
+    public void testNormalised() throws Exception {
+        OptimiserCache cache = new OptimiserCache();
+        cache.addCacheLine("SELECT a\n FROM  b", "SELECT a FROM precomp_1", 1000);
+        assertEquals("SELECT a FROM precomp_1", cache.lookup("SELECT a FROM b", 1000));
+        assertEquals("EXPLAIN SELECT a FROM precomp_1", cache.lookup("EXPLAIN SELECT a FROM b",
+                    1000));
+    }
+
+    public void testTableDropped() throws Exception {
+        OptimiserCache cache = new OptimiserCache();
+        cache.addCacheLine("SELECT a FROM b", "SELECT a FROM precomp_1", 1000);
+        cache.addCacheLine("SELECT a FROM c", "SELECT a FROM precomp_12", 1000);
+        cache.addCacheLine("SELECT a FROM d", "SELECT a FROM d", 1000);
+        cache.tableDropped("precomp_1");
+        assertNull(cache.lookup("SELECT a FROM b", 1000));
+        assertEquals("SELECT a FROM precomp_12", cache.lookup("SELECT a FROM c", 1000));
+        assertEquals("SELECT a FROM d", cache.lookup("SELECT a FROM d", 1000));
+    }
+
+    public void testTableAdded() throws Exception {
+        OptimiserCache cache = new OptimiserCache();
+        cache.addCacheLine("SELECT b.a FROM b, c WHERE b.x = c.y", "optimised1", 1000);
+        cache.addCacheLine("SELECT b.a FROM b, cd WHERE b.x = cd.y", "optimised2", 1000);
+        cache.addCacheLine("SELECT c.a FROM c", "optimised3", 1000);
+        String sql = "SELECT b.x AS a, c.y AS b FROM b, c WHERE b.x = c.y";
+        cache.tableAdded(new PrecomputedTable(new Query(sql), sql, "precomp_1", null, null));
+        assertNull(cache.lookup("SELECT b.a FROM b, c WHERE b.x = c.y", 1000));
+        assertEquals("optimised2", cache.lookup("SELECT b.a FROM b, cd WHERE b.x = cd.y", 1000));
+        assertEquals("optimised3", cache.lookup("SELECT c.a FROM c", 1000));
+    }
+
+    public void testHash() throws Exception {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", OptimiserCache.hash(""));
+        assertEquals(32, OptimiserCache.hash("SELECT a FROM b").length());
+    }
 }
@@ -0,0 +1,73 @@
+package org.intermine.sql.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ParameterisedSqlTest extends TestCase
+{
+    public ParameterisedSqlTest(String arg) {
+        super(arg);
+    }
+
+    public void testValues() {
+        ParameterisedSql p = ParameterisedSql.of("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                + " WHERE a1_.name = 'It''s' AND LOWER(a1_.name) LIKE E'a\\\\_b%'"
+                + " AND a1_.salary < 1.5e3::real AND a1_.age > -5 AND a1_.id IN (1, 2, 3)"
+                + " AND a1_.start > 4000000000 AND a1_.ratio = 0.25 ORDER BY a1_.id");
+        assertEquals("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                + " WHERE a1_.name = ? AND LOWER(a1_.name) LIKE ?"
+                + " AND a1_.salary < ? AND a1_.age > -5 AND a1_.id IN (?, ?, ?)"
+                + " AND a1_.start > ? AND a1_.ratio = ? ORDER BY a1_.id", p.getSql());
+        assertEquals(Arrays.asList("It's", "a\\_b%", new Float(1500.0F), new Integer(1),
+                    new Integer(2), new Integer(3), new Long(4000000000L),
+                    new BigDecimal("0.25")), p.getValues());
+    }
+
+    public void testOnlyConstraints() {
+        ParameterisedSql p = ParameterisedSql.of("SELECT 'e' AS \"e\", a1_.id AS a1_id FROM"
+                + " Employee AS a1_ WHERE a1_.id IN (SELECT a2_.id FROM Contractor AS a2_"
+                + " WHERE a2_.name = 'x' LIMIT 2) AND a1_.age = 10 GROUP BY a1_.id"
+                + " HAVING COUNT(*) > 1 ORDER BY a1_.id LIMIT 10 OFFSET 20");
+        assertEquals("SELECT 'e' AS \"e\", a1_.id AS a1_id FROM"
+                + " Employee AS a1_ WHERE a1_.id IN (SELECT a2_.id FROM Contractor AS a2_"
+                + " WHERE a2_.name = ? LIMIT 2) AND a1_.age = ? GROUP BY a1_.id"
+                + " HAVING COUNT(*) > ? ORDER BY a1_.id LIMIT 10 OFFSET 20", p.getSql());
+        assertEquals(Arrays.asList("x", new Integer(10), new Integer(1)), p.getValues());
+    }
+
+    public void testSameShape() {
+        ParameterisedSql p1 = ParameterisedSql.of("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                + " WHERE a1_.name = 'EmployeeA1' AND a1_.age = 25");
+        ParameterisedSql p2 = ParameterisedSql.of("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                + " WHERE a1_.name = 'EmployeeB2' AND a1_.age = 40");
+        assertEquals(p1.getSql(), p2.getSql());
+        assertEquals(Arrays.asList("EmployeeB2", new Integer(40)), p2.getValues());
+    }
+
+    public void testNothingToDo() {
+        assertNull(ParameterisedSql.of("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                    + " ORDER BY a1_.id LIMIT 10"));
+        // Escapes other than \\ and \' are left for the database to read
+        assertNull(ParameterisedSql.of("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                    + " WHERE a1_.name = E'a\\nb'"));
+        StringBuilder sql = new StringBuilder("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                + " WHERE a1_.id IN (0");
+        for (int i = 1; i <= ParameterisedSql.MAX_PARAMETERS; i++) {
+            sql.append(", ").append(i);
+        }
+        sql.append(")");
+        assertNull(ParameterisedSql.of(sql.toString()));
+    }
+}
@@ -0,0 +1,81 @@
+package org.intermine.sql.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long it takes to turn the SQL generated for a workload of template queries into
+ * Query objects for the QueryOptimiser, by parsing every query and by using a QueryShapeCache.
+ * Each template is run with many different values, as the webapp does.
+ * Usage: QueryShapeCacheBenchmark [runs per template]
+ */
+public final class QueryShapeCacheBenchmark
+{
+    private static final String[] TEMPLATES = new String[] {
+        "SELECT a1_.id AS a1_id, a2_.id AS a2_id FROM Employee AS a1_, Department AS a2_"
+            + " WHERE LOWER(a1_.name) LIKE '%1$s%%' AND a1_.departmentId = a2_.id"
+            + " AND a1_.age > %2$d ORDER BY a1_.name, a1_.id, a2_.id LIMIT 10 OFFSET %3$d",
+        "SELECT DISTINCT a3_.id AS a3_id FROM Company AS a1_, Department AS a2_, Employee AS a3_"
+            + " WHERE a1_.name = '%1$s' AND a2_.companyId = a1_.id"
+            + " AND a3_.departmentId = a2_.id AND (a3_.age < %2$d OR a3_.fullTime = 'true')"
+            + " ORDER BY a3_.id LIMIT 50 OFFSET %3$d",
+        "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.id IN (SELECT a2_.employeeId"
+            + " FROM Contractor AS a2_ WHERE a2_.name = '%1$s') AND a1_.age IN (%2$d, 1, 2, 3)"
+            + " ORDER BY a1_.id LIMIT 10 OFFSET %3$d",
+        "SELECT COUNT(*) AS a1_ FROM (SELECT DISTINCT a1_.id AS a1_id FROM Employee AS a1_,"
+            + " Address AS a2_ WHERE a1_.addressId = a2_.id AND a2_.address = '%1$s'"
+            + " AND a1_.salary > %2$d.5) AS fake_table"
+    };
+
+    private QueryShapeCacheBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the number of runs of each template, default 2000
+     */
+    public static void main(String[] args) {
+        int runs = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        List<String> workload = new ArrayList<String>();
+        for (int i = 0; i < runs; i++) {
+            for (String template : TEMPLATES) {
+                workload.add(String.format(template, "Value" + i, new Integer(i % 90),
+                            new Integer(i * 10)));
+            }
+        }
+        // Warm up the JIT
+        time(workload, null);
+        time(workload, new QueryShapeCache(QueryShapeCache.DEFAULT_MAX_SIZE));
+
+        long parse = time(workload, null);
+        QueryShapeCache cache = new QueryShapeCache(QueryShapeCache.DEFAULT_MAX_SIZE);
+        long cached = time(workload, cache);
+        System.out.println(workload.size() + " queries, " + cache.size() + " shapes");
+        System.out.println("new Query(sql):         " + (parse / workload.size()) + " us/query");
+        System.out.println("QueryShapeCache.parse(): " + (cached / workload.size())
+                + " us/query");
+    }
+
+    private static long time(List<String> workload, QueryShapeCache cache) {
+        long start = System.nanoTime();
+        for (String sql : workload) {
+            if (cache == null) {
+                new Query(sql, (Long) null);
+            } else {
+                cache.parse(sql, null);
+            }
+        }
+        return (System.nanoTime() - start) / 1000;
+    }
+}
@@ -0,0 +1,84 @@
+package org.intermine.sql.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class QueryShapeCacheTest extends TestCase
+{
+    private static final String[] QUERIES = new String[] {
+        "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.name = 'EmployeeA1' ORDER BY a1_.id",
+        "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.name = 'It''s' AND a1_.age > 30",
+        "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE LOWER(a1_.name) LIKE E'a\\\\_b%'",
+        "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.salary < 1.5e3::real"
+            + " AND a1_.age > -5",
+        "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.id IN (1, 2, 3)",
+        "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.id IN (SELECT a2_.employeeId"
+            + " FROM Contractor AS a2_ WHERE a2_.businessAddressId = a1_.addressId"
+            + " AND a2_.name = 'x' LIMIT 2)",
+        "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.age = 10 UNION"
+            + " SELECT a1_.id AS a1_id FROM Manager AS a1_ WHERE a1_.age = 20",
+        "SELECT a1_.id AS a1_id FROM Employee AS a1_ ORDER BY a1_.id LIMIT 10 OFFSET 20",
+        "SELECT a1_.id AS \"e\", 'e' AS e2 FROM Employee AS a1_ WHERE a1_.name = 'e'"
+    };
+
+    private QueryShapeCache cache;
+
+    public QueryShapeCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() {
+        cache = new QueryShapeCache(QueryShapeCache.DEFAULT_MAX_SIZE);
+    }
+
+    public void testSameAsParse() {
+        for (String sql : QUERIES) {
+            Query expected = new Query(sql);
+            for (int i = 0; i < 2; i++) {
+                Query got = cache.parse(sql, null);
+                assertEquals(sql, expected, got);
+                assertEquals(sql, expected.getSQLString(), got.getSQLString());
+            }
+        }
+        assertEquals(QUERIES.length, cache.size());
+        assertEquals(QUERIES.length, cache.getMisses());
+        assertEquals(QUERIES.length, cache.getHits());
+    }
+
+    public void testShapeShared() {
+        String sql1 = "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.name = 'EmployeeA1'"
+            + " AND a1_.age = 25 ORDER BY a1_.id LIMIT 10 OFFSET 10";
+        String sql2 = "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.name = 'EmployeeB2'"
+            + " AND a1_.age = 47 ORDER BY a1_.id LIMIT 100 OFFSET 1000";
+        assertEquals(new Query(sql1), cache.parse(sql1, null));
+        assertEquals(new Query(sql2), cache.parse(sql2, null));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHits());
+    }
+
+    public void testResultCanBeAltered() {
+        String sql = "SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.name = 'EmployeeA1'";
+        Query first = cache.parse(sql, null);
+        first.addWhere(new Constraint(new Constant("1"), Constraint.EQ, new Constant("2")));
+        first.getFrom().iterator().next().setAlias("P1");
+        assertEquals(new Query(sql), cache.parse(sql, null));
+    }
+
+    public void testInvalid() {
+        try {
+            cache.parse("SELECT FROM WHERE 'a'", null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(0, cache.size());
+    }
+}
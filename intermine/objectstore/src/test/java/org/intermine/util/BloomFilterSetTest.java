@@ -0,0 +1,80 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class BloomFilterSetTest extends TestCase
+{
+    public BloomFilterSetTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testNoFalseNegatives() throws Exception {
+        BloomFilterSet<Object> set = new BloomFilterSet<Object>(20000, 0.01);
+        assertTrue(set.isEmpty());
+        for (int i = 0; i < 10000; i++) {
+            set.add("identifier" + i);
+            set.add(new Integer(i * 31));
+        }
+        assertFalse(set.isEmpty());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(set.contains("identifier" + i));
+            assertTrue(set.contains(new Integer(i * 31)));
+        }
+    }
+
+    public void testFalsePositiveRate() throws Exception {
+        BloomFilterSet<String> set = new BloomFilterSet<String>(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            set.add("FBgn" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (set.contains("CG" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("too many false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    public void testNull() throws Exception {
+        BloomFilterSet<String> set = new BloomFilterSet<String>(10, 0.01);
+        assertFalse(set.contains(null));
+        assertTrue(set.add(null));
+        assertFalse(set.add(null));
+        assertTrue(set.contains(null));
+        assertFalse(set.isEmpty());
+    }
+
+    public void testConcurrentAdd() throws Exception {
+        final BloomFilterSet<String> set = new BloomFilterSet<String>(40000, 0.01);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = offset; i < 40000; i += 4) {
+                        set.add("FBgn" + i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < 40000; i++) {
+            assertTrue(set.contains("FBgn" + i));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class BoundedCacheMapTest extends TestCase
+{
+    private static final Weigher<String, String> LENGTH = new Weigher<String, String>() {
+        public int weigh(String key, String value) {
+            return value.length();
+        }
+    };
+
+    public BoundedCacheMapTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testMap() throws Exception {
+        BoundedCacheMap<Integer, Integer> cm = new BoundedCacheMap<Integer, Integer>("test", 10);
+
+        assertNull(cm.put(new Integer(5), new Integer(40)));
+        assertNull(cm.put(new Integer(763), new Integer(67)));
+        assertNull(cm.put(new Integer(2), null));
+        assertEquals(3, cm.size());
+        assertFalse(cm.isEmpty());
+
+        assertEquals(new Integer(40), cm.get(new Integer(5)));
+        assertEquals(new Integer(67), cm.get(new Integer(763)));
+        assertNull(cm.get(new Integer(2)));
+        assertTrue(cm.containsKey(new Integer(2)));
+        assertFalse(cm.containsKey(new Integer(3)));
+        assertTrue(cm.containsValue(new Integer(67)));
+        assertTrue(cm.containsValue(null));
+        assertEquals(new HashSet<Integer>(Arrays.asList(new Integer(5), new Integer(763),
+                        new Integer(2))), cm.keySet());
+        assertEquals(3, cm.values().size());
+        assertEquals(3, cm.entrySet().size());
+
+        assertEquals(new Integer(40), cm.put(new Integer(5), new Integer(41)));
+        assertEquals(new Integer(41), cm.remove(new Integer(5)));
+        assertNull(cm.remove(new Integer(5)));
+        assertFalse(cm.containsKey(new Integer(5)));
+        assertEquals(2, cm.size());
+
+        cm.clear();
+        assertTrue(cm.isEmpty());
+        assertEquals(0, cm.getWeight());
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        BoundedCacheMap<Integer, String> cm = new BoundedCacheMap<Integer, String>("test", 3);
+        cm.put(new Integer(1), "one");
+        cm.put(new Integer(2), "two");
+        cm.put(new Integer(3), "three");
+        // Using 1 makes 2 the least recently used
+        assertEquals("one", cm.get(new Integer(1)));
+        cm.put(new Integer(4), "four");
+
+        assertEquals(3, cm.size());
+        assertFalse(cm.containsKey(new Integer(2)));
+        assertTrue(cm.containsKey(new Integer(1)));
+        assertTrue(cm.containsKey(new Integer(3)));
+        assertTrue(cm.containsKey(new Integer(4)));
+        assertEquals(1, cm.getEvictions());
+    }
+
+    public void testWeight() throws Exception {
+        BoundedCacheMap<String, String> cm = new BoundedCacheMap<String, String>("test", 10,
+                LENGTH);
+        cm.put("a", "aaaa");
+        cm.put("b", "bbbb");
+        assertEquals(8, cm.getWeight());
+        cm.put("c", "cccc");
+        assertEquals(8, cm.getWeight());
+        assertFalse(cm.containsKey("a"));
+
+        // Replacing an entry replaces its weight
+        cm.put("b", "b");
+        assertEquals(5, cm.getWeight());
+
+        // An entry heavier than the whole cache is not kept, and replaces the old value
+        assertEquals("cccc", cm.put("c", "ccccccccccc"));
+        assertFalse(cm.containsKey("c"));
+        assertEquals(1, cm.getWeight());
+        assertEquals("b", cm.get("b"));
+
+        cm.put("d", "dddddddd");
+        cm.setMaxWeight(8);
+        assertEquals(8, cm.getWeight());
+        assertFalse(cm.containsKey("b"));
+        assertTrue(cm.containsKey("d"));
+    }
+
+    public void testStatistics() throws Exception {
+        BoundedCacheMap<String, String> cm = new BoundedCacheMap<String, String>("test", 10);
+        cm.put("a", "A");
+        cm.get("a");
+        cm.get("a");
+        cm.get("b");
+        assertEquals(2, cm.getHits());
+        assertEquals(1, cm.getMisses());
+        assertEquals("test: size 1, weight 1 of 10, hits 2, misses 1, hit rate 66%, evictions 0",
+                cm.getStatistics());
+    }
+
+    public void testConcurrent() throws Exception {
+        final BoundedCacheMap<Integer, Integer> cm = new BoundedCacheMap<Integer, Integer>("test",
+                1000);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int base = t * 10000;
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        Integer key = new Integer(base + i);
+                        cm.put(key, key);
+                        Integer value = cm.get(key);
+                        if ((value != null) && (!value.equals(key))) {
+                            throw new IllegalStateException("Got " + value + " for " + key);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(cm.size() <= 1000);
+        assertEquals(cm.size(), cm.getWeight());
+        assertEquals(80000 - cm.size(), cm.getEvictions());
+    }
+}
@@ -0,0 +1,78 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class CompressedIntSetTest extends TestCase
+{
+    public CompressedIntSetTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testContains() throws Exception {
+        Random random = new Random(42);
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        List<Integer> input = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            Integer value = new Integer(random.nextInt(5000) - 100);
+            expected.add(value);
+            input.add(value);
+        }
+        input.add(new Integer(Integer.MIN_VALUE));
+        input.add(new Integer(Integer.MAX_VALUE));
+        expected.add(new Integer(Integer.MIN_VALUE));
+        expected.add(new Integer(Integer.MAX_VALUE));
+        CompressedIntSet set = CompressedIntSet.of(input);
+
+        assertEquals(expected.size(), set.size());
+        assertEquals(new ArrayList<Integer>(expected), set.toList());
+        for (int i = -200; i < 5100; i++) {
+            assertEquals(expected.contains(new Integer(i)), set.contains(i));
+        }
+        assertTrue(set.contains(Integer.MIN_VALUE));
+        assertTrue(set.contains(Integer.MAX_VALUE));
+        assertFalse(CompressedIntSet.EMPTY.contains(0));
+    }
+
+    public void testOperations() throws Exception {
+        CompressedIntSet a = CompressedIntSet.of(Arrays.asList(1, 2, 3, 5, 8));
+        CompressedIntSet b = CompressedIntSet.of(Arrays.asList(2, 3, 4, 8, 9));
+        CompressedIntSet c = CompressedIntSet.of(Arrays.asList(3, 8, 10));
+        List<CompressedIntSet> sets = Arrays.asList(a, b, c);
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 8, 9, 10), CompressedIntSet.union(sets).toList());
+        assertEquals(Arrays.asList(3, 8), CompressedIntSet.intersection(sets).toList());
+        assertEquals(Arrays.asList(1, 2, 4, 5, 9, 10),
+                CompressedIntSet.allButIntersection(sets).toList());
+        assertEquals(Arrays.asList(1, 5), a.difference(b).toList());
+        assertEquals(3, a.intersectionSize(b));
+        assertEquals(0, a.intersectionSize(CompressedIntSet.EMPTY));
+        assertEquals(a, CompressedIntSet.of(Arrays.asList(8, 5, 3, 2, 1, 1)));
+    }
+
+    public void testBuilderOrder() throws Exception {
+        CompressedIntSet.Builder builder = new CompressedIntSet.Builder();
+        builder.add(5);
+        try {
+            builder.add(5);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -16,9 +16,11 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
+import org.intermine.metadata.ClassFields;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.model.testmodel.Address;
 import org.intermine.model.testmodel.Company;
@@ -143,6 +145,51 @@ public class TypeUtilTest extends TestCase
         }
     }
 
+    public void testGetFieldInfosUnmodifiable() throws Exception {
+        Map<String, TypeUtil.FieldInfo> got = TypeUtil.getFieldInfos(Address.class);
+        assertSame(got, TypeUtil.getFieldInfos(Address.class));
+        try {
+            got.remove("id");
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testClassFields() throws Exception {
+        ClassFields fields = ClassFields.forClass(Company.class);
+        assertSame(fields, ClassFields.forClass(Company.class));
+        assertEquals(10, fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            assertEquals(i, fields.indexOf(fields.getName(i)));
+            assertSame(fields.get(i), fields.get(fields.getName(i)));
+            assertSame(fields.get(i), TypeUtil.getFieldInfo(Company.class, fields.getName(i)));
+            if (i > 0) {
+                assertTrue(fields.getName(i - 1).compareTo(fields.getName(i)) < 0);
+            }
+        }
+        assertEquals(-1, fields.indexOf("fieldThatDoesntExist"));
+        assertNull(fields.get("fieldThatDoesntExist"));
+
+        Set<String> nonCollections = new HashSet<String>();
+        for (int index : fields.getNonCollectionIndexes()) {
+            nonCollections.add(fields.getName(index));
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("id", "name", "vatNumber", "address",
+                        "bank", "CEO")), nonCollections);
+    }
+
+    public void testClassFieldsGetFieldProxy() throws Exception {
+        Manager m = new Manager();
+        m.setTitle("Accountant");
+        ClassFields fields = ClassFields.forClass(Manager.class);
+        assertEquals("Accountant", fields.getFieldProxy(m, fields.indexOf("title")));
+        Address a = new Address();
+        a.setAddress("Cambridge");
+        fields = ClassFields.forClass(Address.class);
+        assertEquals("Cambridge", fields.getFieldProxy(a, fields.indexOf("address")));
+    }
+
     public void testPackageName() throws Exception {
         assertEquals("", TypeUtil.packageName("test"));
         assertEquals("package", TypeUtil.packageName("package.test"));
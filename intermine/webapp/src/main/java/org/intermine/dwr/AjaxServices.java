@@ -63,6 +63,7 @@ import org.intermine.api.profile.SavedQuery;
 import org.intermine.api.profile.TagManager;
 import org.intermine.api.profile.UserAlreadyShareBagException;
 import org.intermine.api.profile.UserNotFoundException;
+import org.intermine.api.query.MainHelper;
 import org.intermine.api.query.WebResultsExecutor;
 import org.intermine.api.results.WebTable;
 import org.intermine.api.search.SearchRepository;
@@ -103,7 +104,7 @@ import org.intermine.web.logic.Constants;
 import org.intermine.web.logic.PortalHelper;
 import org.intermine.web.logic.bag.BagConverter;
 import org.intermine.web.logic.config.WebConfig;
-import org.intermine.web.logic.profile.UpgradeBagList;
+import org.intermine.web.logic.profile.LoginHandler;
 import org.intermine.web.logic.query.PageTableQueryMonitor;
 import org.intermine.web.logic.query.QueryMonitorTimeout;
 import org.intermine.web.logic.results.PagedTable;
@@ -278,8 +279,7 @@ public class AjaxServices
                 try {
                     profile.fixInvalidBag(name, newName);
                     InterMineAPI im = SessionMethods.getInterMineAPI(session);
-                    new Thread(new UpgradeBagList(profile, im.getBagQueryRunner()))
-                        .start();
+                    LoginHandler.runBagUpgrade(im, profile, System.currentTimeMillis());
                 } catch (UnknownBagTypeException e) {
                     return "<i>" + e.getMessage() + "</i>";
                 } catch (ObjectStoreException e) {
@@ -434,7 +434,9 @@ public class AjaxServices
      * Get the summary for the given column
      * @param summaryPath the path for the column as a String
      * @param tableName name of column-owning table
-     * @return a collection of rows
+     * @return the first rows of the summary, the id of the query counting the unique values (or
+     * null), the number of rows shown and the number of unique values (or null if it is being
+     * counted)
      * @throws Exception an exception
      */
     public static List<? extends Object> getColumnSummary(
@@ -453,13 +455,19 @@ public class AjaxServices
             List<ResultsRow> results = (List)
                 webResultsExecutor.summariseQuery(pathQuery, summaryPath);
 
-            // Start the count of results
-            Query countQuery = webResultsExecutor.makeSummaryQuery(pathQuery, summaryPath);
-            QueryCountQueryMonitor clientState
-                = new QueryCountQueryMonitor(Constants.QUERY_TIMEOUT_SECONDS * 1000, countQuery);
-            MessageResources messages = (MessageResources) ctx.getHttpServletRequest()
-                                                              .getAttribute(Globals.MESSAGES_KEY);
-            String qid = SessionMethods.startQueryCount(clientState, session, messages);
+            // The number of unique values is precomputed for the columns whose summary is, so
+            // only count them in the database if it isn't
+            String qid = null;
+            Integer uniqueCount = MainHelper.getStoredUniqueValueCount(pathQuery, summaryPath,
+                    im.getObjectStoreSummary());
+            if (uniqueCount == null) {
+                Query countQuery = webResultsExecutor.makeSummaryQuery(pathQuery, summaryPath);
+                QueryCountQueryMonitor clientState = new QueryCountQueryMonitor(
+                        Constants.QUERY_TIMEOUT_SECONDS * 1000, countQuery);
+                MessageResources messages = (MessageResources) ctx.getHttpServletRequest()
+                    .getAttribute(Globals.MESSAGES_KEY);
+                qid = SessionMethods.startQueryCount(clientState, session, messages);
+            }
             @SuppressWarnings("rawtypes")
             List<ResultsRow> pageSizeResults = new ArrayList<ResultsRow>();
             int rowCount = 0;
@@ -470,7 +478,8 @@ public class AjaxServices
                 }
                 pageSizeResults.add(row);
             }
-            return Arrays.asList(new Object[] {pageSizeResults, qid, new Integer(rowCount)});
+            return Arrays.asList(new Object[] {pageSizeResults, qid, new Integer(rowCount),
+                uniqueCount});
         } catch (RuntimeException e) {
             processException(e);
             return null;
@@ -1333,6 +1342,11 @@ public class AjaxServices
     public String[] getContent(String suffix, boolean wholeList, String field, String className) {
         ServletContext servletContext = WebContextFactory.get().getServletContext();
         AutoCompleter ac = SessionMethods.getAutoCompleter(servletContext);
+        if (ac == null) {
+            // not loaded yet, or there is no autocompletion in this mine
+            String[] defaultList = {""};
+            return defaultList;
+        }
 
         // swap "-" for spaces, ticket #2357
         suffix = suffix.replace("-", " ");
@@ -10,13 +10,21 @@ package org.intermine.web.autocompletion;
  *
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.log4j.Logger;
 
@@ -31,17 +39,24 @@ import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.intermine.metadata.ClassDescriptor;
+import org.intermine.modelproduction.MetadataManager;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 
 /**
  * Autocompleter class for initializing and using the autocompletion
  *
+ * The values of the autocompleted fields are held in a PrefixIndex for each field, which is built
+ * by buildIndex() and stored in the database.  Once loadLocalIndex() has read them, completions
+ * are found in memory, and Solr is only queried for fields that have no local index.
+ *
  * @author Dominik Grimm
  * @author Michael Menden
  * @author arunans23
@@ -54,6 +69,7 @@ public class AutoCompleter
 
     private HashMap<String, String> classFieldMap = new HashMap<String, String>();
     private HashMap<String, List<String>> fieldIndexMap = new HashMap<String, List<String>>();
+    private volatile Map<String, PrefixIndex> localIndexes = null;
 
     ObjectStore os;
 
@@ -90,6 +106,21 @@ public class AutoCompleter
         String status = "true";
         String[] stringResults = null;
 
+        Map<String, PrefixIndex> indexes = localIndexes;
+        PrefixIndex localIndex = (indexes == null) ? null : indexes.get(className + "." + field);
+        if (localIndex != null) {
+            if ("".equals(query) || query.trim().startsWith("*")) {
+                return null;
+            }
+            List<String> values = localIndex.complete(query, n);
+            stringResults = new String[values.size() + 1];
+            stringResults[0] = status;
+            for (int i = 0; i < values.size(); i++) {
+                stringResults[i + 1] = values.get(i);
+            }
+            return stringResults;
+        }
+
         SolrClient solrClient
                 = SolrClientHandler.getClientInstance(this.propertiesManager.getSolrUrl());
 
@@ -162,6 +193,49 @@ public class AutoCompleter
         return null;
     }
 
+    /**
+     * Read the autocompletion indexes stored in the database by buildIndex(), so that completions
+     * can be found without querying Solr.  If no indexes were stored, Solr is used as before.
+     */
+    public void loadLocalIndex() {
+        if (!(os instanceof ObjectStoreInterMineImpl)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        InputStream is = null;
+        try {
+            is = MetadataManager.readLargeBinary(((ObjectStoreInterMineImpl) os).getDatabase(),
+                    MetadataManager.AUTOCOMPLETE_INDEX);
+            if (is == null) {
+                LOG.info("No local autocompletion index found, autocompletion will use Solr");
+                return;
+            }
+            DataInputStream in = new DataInputStream(new GZIPInputStream(
+                        new BufferedInputStream(is)));
+            Map<String, PrefixIndex> indexes = new HashMap<String, PrefixIndex>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                indexes.put(key, PrefixIndex.read(in));
+            }
+            localIndexes = indexes;
+            LOG.info("Loaded local autocompletion indexes for " + indexes.keySet() + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        } catch (SQLException e) {
+            LOG.error("Could not read the local autocompletion index, using Solr", e);
+        } catch (IOException e) {
+            LOG.error("Could not read the local autocompletion index, using Solr", e);
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    LOG.warn("Could not close the local autocompletion index", e);
+                }
+            }
+        }
+    }
+
     /**
      * Build the index from the database blob
      * @param os Objectstore
@@ -175,6 +249,7 @@ public class AutoCompleter
 
         List<SolrInputDocument> solrDocumentList = new ArrayList<SolrInputDocument>();
         List<String> fieldList = new ArrayList<String>();
+        Map<String, PrefixIndex> indexes = new HashMap<String, PrefixIndex>();
 
         fieldList.add(CLASSNAME_FIELD);
 
@@ -200,25 +275,38 @@ public class AutoCompleter
                 }
 
                 Query q = new Query();
-                q.setDistinct(true);
                 QueryClass qc = new QueryClass(Class.forName(cld.getName()));
-                q.addToSelect(new QueryField(qc, fieldName));
+                QueryField qf = new QueryField(qc, fieldName);
+                q.addToSelect(qf);
+                q.addToSelect(new QueryFunction());
                 q.addFrom(qc);
+                q.addToGroupBy(qf);
                 Results results = os.execute(q);
 
+                PrefixIndex.Builder builder = new PrefixIndex.Builder();
                 for (Object resRow: results) {
                     @SuppressWarnings("rawtypes")
                     Object fieldValue = ((ResultsRow) resRow).get(0);
                     if (fieldValue != null) {
+                        @SuppressWarnings("rawtypes")
+                        Number count = (Number) ((ResultsRow) resRow).get(1);
+                        builder.add(fieldValue.toString(), count.intValue());
                         SolrInputDocument solrInputDocument = new SolrInputDocument();
                         solrInputDocument.addField(fieldName, fieldValue.toString());
                         solrInputDocument.addField(CLASSNAME_FIELD, cld.getUnqualifiedName());
                         solrDocumentList.add(solrInputDocument);
                     }
                 }
+                indexes.put(classAndField, builder.build());
             }
         }
 
+        storeLocalIndex(os, indexes);
+        if (propertiesManager.getSolrUrl() == null) {
+            LOG.info("autocomplete.solrurl is not set, only the local index has been built");
+            return;
+        }
+
         SolrClient solrClient = SolrClientHandler
                 .getClientInstance(this.propertiesManager.getSolrUrl());
 
@@ -283,6 +371,30 @@ public class AutoCompleter
     }
 
 
+    private static void storeLocalIndex(ObjectStore os, Map<String, PrefixIndex> indexes)
+        throws IOException {
+        if (!(os instanceof ObjectStoreInterMineImpl)) {
+            return;
+        }
+        try {
+            DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+                        new BufferedOutputStream(MetadataManager.storeLargeBinary(
+                                ((ObjectStoreInterMineImpl) os).getDatabase(),
+                                MetadataManager.AUTOCOMPLETE_INDEX))));
+            try {
+                out.writeInt(indexes.size());
+                for (Map.Entry<String, PrefixIndex> entry : indexes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not store the local autocompletion index", e);
+        }
+    }
+
     /**
      * checks if an autocompletion exists
      * @param type The name of the class to search.
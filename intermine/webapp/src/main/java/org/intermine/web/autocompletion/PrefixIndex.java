@@ -0,0 +1,366 @@
+package org.intermine.web.autocompletion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An in-memory autocompletion index of the values of one field of one class.  The values are
+ * split into lower case words, and the words are kept sorted in a single char array, each with
+ * the values that contain it, so that the values containing a word that starts with a prefix are
+ * found by a binary search followed by a scan of the words with that prefix.
+ *
+ * The values are numbered in order of rank: the values held by the most objects come first, and
+ * values held by the same number of objects are in alphabetical order.  A value matches a query if
+ * every word of the query is the start of a word of the value, which is how the Solr index that
+ * this replaces matched a query with a wildcard after each word.
+ */
+public class PrefixIndex
+{
+    private static final int FORMAT_VERSION = 1;
+
+    private final char[] valueData;
+    private final int[] valueStarts;
+    private final int[] valueCounts;
+    private final char[] wordData;
+    private final int[] wordStarts;
+    private final int[] postingStarts;
+    private final int[] postings;
+
+    private PrefixIndex(char[] valueData, int[] valueStarts, int[] valueCounts, char[] wordData,
+            int[] wordStarts, int[] postingStarts, int[] postings) {
+        this.valueData = valueData;
+        this.valueStarts = valueStarts;
+        this.valueCounts = valueCounts;
+        this.wordData = wordData;
+        this.wordStarts = wordStarts;
+        this.postingStarts = postingStarts;
+        this.postings = postings;
+    }
+
+    /**
+     * @return the number of values in the index
+     */
+    public int size() {
+        return valueStarts.length - 1;
+    }
+
+    /**
+     * Return the best values that match a query.  Values that start with the whole query come
+     * first, followed by the values that only contain each of its words, and in each group values
+     * held by more objects come first.
+     *
+     * @param query the text typed by the user
+     * @param n the maximum number of values to return
+     * @return a List of at most n values
+     */
+    public List<String> complete(String query, int n) {
+        List<String> queryWords = split(query);
+        if (queryWords.isEmpty() || n <= 0) {
+            return Collections.emptyList();
+        }
+        // scan the postings of the longest word, which is likely to match the fewest values
+        String longest = queryWords.get(0);
+        for (String word : queryWords) {
+            if (word.length() > longest.length()) {
+                longest = word;
+            }
+        }
+        BitSet candidates = new BitSet(size());
+        for (int pos = find(longest); pos < wordCount() && startsWith(pos, longest); pos++) {
+            for (int i = postingStarts[pos]; i < postingStarts[pos + 1]; i++) {
+                candidates.set(postings[i]);
+            }
+        }
+        String wholeQuery = join(queryWords);
+        List<String> starting = new ArrayList<String>();
+        List<String> containing = new ArrayList<String>();
+        for (int id = candidates.nextSetBit(0); id >= 0 && starting.size() < n;
+                id = candidates.nextSetBit(id + 1)) {
+            String value = getValue(id);
+            List<String> valueWords = split(value);
+            if (join(valueWords).startsWith(wholeQuery)) {
+                starting.add(value);
+            } else if (containing.size() < n && containsAll(valueWords, queryWords)) {
+                containing.add(value);
+            }
+        }
+        for (int i = 0; starting.size() < n && i < containing.size(); i++) {
+            starting.add(containing.get(i));
+        }
+        return starting;
+    }
+
+    /**
+     * Write the index in the format read by read().
+     *
+     * @param out a DataOutputStream
+     * @throws IOException if the stream can't be written to
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        writeChars(out, valueData);
+        writeInts(out, valueStarts);
+        writeInts(out, valueCounts);
+        writeChars(out, wordData);
+        writeInts(out, wordStarts);
+        writeInts(out, postingStarts);
+        writeInts(out, postings);
+    }
+
+    /**
+     * Read an index written by write().
+     *
+     * @param in a DataInputStream
+     * @return a new PrefixIndex
+     * @throws IOException if the stream can't be read or is not in the expected format
+     */
+    public static PrefixIndex read(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown autocompletion index format " + version);
+        }
+        return new PrefixIndex(readChars(in), readInts(in), readInts(in), readChars(in),
+                readInts(in), readInts(in), readInts(in));
+    }
+
+    /**
+     * Split a String into lower case words of letters and digits.
+     *
+     * @param text the String
+     * @return a List of words
+     */
+    static List<String> split(String text) {
+        List<String> words = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Join words with single spaces, so that a query and a value can be compared without regard
+     * to case or punctuation.
+     */
+    private static String join(List<String> words) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : words) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(word);
+        }
+        return sb.toString();
+    }
+
+    private static boolean containsAll(List<String> valueWords, List<String> queryWords) {
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            for (String valueWord : valueWords) {
+                if (valueWord.startsWith(queryWord)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getValue(int id) {
+        return new String(valueData, valueStarts[id], valueStarts[id + 1] - valueStarts[id]);
+    }
+
+    private int wordCount() {
+        return wordStarts.length - 1;
+    }
+
+    /**
+     * Return the position of the first word that is not less than the given prefix.
+     */
+    private int find(String prefix) {
+        int low = 0;
+        int high = wordCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int pos, String key) {
+        int start = wordStarts[pos];
+        int length = wordStarts[pos + 1] - start;
+        int common = Math.min(length, key.length());
+        for (int i = 0; i < common; i++) {
+            int diff = wordData[start + i] - key.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - key.length();
+    }
+
+    private boolean startsWith(int pos, String prefix) {
+        int start = wordStarts[pos];
+        if (wordStarts[pos + 1] - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (wordData[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeChars(DataOutputStream out, char[] chars) throws IOException {
+        out.writeInt(chars.length);
+        for (char c : chars) {
+            out.writeChar(c);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        out.writeInt(ints.length);
+        for (int i : ints) {
+            out.writeInt(i);
+        }
+    }
+
+    private static char[] readChars(DataInputStream in) throws IOException {
+        char[] chars = new char[in.readInt()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.readChar();
+        }
+        return chars;
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] ints = new int[in.readInt()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = in.readInt();
+        }
+        return ints;
+    }
+
+    /**
+     * Builds an index from the values of a field and the number of objects holding each value.
+     */
+    public static final class Builder
+    {
+        private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        /**
+         * Add a value.  If the value has already been added, the counts are added together.
+         *
+         * @param value the value
+         * @param count the number of objects holding the value
+         */
+        public void add(String value, int count) {
+            Integer old = counts.get(value);
+            counts.put(value, new Integer((old == null) ? count : old.intValue() + count));
+        }
+
+        /**
+         * @return an index of the values added
+         */
+        public PrefixIndex build() {
+            List<String> values = new ArrayList<String>(counts.keySet());
+            Collections.sort(values, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    int diff = counts.get(b).compareTo(counts.get(a));
+                    return (diff != 0) ? diff : a.compareTo(b);
+                }
+            });
+            int valueChars = 0;
+            for (String value : values) {
+                valueChars += value.length();
+            }
+            char[] valueData = new char[valueChars];
+            int[] valueStarts = new int[values.size() + 1];
+            int[] valueCounts = new int[values.size()];
+            Map<String, SortedSet<Integer>> wordValues = new TreeMap<String, SortedSet<Integer>>();
+            int pos = 0;
+            int postingCount = 0;
+            for (int id = 0; id < values.size(); id++) {
+                String value = values.get(id);
+                value.getChars(0, value.length(), valueData, pos);
+                valueStarts[id] = pos;
+                valueCounts[id] = counts.get(value).intValue();
+                pos += value.length();
+                for (String word : split(value)) {
+                    SortedSet<Integer> ids = wordValues.get(word);
+                    if (ids == null) {
+                        ids = new TreeSet<Integer>();
+                        wordValues.put(word, ids);
+                    }
+                    if (ids.add(new Integer(id))) {
+                        postingCount++;
+                    }
+                }
+            }
+            valueStarts[values.size()] = pos;
+            int wordChars = 0;
+            for (String word : wordValues.keySet()) {
+                wordChars += word.length();
+            }
+            char[] wordData = new char[wordChars];
+            int[] wordStarts = new int[wordValues.size() + 1];
+            int[] postingStarts = new int[wordValues.size() + 1];
+            int[] postings = new int[postingCount];
+            int wordNo = 0;
+            int charPos = 0;
+            int postingPos = 0;
+            for (Map.Entry<String, SortedSet<Integer>> entry : wordValues.entrySet()) {
+                String word = entry.getKey();
+                word.getChars(0, word.length(), wordData, charPos);
+                wordStarts[wordNo] = charPos;
+                postingStarts[wordNo] = postingPos;
+                charPos += word.length();
+                for (Integer id : entry.getValue()) {
+                    postings[postingPos++] = id.intValue();
+                }
+                wordNo++;
+            }
+            wordStarts[wordNo] = charPos;
+            postingStarts[wordNo] = postingPos;
+            return new PrefixIndex(valueData, valueStarts, valueCounts, wordData, wordStarts,
+                    postingStarts, postings);
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.intermine.util.ShutdownHook;
 import org.intermine.util.Shutdownable;
 import org.intermine.web.logic.ResourceOpener;
 import org.intermine.web.logic.config.WebConfig;
+import org.intermine.web.logic.profile.BagUpgradeScheduler;
 import org.intermine.web.security.KeyStoreBuilder;
 
 /**
@@ -48,6 +49,7 @@ public final class InterMineContext implements Shutdownable
     }
 
     private static final int WORKERS = 10;
+    private static final int DEFAULT_LIST_UPGRADE_THREADS = 2;
     private static InterMineAPI im;
     private static Properties webProperties;
     private static WebConfig webConfig;
@@ -58,6 +60,7 @@ public final class InterMineContext implements Shutdownable
     private static ArrayBlockingQueue<MailAction> mailQueue;
     private static ExecutorService mailService;
     private static ResourceOpener opener;
+    private static BagUpgradeScheduler bagUpgradeScheduler;
 
     /**
      * Set up the Context with everything it needs.
@@ -86,6 +89,17 @@ public final class InterMineContext implements Shutdownable
         mailQueue = new ArrayBlockingQueue<MailAction>(10000);
         mailService = Executors.newCachedThreadPool(new DaemonThreadFactory());
         startMailerThreads(emailer);
+        int upgradeThreads = DEFAULT_LIST_UPGRADE_THREADS;
+        String threadsProperty = webProps.getProperty("list.upgrade.threads");
+        if (threadsProperty != null) {
+            try {
+                upgradeThreads = Integer.parseInt(threadsProperty.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value for list.upgrade.threads: " + threadsProperty);
+            }
+        }
+        bagUpgradeScheduler = new BagUpgradeScheduler(imApi.getBagQueryRunner(),
+                Math.max(1, upgradeThreads));
         ShutdownHook.registerObject(new InterMineContext());
 
         isInitialised = true;
@@ -122,6 +136,14 @@ public final class InterMineContext implements Shutdownable
         return webProperties;
     }
 
+    /**
+     * @return The scheduler that upgrades the users' lists after a release.
+     */
+    public static BagUpgradeScheduler getBagUpgradeScheduler() {
+        checkInit();
+        return bagUpgradeScheduler;
+    }
+
     /**
      * Get the value of a stored attribute.
      * @param name The name to look up.
@@ -182,6 +204,9 @@ public final class InterMineContext implements Shutdownable
             // Tell the pool to close.
             mailService.shutdownNow();
         }
+        if (bagUpgradeScheduler != null) {
+            bagUpgradeScheduler.shutdown();
+        }
         im = null;
         webProperties = null;
         webConfig = null;
@@ -189,6 +214,7 @@ public final class InterMineContext implements Shutdownable
         keyStore = null;
         mailQueue = null;
         mailService = null;
+        bagUpgradeScheduler = null;
         isInitialised = false;
     }
 
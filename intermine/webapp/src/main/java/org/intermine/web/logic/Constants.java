@@ -236,6 +236,12 @@ public final class Constants
      */
     public static final String INTERMINE_API = "INTERMINE_API";
 
+    /**
+     * InterMineContext attribute, the InitialisationGraph that started the webapp, which holds
+     * the time taken by each step of initialisation.
+     */
+    public static final String INITIALISATION_GRAPH = "INITIALISATION_GRAPH";
+
     /** Key for the initialiser error **/
     public static final String INITIALISER_KEY_ERROR = "INITIALISER_KEY_ERROR";
 
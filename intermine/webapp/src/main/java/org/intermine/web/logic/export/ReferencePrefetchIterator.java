@@ -0,0 +1,91 @@
+package org.intermine.web.logic.export;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.results.ResultElement;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.proxy.ProxyBatch;
+
+/**
+ * Wraps the rows given to an exporter that follows the references of the objects it exports, for
+ * example to their chromosome, location or organism.  The rows are read ahead in blocks, and the
+ * referenced objects of a whole block are fetched with a ProxyBatch before the rows are returned,
+ * instead of with one query per reference while each row is written.
+ */
+public class ReferencePrefetchIterator implements Iterator<List<ResultElement>>
+{
+    private static final Logger LOG = Logger.getLogger(ReferencePrefetchIterator.class);
+
+    private final Iterator<? extends List<ResultElement>> rows;
+    private final Collection<Integer> columns;
+    private final LinkedList<List<ResultElement>> ahead = new LinkedList<List<ResultElement>>();
+
+    /**
+     * Constructor.
+     *
+     * @param rows the rows to export
+     * @param columns the indexes of the columns holding the objects whose references are followed
+     */
+    public ReferencePrefetchIterator(Iterator<? extends List<ResultElement>> rows,
+            Collection<Integer> columns) {
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (ahead.isEmpty()) {
+            readAhead();
+        }
+        return !ahead.isEmpty();
+    }
+
+    @Override
+    public List<ResultElement> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return ahead.removeFirst();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void readAhead() {
+        ProxyBatch proxies = new ProxyBatch();
+        while ((ahead.size() < ProxyBatch.BATCH_SIZE) && rows.hasNext()) {
+            List<ResultElement> row = rows.next();
+            ahead.add(row);
+            for (Integer column : columns) {
+                ResultElement element = (column.intValue() < row.size()) ? row.get(column) : null;
+                if ((element != null) && (element.getObject() instanceof InterMineObject)) {
+                    proxies.addReferences(element.getObject());
+                }
+            }
+        }
+        try {
+            proxies.resolve();
+        } catch (ObjectStoreException e) {
+            // the references will be fetched one at a time instead
+            LOG.warn("Could not prefetch the references of exported objects", e);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package org.intermine.web.logic.profile;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.bag.BagQueryResult;
+import org.intermine.api.bag.BagQueryRunner;
+import org.intermine.api.bag.BagQueryUpgrade;
+import org.intermine.api.profile.BagState;
+import org.intermine.api.profile.BagValue;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.api.profile.Profile;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.util.CacheMap;
+
+/**
+ * Upgrades the lists that are not current after a release, using a pool of worker threads.
+ *
+ * Each list is upgraded as a separate task, and the tasks of the users who were active most
+ * recently are run first, so a user who logs in while the lists of other users are being upgraded
+ * doesn't have to wait for them.  Lists containing exactly the same identifiers are only resolved
+ * once.  The progress is kept in the state of each list in the userprofile database: a list is
+ * marked UPGRADING while it is being upgraded, and a list that is still UPGRADING but isn't
+ * scheduled here was interrupted by a restart, so is upgraded again.
+ */
+public class BagUpgradeScheduler
+{
+    private static final Logger LOG = Logger.getLogger(BagUpgradeScheduler.class);
+
+    private final BagQueryRunner bagQueryRunner;
+    private final ThreadPoolExecutor executor;
+    // tasks waiting or running, by saved bag id
+    private final Map<Integer, BagUpgradeTask> pending = new HashMap<Integer, BagUpgradeTask>();
+    // results of resolving the identifiers of lists, so identical lists are only resolved once
+    private final Map<List<String>, FutureTask<BagQueryResult>> results =
+        new CacheMap<List<String>, FutureTask<BagQueryResult>>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger upgraded = new AtomicInteger();
+    private final AtomicInteger toUpgrade = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger shared = new AtomicInteger();
+
+    /**
+     * Constructor
+     *
+     * @param bagQueryRunner The mechanism to search for items for the lists.
+     * @param threads the number of lists to upgrade at the same time
+     */
+    public BagUpgradeScheduler(BagQueryRunner bagQueryRunner, int threads) {
+        this.bagQueryRunner = bagQueryRunner;
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger threadNo = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "BagUpgradeScheduler worker "
+                                + threadNo.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Schedule the upgrade of the lists of a user that are not current.  If some of the lists are
+     * already waiting to be upgraded, they are moved up the queue if the user has been active
+     * more recently than when they were scheduled.
+     *
+     * @param profile the profile of the user whose lists we are upgrading
+     * @param lastActive the time the user was last active, in milliseconds since the epoch, or
+     * zero to upgrade the lists after those of all active users
+     */
+    public void schedule(Profile profile, long lastActive) {
+        for (InterMineBag bag : new ArrayList<InterMineBag>(profile.getSavedBags().values())) {
+            if (!needsUpgrade(bag)) {
+                continue;
+            }
+            synchronized (pending) {
+                BagUpgradeTask task = pending.get(bag.getSavedBagId());
+                if (task != null) {
+                    if (task.lastActive >= lastActive || !executor.remove(task)) {
+                        // already queued ahead of this, or already running
+                        continue;
+                    }
+                } else if (BagState.UPGRADING.toString().equals(bag.getState())) {
+                    LOG.info("Resuming the interrupted upgrade of list " + bag.getName()
+                            + " for " + profile.getUsername());
+                }
+                task = new BagUpgradeTask(bag, lastActive, sequence.getAndIncrement());
+                pending.put(bag.getSavedBagId(), task);
+                executor.execute(task);
+            }
+        }
+    }
+
+    /**
+     * Return the progress of the upgrade, as counts of the lists in each stage.
+     *
+     * @return a map from stage to number of lists
+     */
+    public Map<String, Integer> getProgress() {
+        Map<String, Integer> progress = new LinkedHashMap<String, Integer>();
+        progress.put("waiting", executor.getQueue().size());
+        progress.put("running", executor.getActiveCount());
+        progress.put("upgraded", upgraded.get());
+        progress.put("toUpgrade", toUpgrade.get());
+        progress.put("failed", failed.get());
+        progress.put("shared", shared.get());
+        return progress;
+    }
+
+    /**
+     * Stop upgrading lists.  The lists being upgraded are left UPGRADING, so they will be
+     * upgraded again when the webapp next starts.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static boolean needsUpgrade(InterMineBag bag) {
+        String state = bag.getState();
+        return BagState.NOT_CURRENT.toString().equals(state)
+            || BagState.UPGRADING.toString().equals(state);
+    }
+
+    /**
+     * Upgrade a list.  Package private so that tests can see the order lists are upgraded in.
+     *
+     * @param bag the list to upgrade
+     */
+    void upgrade(InterMineBag bag) {
+        synchronized (bag) {
+            if (!needsUpgrade(bag)) {
+                return;
+            }
+            try {
+                bag.setState(BagState.UPGRADING);
+            } catch (ObjectStoreException ose) {
+                LOG.error("Problem to update the status to UPGRADING for list "
+                    + bag.getName(), ose);
+            }
+        }
+        try {
+            BagQueryResult result = getBagQueryResult(bag);
+            if (Thread.currentThread().isInterrupted()) {
+                // shutting down, leave the list to be upgraded after the restart
+                return;
+            }
+            if (result == null) {
+                failed.incrementAndGet();
+                bag.setState(BagState.TO_UPGRADE);
+            } else if (result.getUnresolvedIdentifiers().isEmpty()
+                && (result.getIssues().isEmpty()
+                    || onlyOtherIssuesAlreadyContained(result))) {
+                @SuppressWarnings("rawtypes")
+                Map<Integer, List> matches = result.getMatches();
+                //we don't need to update the extra field added later
+                bag.upgradeOsb(matches.keySet(), false);
+                upgraded.incrementAndGet();
+            } else {
+                bag.setState(BagState.TO_UPGRADE);
+                toUpgrade.incrementAndGet();
+            }
+        } catch (ObjectStoreException ose) {
+            failed.incrementAndGet();
+            LOG.warn("Could not upgrade the list " + bag.getName(), ose);
+        }
+    }
+
+    /**
+     * Resolve the identifiers in a list, or return the result of resolving the same identifiers
+     * for another list.
+     */
+    private BagQueryResult getBagQueryResult(final InterMineBag bag) {
+        List<String> key = new ArrayList<String>();
+        for (BagValue bagValue : bag.getContents()) {
+            key.add(bagValue.getExtra() + "\t" + bagValue.getValue());
+        }
+        Collections.sort(key);
+        key.add(0, bag.getType());
+        FutureTask<BagQueryResult> future;
+        boolean resolve = false;
+        synchronized (results) {
+            future = results.get(key);
+            if (future == null) {
+                future = new FutureTask<BagQueryResult>(new Callable<BagQueryResult>() {
+                    @Override
+                    public BagQueryResult call() {
+                        return new BagQueryUpgrade(bagQueryRunner, bag).getBagQueryResult();
+                    }
+                });
+                results.put(key, future);
+                resolve = true;
+            } else {
+                shared.incrementAndGet();
+            }
+        }
+        if (resolve) {
+            future.run();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            LOG.warn("Cannot upgrade the list " + bag.getName(), e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Verify that the only issues existing have type OTHER and the ids contained already
+     * exist in the list.
+     * If the condition is verified the list can be upgraded automatically
+     * @param result
+     * @return
+     */
+    private static boolean onlyOtherIssuesAlreadyContained(BagQueryResult result) {
+        if (result.getIssues().get(BagQueryResult.DUPLICATE) == null
+            && result.getIssues().get(BagQueryResult.TYPE_CONVERTED) == null
+            && result.getIssues().get(BagQueryResult.WILDCARD) == null) {
+
+            @SuppressWarnings("rawtypes")
+            Map<String, Map<String, List>> otherMatchMap = result.getIssues()
+                .get(BagQueryResult.OTHER);
+            Set<Integer> matchesIds = result.getMatches().keySet();
+            if (otherMatchMap != null) {
+                @SuppressWarnings("rawtypes")
+                Map<String, List> lowQualityMatches = new LinkedHashMap<String, List>();
+                @SuppressWarnings("rawtypes")
+                Iterator<Map<String, List>> otherMatchesIter = otherMatchMap.values().iterator();
+                while (otherMatchesIter.hasNext()) {
+                    @SuppressWarnings("rawtypes")
+                    Map<String, List> inputToObjectsMap = otherMatchesIter.next();
+                    @SuppressWarnings("rawtypes")
+                    Map<String, List> inputToObjectsMapUpdated = new LinkedHashMap<String, List>();
+                    for (String key : inputToObjectsMap.keySet()) {
+                        @SuppressWarnings("rawtypes")
+                        List listObjects = inputToObjectsMap.get(key);
+                        List<Object> listObjectsUpdated = new ArrayList<Object>();
+                        for (Object obj : listObjects) {
+                            InterMineObject intermineObj = (InterMineObject) obj;
+                            if (matchesIds.isEmpty()
+                                || !matchesIds.contains(intermineObj.getId())) {
+                                listObjectsUpdated.add(obj);
+                            }
+                        }
+                        if (!listObjectsUpdated.isEmpty()) {
+                            inputToObjectsMapUpdated.put(key, listObjectsUpdated);
+                        }
+                    }
+                    if (!inputToObjectsMapUpdated.isEmpty()) {
+                        lowQualityMatches.putAll(inputToObjectsMapUpdated);
+                    }
+                }
+                if (lowQualityMatches.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The upgrade of one list, ordered so that the lists of the most recently active users are
+     * upgraded first, and otherwise in the order they were scheduled.
+     */
+    private final class BagUpgradeTask implements Runnable, Comparable<BagUpgradeTask>
+    {
+        private final InterMineBag bag;
+        private final long lastActive;
+        private final long sequenceNo;
+
+        private BagUpgradeTask(InterMineBag bag, long lastActive, long sequenceNo) {
+            this.bag = bag;
+            this.lastActive = lastActive;
+            this.sequenceNo = sequenceNo;
+        }
+
+        @Override
+        public void run() {
+            try {
+                upgrade(bag);
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                LOG.error("Could not upgrade the list " + bag.getName(), e);
+            } finally {
+                synchronized (pending) {
+                    if (pending.get(bag.getSavedBagId()) == this) {
+                        pending.remove(bag.getSavedBagId());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(BagUpgradeTask other) {
+            if (lastActive != other.lastActive) {
+                return (lastActive > other.lastActive) ? -1 : 1;
+            }
+            return (sequenceNo < other.sequenceNo) ? -1 : ((sequenceNo == other.sequenceNo)
+                    ? 0 : 1);
+        }
+    }
+}
@@ -23,7 +23,6 @@ import org.apache.log4j.Logger;
 import org.apache.struts.action.ActionMessage;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.profile.BadTemplateException;
-import org.intermine.api.profile.BagState;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.profile.ProfileManager;
@@ -34,6 +33,7 @@ import org.intermine.api.util.NameUtil;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.intermine.ObjectStoreWriterInterMineImpl;
 import org.intermine.sql.DatabaseUtil;
+import org.intermine.web.context.InterMineContext;
 import org.intermine.web.logic.Constants;
 import org.intermine.web.logic.session.SessionMethods;
 import org.intermine.web.struts.InterMineAction;
@@ -203,32 +203,27 @@ public abstract class LoginHandler extends InterMineAction
         if (profile.isSuperuser() || (userName != null && userName.equals(pm.getSuperuser()))) {
             permission.addRole("SUPERUSER");
         }
-        if (!api.getBagManager().isAnyBagInState(profile, BagState.UPGRADING)) {
-            UpgradeBagList upgrade = new UpgradeBagList(profile, api.getBagQueryRunner());
-            runBagUpgrade(upgrade, api, profile);
-        }
+        runBagUpgrade(api, profile, System.currentTimeMillis());
     }
 
     /**
-     * Kick off a bag upgrade for current user.
-     * @param procedure The bag upgrade routine.
+     * Schedule the upgrade of the lists of a user that are not current.
      * @param api The InterMine state object.
-     * @param profile The current user's profile.
+     * @param profile The user's profile.
+     * @param lastActive The time the user was last active, or zero if they aren't active now.
      */
     public static void runBagUpgrade(
-            UpgradeBagList procedure,
             InterMineAPI api,
-            Profile profile) {
+            Profile profile,
+            long lastActive) {
         Connection con = null;
         try {
             con = ((ObjectStoreWriterInterMineImpl) api.getProfileManager()
                     .getProfileObjectStoreWriter()).getDatabase()
                     .getConnection();
-            if (api.getBagManager().isAnyBagNotCurrent(profile)
+            if (api.getBagManager().isAnyBagNotCurrentOrUpgrading(profile)
                     && !DatabaseUtil.isBagValuesEmpty(con)) {
-                Thread upgrade = new Thread(procedure);
-                upgrade.setDaemon(true);
-                upgrade.start();
+                InterMineContext.getBagUpgradeScheduler().schedule(profile, lastActive);
             }
         } catch (SQLException sqle) {
             LOG.error("Problems retrieving the connection", sqle);
@@ -254,8 +249,7 @@ public abstract class LoginHandler extends InterMineAction
         if (profile.isSuperuser()) {
             session.setAttribute(Constants.IS_SUPERUSER, Boolean.TRUE);
         }
-        UpgradeBagList upgrade = new UpgradeBagList(profile, im.getBagQueryRunner());
-        runBagUpgrade(upgrade, im, profile);
+        runBagUpgrade(im, profile, System.currentTimeMillis());
         return profile;
     }
 
@@ -36,6 +36,8 @@ import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.metadata.StringUtil;
 import org.intermine.metadata.CollectionDescriptor;
 import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.proxy.ProxyBatch;
 import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.objectstore.query.ClobAccess;
 import org.intermine.pathquery.Path;
@@ -847,6 +849,15 @@ public class ReportObject
             initialiseInlineList(listConfig, bagOfInlineListNames);
         }
 
+        // fetch the objects of all the references in one query rather than one query each
+        ProxyBatch proxies = new ProxyBatch(im.getObjectStore());
+        proxies.addReferences(object);
+        try {
+            proxies.resolve();
+        } catch (ObjectStoreException e) {
+            LOG.warn("Failed to fetch the references of object " + object.getId(), e);
+        }
+
         /** Attributes, References, Collections through FieldDescriptors **/
         nullRefsCols =
             im.getObjectStoreSummary()
@@ -15,7 +15,6 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.math3.distribution.HypergeometricDistribution;
 
 /**
  * Calculate enrichment of an attribute applied to members of a sample that is a subset of a larger
@@ -93,9 +92,8 @@ public final class EnrichmentCalculation
             PopulationInfo pi = annotatedPopulationInfo.get(attribute);
             Integer populationCount = (pi != null) ? pi.getSize() : 0;
 
-            HypergeometricDistribution h =
-                new HypergeometricDistribution(populationSize, populationCount, sampleSize);
-            Double pValue = h.upperCumulativeProbability(sampleCount);
+            double pValue = Hypergeometric.upperCumulativeProbability(populationSize,
+                    populationCount.intValue(), sampleSize, sampleCount.intValue());
             rawResults.put(attribute, new BigDecimal(pValue));
         }
         return rawResults;
@@ -0,0 +1,189 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.util.BuildOnceCache;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.Results;
+
+/**
+ * An in-memory index of the terms annotated to every object for one enrichment widget
+ * configuration, so that the counts for a list can be computed without running the sample query.
+ * The objects are held in a sorted array of ids, and the terms of each object as a compact array
+ * of term numbers, so that counting a list only touches the annotations of the objects in the
+ * list.
+ *
+ * Indexes are built from the query returned by EnrichmentWidgetImplLdr.getIndexQuery() the first
+ * time a widget with a particular configuration and filter is used, and are cached until memory
+ * runs short.  The production database doesn't change within a release, so the index stays
+ * valid.
+ */
+public class EnrichmentIndex
+{
+    private static final Logger LOG = Logger.getLogger(EnrichmentIndex.class);
+    private static final int BATCH_SIZE = 20000;
+
+    private static final BuildOnceCache<String, EnrichmentIndex> INDEXES =
+        new BuildOnceCache<String, EnrichmentIndex>("enrichment index");
+
+    private final int[] objectIds;
+    private final int[] offsets;
+    private final int[] objectTerms;
+    private final String[] terms;
+    private final String[] labels;
+
+    /**
+     * Returns the index for a query, building it if it is not in the cache.
+     *
+     * @param os the ObjectStore to run the query in
+     * @param query the index query, returning rows of object id, term identifier and optionally
+     * term label, ordered by object id
+     * @return an EnrichmentIndex, or null if the thread was interrupted while the index was being
+     * built by another
+     */
+    public static EnrichmentIndex getIndex(final ObjectStore os, final Query query) {
+        // returns null if interrupted, so the caller runs the sample query instead
+        return INDEXES.get(query.toString(), new Callable<EnrichmentIndex>() {
+            @Override
+            public EnrichmentIndex call() {
+                return build(os, query);
+            }
+        });
+    }
+
+    private static EnrichmentIndex build(ObjectStore os, Query query) {
+        long start = System.currentTimeMillis();
+        Results results = os.execute(query, BATCH_SIZE, true, false, true);
+        EnrichmentIndex index = new EnrichmentIndex(results.iterator());
+        LOG.info("Built enrichment index of " + index.objectIds.length + " objects, "
+                + index.terms.length + " terms and " + index.objectTerms.length
+                + " annotations in " + (System.currentTimeMillis() - start) + " ms for " + query);
+        return index;
+    }
+
+    /**
+     * Builds an index from rows of object id, term identifier and optionally term label, ordered
+     * by object id.
+     *
+     * @param rows an Iterator over Lists
+     */
+    protected EnrichmentIndex(Iterator<?> rows) {
+        Map<String, Integer> termNumbers = new HashMap<String, Integer>();
+        Map<Integer, String> termLabels = new HashMap<Integer, String>();
+        int[] ids = new int[1024];
+        int[] starts = new int[1025];
+        int[] annotations = new int[4096];
+        int objectCount = 0;
+        int annotationCount = 0;
+        int currentId = 0;
+        while (rows.hasNext()) {
+            List<?> row = (List<?>) rows.next();
+            int id = ((Integer) row.get(0)).intValue();
+            String term = String.valueOf(row.get(1));
+            String label = (row.size() > 2) ? String.valueOf(row.get(2)) : term;
+            if ((objectCount == 0) || (id != currentId)) {
+                if ((objectCount > 0) && (id < currentId)) {
+                    throw new IllegalArgumentException("Index rows are not ordered by id");
+                }
+                if (objectCount == ids.length) {
+                    ids = Arrays.copyOf(ids, objectCount * 2);
+                    starts = Arrays.copyOf(starts, objectCount * 2 + 1);
+                }
+                ids[objectCount] = id;
+                starts[objectCount] = annotationCount;
+                objectCount++;
+                currentId = id;
+            }
+            Integer termNumber = termNumbers.get(term);
+            if (termNumber == null) {
+                termNumber = new Integer(termNumbers.size());
+                termNumbers.put(term, termNumber);
+            }
+            termLabels.put(termNumber, label);
+            // the same term can come more than once for an object if it has several labels
+            boolean seen = false;
+            for (int i = starts[objectCount - 1]; i < annotationCount; i++) {
+                if (annotations[i] == termNumber.intValue()) {
+                    seen = true;
+                    break;
+                }
+            }
+            if (!seen) {
+                if (annotationCount == annotations.length) {
+                    annotations = Arrays.copyOf(annotations, annotationCount * 2);
+                }
+                annotations[annotationCount] = termNumber.intValue();
+                annotationCount++;
+            }
+        }
+        starts[objectCount] = annotationCount;
+        objectIds = Arrays.copyOf(ids, objectCount);
+        offsets = Arrays.copyOf(starts, objectCount + 1);
+        objectTerms = Arrays.copyOf(annotations, annotationCount);
+        terms = new String[termNumbers.size()];
+        labels = new String[termNumbers.size()];
+        for (Map.Entry<String, Integer> entry : termNumbers.entrySet()) {
+            terms[entry.getValue().intValue()] = entry.getKey();
+            labels[entry.getValue().intValue()] = termLabels.get(entry.getValue());
+        }
+    }
+
+    /**
+     * Counts the number of objects in a sample annotated with each term.
+     *
+     * @param sampleIds the ids of the objects in the sample, duplicates are ignored
+     * @param counts a Map to put the number of objects annotated with each term into, terms
+     * that annotate no objects in the sample are left out
+     * @param termLabels a Map to put the label of each term in the counts into
+     * @return the number of objects in the sample that have any annotation
+     */
+    public int count(Collection<Integer> sampleIds, Map<String, Integer> counts,
+            Map<String, String> termLabels) {
+        int[] sample = new int[sampleIds.size()];
+        int sampleSize = 0;
+        for (Integer id : sampleIds) {
+            sample[sampleSize] = id.intValue();
+            sampleSize++;
+        }
+        Arrays.sort(sample);
+        int[] termCounts = new int[terms.length];
+        int annotated = 0;
+        for (int i = 0; i < sampleSize; i++) {
+            if ((i > 0) && (sample[i] == sample[i - 1])) {
+                continue;
+            }
+            int position = Arrays.binarySearch(objectIds, sample[i]);
+            if (position >= 0) {
+                annotated++;
+                for (int j = offsets[position]; j < offsets[position + 1]; j++) {
+                    termCounts[objectTerms[j]]++;
+                }
+            }
+        }
+        for (int i = 0; i < terms.length; i++) {
+            if (termCounts[i] > 0) {
+                counts.put(terms[i], new Integer(termCounts[i]));
+                termLabels.put(terms[i], labels[i]);
+            }
+        }
+        return annotated;
+    }
+}
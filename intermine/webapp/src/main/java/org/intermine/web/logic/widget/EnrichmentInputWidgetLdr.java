@@ -35,6 +35,7 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
     private Map<String, Integer> sampleCounts = null;
     private Map<String, PopulationInfo> populationCounts = null;
     private Map<String, String> labels = null;
+    private Integer sampleSize = null;
     private static final int BATCH_SIZE = 20000;
 
     // population queries that don't involve bags can be cached between widget executions
@@ -104,6 +105,16 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
             sampleCounts = new HashMap<String, Integer>();
             labels = new HashMap<String, String>();
 
+            if (ldr.canUseIndex()) {
+                // count the list from the annotations of every object, instead of querying
+                EnrichmentIndex index = EnrichmentIndex.getIndex(os, ldr.getIndexQuery());
+                if (index != null) {
+                    sampleSize = new Integer(index.count(ldr.getSampleIds(), sampleCounts,
+                                labels));
+                    return sampleCounts;
+                }
+            }
+
             Query query = ldr.getSampleQuery(false);
 
             Results results = os.execute(query, BATCH_SIZE, true, true, true);
@@ -159,6 +170,10 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
 
     @Override
     public int getSampleSize() {
+        if (ldr.canUseIndex()) {
+            getAnnotatedCountsInSample();
+            return sampleSize.intValue();
+        }
         // TODO this should use os.count() but needs to be backwards compatible with widgets
         Query q = ldr.getSampleQuery(true);
         return calcTotal(q);
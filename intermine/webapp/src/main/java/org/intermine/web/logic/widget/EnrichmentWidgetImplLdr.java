@@ -110,6 +110,10 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
      *
      *     n = total annotated with any term in bag (used to be bag.count)
      *
+     * index query:
+     *
+     *     select object.id and term for every object in the database, ordered by object.id
+     *
      * @param keys the keys of the records to be exported
      * @param action which query to be built.
      * @return query to return the correct result set for this widget
@@ -139,7 +143,9 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
         }
 
         QueryField qfStartClassId = new QueryField(startClass, "id");
-        if (!action.startsWith("population")) {
+        // the index query covers all objects, the bag is applied when the index is used
+        boolean isIndex = "index".equals(action);
+        if (!action.startsWith("population") && !isIndex) {
             if (bag != null) {
                 cs.addConstraint(new BagConstraint(qfStartClassId, ConstraintOp.IN, bag.getOsb()));
             } else if (ids != null) {
@@ -156,7 +162,7 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
                 }
                 cs.addConstraint(new BagConstraint(qfStartClassId, ConstraintOp.IN, idsCollection));
             }
-        } else if (populationBag != null || populationIds != null) {
+        } else if (!isIndex && (populationBag != null || populationIds != null)) {
             if (populationBag != null) {
                 cs.addConstraint(new BagConstraint(qfStartClassId,
                         ConstraintOp.IN, populationBag.getOsb()));
@@ -191,6 +197,15 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
             subQ.addToSelect(qfStartClassId);
             subQ.addToOrderBy(qfEnrichId);
             return subQ;
+        // index query:  every gene with its terms, ordered by gene
+        } else if (isIndex) {
+            subQ.addToSelect(qfStartClassId);
+            subQ.addToSelect(qfEnrichId);
+            if (qfEnrichId != qfEnrich) {
+                subQ.addToSelect(qfEnrich);
+            }
+            subQ.addToOrderBy(qfStartClassId);
+            return subQ;
         // analysed query:  return the gene only
         } else if ("analysed".equals(action)) {
             subQ.addToSelect(qfStartClassId);
@@ -354,6 +369,44 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
         return getQuery(actionLocal, null);
     }
 
+    /**
+     * @return the query for every object in the database with its terms, for EnrichmentIndex
+     */
+    public Query getIndexQuery() {
+        return getQuery("index", null);
+    }
+
+    /**
+     * Returns true if the sample counts can be taken from an EnrichmentIndex instead of the
+     * sample queries.  The correction coefficient changes the sample query, so can't use the
+     * index.
+     *
+     * @return true if the index can be used
+     */
+    public boolean canUseIndex() {
+        return !(extraCorrectionCoefficient && correctionCoefficient.isApplicable());
+    }
+
+    /**
+     * @return the ids of the objects in the sample, from the bag or the list of IDs
+     */
+    public Collection<Integer> getSampleIds() {
+        if (bag != null) {
+            return bag.getContentsAsIds();
+        }
+        Collection<Integer> idsCollection = new LinkedHashSet<Integer>();
+        if (ids != null) {
+            for (String id : ids.split(",")) {
+                try {
+                    idsCollection.add(Integer.valueOf(id.trim()));
+                } catch (NumberFormatException e) {
+                    throw new RuntimeException("List of IDs contains invalid integer: " + id, e);
+                }
+            }
+        }
+        return idsCollection;
+    }
+
     /**
      * @param keys the keys to the records to be exported
      * @return the query representing the records to be exported
@@ -0,0 +1,78 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Hypergeometric tail probabilities computed from a shared table of log factorials.  An
+ * enrichment widget evaluates one distribution per term with the same population size, so
+ * looking the factorials up is much cheaper than constructing a new distribution object per
+ * term.
+ */
+public final class Hypergeometric
+{
+    private static double[] logFactorials = new double[] {0.0};
+
+    private Hypergeometric() {
+    }
+
+    /**
+     * Returns the probability of drawing at least sampleCount annotated items in a sample of
+     * sampleSize items, taken without replacement from a population of populationSize items of
+     * which populationCount are annotated.
+     *
+     * @param populationSize the number of items in the population
+     * @param populationCount the number of annotated items in the population
+     * @param sampleSize the number of items in the sample
+     * @param sampleCount the number of annotated items in the sample
+     * @return P(X &gt;= sampleCount)
+     */
+    public static double upperCumulativeProbability(int populationSize, int populationCount,
+            int sampleSize, int sampleCount) {
+        if ((populationCount < 0) || (populationCount > populationSize) || (sampleSize < 0)
+                || (sampleSize > populationSize)) {
+            throw new IllegalArgumentException("Invalid hypergeometric distribution: population "
+                    + populationSize + ", annotated " + populationCount + ", sample "
+                    + sampleSize);
+        }
+        int lower = Math.max(0, sampleSize - (populationSize - populationCount));
+        int upper = Math.min(sampleSize, populationCount);
+        if (sampleCount <= lower) {
+            return 1.0;
+        }
+        if (sampleCount > upper) {
+            return 0.0;
+        }
+        double[] lf = getLogFactorials(populationSize);
+        double logTotal = logChoose(lf, populationSize, sampleSize);
+        double sum = 0.0;
+        for (int i = sampleCount; i <= upper; i++) {
+            sum += Math.exp(logChoose(lf, populationCount, i)
+                    + logChoose(lf, populationSize - populationCount, sampleSize - i) - logTotal);
+        }
+        return Math.min(1.0, sum);
+    }
+
+    private static double logChoose(double[] lf, int n, int k) {
+        return lf[n] - lf[k] - lf[n - k];
+    }
+
+    private static synchronized double[] getLogFactorials(int n) {
+        if (logFactorials.length <= n) {
+            double[] table = new double[Math.max(n + 1, logFactorials.length * 2)];
+            System.arraycopy(logFactorials, 0, table, 0, logFactorials.length);
+            for (int i = logFactorials.length; i < table.length; i++) {
+                table[i] = table[i - 1] + Math.log(i);
+            }
+            logFactorials = table;
+        }
+        return logFactorials;
+    }
+}
@@ -0,0 +1,262 @@
+package org.intermine.web.struts;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The steps of initialising the webapp, with the steps that each step needs to have been done
+ * first.  Steps that don't depend on each other are run at the same time, and the time taken by
+ * each step is logged and kept.
+ *
+ * Deferred steps are not needed to serve requests, so they are run in the background after the
+ * other steps, once the webapp has started.
+ */
+public class InitialisationGraph
+{
+    private static final Logger LOG = Logger.getLogger(InitialisationGraph.class);
+
+    private final Map<String, Step> steps = new LinkedHashMap<String, Step>();
+    private final Map<String, Long> timings =
+        Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    private final int threads;
+
+    /**
+     * Constructor
+     *
+     * @param threads the number of steps to run at the same time
+     */
+    public InitialisationGraph(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Add a step that must be done before the webapp starts.
+     *
+     * @param name the name of the step
+     * @param task the step, which returns a result for later steps or null
+     * @param dependencies the names of the steps that must be done before this one
+     */
+    public void add(String name, Callable<?> task, String... dependencies) {
+        addStep(new Step(name, task, dependencies, false));
+    }
+
+    /**
+     * Add a step that can be done after the webapp has started.
+     *
+     * @param name the name of the step
+     * @param task the step
+     * @param dependencies the names of the steps that must be done before this one
+     */
+    public void addDeferred(String name, Callable<?> task, String... dependencies) {
+        addStep(new Step(name, task, dependencies, true));
+    }
+
+    private void addStep(Step step) {
+        if (steps.containsKey(step.name)) {
+            throw new IllegalArgumentException("There is already a step called " + step.name);
+        }
+        for (String dependency : step.dependencies) {
+            Step before = steps.get(dependency);
+            if (before == null) {
+                // steps are added in order, which also means that there can be no cycles
+                throw new IllegalArgumentException("Step " + step.name + " depends on "
+                        + dependency + ", which has not been added");
+            }
+            if (before.deferred && !step.deferred) {
+                throw new IllegalArgumentException("Step " + step.name + " depends on "
+                        + dependency + ", which is deferred");
+            }
+        }
+        steps.put(step.name, step);
+    }
+
+    /**
+     * Run the steps that are not deferred, returning when they are all done.  If a step fails, no
+     * more steps are started, and the exception it threw is thrown once the steps already running
+     * have finished.
+     *
+     * @throws Exception the exception thrown by the first step that failed
+     */
+    public void run() throws Exception {
+        long start = System.currentTimeMillis();
+        execute(false);
+        LOG.info("Initialisation steps took " + (System.currentTimeMillis() - start) + "ms: "
+                + getTimings());
+    }
+
+    /**
+     * Start running the deferred steps in the background, and return immediately.
+     */
+    public void runDeferred() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    execute(true);
+                } catch (Exception e) {
+                    LOG.error("Deferred initialisation failed", e);
+                }
+            }
+        }, "Deferred initialisation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Return the result of a step that has finished.
+     *
+     * @param name the name of the step
+     * @param <T> the type of the result
+     * @return the value returned by the step
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getResult(String name) {
+        Step step = steps.get(name);
+        if (step == null || !step.done) {
+            throw new IllegalStateException("Step " + name + " has not been done");
+        }
+        return (T) step.result;
+    }
+
+    /**
+     * Return the time taken by each step that has finished, in the order they finished.
+     *
+     * @return a map from step name to milliseconds
+     */
+    public Map<String, Long> getTimings() {
+        synchronized (timings) {
+            return new LinkedHashMap<String, Long>(timings);
+        }
+    }
+
+    private void execute(boolean deferred) throws Exception {
+        List<Step> toRun = new ArrayList<Step>();
+        Map<String, Integer> waitingFor = new LinkedHashMap<String, Integer>();
+        for (Step step : steps.values()) {
+            if (step.deferred == deferred) {
+                toRun.add(step);
+                int count = 0;
+                for (String dependency : step.dependencies) {
+                    if (!steps.get(dependency).done) {
+                        count++;
+                    }
+                }
+                waitingFor.put(step.name, new Integer(count));
+            }
+        }
+        if (toRun.isEmpty()) {
+            return;
+        }
+        final AtomicInteger threadNo = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Initialisation " + threadNo.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<Step> completion = new ExecutorCompletionService<Step>(executor);
+        Exception failure = null;
+        int running = 0;
+        try {
+            for (Step step : toRun) {
+                if (waitingFor.get(step.name).intValue() == 0) {
+                    completion.submit(step);
+                    running++;
+                }
+            }
+            while (running > 0) {
+                Step finished;
+                try {
+                    finished = completion.take().get();
+                } catch (ExecutionException e) {
+                    running--;
+                    if (failure == null) {
+                        failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause()
+                            : e;
+                    }
+                    continue;
+                }
+                running--;
+                if (failure != null) {
+                    continue;
+                }
+                for (Step step : toRun) {
+                    if (step.dependencies.contains(finished.name)) {
+                        int count = waitingFor.get(step.name).intValue() - 1;
+                        waitingFor.put(step.name, new Integer(count));
+                        if (count == 0) {
+                            completion.submit(step);
+                            running++;
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A step of the initialisation.
+     */
+    private final class Step implements Callable<Step>
+    {
+        private final String name;
+        private final Callable<?> task;
+        private final List<String> dependencies;
+        private final boolean deferred;
+        private volatile Object result;
+        private volatile boolean done = false;
+
+        private Step(String name, Callable<?> task, String[] dependencies, boolean deferred) {
+            this.name = name;
+            this.task = task;
+            this.dependencies = new ArrayList<String>();
+            Collections.addAll(this.dependencies, dependencies);
+            this.deferred = deferred;
+        }
+
+        @Override
+        public Step call() throws Exception {
+            long start = System.currentTimeMillis();
+            try {
+                result = task.call();
+                done = true;
+            } finally {
+                long time = System.currentTimeMillis() - start;
+                timings.put(name, new Long(time));
+                LOG.info("Initialisation step " + name + (done ? " took " : " failed after ")
+                        + time + "ms");
+            }
+            return this;
+        }
+    }
+}
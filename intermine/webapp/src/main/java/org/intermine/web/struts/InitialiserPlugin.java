@@ -37,6 +37,7 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.regex.Pattern;
 
 import javax.servlet.ServletContext;
@@ -62,6 +63,7 @@ import org.intermine.api.profile.UserNotFoundException;
 import org.intermine.api.query.MainHelper;
 import org.intermine.api.search.GlobalRepository;
 import org.intermine.api.search.SearchRepository;
+import org.intermine.api.searchengine.KeywordSearchPropertiesManager;
 import org.intermine.api.tag.TagNames;
 import org.intermine.api.tag.TagTypes;
 import org.intermine.api.tracker.TrackerDelegate;
@@ -94,7 +96,6 @@ import org.intermine.web.logic.config.FieldConfig;
 import org.intermine.web.logic.config.FieldConfigHelper;
 import org.intermine.web.logic.config.WebConfig;
 import org.intermine.web.logic.profile.LoginHandler;
-import org.intermine.web.logic.profile.UpgradeBagList;
 import org.intermine.web.logic.session.SessionMethods;
 import org.intermine.webservice.server.query.result.XMLValidator;
 
@@ -108,6 +109,7 @@ import org.intermine.webservice.server.query.result.XMLValidator;
 public class InitialiserPlugin implements PlugIn
 {
     private static final Logger LOG = Logger.getLogger(InitialiserPlugin.class);
+    private static final int DEFAULT_INITIALISATION_THREADS = 4;
 
     ProfileManager profileManager;
     TrackerDelegate trackerDelegate;
@@ -123,7 +125,9 @@ public class InitialiserPlugin implements PlugIn
     };
 
     /**
-     * Init method called at Servlet initialisation
+     * Init method called at Servlet initialisation.  The steps of initialisation that don't
+     * depend on each other are run at the same time, and the steps that are not needed to serve
+     * requests are run in the background once the webapp has started.
      *
      * @param servlet ActionServlet that is managing all the modules
      * in this web application
@@ -150,66 +154,249 @@ public class InitialiserPlugin implements PlugIn
             throw new ServletException("webProperties is null");
         }
 
-        // set XML library
-       // initXMLLibrary();
-
-        // read in additional webapp specific information and put in servletContext
-        loadAspectsConfig(servletContext);
-        loadClassDescriptions(servletContext);
-        loadOpenIDProviders(servletContext);
-        loadOAuth2Providers(servletContext, webProperties);
-
-        // web properties
-        // set up core InterMine application
-        os = getProductionObjectStore(webProperties);
-        if (os == null) {
-            throw new ServletException("Production object store is null");
-        }
-        final WebConfig webConfig = loadWebConfig(servletContext, os);
-        if (webConfig == null) {
-            throw new ServletException("webConfig is null");
-        }
-
-        ObjectStoreWriter userprofileOSW = getUserprofileWriter(webProperties);
-        if (userprofileOSW == null) {
-            throw new ServletException("userprofileOSW is null");
+        InitialisationGraph graph = new InitialisationGraph(getInitialisationThreads(
+                    webProperties));
+        addConfigurationSteps(graph, servletContext, webProperties);
+        addApplicationSteps(graph, servletContext, webProperties);
+        InterMineContext.setAttribute(Constants.INITIALISATION_GRAPH, graph);
+        try {
+            graph.run();
+        } catch (ServletException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServletException("Initialisation failed", e);
         }
 
-        verifyUserProfile(userprofileOSW);
-
-        final ObjectStoreSummary oss = summariseObjectStore(servletContext);
-        setupClassSummaryInformation(servletContext, oss, os.getModel());
-
-        trackerDelegate = initTrackers(webProperties, userprofileOSW);
-
+        servletContext.setAttribute(Constants.GRAPH_CACHE, new HashMap<String, String>());
 
-        final InterMineAPI im = loadInterMineAPI(
-                servletContext, webProperties, webConfig, userprofileOSW, oss);
+        LOG.info("Application initialised in " + (System.currentTimeMillis() - start) + "ms");
 
-        // need a global reference to ProfileManager so it can be closed cleanly on destroy
-        profileManager = im.getProfileManager();
+        graph.runDeferred();
+    }
 
-        // Verify that the superuser found in the DB matches the user set in the properties file.
-        final Profile superProfile = profileManager.getSuperuserProfile();
-        initSuperUser(superProfile);
+    private static int getInitialisationThreads(Properties webProperties) {
+        String threads = webProperties.getProperty("webapp.init.threads");
+        if (StringUtils.isBlank(threads)) {
+            return DEFAULT_INITIALISATION_THREADS;
+        }
         try {
-            startBagUpgrade(im, profileManager.getAllSuperUsers());
-        } catch (ObjectStoreException e) {
-            throw new ServletException("Could not read from userprofile data store", e);
+            return Math.max(1, Integer.parseInt(threads.trim()));
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid value for webapp.init.threads: " + threads);
+            return DEFAULT_INITIALISATION_THREADS;
         }
+    }
 
-        initSearch(servletContext, superProfile);
-
-        servletContext.setAttribute(Constants.GRAPH_CACHE, new HashMap<String, String>());
-
-        loadAutoCompleter(servletContext, os);
-        LOG.debug("LOADED AUTO COMPLETER");
+    /**
+     * Add the steps that read the configuration of the webapp and connect to the databases.
+     */
+    private void addConfigurationSteps(final InitialisationGraph graph,
+            final ServletContext servletContext, final Properties webProperties) {
+        // read in additional webapp specific information and put in servletContext
+        graph.add("aspects", new Callable<Object>() {
+            @Override
+            public Object call() {
+                loadAspectsConfig(servletContext);
+                return null;
+            }
+        });
+        graph.add("classDescriptions", new Callable<Object>() {
+            @Override
+            public Object call() {
+                loadClassDescriptions(servletContext);
+                return null;
+            }
+        });
+        graph.add("openIDProviders", new Callable<Object>() {
+            @Override
+            public Object call() {
+                loadOpenIDProviders(servletContext);
+                return null;
+            }
+        });
+        graph.add("oauth2Providers", new Callable<Object>() {
+            @Override
+            public Object call() {
+                loadOAuth2Providers(servletContext, webProperties);
+                return null;
+            }
+        });
 
-        cleanTags(im.getTagManager());
+        // set up core InterMine application
+        graph.add("objectStore", new Callable<ObjectStore>() {
+            @Override
+            public ObjectStore call() throws ServletException {
+                if (getProductionObjectStore(webProperties) == null) {
+                    throw new ServletException("Production object store is null");
+                }
+                // plans made by a previous deployment may be for a different model
+                MainHelper.flushPlanCache();
+                return os;
+            }
+        });
+        graph.add("webConfig", new Callable<WebConfig>() {
+            @Override
+            public WebConfig call() throws ServletException {
+                WebConfig webConfig = loadWebConfig(servletContext, os);
+                if (webConfig == null) {
+                    throw new ServletException("webConfig is null");
+                }
+                return webConfig;
+            }
+        }, "objectStore");
+        graph.add("userprofile", new Callable<ObjectStoreWriter>() {
+            @Override
+            public ObjectStoreWriter call() throws ServletException {
+                ObjectStoreWriter userprofileOSW = getUserprofileWriter(webProperties);
+                if (userprofileOSW == null) {
+                    throw new ServletException("userprofileOSW is null");
+                }
+                verifyUserProfile(userprofileOSW);
+                return userprofileOSW;
+            }
+        });
+        graph.add("objectStoreSummary", new Callable<ObjectStoreSummary>() {
+            @Override
+            public ObjectStoreSummary call() {
+                ObjectStoreSummary oss = summariseObjectStore(servletContext);
+                setupClassSummaryInformation(servletContext, oss, os.getModel());
+                return oss;
+            }
+        }, "objectStore");
+        graph.add("trackers", new Callable<Object>() {
+            @Override
+            public Object call() {
+                trackerDelegate = initTrackers(webProperties,
+                        graph.<ObjectStoreWriter>getResult("userprofile"));
+                return null;
+            }
+        }, "userprofile");
+        graph.add("classKeys", new Callable<ClassKeys>() {
+            @Override
+            public ClassKeys call() {
+                return loadClassKeys(os.getModel());
+            }
+        }, "objectStore");
+        graph.add("bagQueries", new Callable<BagQueryConfig>() {
+            @Override
+            public BagQueryConfig call() {
+                return loadBagQueries(servletContext, os);
+            }
+        }, "objectStore");
+        graph.add("linkRedirector", new Callable<LinkRedirectManager>() {
+            @Override
+            public LinkRedirectManager call() {
+                return getLinkRedirector(webProperties);
+            }
+        });
+    }
 
-        initKeylessClasses(servletContext, webConfig);
+    /**
+     * Add the steps that create the InterMineAPI and the things that use it, and the deferred
+     * steps.
+     */
+    private void addApplicationSteps(final InitialisationGraph graph,
+            final ServletContext servletContext, final Properties webProperties) {
+        graph.add("interMineAPI", new Callable<InterMineAPI>() {
+            @Override
+            public InterMineAPI call() throws ServletException {
+                InterMineAPI im = loadInterMineAPI(servletContext, webProperties,
+                        graph.<WebConfig>getResult("webConfig"),
+                        graph.<ObjectStoreWriter>getResult("userprofile"),
+                        graph.<ObjectStoreSummary>getResult("objectStoreSummary"),
+                        graph.<ClassKeys>getResult("classKeys"),
+                        graph.<BagQueryConfig>getResult("bagQueries"),
+                        graph.<LinkRedirectManager>getResult("linkRedirector"));
+                // need a global reference to ProfileManager so it can be closed cleanly on destroy
+                profileManager = im.getProfileManager();
+                return im;
+            }
+        }, "webConfig", "userprofile", "objectStoreSummary", "trackers", "classKeys",
+                "bagQueries", "linkRedirector");
+        graph.add("superUser", new Callable<Object>() {
+            @Override
+            public Object call() throws ServletException {
+                // Verify that the superuser found in the DB matches the user set in the
+                // properties file.
+                initSuperUser(profileManager.getSuperuserProfile());
+                try {
+                    // the superusers' lists, and every list whose upgrade was interrupted
+                    Map<String, Profile> users = new LinkedHashMap<String, Profile>();
+                    for (Profile user : profileManager.getAllSuperUsers()) {
+                        users.put(user.getUsername(), user);
+                    }
+                    for (Profile user : profileManager.getProfilesWithBagsInState(
+                            BagState.UPGRADING)) {
+                        users.put(user.getUsername(), user);
+                    }
+                    startBagUpgrade(graph.<InterMineAPI>getResult("interMineAPI"),
+                            users.values());
+                } catch (ObjectStoreException e) {
+                    throw new ServletException("Could not read from userprofile data store", e);
+                }
+                return null;
+            }
+        }, "interMineAPI");
+        graph.add("search", new Callable<Object>() {
+            @Override
+            public Object call() {
+                initSearch(servletContext, profileManager.getSuperuserProfile());
+                return null;
+            }
+        }, "interMineAPI");
+        graph.add("tags", new Callable<Object>() {
+            @Override
+            public Object call() {
+                cleanTags(graph.<InterMineAPI>getResult("interMineAPI").getTagManager());
+                return null;
+            }
+        }, "interMineAPI");
+        graph.add("keylessClasses", new Callable<Object>() {
+            @Override
+            public Object call() {
+                initKeylessClasses(servletContext, graph.<WebConfig>getResult("webConfig"));
+                return null;
+            }
+        }, "webConfig");
+
+        // not needed to serve requests, so done after the webapp has started
+        graph.addDeferred("autoCompleter", new Callable<Object>() {
+            @Override
+            public Object call() {
+                loadAutoCompleter(servletContext, os);
+                LOG.debug("LOADED AUTO COMPLETER");
+                return null;
+            }
+        }, "objectStore");
+        graph.addDeferred("keywordSearch", new Callable<Object>() {
+            @Override
+            public Object call() {
+                // read the keyword search configuration before the first search needs it
+                KeywordSearchPropertiesManager.getInstance(os);
+                return null;
+            }
+        }, "objectStore");
+        graph.addDeferred("identifierIndexes", new Callable<Object>() {
+            @Override
+            public Object call() {
+                // so that the first large list upload of the release doesn't wait for them
+                buildIdentifierIndexes(graph.<InterMineAPI>getResult("interMineAPI"));
+                return null;
+            }
+        }, "interMineAPI");
+    }
 
-        LOG.debug("Application initialised in " + (System.currentTimeMillis() - start) + "ms");
+    /**
+     * Build the list upload indexes for the types that lists are usually made of, which are the
+     * classes the superuser has tagged as preferred list types.
+     */
+    private void buildIdentifierIndexes(InterMineAPI im) {
+        List<String> types = new ArrayList<String>();
+        for (Tag tag : im.getTagManager().getTagsByName("im:preferredBagType",
+                    im.getProfileManager().getSuperuserProfile(), TagTypes.CLASS)) {
+            types.add(TypeUtil.unqualifiedName(tag.getObjectIdentifier()));
+        }
+        im.getBagQueryRunner().buildIndexes(types);
     }
 
     private void initSearch(final ServletContext servletContext,
@@ -235,12 +422,10 @@ public class InitialiserPlugin implements PlugIn
 
     private void startBagUpgrade(final InterMineAPI im, final Collection<Profile> users) {
 
-        // Start the bag upgrade for all of a set of users.
+        // Start the bag upgrade for all of a set of users, after the users who log in.  Lists
+        // left UPGRADING by a restart are upgraded again.
         for (Profile user: users) {
-            if (!im.getBagManager().isAnyBagInState(user, BagState.UPGRADING)) {
-                UpgradeBagList upgrade = new UpgradeBagList(user, im.getBagQueryRunner());
-                LoginHandler.runBagUpgrade(upgrade, im, user);
-            }
+            LoginHandler.runBagUpgrade(im, user, 0L);
             LOG.info("UPGRADING BAGS FOR " + user.getUsername());
         }
     }
@@ -271,11 +456,10 @@ public class InitialiserPlugin implements PlugIn
             final Properties webProperties,
             final WebConfig webConfig,
             final ObjectStoreWriter userprofileOSW,
-            final ObjectStoreSummary oss) throws ServletException {
-        final ClassKeys classKeys = loadClassKeys(os.getModel());
-        final BagQueryConfig bagQueryConfig = loadBagQueries(servletContext, os);
-        final LinkRedirectManager redirector = getLinkRedirector(webProperties);
-
+            final ObjectStoreSummary oss,
+            final ClassKeys classKeys,
+            final BagQueryConfig bagQueryConfig,
+            final LinkRedirectManager redirector) throws ServletException {
         final InterMineAPI im;
         try {
             im = new InterMineAPI(os, userprofileOSW, classKeys, bagQueryConfig,
@@ -342,7 +526,8 @@ public class InitialiserPlugin implements PlugIn
     }
 
     private void initBlockingErrors(ServletContext servletContext) {
-        blockingErrorKeys = new HashMap<String, String>();
+        // written by initialisation steps running at the same time
+        blockingErrorKeys = Collections.synchronizedMap(new HashMap<String, String>());
         SessionMethods.setErrorOnInitialiser(servletContext, blockingErrorKeys);
     }
 
@@ -417,7 +602,9 @@ public class InitialiserPlugin implements PlugIn
     private void loadAutoCompleter(ServletContext servletContext,
             ObjectStore os) throws ServletException {
         if (os instanceof ObjectStoreInterMineImpl) {
-            SessionMethods.setAutoCompleter(servletContext, new AutoCompleter(os));
+            AutoCompleter autoCompleter = new AutoCompleter(os);
+            autoCompleter.loadLocalIndex();
+            SessionMethods.setAutoCompleter(servletContext, autoCompleter);
         }
     }
 
@@ -916,6 +1103,8 @@ public class InitialiserPlugin implements PlugIn
         // cause a memory leak, where tomcat would run out of PermGen space after several deploy
         // cycles.
         Runtime.getRuntime().removeShutdownHook(ShutdownHook.getInstance());
+
+        MainHelper.flushPlanCache();
     }
 
     /**
@@ -80,7 +80,7 @@ public class MyMineController extends TilesAction
 
         if (SessionMethods.isSuperUser(session)) {
             TrackerDelegate td = im.getTrackerDelegate();
-            Map<String, Integer> templateCounter = td.getAccessCounter();
+            Map<String, Integer> templateCounter = td.getAccessCounter(im.getTemplateManager());
             if (templateCounter != null) {
                 request.setAttribute("templateCounter", templateCounter);
             }
@@ -0,0 +1,47 @@
+package org.intermine.webservice.server;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.web.context.InterMineContext;
+import org.intermine.web.logic.Constants;
+import org.intermine.web.struts.InitialisationGraph;
+import org.intermine.webservice.server.core.JSONService;
+
+/**
+ * A service that reports how long each step of starting the webapp took, in milliseconds, in
+ * the order the steps finished.  Deferred steps are included once they have finished.
+ */
+public class InitialisationTimingsService extends JSONService
+{
+
+    /** @param im The InterMine state object **/
+    public InitialisationTimingsService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "timings";
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        InitialisationGraph graph =
+            (InitialisationGraph) InterMineContext.getAttribute(Constants.INITIALISATION_GRAPH);
+        Map<String, Long> timings = (graph == null) ? Collections.<String, Long>emptyMap()
+            : graph.getTimings();
+        addResultItem(timings, false);
+    }
+}
@@ -15,9 +15,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import org.apache.commons.collections.ListUtils;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.profile.InterMineBag;
+import org.intermine.util.CompressedIntSet;
 import org.intermine.webservice.server.Format;
 import org.intermine.webservice.server.WebService;
 import org.intermine.webservice.server.core.ListManager;
@@ -77,7 +77,7 @@ public class JaccardIndexService extends WebService
 
         ListManager listManager = new ListManager(im, getPermission().getProfile());
         Map<String, InterMineBag> lists = listManager.getListMap();
-        List<Integer> bagOfInterest = new ArrayList<>();
+        CompressedIntSet bagOfInterest = CompressedIntSet.EMPTY;
 
         if (listName != null) {
             InterMineBag bag = lists.get(listName);
@@ -85,7 +85,7 @@ public class JaccardIndexService extends WebService
                 throw new BadRequestException("User does not have access to list named '"
                     + listName + "'");
             }
-            bagOfInterest = bag.getContentsAsIds();
+            bagOfInterest = bag.getContentsAsIdSet();
             type = bag.getType();
         } else if (ids != null) {
             if (type == null) {
@@ -94,9 +94,11 @@ public class JaccardIndexService extends WebService
             }
 
             String[] idArray = ids.split("[, ]+");
+            List<Integer> idList = new ArrayList<Integer>();
             for (int i = 0; i < idArray.length; i++) {
-                bagOfInterest.add(Integer.parseInt(idArray[i]));
+                idList.add(Integer.parseInt(idArray[i]));
             }
+            bagOfInterest = CompressedIntSet.of(idList);
         }
 
         Map<String, BigDecimal> results = new HashMap<String, BigDecimal>();
@@ -117,13 +119,12 @@ public class JaccardIndexService extends WebService
                 continue;
             }
 
-            List<Integer> comparisonList = bag.getContentsAsIds();
-            List<Integer> intersection = (List<Integer>) ListUtils.intersection(bagOfInterest,
-                    comparisonList);
+            CompressedIntSet comparisonList = bag.getContentsAsIdSet();
+            int intersectionSize = bagOfInterest.intersectionSize(comparisonList);
             // calculate the union
             BigDecimal denominator = new BigDecimal(bagOfInterest.size()
-                    + comparisonList.size() - intersection.size());
-            BigDecimal numerator = new BigDecimal(intersection.size());
+                    + comparisonList.size() - intersectionSize);
+            BigDecimal numerator = new BigDecimal(intersectionSize);
             BigDecimal jaccardSimilarity = new BigDecimal(0);
             // don't divide by zero
             if (denominator.compareTo(BigDecimal.ZERO) != 0
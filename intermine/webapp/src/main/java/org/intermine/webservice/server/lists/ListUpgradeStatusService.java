@@ -0,0 +1,41 @@
+package org.intermine.webservice.server.lists;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.web.context.InterMineContext;
+import org.intermine.webservice.server.core.JSONService;
+
+/**
+ * A service that reports the progress of upgrading the users' lists after a release.
+ *
+ * The result is an object with the number of lists waiting to be upgraded, being upgraded,
+ * upgraded automatically, left for their owners to upgrade, and that failed to upgrade, and
+ * the number of lists that shared the identifier resolution of an identical list.
+ */
+public class ListUpgradeStatusService extends JSONService
+{
+
+    /** @param im The InterMine state object **/
+    public ListUpgradeStatusService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "upgrade";
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        addResultItem(InterMineContext.getBagUpgradeScheduler().getProgress(), false);
+    }
+}
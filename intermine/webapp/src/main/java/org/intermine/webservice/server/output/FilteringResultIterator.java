@@ -19,7 +19,6 @@ import org.apache.log4j.Logger;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.ObjectUtils;
 import org.intermine.api.results.ResultElement;
-import org.intermine.objectstore.query.Results;
 
 /**
  * A result iterator that skips things we aren't interested in.
@@ -43,7 +42,7 @@ public class FilteringResultIterator implements Iterator<List<ResultElement>>
      * Construct a new iterator which does no filtering.
      * @param res The results to wrap.
      */
-    public FilteringResultIterator(Results res) {
+    public FilteringResultIterator(List<Object> res) {
         this.subIter = res.iterator();
     }
 
@@ -55,7 +54,7 @@ public class FilteringResultIterator implements Iterator<List<ResultElement>>
      * @param size The maximum number of results to return.
      * @param filterTerm A filter term.
      */
-    public FilteringResultIterator(Results res, int start, int size, String filterTerm) {
+    public FilteringResultIterator(List<Object> res, int start, int size, String filterTerm) {
         this(res);
         this.start = start;
         this.end = start + size;
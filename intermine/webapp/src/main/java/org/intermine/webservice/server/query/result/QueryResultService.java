@@ -312,12 +312,15 @@ public class QueryResultService extends AbstractQueryService
             boolean occurancesOnly = (uniqs == null) || (uniqs < 2);
             try {
                 String filterTerm = getOptionalParameter("filterTerm");
-                Results r = executor.summariseQuery(pq, summaryPath, filterTerm, occurancesOnly);
-                try {
-                    // causes query to be strictly evaluated, and errors to surface here.
-                    r.range(0, 0);
-                } catch (IndexOutOfBoundsException e) {
-                    // Ignore, it just means it's empty.
+                List<Object> r = executor.summariseQuery(pq, summaryPath, filterTerm,
+                        occurancesOnly);
+                if (r instanceof Results) {
+                    try {
+                        // causes query to be strictly evaluated, and errors to surface here.
+                        ((Results) r).range(0, 0);
+                    } catch (IndexOutOfBoundsException e) {
+                        // Ignore, it just means it's empty.
+                    }
                 }
                 if (filterTerm != null) {
                     attributes.put("filteredCount", r.size());
@@ -153,6 +153,7 @@ function getColumnSummary(tableName, columnName, columnDisplayName) {
         var rows = str[0];
         var uniqueCountQid = str[1];
         var summaryRowsCount = str[2];
+        var uniqueCount = str[3];
         function rounder(cell) {
             if (cell==null) {
                 return "[no value]" ;
@@ -202,7 +203,11 @@ function getColumnSummary(tableName, columnName, columnDisplayName) {
 
         dialog.setContent(content);
         setTimeout("updateCountInColumnSummary()", 200);
-        setTimeout("updateUniqueCountInColumnSummary(" + uniqueCountQid + ")", 300);
+        if (uniqueCount != null) {
+            resultsCountCallback(uniqueCount);
+        } else {
+            setTimeout("updateUniqueCountInColumnSummary(" + uniqueCountQid + ")", 300);
+        }
    });
 
 }
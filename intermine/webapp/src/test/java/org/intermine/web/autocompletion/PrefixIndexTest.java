@@ -0,0 +1,65 @@
+package org.intermine.web.autocompletion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class PrefixIndexTest extends TestCase
+{
+    private PrefixIndex index;
+
+    public PrefixIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        PrefixIndex.Builder builder = new PrefixIndex.Builder();
+        builder.add("protein binding", 50);
+        builder.add("DNA binding", 80);
+        builder.add("protein kinase activity", 20);
+        builder.add("protein-DNA complex", 5);
+        builder.add("binding protein", 10);
+        builder.add("kinase", 1);
+        index = builder.build();
+    }
+
+    public void testComplete() throws Exception {
+        assertEquals(6, index.size());
+        // values starting with the query first, most common first, then values containing it
+        assertEquals(Arrays.asList("protein binding", "protein kinase activity",
+                    "protein-DNA complex", "binding protein"), index.complete("prot", 10));
+        assertEquals(Arrays.asList("protein binding", "protein kinase activity"),
+                index.complete("Prot", 2));
+        assertEquals(Arrays.asList("protein-DNA complex"), index.complete("protein dna", 10));
+        assertEquals(Arrays.asList("DNA binding", "protein-DNA complex"),
+                index.complete("dna", 10));
+        assertEquals(Arrays.asList("kinase", "protein kinase activity"),
+                index.complete("kin", 10));
+        assertEquals(Collections.emptyList(), index.complete("xyz", 10));
+        assertEquals(Collections.emptyList(), index.complete(" - ", 10));
+    }
+
+    public void testReadWrite() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        PrefixIndex read = PrefixIndex.read(new DataInputStream(new ByteArrayInputStream(
+                        bytes.toByteArray())));
+        assertEquals(index.size(), read.size());
+        assertEquals(index.complete("bind", 10), read.complete("bind", 10));
+    }
+}
@@ -0,0 +1,147 @@
+package org.intermine.web.logic.profile;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.profile.BagState;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.api.profile.Profile;
+
+public class BagUpgradeSchedulerTest extends TestCase
+{
+    private RecordingScheduler scheduler;
+
+    public BagUpgradeSchedulerTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        scheduler = new RecordingScheduler();
+    }
+
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    public void testMostRecentlyActiveFirst() throws Exception {
+        scheduler.schedule(profile("first", bag(1, "a", BagState.NOT_CURRENT)), 10);
+        scheduler.waitForStart();
+        scheduler.schedule(profile("idle", bag(2, "b", BagState.NOT_CURRENT)), 5);
+        scheduler.schedule(profile("active", bag(3, "c", BagState.NOT_CURRENT)), 20);
+        scheduler.schedule(profile("never", bag(4, "d", BagState.NOT_CURRENT)), 0);
+        scheduler.schedule(profile("idle2", bag(5, "e", BagState.NOT_CURRENT)), 5);
+        assertEquals(Arrays.asList("a", "c", "b", "e", "d"), scheduler.finish(5));
+    }
+
+    public void testSameListQueuedOnce() throws Exception {
+        scheduler.schedule(profile("first", bag(1, "a", BagState.NOT_CURRENT)), 10);
+        scheduler.waitForStart();
+        Profile other = profile("other", bag(2, "b", BagState.NOT_CURRENT));
+        scheduler.schedule(other, 5);
+        scheduler.schedule(profile("active", bag(3, "c", BagState.NOT_CURRENT)), 20);
+        // The user logs in, so their list moves ahead of the others
+        scheduler.schedule(other, 30);
+        // Not more recently active, so it stays where it is
+        scheduler.schedule(other, 1);
+        // Already running
+        scheduler.schedule(profile("first", bag(1, "a", BagState.NOT_CURRENT)), 40);
+        assertEquals(Arrays.asList("a", "b", "c"), scheduler.finish(3));
+        assertEquals(Integer.valueOf(0), scheduler.getProgress().get("waiting"));
+    }
+
+    public void testInterruptedUpgradesResumed() throws Exception {
+        scheduler.schedule(profile("user", bag(1, "current", BagState.CURRENT),
+                    bag(2, "interrupted", BagState.UPGRADING),
+                    bag(3, "notCurrent", BagState.NOT_CURRENT),
+                    bag(4, "toUpgrade", BagState.TO_UPGRADE)), 10);
+        List<String> upgraded = scheduler.finish(2);
+        assertEquals(2, upgraded.size());
+        assertTrue(upgraded.containsAll(Arrays.asList("interrupted", "notCurrent")));
+    }
+
+    private static InterMineBag bag(int savedBagId, String name, BagState state) {
+        InterMineBag bag = createNiceMock(InterMineBag.class);
+        expect(bag.getSavedBagId()).andReturn(savedBagId).anyTimes();
+        expect(bag.getName()).andReturn(name).anyTimes();
+        expect(bag.getState()).andReturn(state.toString()).anyTimes();
+        replay(bag);
+        return bag;
+    }
+
+    private static Profile profile(String username, InterMineBag... bags) {
+        Map<String, InterMineBag> savedBags = new LinkedHashMap<String, InterMineBag>();
+        for (InterMineBag bag : bags) {
+            savedBags.put(bag.getName(), bag);
+        }
+        Profile profile = createNiceMock(Profile.class);
+        expect(profile.getUsername()).andReturn(username).anyTimes();
+        expect(profile.getSavedBags()).andReturn(savedBags).anyTimes();
+        replay(profile);
+        return profile;
+    }
+
+    /**
+     * Records the lists it is asked to upgrade, holding the first one until finish() is called
+     * so that the order of the rest can be set up.
+     */
+    private static class RecordingScheduler extends BagUpgradeScheduler
+    {
+        private final List<String> upgraded = new ArrayList<String>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        RecordingScheduler() {
+            super(null, 1);
+        }
+
+        @Override
+        void upgrade(InterMineBag bag) {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (upgraded) {
+                upgraded.add(bag.getName());
+                upgraded.notifyAll();
+            }
+        }
+
+        void waitForStart() throws InterruptedException {
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+        }
+
+        List<String> finish(int count) throws InterruptedException {
+            release.countDown();
+            long end = System.currentTimeMillis() + 10000;
+            synchronized (upgraded) {
+                while (upgraded.size() < count && System.currentTimeMillis() < end) {
+                    upgraded.wait(100);
+                }
+                return new ArrayList<String>(upgraded);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class EnrichmentIndexTest extends TestCase
+{
+    private EnrichmentIndex index;
+
+    public void setUp() {
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        rows.add(Arrays.asList((Object) new Integer(1), "GO:1", "one"));
+        rows.add(Arrays.asList((Object) new Integer(1), "GO:2", "two"));
+        rows.add(Arrays.asList((Object) new Integer(1), "GO:2", "two"));
+        rows.add(Arrays.asList((Object) new Integer(5), "GO:2", "two"));
+        rows.add(Arrays.asList((Object) new Integer(7), "GO:3", "three"));
+        index = new EnrichmentIndex(rows.iterator());
+    }
+
+    public void testCount() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        Map<String, String> labels = new HashMap<String, String>();
+        int annotated = index.count(Arrays.asList(new Integer(5), new Integer(1),
+                    new Integer(2), new Integer(5)), counts, labels);
+        assertEquals(2, annotated);
+        Map<String, Integer> expectedCounts = new HashMap<String, Integer>();
+        expectedCounts.put("GO:1", new Integer(1));
+        expectedCounts.put("GO:2", new Integer(2));
+        assertEquals(expectedCounts, counts);
+        Map<String, String> expectedLabels = new HashMap<String, String>();
+        expectedLabels.put("GO:1", "one");
+        expectedLabels.put("GO:2", "two");
+        assertEquals(expectedLabels, labels);
+    }
+
+    public void testUnordered() {
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        rows.add(Arrays.asList((Object) new Integer(5), "GO:2"));
+        rows.add(Arrays.asList((Object) new Integer(1), "GO:2"));
+        try {
+            new EnrichmentIndex(rows.iterator());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testHypergeometric() {
+        assertEquals(0.06001858177500578,
+                Hypergeometric.upperCumulativeProbability(100, 10, 10, 3), 1e-12);
+        assertEquals(0.0008957505990161482,
+                Hypergeometric.upperCumulativeProbability(20000, 300, 50, 5), 1e-14);
+        assertEquals(1.0, Hypergeometric.upperCumulativeProbability(100, 10, 10, 0), 0.0);
+        assertEquals(0.0, Hypergeometric.upperCumulativeProbability(100, 10, 10, 11), 0.0);
+    }
+}
@@ -0,0 +1,137 @@
+package org.intermine.web.struts;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class InitialisationGraphTest extends TestCase
+{
+    public InitialisationGraphTest(String arg) {
+        super(arg);
+    }
+
+    public void testOrder() throws Exception {
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final InitialisationGraph graph = new InitialisationGraph(4);
+        graph.add("a", new Step("a", done, bothStarted));
+        graph.add("b", new Step("b", done, bothStarted));
+        graph.add("c", new Callable<String>() {
+            @Override
+            public String call() {
+                done.add("c");
+                return graph.<String>getResult("a") + graph.<String>getResult("b");
+            }
+        }, "a", "b");
+        graph.run();
+
+        // a and b only finish if they run at the same time
+        assertEquals("c", done.get(2));
+        assertEquals("ab", graph.<String>getResult("c"));
+        assertEquals(3, graph.getTimings().size());
+        assertEquals("c", new ArrayList<String>(graph.getTimings().keySet()).get(2));
+    }
+
+    public void testFailure() throws Exception {
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        InitialisationGraph graph = new InitialisationGraph(2);
+        graph.add("a", new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                throw new IllegalStateException("broken");
+            }
+        });
+        graph.add("b", new Step("b", done, null), "a");
+        try {
+            graph.run();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("broken", e.getMessage());
+        }
+        assertTrue(done.isEmpty());
+        assertTrue(graph.getTimings().containsKey("a"));
+        try {
+            graph.getResult("a");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testDeferred() throws Exception {
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch deferredDone = new CountDownLatch(1);
+        InitialisationGraph graph = new InitialisationGraph(2);
+        graph.add("a", new Step("a", done, null));
+        graph.addDeferred("d", new Callable<Object>() {
+            @Override
+            public Object call() {
+                done.add("d");
+                deferredDone.countDown();
+                return null;
+            }
+        }, "a");
+        graph.run();
+        assertEquals(Collections.singletonList("a"), done);
+        graph.runDeferred();
+        assertTrue(deferredDone.await(10, TimeUnit.SECONDS));
+        assertEquals("d", done.get(1));
+    }
+
+    public void testBadDependencies() throws Exception {
+        InitialisationGraph graph = new InitialisationGraph(1);
+        try {
+            graph.add("a", new Step("a", null, null), "missing");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        graph.addDeferred("d", new Step("d", null, null));
+        try {
+            graph.add("b", new Step("b", null, null), "d");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static class Step implements Callable<String>
+    {
+        private String name;
+        private List<String> done;
+        private CountDownLatch latch;
+
+        Step(String name, List<String> done, CountDownLatch latch) {
+            this.name = name;
+            this.done = done;
+            this.latch = latch;
+        }
+
+        @Override
+        public String call() throws Exception {
+            if (latch != null) {
+                latch.countDown();
+                if (!latch.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Steps were not run at the same time");
+                }
+            }
+            done.add(name);
+            return name;
+        }
+    }
+}
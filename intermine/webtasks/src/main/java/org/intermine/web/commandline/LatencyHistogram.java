@@ -0,0 +1,142 @@
+package org.intermine.web.commandline;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in microseconds, with buckets laid out in the same way as an HDR
+ * histogram: values below 128 have a bucket each, and each higher power of two is divided into
+ * 64 buckets, so every value is recorded to within 1.6% and the histogram has a fixed size
+ * whatever the range of values.  Values can be recorded by many threads at the same time.
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param micros the latency in microseconds, which is treated as 0 if negative
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(getIndex(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+        long max;
+        do {
+            max = maxValue.get();
+        } while (value > max && !maxValue.compareAndSet(max, value));
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return the mean latency in microseconds, or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return (count == 0) ? 0.0 : ((double) totalValue.get()) / count;
+    }
+
+    /**
+     * @return the largest latency recorded, exactly
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * Return the latency that the given percentage of recorded latencies are at or below.  The
+     * value returned is the highest value that falls into the same bucket.
+     *
+     * @param percentile a percentage between 0 and 100
+     * @return the latency in microseconds, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= wanted) {
+                return Math.min(getHighestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Return the buckets that hold at least one latency, for writing out the whole histogram.
+     *
+     * @return a List of pairs of the highest value in a bucket and the number of latencies in it,
+     * in increasing order of value
+     */
+    public List<long[]> getBuckets() {
+        List<long[]> retval = new ArrayList<long[]>();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count > 0) {
+                retval.add(new long[] {getHighestValue(i), count});
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Return the bucket that a value falls into.
+     *
+     * @param value a non-negative value
+     * @return the index of the bucket
+     */
+    static int getIndex(long value) {
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        if (highestBit <= SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return SUB_BUCKETS * (shift + 1) + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Return the highest value that falls into a bucket.
+     *
+     * @param index the index of the bucket
+     * @return the highest value
+     */
+    static long getHighestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -10,231 +10,389 @@ package org.intermine.web.commandline;
  *
  */
 
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.intermine.api.InterMineAPI;
 import org.intermine.api.bag.BagQueryConfig;
 import org.intermine.api.bag.BagQueryHelper;
-import org.intermine.api.bag.BagQueryRunner;
 import org.intermine.api.config.ClassKeyHelper;
-import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
-import org.intermine.api.profile.ProfileManager;
 import org.intermine.api.profile.TagManagerFactory;
-import org.intermine.api.query.MainHelper;
 import org.intermine.api.search.SearchFilterEngine;
+import org.intermine.api.searchengine.solr.SolrKeywordSearchHandler;
 import org.intermine.api.tag.TagNames;
 import org.intermine.api.tag.TagTypes;
-import org.intermine.metadata.FieldDescriptor;
+import org.intermine.api.template.ApiTemplate;
+import org.intermine.api.tracker.TrackerDelegate;
+import org.intermine.api.types.ClassKeys;
+import org.intermine.modelproduction.MetadataManager;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.ObjectStoreSummary;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.ObjectStoreWriterFactory;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
-import org.intermine.objectstore.intermine.SqlGenerator;
-import org.intermine.objectstore.query.Query;
-import org.intermine.objectstore.query.QuerySelectable;
-import org.intermine.api.template.ApiTemplate;
-import org.intermine.api.template.TemplateManager;
-import org.intermine.template.TemplateQuery;
+import org.intermine.objectstore.intermine.ObjectStoreWriterInterMineImpl;
+import org.intermine.pathquery.PathQuery;
+import org.intermine.pathquery.PathQueryBinding;
 import org.intermine.util.PropertiesUtil;
-import org.intermine.util.SynchronisedIterator;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 /**
- * Class to run a performance test on a production database by loading a set of template queries
- * from a userprofile database and running them in varying numbers of threads.
+ * Class to run a performance test on a production database by replaying a workload of template
+ * queries, path queries, list uploads and keyword searches in a number of threads, and reporting
+ * the throughput and latency percentiles of each type of operation.
+ *
+ * Usage: PerformanceTester [-workload file] [-threads n] [-warmup passes] [-passes passes]
+ * [-rows rows] [-output file.json], or PerformanceTester -record file [-limit n] to record a
+ * workload from the tracker tables of the userprofile database.  Without a workload file, each
+ * public template of the superuser is run once per pass.  A single number as the only argument
+ * is taken as the number of threads.
  *
  * @author Matthew Wakeling
  */
 public final class PerformanceTester
 {
-    private PerformanceTester() {
-        // Hidden constructor.
-    }
+    private static final int DEFAULT_ROWS = 1000;
+    private static final int DEFAULT_RECORD_LIMIT = 10000;
+    private static final double[] PERCENTILES = {50.0, 95.0, 99.0};
 
-    private static String superuser;
-    private static ProfileManager pm = null;
+    private final InterMineAPI im;
+    private final Profile superuser;
+    private final Map<String, ApiTemplate> templates;
+    private final int rows;
 
-    /**.
-     * @param args number of threads you want to run
+    private PerformanceTester(InterMineAPI im, Map<String, ApiTemplate> templates, int rows) {
+        this.im = im;
+        this.superuser = im.getProfileManager().getSuperuserProfile();
+        this.templates = templates;
+        this.rows = rows;
+    }
+
+    /**
+     * @param args the options described in the class comment
      * @throws Exception if something goes horribly wrong
      */
     public static void main(String[] args) throws Exception {
-        superuser = PropertiesUtil.getProperties().getProperty("superuser.account");
-        ObjectStore productionOs = ObjectStoreFactory.getObjectStore("os.production");
-        ObjectStoreFactory.getObjectStore("os.userprofile-production");
+        Map<String, String> options = parseOptions(args);
         ObjectStoreWriter userProfileOs = ObjectStoreWriterFactory
             .getObjectStoreWriter("osw.userprofile-production");
+        if (options.containsKey("record")) {
+            int limit = getInt(options, "limit", DEFAULT_RECORD_LIMIT);
+            Workload workload = Workload.record(((ObjectStoreWriterInterMineImpl) userProfileOs)
+                    .getDatabase(), limit);
+            PrintWriter out = new PrintWriter(new FileWriter(options.get("record")));
+            try {
+                workload.write(out);
+            } finally {
+                out.close();
+            }
+            System .out.println("Recorded " + workload.getOperations().size()
+                    + " operations in " + options.get("record"));
+            return;
+        }
+
+        String superuserName = PropertiesUtil.getProperties().getProperty("superuser.account");
+        ObjectStore productionOs = ObjectStoreFactory.getObjectStore("os.production");
         Properties classKeyProps = new Properties();
         classKeyProps.load(PerformanceTester.class.getClassLoader()
                 .getResourceAsStream("class_keys.properties"));
         BagQueryConfig bagQueryConfig = BagQueryHelper.readBagQueryConfig(productionOs.getModel(),
                 PerformanceTester.class.getClassLoader()
                 .getResourceAsStream("webapp/WEB-INF/bag-queries.xml"));
-        Map<String, List<FieldDescriptor>> classKeys = ClassKeyHelper.readKeys(productionOs
-                .getModel(), classKeyProps);
-
-        pm = new ProfileManager(productionOs, userProfileOs);
-        Profile p = pm.getProfile(superuser);
-
-        Map<String, ApiTemplate> templates = p.getSavedTemplates();
-
+        ClassKeys classKeys = ClassKeyHelper.readKeys(productionOs.getModel(), classKeyProps);
+        InterMineAPI im = new InterMineAPI(productionOs, userProfileOs, classKeys,
+                bagQueryConfig, readObjectStoreSummary(productionOs),
+                new TrackerDelegate(new String[0], userProfileOs), null);
 
+        Map<String, ApiTemplate> templates = im.getProfileManager().getProfile(superuserName)
+            .getSavedTemplates();
         templates = new SearchFilterEngine().filterByTags(templates,
                 Collections.singletonList(TagNames.IM_PUBLIC),
-                TagTypes.TEMPLATE, superuser, new TagManagerFactory(userProfileOs).getTagManager());
+                TagTypes.TEMPLATE, superuserName,
+                new TagManagerFactory(userProfileOs).getTagManager());
         templates.remove("ESTclone_LocationDMorthologuePathway_new");
         templates.remove("ESTclone_LocationOverlappingGeneOrthologue_new");
         templates.remove("ESTclone_LocationOverlappingGeneStructure");
         templates.remove("Organism_interologues");
 
-        int i = Integer.parseInt(args[0]);
-        System .out.println("Running with " + i + " threads:");
-        doRun(productionOs, classKeys, bagQueryConfig, templates, i);
-    }
-
-    private static void doRun(ObjectStore productionOs,
-            Map<String, List<FieldDescriptor>> classKeys, BagQueryConfig bagQueryConfig,
-            Map<String, ApiTemplate> templates, int threadCount) {
-        long startTime = System.currentTimeMillis();
-        Iterator<Map.Entry<String, ApiTemplate>> iter
-            = new SynchronisedIterator<Map.Entry<String, ApiTemplate>>(templates.entrySet()
-                    .iterator());
-        Set<Integer> threads = new HashSet<Integer>();
-
-        synchronized (threads) {
-            for (int i = 1; i < threadCount; i++) {
-                Thread worker = new Thread(new Worker(productionOs, classKeys, bagQueryConfig,
-                            threads, iter, i));
-                threads.add(new Integer(i));
-                worker.start();
+        Workload workload;
+        if (options.containsKey("workload")) {
+            Reader reader = new FileReader(options.get("workload"));
+            try {
+                workload = Workload.read(reader);
+            } finally {
+                reader.close();
             }
+        } else {
+            List<Workload.Operation> operations = new ArrayList<Workload.Operation>();
+            for (String name : templates.keySet()) {
+                operations.add(new Workload.Operation(Workload.Type.TEMPLATE,
+                            Collections.singletonList(name)));
+            }
+            workload = new Workload(operations);
+        }
+
+        int threads = getInt(options, "threads", 1);
+        PerformanceTester tester = new PerformanceTester(im, templates,
+                getInt(options, "rows", DEFAULT_ROWS));
+        int warmup = getInt(options, "warmup", 1);
+        if (warmup > 0) {
+            System .out.println("Warming up with " + warmup + " passes of "
+                    + workload.getOperations().size() + " operations");
+            tester.run(workload, threads, warmup);
+        }
+        int passes = getInt(options, "passes", 1);
+        System .out.println("Running " + passes + " passes of " + workload.getOperations().size()
+                + " operations with " + threads + " threads:");
+        RunResult result = tester.run(workload, threads, passes);
+        result.print(new PrintWriter(System.out, true));
+        if (options.containsKey("output")) {
+            writeFile(options.get("output"), result.toJSON(threads, passes).toString(2));
+            System .out.println("Wrote results to " + options.get("output"));
         }
+    }
 
+    /**
+     * Run the operations of a workload the given number of times, in the given number of threads.
+     * The operations are started in the order they are in the workload, each by the next free
+     * thread.
+     *
+     * @param workload the workload
+     * @param threadCount the number of operations to run at the same time
+     * @param passes the number of times to run the workload
+     * @return the latencies and errors of each type of operation
+     * @throws Exception if a thread is interrupted
+     */
+    RunResult run(Workload workload, int threadCount, int passes) throws Exception {
+        final List<Workload.Operation> operations = new ArrayList<Workload.Operation>();
+        for (int i = 0; i < passes; i++) {
+            operations.addAll(workload.getOperations());
+        }
+        final RunResult result = new RunResult();
+        final AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
         try {
-            while (iter.hasNext()) {
-                Map.Entry<String, ApiTemplate> entry = iter.next();
-                doQuery(productionOs, classKeys, bagQueryConfig, entry.getKey(), entry.getValue(),
-                        0);
+            List<Future<Object>> workers = new ArrayList<Future<Object>>();
+            long start = System.nanoTime();
+            for (int i = 0; i < threadCount; i++) {
+                workers.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        int index;
+                        while ((index = next.getAndIncrement()) < operations.size()) {
+                            Workload.Operation operation = operations.get(index);
+                            long opStart = System.nanoTime();
+                            try {
+                                execute(operation);
+                                result.getHistogram(operation.getType())
+                                    .record((System.nanoTime() - opStart) / 1000);
+                            } catch (Exception e) {
+                                result.getErrors(operation.getType()).incrementAndGet();
+                                System .err.println("Operation " + operation + " failed: " + e);
+                            }
+                        }
+                        return null;
+                    }
+                }));
             }
-        } catch (NoSuchElementException e) {
-            // This is fine - just a consequence of concurrent access to the iterator. It means the
-            // end of the iterator has been reached, so there is no more work to do.
-        }
-        //System .out.println("Thread 0 finished");
-        synchronized (threads) {
-            while (threads.size() != 0) {
-                //System .out.println(threads.size() + " threads left");
-                try {
-                    threads.wait();
-                } catch (InterruptedException e) {
-                    // Do nothing
-                }
+            for (Future<Object> worker : workers) {
+                worker.get();
             }
+            result.setElapsedNanos(System.nanoTime() - start);
+        } finally {
+            executor.shutdown();
         }
-        System .out.println("Whole run took " + (System.currentTimeMillis() - startTime) + " ms");
+        return result;
     }
 
+    private void execute(Workload.Operation operation) throws Exception {
+        List<String> args = operation.getArguments();
+        switch (operation.getType()) {
+            case TEMPLATE:
+                ApiTemplate template = templates.get(args.get(0));
+                if (template == null) {
+                    throw new IllegalArgumentException("No public template called "
+                            + args.get(0));
+                }
+                consume(im.getPathQueryExecutor(superuser).execute(template, 0, rows));
+                break;
+            case QUERY:
+                PathQuery query = PathQueryBinding.unmarshalPathQuery(new StringReader(
+                            args.get(0)), PathQuery.USERPROFILE_VERSION, im.getModel());
+                consume(im.getPathQueryExecutor(superuser).execute(query, 0, rows));
+                break;
+            case LIST:
+                im.getBagQueryRunner().searchForBag(args.get(0),
+                        Arrays.asList(args.get(1).split(",")), null, true);
+                break;
+            case SEARCH:
+                new SolrKeywordSearchHandler().doKeywordSearch(im, args.get(0),
+                        new HashMap<String, String>(), null, 0);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation.getType());
+        }
+    }
 
-    private static void doQuery(ObjectStore productionOs,
-            Map<String, List<FieldDescriptor>> classKeys, BagQueryConfig bagQueryConfig,
-            String templateName, TemplateQuery templateQuery, int threadNo) {
-        try {
-            //Query q = TemplateHelper.getPrecomputeQuery(entry.getValue(), new ArrayList(), null);
-            long queryStartTime = System.currentTimeMillis();
-            TemplateManager templateManager = new TemplateManager(pm.getSuperuserProfile());
-
-            BagQueryRunner bqr = new BagQueryRunner(productionOs, classKeys, bagQueryConfig,
-                    templateManager);
-            Query q = MainHelper.makeQuery(templateQuery, new HashMap<String, InterMineBag>(),
-                    new HashMap<String, QuerySelectable>(), bqr, null);
-            String sqlString = SqlGenerator.generate(q, 0, Integer.MAX_VALUE,
-                    ((ObjectStoreInterMineImpl) productionOs).getSchema(),
-                    ((ObjectStoreInterMineImpl) productionOs).getDatabase(),
-                    (Map<Object, String>) null);
-            System .out.println("Thread " + threadNo + ": executing template " + templateName
-                    + " with query " + q + ", SQL: " + sqlString);
-            List<?> results = productionOs.execute(q, 0, 1000, false, false,
-                    ObjectStore.SEQUENCE_IGNORE);
-            long queryEndTime = System.currentTimeMillis();
-            System .out.println("Thread " + threadNo + ": template " + templateName + " took "
-                    + (queryEndTime - queryStartTime) + " ms");
-            if (results.isEmpty()) {
-                System .out.println("Thread " + threadNo + ": template " + templateName
-                        + " returned 0 rows");
-            } else if (results.size() < 1000) {
-                System .out.println("Thread " + threadNo + ": template " + templateName
-                        + " returned " + results.size()
-                        + " rows");
-            } else {
-                int count = productionOs.count(q, ObjectStore.SEQUENCE_IGNORE);
-                System .out.println("Thread " + threadNo + ": template " + templateName
-                        + " returned " + count + " rows (took "
-                        + (System.currentTimeMillis() - queryEndTime) + " ms for count)");
+    private static void consume(Iterator<?> results) {
+        while (results.hasNext()) {
+            results.next();
+        }
+    }
+
+    private static ObjectStoreSummary readObjectStoreSummary(ObjectStore os) throws Exception {
+        Properties properties = new Properties();
+        if (os instanceof ObjectStoreInterMineImpl) {
+            String summary = MetadataManager.retrieve(((ObjectStoreInterMineImpl) os)
+                    .getDatabase(), MetadataManager.OS_SUMMARY);
+            if (summary != null) {
+                properties.load(new StringReader(summary));
+            }
+        }
+        return new ObjectStoreSummary(properties);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        if (args.length == 1 && args[0].matches("\\d+")) {
+            options.put("threads", args[0]);
+            return options;
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("-") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected -option value, got " + args[i]);
             }
-        } catch (Exception e) {
-            System .err.println("Thread " + threadNo + ": template " + templateName
-                    + " could not be run.");
-//            // need a number to compare between releases
-//            System .out.println("Thread " + threadNo + ": template " + templateName
-//                                + " returned 0 rows");
-            e.printStackTrace(System.err);
+            options.put(args[i].substring(1), args[++i]);
+        }
+        return options;
+    }
+
+    private static int getInt(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return (value == null) ? defaultValue : Integer.parseInt(value);
+    }
 
+    private static void writeFile(String fileName, String text) throws Exception {
+        FileWriter out = new FileWriter(fileName);
+        try {
+            out.write(text);
+        } finally {
+            out.close();
         }
     }
 
-    private static class Worker implements Runnable
+    /**
+     * The latencies and errors of each type of operation in one run of a workload.
+     */
+    static final class RunResult
     {
-        private ObjectStore productionOs;
-        private Map<String, List<FieldDescriptor>> classKeys;
-        private BagQueryConfig bagQueryConfig;
-        private Set<Integer> threads;
-        private Iterator<Map.Entry<String, ApiTemplate>> iter;
-        private int threadNo;
+        private final Map<Workload.Type, LatencyHistogram> histograms =
+            new EnumMap<Workload.Type, LatencyHistogram>(Workload.Type.class);
+        private final Map<Workload.Type, AtomicLong> errors =
+            new EnumMap<Workload.Type, AtomicLong>(Workload.Type.class);
+        private long elapsedNanos;
+
+        RunResult() {
+            for (Workload.Type type : Workload.Type.values()) {
+                histograms.put(type, new LatencyHistogram());
+                errors.put(type, new AtomicLong());
+            }
+        }
+
+        LatencyHistogram getHistogram(Workload.Type type) {
+            return histograms.get(type);
+        }
+
+        AtomicLong getErrors(Workload.Type type) {
+            return errors.get(type);
+        }
+
+        void setElapsedNanos(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
 
         /**
-         *
-         * @param productionOs
-         * @param classKeys
-         * @param bagQueryConfig
-         * @param threads
-         * @param iter
-         * @param threadNo
+         * @return the number of operations per second, over the whole run
          */
-        public Worker(ObjectStore productionOs, Map<String, List<FieldDescriptor>> classKeys,
-                BagQueryConfig bagQueryConfig, Set<Integer> threads,
-                Iterator<Map.Entry<String, ApiTemplate>> iter, int threadNo) {
-            this.productionOs = productionOs;
-            this.classKeys = classKeys;
-            this.bagQueryConfig = bagQueryConfig;
-            this.threads = threads;
-            this.iter = iter;
-            this.threadNo = threadNo;
-        }
-
-        public void run() {
-            try {
-                while (iter.hasNext()) {
-                    Map.Entry<String, ApiTemplate> entry = iter.next();
-                    doQuery(productionOs, classKeys, bagQueryConfig, entry.getKey(),
-                            entry.getValue(), threadNo);
+        double getThroughput(Workload.Type type) {
+            return (elapsedNanos == 0) ? 0.0
+                : histograms.get(type).getCount() * 1000000000.0 / elapsedNanos;
+        }
+
+        void print(PrintWriter out) {
+            out.println(String.format("%-10s %8s %7s %9s %9s %9s %9s %9s %9s", "operation",
+                        "count", "errors", "ops/s", "mean ms", "p50 ms", "p95 ms", "p99 ms",
+                        "max ms"));
+            for (Workload.Type type : Workload.Type.values()) {
+                LatencyHistogram histogram = histograms.get(type);
+                if (histogram.getCount() == 0 && errors.get(type).get() == 0) {
+                    continue;
                 }
-            } catch (NoSuchElementException e) {
-                // Empty
-            } finally {
-                //System .out.println("Thread " + threadNo + " finished");
-                synchronized (threads) {
-                    threads.remove(new Integer(threadNo));
-                    threads.notify();
+                out.println(String.format("%-10s %8d %7d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f",
+                            type.name().toLowerCase(), histogram.getCount(),
+                            errors.get(type).get(), getThroughput(type),
+                            histogram.getMean() / 1000.0,
+                            histogram.getValueAtPercentile(PERCENTILES[0]) / 1000.0,
+                            histogram.getValueAtPercentile(PERCENTILES[1]) / 1000.0,
+                            histogram.getValueAtPercentile(PERCENTILES[2]) / 1000.0,
+                            histogram.getMax() / 1000.0));
+            }
+            out.println("Whole run took " + (elapsedNanos / 1000000) + " ms");
+            out.flush();
+        }
+
+        JSONObject toJSON(int threads, int passes) {
+            Map<String, Object> operations = new LinkedHashMap<String, Object>();
+            for (Workload.Type type : Workload.Type.values()) {
+                LatencyHistogram histogram = histograms.get(type);
+                if (histogram.getCount() == 0 && errors.get(type).get() == 0) {
+                    continue;
+                }
+                Map<String, Object> stats = new LinkedHashMap<String, Object>();
+                stats.put("count", histogram.getCount());
+                stats.put("errors", errors.get(type).get());
+                stats.put("throughput", getThroughput(type));
+                stats.put("meanMicros", histogram.getMean());
+                for (double percentile : PERCENTILES) {
+                    stats.put("p" + ((int) percentile) + "Micros",
+                            histogram.getValueAtPercentile(percentile));
+                }
+                stats.put("maxMicros", histogram.getMax());
+                JSONArray buckets = new JSONArray();
+                for (long[] bucket : histogram.getBuckets()) {
+                    buckets.put(new JSONArray(Arrays.asList(bucket[0], bucket[1])));
                 }
+                stats.put("histogram", buckets);
+                operations.put(type.name().toLowerCase(), stats);
             }
+            JSONObject json = new JSONObject();
+            json.put("threads", threads);
+            json.put("passes", passes);
+            json.put("elapsedMillis", elapsedNanos / 1000000);
+            json.put("operations", new JSONObject(operations));
+            return json;
         }
     }
 }
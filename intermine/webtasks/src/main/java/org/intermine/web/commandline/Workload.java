@@ -0,0 +1,206 @@
+package org.intermine.web.commandline;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.intermine.api.tracker.util.TrackerUtil;
+import org.intermine.sql.Database;
+
+/**
+ * A list of operations to replay against a production database, read from a file with one
+ * operation per line.  Each line is the type of the operation followed by its arguments,
+ * separated by tabs:
+ *
+ * <pre>
+ * template  TemplateName
+ * query     &lt;query ...&gt;...&lt;/query&gt;        (the path query XML on one line)
+ * list      Gene  eve,zen,FBgn0000099          (the type and comma separated identifiers)
+ * search    kinase
+ * </pre>
+ *
+ * Blank lines and lines starting with '#' are ignored.  A workload of template runs and keyword
+ * searches can be recorded from the tracker tables of a userprofile database.
+ */
+public final class Workload
+{
+    /**
+     * The types of operation in a workload.
+     */
+    public enum Type {
+        /** Run a public template of the superuser with its default values. */
+        TEMPLATE,
+        /** Run a path query. */
+        QUERY,
+        /** Look up the objects for a list upload. */
+        LIST,
+        /** Run a keyword search. */
+        SEARCH
+    }
+
+    private final List<Operation> operations;
+
+    /**
+     * Create a workload.
+     *
+     * @param operations the operations, in the order they should be started
+     */
+    public Workload(List<Operation> operations) {
+        this.operations = Collections.unmodifiableList(new ArrayList<Operation>(operations));
+    }
+
+    /**
+     * @return the operations, in the order they should be started
+     */
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Read a workload file.
+     *
+     * @param reader a Reader for the file
+     * @return a new Workload
+     * @throws IOException if the file can't be read or a line is not a valid operation
+     */
+    public static Workload read(Reader reader) throws IOException {
+        List<Operation> operations = new ArrayList<Operation>();
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            if (line.trim().length() == 0 || line.trim().startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\t");
+            Type type;
+            try {
+                type = Type.valueOf(parts[0].trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown operation '" + parts[0] + "' on line " + lineNo);
+            }
+            int expected = (type == Type.LIST) ? 3 : 2;
+            if (parts.length != expected) {
+                throw new IOException("Expected " + (expected - 1) + " arguments for "
+                        + type.name().toLowerCase() + " on line " + lineNo);
+            }
+            operations.add(new Operation(type, Arrays.asList(parts).subList(1, expected)));
+        }
+        return new Workload(operations);
+    }
+
+    /**
+     * Write this workload in the format read by read().
+     *
+     * @param out the PrintWriter to write to
+     */
+    public void write(PrintWriter out) {
+        for (Operation operation : operations) {
+            out.print(operation.getType().name().toLowerCase());
+            for (String argument : operation.getArguments()) {
+                out.print('\t');
+                out.print(argument);
+            }
+            out.println();
+        }
+        out.flush();
+    }
+
+    /**
+     * Record a workload of the template runs and keyword searches logged in the tracker tables
+     * of a userprofile database, in the order they happened.  The tracker tables don't hold the
+     * identifiers uploaded into lists or the XML of path queries, so those operations must be
+     * added to a workload file by hand.
+     *
+     * @param userprofile the userprofile database
+     * @param limit the maximum number of operations to record, the most recent being kept
+     * @return a new Workload
+     * @throws SQLException if the tracker tables can't be read
+     */
+    public static Workload record(Database userprofile, int limit) throws SQLException {
+        List<Operation> operations = new ArrayList<Operation>();
+        Connection con = userprofile.getConnection();
+        try {
+            Statement s = con.createStatement();
+            ResultSet r = s.executeQuery("SELECT type, value FROM ("
+                    + "SELECT 'template' AS type, templatename AS value, timestamp FROM "
+                    + TrackerUtil.TEMPLATE_TRACKER_TABLE
+                    + " UNION ALL SELECT 'search', keyword, timestamp FROM "
+                    + TrackerUtil.SEARCH_TRACKER_TABLE
+                    + " ORDER BY timestamp DESC LIMIT " + limit + ") AS recent"
+                    + " ORDER BY timestamp");
+            while (r.next()) {
+                String value = r.getString(2);
+                if (value != null && value.indexOf('\t') == -1 && value.indexOf('\n') == -1) {
+                    operations.add(new Operation(Type.valueOf(r.getString(1).toUpperCase()),
+                                Collections.singletonList(value)));
+                }
+            }
+        } finally {
+            con.close();
+        }
+        return new Workload(operations);
+    }
+
+    /**
+     * One operation of a workload.
+     */
+    public static final class Operation
+    {
+        private final Type type;
+        private final List<String> arguments;
+
+        /**
+         * Create an operation.
+         *
+         * @param type the type of operation
+         * @param arguments the arguments, as they appear in a workload file
+         */
+        public Operation(Type type, List<String> arguments) {
+            this.type = type;
+            this.arguments = Collections.unmodifiableList(new ArrayList<String>(arguments));
+        }
+
+        /**
+         * @return the type of operation
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return the arguments, as they appear in a workload file
+         */
+        public List<String> getArguments() {
+            return arguments;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return type.name().toLowerCase() + " " + arguments;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.intermine.web.commandline;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void testBuckets() {
+        long previous = -1;
+        for (int i = 0; i < 3000; i++) {
+            long highest = LatencyHistogram.getHighestValue(i);
+            assertTrue(highest > previous);
+            assertEquals(i, LatencyHistogram.getIndex(highest));
+            assertEquals(i, LatencyHistogram.getIndex(previous + 1));
+            previous = highest;
+        }
+        assertEquals(5, LatencyHistogram.getIndex(5));
+        assertEquals(LatencyHistogram.getIndex(1000000), LatencyHistogram.getIndex(1004000));
+        assertTrue(LatencyHistogram.getIndex(1000000) < LatencyHistogram.getIndex(1020000));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50.0));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500.0, histogram.getMean(), 0.001);
+        assertEquals(1000000, histogram.getMax());
+        assertWithin(500000, histogram.getValueAtPercentile(50.0));
+        assertWithin(950000, histogram.getValueAtPercentile(95.0));
+        assertWithin(990000, histogram.getValueAtPercentile(99.0));
+        assertEquals(1000000, histogram.getValueAtPercentile(100.0));
+        List<long[]> buckets = histogram.getBuckets();
+        long total = 0;
+        for (long[] bucket : buckets) {
+            total += bucket[1];
+        }
+        assertEquals(1000, total);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is not close to " + expected,
+                actual >= expected && actual <= expected * 1.016);
+    }
+}
@@ -0,0 +1,62 @@
+package org.intermine.web.commandline;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WorkloadTest
+{
+    private static final String WORKLOAD = "# a comment\n"
+        + "template\tGene_Orthologues\n"
+        + "\n"
+        + "query\t<query model=\"genomic\" view=\"Gene.symbol\"></query>\n"
+        + "list\tGene\teve,zen\n"
+        + "SEARCH\tkinase\n";
+
+    @Test
+    public void testReadWrite() throws Exception {
+        Workload workload = Workload.read(new StringReader(WORKLOAD));
+        List<Workload.Operation> operations = workload.getOperations();
+        assertEquals(4, operations.size());
+        assertEquals(Workload.Type.TEMPLATE, operations.get(0).getType());
+        assertEquals(Arrays.asList("Gene_Orthologues"), operations.get(0).getArguments());
+        assertEquals(Workload.Type.QUERY, operations.get(1).getType());
+        assertEquals(Arrays.asList("Gene", "eve,zen"), operations.get(2).getArguments());
+        assertEquals(Workload.Type.SEARCH, operations.get(3).getType());
+
+        StringWriter written = new StringWriter();
+        workload.write(new PrintWriter(written));
+        Workload reread = Workload.read(new StringReader(written.toString()));
+        assertEquals(operations.toString(), reread.getOperations().toString());
+    }
+
+    @Test
+    public void testBadLines() throws Exception {
+        for (String line : Arrays.asList("dance\tnow", "list\tGene", "search")) {
+            try {
+                Workload.read(new StringReader(line));
+                fail("Expected IOException for " + line);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}